@@ -44,6 +44,8 @@ val keepPatterns = mapOf(
         "it.unimi.dsi.fastutil.longs.Long2ObjectMap",
         "it.unimi.dsi.fastutil.longs.Long2ObjectMaps",
         "it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap",
+        // For the log-structured persistent cache store
+        "it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap",
         // For the configuration cache module
         "it.unimi.dsi.fastutil.objects.ReferenceArrayList",
         "it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet",
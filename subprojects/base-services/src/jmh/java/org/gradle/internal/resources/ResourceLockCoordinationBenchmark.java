@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.lock;
+import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.unlock;
+import static org.gradle.internal.resources.ResourceLockState.Disposition.FINISHED;
+import static org.gradle.internal.resources.ResourceLockState.Disposition.RETRY;
+
+/**
+ * Many threads repeatedly acquiring and releasing exclusive locks, like workers taking project locks.
+ * Fewer locks means more threads blocked waiting for each release.
+ * Compares waiting for the lock to be released with being woken up by every change of the lock state.
+ */
+@Fork(1)
+@Threads(64)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ResourceLockCoordinationBenchmark {
+    private static final ResourceLockContainer NO_OP_CONTAINER = new ResourceLockContainer() {
+        @Override
+        public void lockAcquired(ResourceLock lock) {
+        }
+
+        @Override
+        public void lockReleased(ResourceLock lock) {
+        }
+    };
+
+    @Param({"4", "16", "64"})
+    int lockCount;
+
+    @Param({"true", "false"})
+    boolean registerBlockedOn;
+
+    DefaultResourceLockCoordinationService coordinationService;
+    List<ResourceLock> locks;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        coordinationService = new DefaultResourceLockCoordinationService();
+        locks = new ArrayList<>(lockCount);
+        for (int i = 0; i < lockCount; i++) {
+            locks.add(new ExclusiveAccessResourceLock("lock " + i, coordinationService, NO_OP_CONTAINER));
+        }
+    }
+
+    @Benchmark
+    public void lockAndUnlock() {
+        ResourceLock resourceLock = locks.get(ThreadLocalRandom.current().nextInt(lockCount));
+        if (registerBlockedOn) {
+            coordinationService.withStateLock(lock(resourceLock));
+        } else {
+            coordinationService.withStateLock(resourceLockState -> resourceLock.tryLock() ? FINISHED : RETRY);
+        }
+        // Hold the lock for a little while, as a worker would
+        Blackhole.consumeCPU(1000);
+        coordinationService.withStateLock(unlock(resourceLock));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.work;
+
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.unlock;
+import static org.gradle.internal.resources.ResourceLockState.Disposition.FINISHED;
+import static org.gradle.internal.resources.ResourceLockState.Disposition.RETRY;
+
+/**
+ * Many executor threads competing for fewer worker leases, like the plan executor workers selecting the next item to run.
+ * Compares waiting for a worker lease to be released with being woken up by every change of the lock state.
+ */
+@Fork(1)
+@Threads(64)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WorkerLeaseSelectionBenchmark {
+    @State(Scope.Benchmark)
+    public static class Leases {
+        @Param({"4", "16"})
+        int maxWorkerCount;
+
+        @Param({"true", "false"})
+        boolean registerBlockedOn;
+
+        DefaultResourceLockCoordinationService coordinationService;
+        DefaultWorkerLeaseService workerLeaseService;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            coordinationService = new DefaultResourceLockCoordinationService();
+            workerLeaseService = new DefaultWorkerLeaseService(coordinationService, new DefaultParallelismConfiguration(true, maxWorkerCount));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        WorkerLeaseRegistry.WorkerLease workerLease;
+
+        @Setup(Level.Trial)
+        public void setup(Leases leases) {
+            workerLease = leases.workerLeaseService.newWorkerLease();
+        }
+    }
+
+    @Benchmark
+    public void selectAndRunItem(Leases leases, Worker worker) {
+        WorkerLeaseRegistry.WorkerLease workerLease = worker.workerLease;
+        // Same as DefaultPlanExecutor.ExecutorWorker.getNextItem() when there is work ready to start
+        leases.coordinationService.withStateLock(resourceLockState -> {
+            if (!workerLease.tryLock()) {
+                if (leases.registerBlockedOn) {
+                    resourceLockState.registerBlockedOn(workerLease);
+                }
+                return RETRY;
+            }
+            return FINISHED;
+        });
+        // Run the item
+        Blackhole.consumeCPU(1000);
+        leases.coordinationService.withStateLock(unlock(workerLease));
+    }
+}
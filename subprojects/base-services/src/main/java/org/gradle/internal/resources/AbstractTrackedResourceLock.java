@@ -19,6 +19,8 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+
 public abstract class AbstractTrackedResourceLock implements ResourceLock {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractTrackedResourceLock.class);
 
@@ -90,6 +92,24 @@ private void failIfNotInResourceLockStateChange() {
         }
     }
 
+    /**
+     * Returns the key that threads blocked on this lock wait on. Releasing this lock wakes up the threads waiting on its key.
+     */
+    Object getWaitKey() {
+        return this;
+    }
+
+    /**
+     * Collects the keys of the locks whose release may allow this lock to be acquired.
+     */
+    void collectBlockingWaitKeys(Collection<Object> waitKeys) {
+        waitKeys.add(getWaitKey());
+    }
+
+    static Object waitKeyOf(ResourceLock resourceLock) {
+        return resourceLock instanceof AbstractTrackedResourceLock ? ((AbstractTrackedResourceLock) resourceLock).getWaitKey() : resourceLock;
+    }
+
     abstract protected boolean acquireLock();
 
     abstract protected void releaseLock();
@@ -25,6 +25,12 @@ public DefaultLease(String displayName, ResourceLockCoordinationService coordina
         this.parent = parent;
     }
 
+    @Override
+    Object getWaitKey() {
+        // Any lease granted by the parent frees up a lease for the waiting threads when released
+        return parent;
+    }
+
     @Override
     protected boolean doIsLocked() {
         return ownerThread != null;
@@ -26,47 +26,73 @@
 import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Coordinates changes to resource lock state. Only one thread at a time can change the state.
+ *
+ * <p>
+ * A thread that is blocked acquiring locks using {@link #lock(Iterable)}, or by any transform that registers the locks it failed to acquire
+ * with {@link ResourceLockState#registerBlockedOn(ResourceLock)}, waits only for the release of those locks,
+ * so that releasing a lock does not wake up every waiting thread.
+ * Threads that retry a transform for some other reason are woken up by every state change, as are all threads by {@link #notifyStateChange()}.
+ * </p>
+ */
 public class DefaultResourceLockCoordinationService implements ResourceLockCoordinationService, Closeable {
-    private final Object lock = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
     private final Set<Action<ResourceLock>> releaseHandlers = new LinkedHashSet<Action<ResourceLock>>();
-    private Thread currentOwner;
+    private final Set<Waiter> waitingForAnyChange = new LinkedHashSet<Waiter>();
+    private final Map<Object, Set<Waiter>> waitingForRelease = new HashMap<Object, Set<Waiter>>();
+    // Only written by the owning thread while holding the lock, so that the owning thread can read its state without taking the lock
+    private volatile Thread currentOwner;
     private DefaultResourceLockState currentState;
 
     @Override
     public void close() throws IOException {
-        synchronized (lock) {
+        lock.lock();
+        try {
             if (!releaseHandlers.isEmpty()) {
                 throw new IllegalStateException("Some lock release listeners have not been removed.");
             }
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public void assertHasStateLock() {
-        synchronized (lock) {
-            if (getCurrent() == null) {
-                throw new IllegalStateException();
-            }
+        if (getCurrent() == null) {
+            throw new IllegalStateException();
         }
     }
 
     @Override
     public void addLockReleaseListener(Action<ResourceLock> listener) {
-        synchronized (lock) {
+        lock.lock();
+        try {
             releaseHandlers.add(listener);
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public void removeLockReleaseListener(Action<ResourceLock> listener) {
-        synchronized (lock) {
+        lock.lock();
+        try {
             releaseHandlers.remove(listener);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -96,7 +122,8 @@ public ResourceLockState.Disposition transform(ResourceLockState resourceLockSta
 
     @Override
     public boolean withStateLock(InternalTransformer<ResourceLockState.Disposition, ResourceLockState> stateLockAction) {
-        synchronized (lock) {
+        lock.lock();
+        try {
             DefaultResourceLockState resourceLockState = new DefaultResourceLockState();
             DefaultResourceLockState previous = startOperation(resourceLockState);
             try {
@@ -107,13 +134,10 @@ public boolean withStateLock(InternalTransformer<ResourceLockState.Disposition,
                         case RETRY:
                             resourceLockState.releaseLocks();
                             maybeNotifyStateChange(resourceLockState);
+                            Waiter waiter = new Waiter(resourceLockState.getBlockingWaitKeys());
                             resourceLockState.reset();
                             finishOperation(previous);
-                            try {
-                                lock.wait();
-                            } catch (InterruptedException e) {
-                                throw UncheckedException.throwAsUncheckedException(e);
-                            }
+                            waitForStateChange(waiter);
                             startOperation(resourceLockState);
                             break;
                         case FINISHED:
@@ -132,6 +156,64 @@ public boolean withStateLock(InternalTransformer<ResourceLockState.Disposition,
             } finally {
                 finishOperation(previous);
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void waitForStateChange(Waiter waiter) {
+        if (waiter.waitKeys.isEmpty()) {
+            waitingForAnyChange.add(waiter);
+        } else {
+            for (Object waitKey : waiter.waitKeys) {
+                Set<Waiter> waiters = waitingForRelease.get(waitKey);
+                if (waiters == null) {
+                    waiters = new LinkedHashSet<Waiter>();
+                    waitingForRelease.put(waitKey, waiters);
+                }
+                waiters.add(waiter);
+            }
+        }
+        try {
+            while (!waiter.signalled) {
+                waiter.condition.await();
+            }
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            removeWaiter(waiter);
+        }
+    }
+
+    private void removeWaiter(Waiter waiter) {
+        if (waiter.waitKeys.isEmpty()) {
+            waitingForAnyChange.remove(waiter);
+        } else {
+            for (Object waitKey : waiter.waitKeys) {
+                Set<Waiter> waiters = waitingForRelease.get(waitKey);
+                if (waiters != null) {
+                    waiters.remove(waiter);
+                    if (waiters.isEmpty()) {
+                        waitingForRelease.remove(waitKey);
+                    }
+                }
+            }
+        }
+    }
+
+    private void signalWaitersFor(Collection<ResourceLock> unlockedResources) {
+        for (ResourceLock resource : unlockedResources) {
+            Set<Waiter> waiters = waitingForRelease.get(AbstractTrackedResourceLock.waitKeyOf(resource));
+            if (waiters != null) {
+                signalAll(waiters);
+            }
+        }
+        signalAll(waitingForAnyChange);
+    }
+
+    private static void signalAll(Collection<Waiter> waiters) {
+        for (Waiter waiter : waiters) {
+            waiter.signal();
         }
     }
 
@@ -158,19 +240,18 @@ private void finishOperation(@Nullable DefaultResourceLockState previous) {
 
     @Override
     public ResourceLockState getCurrent() {
-        synchronized (lock) {
-            if (currentOwner != Thread.currentThread()) {
-                return null;
-            } else {
-                return currentState;
-            }
+        // The owner only changes while the owning thread holds the lock, so there is no need to take the lock to check whether this thread is the owner
+        if (currentOwner != Thread.currentThread()) {
+            return null;
+        } else {
+            return currentState;
         }
     }
 
     private void maybeNotifyStateChange(DefaultResourceLockState resourceLockState) {
         Collection<ResourceLock> unlockedResources = resourceLockState.getUnlockedResources();
         if (!unlockedResources.isEmpty()) {
-            notifyStateChange();
+            signalWaitersFor(unlockedResources);
             for (ResourceLock resource : unlockedResources) {
                 for (Action<ResourceLock> releaseHandler : releaseHandlers) {
                     releaseHandler.execute(resource);
@@ -181,14 +262,38 @@ private void maybeNotifyStateChange(DefaultResourceLockState resourceLockState)
 
     @Override
     public void notifyStateChange() {
-        synchronized (lock) {
-            lock.notifyAll();
+        lock.lock();
+        try {
+            signalAll(waitingForAnyChange);
+            for (Set<Waiter> waiters : waitingForRelease.values()) {
+                signalAll(waiters);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class Waiter {
+        final Condition condition = lock.newCondition();
+        final Collection<Object> waitKeys;
+        boolean signalled;
+
+        Waiter(Collection<Object> waitKeys) {
+            this.waitKeys = waitKeys;
+        }
+
+        void signal() {
+            if (!signalled) {
+                signalled = true;
+                condition.signal();
+            }
         }
     }
 
     private static class DefaultResourceLockState implements ResourceLockState {
         private Set<ResourceLock> lockedResources;
         private Set<ResourceLock> unlockedResources;
+        private List<Object> blockingWaitKeys;
         boolean rollback;
 
         @Override
@@ -215,6 +320,22 @@ Collection<ResourceLock> getUnlockedResources() {
             return unlockedResources == null ? Collections.<ResourceLock>emptyList() : unlockedResources;
         }
 
+        @Override
+        public void registerBlockedOn(ResourceLock resourceLock) {
+            if (blockingWaitKeys == null) {
+                blockingWaitKeys = new ArrayList<Object>();
+            }
+            if (resourceLock instanceof AbstractTrackedResourceLock) {
+                ((AbstractTrackedResourceLock) resourceLock).collectBlockingWaitKeys(blockingWaitKeys);
+            } else {
+                blockingWaitKeys.add(resourceLock);
+            }
+        }
+
+        Collection<Object> getBlockingWaitKeys() {
+            return blockingWaitKeys == null ? Collections.emptyList() : new ArrayList<Object>(blockingWaitKeys);
+        }
+
         @Override
         public void releaseLocks() {
             if (lockedResources != null) {
@@ -237,6 +358,7 @@ public void reset() {
             if (unlockedResources != null) {
                 unlockedResources.clear();
             }
+            blockingWaitKeys = null;
             rollback = false;
         }
     }
@@ -296,7 +418,11 @@ private static class AcquireLocks implements InternalTransformer<ResourceLockSta
         public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
             for (ResourceLock resourceLock : resourceLocks) {
                 if (!resourceLock.tryLock()) {
-                    return blocking ? ResourceLockState.Disposition.RETRY : ResourceLockState.Disposition.FAILED;
+                    if (!blocking) {
+                        return ResourceLockState.Disposition.FAILED;
+                    }
+                    resourceLockState.registerBlockedOn(resourceLock);
+                    return ResourceLockState.Disposition.RETRY;
                 }
             }
             return ResourceLockState.Disposition.FINISHED;
@@ -17,7 +17,7 @@
 package org.gradle.internal.resources;
 
 public class LeaseHolder {
-    private final int maxWorkerCount;
+    private int maxWorkerCount;
     private int leasesInUse;
 
     public LeaseHolder(int maxWorkerCount) {
@@ -35,4 +35,16 @@ public boolean grantLease() {
     public void releaseLease() {
         leasesInUse--;
     }
+
+    public int getMaxLeases() {
+        return maxWorkerCount;
+    }
+
+    /**
+     * Changes the number of leases that can be granted. Leases already granted are not revoked when the number is reduced.
+     * Must be called while holding the state lock.
+     */
+    public void setMaxLeases(int maxLeases) {
+        this.maxWorkerCount = maxLeases;
+    }
 }
@@ -38,6 +38,13 @@ enum Disposition { FAILED, FINISHED, RETRY }
      */
     void registerUnlocked(ResourceLock resourceLock);
 
+    /**
+     * Registers a resource lock that the transform failed to acquire, so that when the transform returns {@link Disposition#RETRY}
+     * the coordination service retries it once the lock has been released.
+     * A transform that returns {@link Disposition#RETRY} without registering any lock is retried on every change of the lock state.
+     */
+    void registerBlockedOn(ResourceLock resourceLock);
+
     /**
      * Release any locks that have been acquired during the transform.
      */
@@ -16,6 +16,8 @@
 
 package org.gradle.internal.resources;
 
+import java.util.Collection;
+
 public class TaskExecutionLock extends ExclusiveAccessResourceLock {
     private final ProjectLock stateLock;
 
@@ -24,6 +26,12 @@ public TaskExecutionLock(String displayName, ProjectLock stateLock, ResourceLock
         this.stateLock = stateLock;
     }
 
+    @Override
+    void collectBlockingWaitKeys(Collection<Object> waitKeys) {
+        super.collectBlockingWaitKeys(waitKeys);
+        stateLock.collectBlockingWaitKeys(waitKeys);
+    }
+
     @Override
     protected boolean canAcquire() {
         return stateLock.isLockedByCurrentThread() || stateLock.tryLock();
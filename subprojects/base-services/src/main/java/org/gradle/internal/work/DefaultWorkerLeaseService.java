@@ -96,6 +96,38 @@ public int getMaxWorkerCount() {
         return maxWorkerCount;
     }
 
+    /**
+     * Returns the number of worker leases that can currently be granted. This is at most {@link #getMaxWorkerCount()}.
+     */
+    public int getWorkerLeaseLimit() {
+        return coordinationService.withStateLock(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return workerLeaseLockRegistry.root.getMaxLeases();
+            }
+        });
+    }
+
+    /**
+     * Changes the number of worker leases that can be granted, between 1 and {@link #getMaxWorkerCount()}.
+     * Workers holding a lease keep it when the limit is reduced, new leases are granted once enough of them are released.
+     */
+    public void setWorkerLeaseLimit(int limit) {
+        final int newLimit = Math.max(1, Math.min(limit, maxWorkerCount));
+        boolean increased = coordinationService.withStateLock(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                int oldLimit = workerLeaseLockRegistry.root.getMaxLeases();
+                workerLeaseLockRegistry.root.setMaxLeases(newLimit);
+                return newLimit > oldLimit;
+            }
+        });
+        if (increased) {
+            // Wake up any threads waiting for a lease
+            coordinationService.notifyStateChange();
+        }
+    }
+
     @Override
     public WorkerLease getCurrentWorkerLease() {
         List<? extends WorkerLease> operations = workerLeaseLockRegistry.getResourceLocksByCurrentThread();
@@ -21,6 +21,8 @@ import org.gradle.internal.InternalTransformer
 import org.gradle.test.fixtures.ConcurrentTestUtil
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 
+import java.util.concurrent.atomic.AtomicInteger
+
 import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.lock
 import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.tryLock
 import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.unlock
@@ -112,6 +114,122 @@ class DefaultResourceLockCoordinationServiceTest extends ConcurrentSpec {
         lock2.lockedState
     }
 
+    def "thread blocked on a lock is woken only when that lock is released"() {
+        def lock1 = resourceLock("lock1", true)
+        def lock2 = resourceLock("lock2", true)
+        def attempts = new AtomicInteger()
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new InternalTransformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            return lock(lock1).transform(resourceLockState)
+                        } finally {
+                            instant."attempt${attempts.incrementAndGet()}"
+                        }
+                    }
+                })
+                assert lock1.doIsLockedByCurrentThread()
+            }
+
+            thread.blockUntil.attempt1
+            lock2.lockedState = false
+            coordinationService.withStateLock { state ->
+                state.registerUnlocked(lock2)
+                return FINISHED
+            }
+            thread.block()
+            assert attempts.get() == 1
+
+            lock1.lockedState = false
+            coordinationService.withStateLock { state ->
+                state.registerUnlocked(lock1)
+                return FINISHED
+            }
+            thread.blockUntil.attempt2
+        }
+
+        then:
+        attempts.get() == 2
+        lock1.lockedState
+    }
+
+    def "transform that registers the lock it is blocked on is woken only when that lock is released"() {
+        def lock1 = resourceLock("lock1", true)
+        def lock2 = resourceLock("lock2", true)
+        def attempts = new AtomicInteger()
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new InternalTransformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            if (!lock1.tryLock()) {
+                                resourceLockState.registerBlockedOn(lock1)
+                                return RETRY
+                            }
+                            return FINISHED
+                        } finally {
+                            instant."attempt${attempts.incrementAndGet()}"
+                        }
+                    }
+                })
+            }
+
+            thread.blockUntil.attempt1
+            lock2.lockedState = false
+            coordinationService.withStateLock { state ->
+                state.registerUnlocked(lock2)
+                return FINISHED
+            }
+            thread.block()
+            assert attempts.get() == 1
+
+            lock1.lockedState = false
+            coordinationService.withStateLock { state ->
+                state.registerUnlocked(lock1)
+                return FINISHED
+            }
+            thread.blockUntil.attempt2
+        }
+
+        then:
+        attempts.get() == 2
+        lock1.lockedState
+    }
+
+    def "thread blocked on a lock is woken when state change is notified"() {
+        def lock1 = resourceLock("lock1", true)
+        def attempts = new AtomicInteger()
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new InternalTransformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        if (attempts.incrementAndGet() == 1) {
+                            instant.blocked
+                            return lock(lock1).transform(resourceLockState)
+                        }
+                        return FINISHED
+                    }
+                })
+            }
+
+            thread.blockUntil.blocked
+            coordinationService.notifyStateChange()
+        }
+
+        then:
+        attempts.get() == 2
+    }
+
     def "can nest multiple calls to withStateLock"() {
         def lock = [
             resourceLock("lock1"),
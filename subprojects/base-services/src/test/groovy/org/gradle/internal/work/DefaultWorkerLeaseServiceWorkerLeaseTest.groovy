@@ -472,4 +472,88 @@ class DefaultWorkerLeaseServiceWorkerLeaseTest extends AbstractWorkerLeaseServic
         then:
         noExceptionThrown()
     }
+
+    def "worker start blocks when the worker lease limit has been reduced"() {
+        def registry = workerLeaseService(2)
+
+        when:
+        registry.workerLeaseLimit = 1
+        async {
+            start {
+                def cl = registry.startWorker()
+                instant.worker1
+                thread.block()
+                instant.worker1Finished
+                cl.leaseFinish()
+            }
+            start {
+                thread.blockUntil.worker1
+                def cl = registry.startWorker()
+                instant.worker2
+                cl.leaseFinish()
+            }
+        }
+
+        then:
+        instant.worker2 > instant.worker1Finished
+
+        cleanup:
+        registry?.stop()
+    }
+
+    def "raising the worker lease limit starts a blocked worker"() {
+        def registry = workerLeaseService(2)
+        registry.workerLeaseLimit = 1
+
+        when:
+        async {
+            start {
+                def cl = registry.startWorker()
+                instant.worker1
+                thread.blockUntil.worker2
+                cl.leaseFinish()
+            }
+            start {
+                thread.blockUntil.worker1
+                def cl = registry.startWorker()
+                instant.worker2
+                cl.leaseFinish()
+            }
+            start {
+                thread.blockUntil.worker1
+                thread.block()
+                instant.limitRaised
+                registry.workerLeaseLimit = 2
+            }
+        }
+
+        then:
+        instant.worker2 > instant.limitRaised
+
+        cleanup:
+        registry?.stop()
+    }
+
+    def "worker lease limit stays between one and the max worker count"() {
+        def registry = workerLeaseService(4)
+
+        expect:
+        registry.workerLeaseLimit == 4
+
+        when:
+        registry.workerLeaseLimit = 0
+
+        then:
+        registry.workerLeaseLimit == 1
+
+        when:
+        registry.workerLeaseLimit = 10
+
+        then:
+        registry.workerLeaseLimit == 4
+        registry.maxWorkerCount == 4
+
+        cleanup:
+        registry?.stop()
+    }
 }
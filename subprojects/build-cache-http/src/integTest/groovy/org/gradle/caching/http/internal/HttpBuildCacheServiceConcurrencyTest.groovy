@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.http.internal
+
+import org.apache.http.HttpStatus
+import org.apache.http.HttpVersion
+import org.apache.http.message.BasicStatusLine
+import org.gradle.caching.BuildCacheException
+import org.gradle.caching.internal.DefaultBuildCacheKey
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.resource.transport.http.HttpClientHelper
+import org.gradle.internal.resource.transport.http.HttpClientResponse
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class HttpBuildCacheServiceConcurrencyTest extends Specification {
+    def httpClientHelper = Mock(HttpClientHelper)
+    def key = new DefaultBuildCacheKey(HashCode.fromString("01234567abcdef"))
+    def executor = Executors.newFixedThreadPool(8)
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "bounds the number of requests in flight"() {
+        def service = new HttpBuildCacheService(httpClientHelper, new URI("http://localhost/cache/"), {}, false, 2)
+        def inFlight = new AtomicInteger()
+        def maxInFlight = new AtomicInteger()
+        def twoStarted = new CountDownLatch(2)
+        def finishRequests = new CountDownLatch(1)
+        def response = notFound()
+        httpClientHelper.performHttpRequest(_) >> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), { a, b -> Math.max(a, b) })
+            twoStarted.countDown()
+            finishRequests.await()
+            inFlight.decrementAndGet()
+            response
+        }
+
+        when:
+        def results = (1..6).collect { executor.submit { service.contains(key) } }
+        twoStarted.await(10, TimeUnit.SECONDS)
+        Thread.sleep(100)
+
+        then:
+        inFlight.get() == 2
+
+        when:
+        finishRequests.countDown()
+
+        then:
+        results.every { !it.get(10, TimeUnit.SECONDS) }
+        maxInFlight.get() == 2
+    }
+
+    def "releases the request permit when a request fails"() {
+        def service = new HttpBuildCacheService(httpClientHelper, new URI("http://localhost/cache/"), {}, false, 1)
+
+        when:
+        service.contains(key)
+
+        then:
+        1 * httpClientHelper.performHttpRequest(_) >> { throw new IOException("broken") }
+        thrown(BuildCacheException)
+
+        when:
+        def found = service.contains(key)
+
+        then:
+        1 * httpClientHelper.performHttpRequest(_) >> notFound()
+        !found
+    }
+
+    private HttpClientResponse notFound() {
+        Stub(HttpClientResponse) {
+            getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_FOUND, "Not Found")
+        }
+    }
+}
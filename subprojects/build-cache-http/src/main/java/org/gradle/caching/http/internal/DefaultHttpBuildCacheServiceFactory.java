@@ -46,6 +46,7 @@
 public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFactory<HttpBuildCache> {
 
     private static final int MAX_REDIRECTS = Integer.getInteger("org.gradle.cache.http.max-redirects", 10);
+    private static final int MAX_CONCURRENT_REQUESTS = Integer.getInteger("org.gradle.cache.http.max-concurrent-requests", 32);
 
     private final SslContextFactory sslContextFactory;
     private final HttpBuildCacheRequestCustomizer requestCustomizer;
@@ -113,7 +114,7 @@ public BuildCacheService createBuildCacheService(HttpBuildCache configuration, D
             .config("allowInsecureProtocol", Boolean.toString(allowInsecureProtocol))
             .config("useExpectContinue", Boolean.toString(useExpectContinue));
 
-        return new HttpBuildCacheService(httpClientHelper, noUserInfoUrl, requestCustomizer, useExpectContinue);
+        return new HttpBuildCacheService(httpClientHelper, noUserInfoUrl, requestCustomizer, useExpectContinue, MAX_CONCURRENT_REQUESTS);
     }
 
     private HttpRedirectVerifier createRedirectVerifier(URI url, boolean allowInsecureProtocol) {
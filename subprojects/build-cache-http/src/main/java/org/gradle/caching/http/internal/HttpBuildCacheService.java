@@ -44,9 +44,15 @@
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 /**
  * Build cache implementation that delegates to a service accessible via HTTP.
+ *
+ * <p>
+ * The number of requests in flight is bounded independently of the size of the HTTP connection pool.
+ * Requests beyond the limit wait until a running request has finished, including reading a loaded entry.
+ * </p>
  */
 public class HttpBuildCacheService implements NextGenBuildCacheService {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpBuildCacheService.class);
@@ -67,12 +73,14 @@ public class HttpBuildCacheService implements NextGenBuildCacheService {
     private final HttpClientHelper httpClientHelper;
     private final HttpBuildCacheRequestCustomizer requestCustomizer;
     private final boolean useExpectContinue;
+    private final Semaphore requestsInFlight;
 
-    public HttpBuildCacheService(HttpClientHelper httpClientHelper, URI url, HttpBuildCacheRequestCustomizer requestCustomizer, boolean useExpectContinue) {
+    public HttpBuildCacheService(HttpClientHelper httpClientHelper, URI url, HttpBuildCacheRequestCustomizer requestCustomizer, boolean useExpectContinue, int maxConcurrentRequests) {
         this.requestCustomizer = requestCustomizer;
         this.useExpectContinue = useExpectContinue;
         this.root = withTrailingSlash(url);
         this.httpClientHelper = httpClientHelper;
+        this.requestsInFlight = new Semaphore(maxConcurrentRequests);
     }
 
     @Override
@@ -81,6 +89,7 @@ public boolean contains(BuildCacheKey key) {
         HttpHead httpHead = new HttpHead(uri);
         requestCustomizer.customize(httpHead);
 
+        acquireRequestPermit();
         try (HttpClientResponse response = httpClientHelper.performHttpRequest(httpHead)) {
             StatusLine statusLine = response.getStatusLine();
             if (LOGGER.isDebugEnabled()) {
@@ -97,6 +106,8 @@ public boolean contains(BuildCacheKey key) {
             }
         } catch (IOException e) {
             throw wrap(e);
+        } finally {
+            requestsInFlight.release();
         }
     }
 
@@ -107,6 +118,7 @@ public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws Buil
         httpGet.addHeader(HttpHeaders.ACCEPT, BUILD_CACHE_CONTENT_TYPE + ", */*");
         requestCustomizer.customize(httpGet);
 
+        acquireRequestPermit();
         try (HttpClientResponse response = httpClientHelper.performHttpRequest(httpGet)) {
             StatusLine statusLine = response.getStatusLine();
             if (LOGGER.isDebugEnabled()) {
@@ -124,6 +136,8 @@ public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws Buil
             }
         } catch (IOException e) {
             throw wrap(e);
+        } finally {
+            requestsInFlight.release();
         }
     }
 
@@ -163,6 +177,7 @@ public boolean isStreaming() {
                 return false;
             }
         });
+        acquireRequestPermit();
         try (HttpClientResponse response = httpClientHelper.performHttpRequest(httpPut)) {
             StatusLine statusLine = response.getStatusLine();
             if (LOGGER.isDebugEnabled()) {
@@ -177,6 +192,17 @@ public boolean isStreaming() {
             throw wrap(e.getCause());
         } catch (IOException e) {
             throw wrap(e);
+        } finally {
+            requestsInFlight.release();
+        }
+    }
+
+    private void acquireRequestPermit() {
+        try {
+            requestsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw UncheckedException.throwAsUncheckedException(e);
         }
     }
 
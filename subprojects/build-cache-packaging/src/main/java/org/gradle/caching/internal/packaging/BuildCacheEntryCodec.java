@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses and decompresses build cache entries.
+ *
+ * <p>
+ * Codecs are registered with {@link BuildCacheEntryCodecs}, which records the {@link #getId() id}
+ * of the codec in the header of each entry. This way entries written with different codecs can be
+ * stored in the same cache, and entries can always be read regardless of the codec configured
+ * for writing.
+ * </p>
+ *
+ * <p>
+ * Besides the built-in codecs, Gradle uses the implementations of this interface registered as services
+ * ({@code META-INF/services/org.gradle.caching.internal.packaging.BuildCacheEntryCodec}) on its plugins classpath.
+ * </p>
+ */
+public interface BuildCacheEntryCodec {
+    /**
+     * Identifies the codec in entry headers, in the range 0 to 255.
+     * Must not change once entries have been written with the codec.
+     */
+    int getId();
+
+    /**
+     * The name used to select the codec.
+     */
+    String getName();
+
+    OutputStream compress(OutputStream output) throws IOException;
+
+    InputStream decompress(InputStream input) throws IOException;
+
+    /**
+     * A compressing stream that can reset its compression state,
+     * so that the output following the reset does not depend on the input before it.
+     */
+    interface ResettableOutputStream {
+        void resetCompression() throws IOException;
+    }
+}
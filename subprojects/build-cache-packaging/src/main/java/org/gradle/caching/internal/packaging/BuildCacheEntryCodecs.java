@@ -0,0 +1,257 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The codecs available to compress build cache entries.
+ *
+ * <p>
+ * Compressed entries start with a four byte header: a zero byte, the characters {@code GC},
+ * and the id of the codec. Entries written before codecs were introduced are either plain GZip
+ * or uncompressed; they are detected by their first bytes, neither of them can start with a zero byte.
+ * </p>
+ *
+ * <p>
+ * The built-in codecs are all based on Deflate, as that is what the JDK provides.
+ * Other codecs, like LZ4 or Zstandard, can be added via {@link #withBuiltIn(Collection)}.
+ * Gradle discovers them as services implementing {@link BuildCacheEntryCodec} on its plugins classpath.
+ * </p>
+ */
+public class BuildCacheEntryCodecs {
+    /**
+     * The codec to compress entries with, by name.
+     */
+    public static final String CODEC_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.codec";
+
+    /**
+     * The codec to compress entries stored in the remote cache with, if different from {@link #CODEC_SYSTEM_PROPERTY}.
+     */
+    public static final String REMOTE_CODEC_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.codec.remote";
+
+    public static final BuildCacheEntryCodec NONE = new NoCompressionCodec();
+    public static final BuildCacheEntryCodec GZIP = new GZipCodec(1, "gzip", Deflater.DEFAULT_COMPRESSION);
+    public static final BuildCacheEntryCodec GZIP_FAST = new GZipCodec(2, "gzip-fast", Deflater.BEST_SPEED);
+    public static final BuildCacheEntryCodec GZIP_BEST = new GZipCodec(3, "gzip-best", Deflater.BEST_COMPRESSION);
+
+    private static final int HEADER_LENGTH = 4;
+    private static final int HEADER_MARKER = 0;
+    private static final int HEADER_FIRST_MAGIC_BYTE = 'G';
+    private static final int HEADER_SECOND_MAGIC_BYTE = 'C';
+    private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+    private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+
+    private final BuildCacheEntryCodec[] codecsById = new BuildCacheEntryCodec[256];
+    private final Map<String, BuildCacheEntryCodec> codecsByName;
+
+    public BuildCacheEntryCodecs(Collection<? extends BuildCacheEntryCodec> codecs) {
+        ImmutableMap.Builder<String, BuildCacheEntryCodec> codecsByName = ImmutableMap.builder();
+        for (BuildCacheEntryCodec codec : codecs) {
+            int id = codec.getId();
+            if (id < 0 || id >= codecsById.length) {
+                throw new IllegalArgumentException(String.format("Id of codec '%s' must be between 0 and 255, but was %d", codec.getName(), id));
+            }
+            if (codecsById[id] != null) {
+                throw new IllegalArgumentException(String.format("Codecs '%s' and '%s' have the same id %d", codecsById[id].getName(), codec.getName(), id));
+            }
+            codecsById[id] = codec;
+            codecsByName.put(codec.getName(), codec);
+        }
+        this.codecsByName = codecsByName.build();
+    }
+
+    public static BuildCacheEntryCodecs builtIn() {
+        return withBuiltIn(ImmutableList.of());
+    }
+
+    /**
+     * Returns the built-in codecs together with the given ones, which must use ids and names not taken by the built-in codecs.
+     */
+    public static BuildCacheEntryCodecs withBuiltIn(Collection<? extends BuildCacheEntryCodec> additionalCodecs) {
+        return new BuildCacheEntryCodecs(ImmutableList.<BuildCacheEntryCodec>builder()
+            .add(NONE, GZIP, GZIP_FAST, GZIP_BEST)
+            .addAll(additionalCodecs)
+            .build());
+    }
+
+    public BuildCacheEntryCodec getCodec(String name) {
+        BuildCacheEntryCodec codec = codecsByName.get(name.toLowerCase(Locale.ROOT));
+        if (codec == null) {
+            throw new IllegalArgumentException(String.format("Unknown build cache entry codec '%s'. Available codecs are: %s", name, String.join(", ", codecsByName.keySet())));
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the codec configured via the given system property, if any.
+     */
+    @Nullable
+    public BuildCacheEntryCodec getConfiguredCodec(String systemProperty) {
+        String name = System.getProperty(systemProperty);
+        return name == null ? null : getCodec(name);
+    }
+
+    /**
+     * Returns the codec configured via {@link #CODEC_SYSTEM_PROPERTY}, or {@link #GZIP} if none is configured.
+     */
+    public BuildCacheEntryCodec getConfiguredCodecOrDefault() {
+        BuildCacheEntryCodec codec = getConfiguredCodec(CODEC_SYSTEM_PROPERTY);
+        return codec != null ? codec : GZIP;
+    }
+
+    /**
+     * Writes the header for the given codec, and returns a stream compressing the data written to it with the codec.
+     */
+    public OutputStream compress(OutputStream output, BuildCacheEntryCodec codec) throws IOException {
+        output.write(HEADER_MARKER);
+        output.write(HEADER_FIRST_MAGIC_BYTE);
+        output.write(HEADER_SECOND_MAGIC_BYTE);
+        output.write(codec.getId());
+        return codec.compress(output);
+    }
+
+    /**
+     * Returns a stream decompressing the given entry with the codec recorded in its header.
+     */
+    public InputStream decompress(InputStream input) throws IOException {
+        BufferedInputStream bufferedInput = new BufferedInputStream(input);
+        return detectCodec(bufferedInput).decompress(bufferedInput);
+    }
+
+    /**
+     * Returns a transcoder that converts entries compressed with any of these codecs, or written without a header, to the given codec.
+     * The converted entries always have a header, like the ones written by {@link #compress(OutputStream, BuildCacheEntryCodec)}.
+     */
+    public BuildCacheEntryTranscoder transcoderTo(BuildCacheEntryCodec codec) {
+        return (entry, output) -> {
+            try (InputStream decompressedInput = decompress(entry); OutputStream compressedOutput = compress(output, codec)) {
+                IOUtils.copyLarge(decompressedInput, compressedOutput);
+            }
+        };
+    }
+
+    /**
+     * Determines the codec of an entry, skipping its header if it has one.
+     *
+     * Entries without a header are GZip or uncompressed.
+     */
+    public BuildCacheEntryCodec detectCodec(InputStream input) throws IOException {
+        if (!input.markSupported()) {
+            throw new IllegalArgumentException("Input must support mark");
+        }
+        byte[] header = new byte[HEADER_LENGTH];
+        input.mark(HEADER_LENGTH);
+        int length = IOUtils.read(input, header);
+        if (length == HEADER_LENGTH && header[0] == HEADER_MARKER && header[1] == HEADER_FIRST_MAGIC_BYTE && header[2] == HEADER_SECOND_MAGIC_BYTE) {
+            BuildCacheEntryCodec codec = codecsById[header[3] & 0xff];
+            if (codec == null) {
+                throw new IOException("Build cache entry was compressed with an unknown codec (id " + (header[3] & 0xff) + ")");
+            }
+            return codec;
+        }
+        input.reset();
+        if (length > 0 && header[0] == HEADER_MARKER) {
+            throw new IOException("Invalid build cache entry header");
+        }
+        boolean gzip = length >= 2 && (header[0] & 0xff) == GZIP_MAGIC_FIRST_BYTE && (header[1] & 0xff) == GZIP_MAGIC_SECOND_BYTE;
+        return gzip ? GZIP : NONE;
+    }
+
+    private static class NoCompressionCodec implements BuildCacheEntryCodec {
+        @Override
+        public int getId() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "none";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return input;
+        }
+    }
+
+    private static class GZipCodec implements BuildCacheEntryCodec {
+        private final int id;
+        private final String name;
+        private final int level;
+
+        public GZipCodec(int id, String name, int level) {
+            this.id = id;
+            this.name = name;
+            this.level = level;
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new ResettableGZIPOutputStream(output, level);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) throws IOException {
+            return new GZIPInputStream(input);
+        }
+    }
+
+    private static class ResettableGZIPOutputStream extends GZIPOutputStream implements BuildCacheEntryCodec.ResettableOutputStream {
+        public ResettableGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+
+        @Override
+        public void resetCompression() throws IOException {
+            int length;
+            while ((length = def.deflate(buf, 0, buf.length, Deflater.FULL_FLUSH)) > 0) {
+                out.write(buf, 0, length);
+            }
+        }
+    }
+}
@@ -23,6 +23,8 @@
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -45,6 +47,17 @@ public long getEntries() {
 
     UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException;
 
+    /**
+     * Unpacks a cache entry stored in a file.
+     *
+     * Implementations can override this to access the file directly instead of streaming its contents.
+     */
+    default UnpackResult unpack(CacheableEntity entity, File entryFile, OriginReader readOrigin) throws IOException {
+        try (InputStream input = new FileInputStream(entryFile)) {
+            return unpack(entity, input, readOrigin);
+        }
+    }
+
     class UnpackResult {
         private final OriginMetadata originMetadata;
         private final long entries;
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging;
+
+import java.util.Locale;
+
+/**
+ * Determines how regular files are restored from build cache entries.
+ *
+ * <p>
+ * Strategies other than {@link #COPY} can only avoid copying file contents through the heap
+ * if the cache entry is available as an uncompressed file. When such a strategy is selected,
+ * entries are therefore stored without compression, and the content hash of each file is stored
+ * in the entry, so that restored files do not have to be hashed again.
+ * Compressed entries stored before the strategy was changed can still be restored.
+ * Entries stored in a remote cache are still compressed.
+ * </p>
+ */
+public enum FileRestoreStrategy {
+    /**
+     * Copy the contents of each file through a heap buffer while hashing them.
+     */
+    COPY,
+
+    /**
+     * Transfer the contents of each file from the cache entry with {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * letting the operating system copy (or, on some file systems, clone) the data without going through user space.
+     */
+    TRANSFER,
+
+    /**
+     * Hard link each file to a content-addressed copy in a link directory, falling back to {@link #TRANSFER}
+     * when the link cannot be created, for example because the link directory is on a different file system.
+     *
+     * <p>
+     * Restored files share their contents with the link directory. Copies are verified against the stored content hash when they are created.
+     * A copy whose length has been changed through one of its links is replaced, but other files linked to it see the modification.
+     * </p>
+     */
+    LINK;
+
+    public static final String RESTORE_STRATEGY_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.restore-strategy";
+
+    public static FileRestoreStrategy getConfiguredStrategy() {
+        String strategy = System.getProperty(RESTORE_STRATEGY_SYSTEM_PROPERTY);
+        if (strategy == null) {
+            return COPY;
+        }
+        try {
+            return valueOf(strategy.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid value for %s: '%s'. Valid values are 'copy', 'transfer' and 'link'.", RESTORE_STRATEGY_SYSTEM_PROPERTY, strategy), e);
+        }
+    }
+
+    /**
+     * Whether restoring files with this strategy requires uncompressed cache entries.
+     */
+    public boolean requiresUncompressedEntries() {
+        return this != COPY;
+    }
+}
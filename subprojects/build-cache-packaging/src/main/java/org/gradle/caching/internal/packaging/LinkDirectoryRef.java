@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging;
+
+import javax.annotation.Nullable;
+import java.io.File;
+
+/**
+ * The directory with the content-addressed copies that files restored via {@link FileRestoreStrategy#LINK} are linked to.
+ *
+ * <p>
+ * The directory lives in the local directory build cache, whose cleanup removes the copies no file is linked to anymore.
+ * It is set when the local build cache is created. Until then, or when there is no local directory build cache, files are not linked.
+ * </p>
+ */
+public class LinkDirectoryRef {
+    private volatile File linkDirectory;
+
+    public void set(File linkDirectory) {
+        this.linkDirectory = linkDirectory;
+    }
+
+    @Nullable
+    public File get() {
+        return linkDirectory;
+    }
+}
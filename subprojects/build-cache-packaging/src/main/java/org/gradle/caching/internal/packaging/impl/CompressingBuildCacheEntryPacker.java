@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.origin.OriginReader;
+import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodec;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Compresses build cache entries with a {@link BuildCacheEntryCodec}.
+ *
+ * <p>
+ * Unpacking detects the codec an entry was compressed with, so entries compressed with any registered codec can be unpacked.
+ * Uncompressed entries are written without a codec header, so that they can be accessed directly,
+ * see {@link BuildCacheEntryPacker#unpack(CacheableEntity, File, OriginReader)}.
+ * Entries can be converted to another codec with {@link BuildCacheEntryCodecs#transcoderTo(BuildCacheEntryCodec)}.
+ * </p>
+ */
+public class CompressingBuildCacheEntryPacker implements BuildCacheEntryPacker {
+    private final BuildCacheEntryPacker delegate;
+    private final BuildCacheEntryCodecs codecs;
+    private final BuildCacheEntryCodec codec;
+
+    public CompressingBuildCacheEntryPacker(BuildCacheEntryPacker delegate, BuildCacheEntryCodecs codecs, BuildCacheEntryCodec codec) {
+        this.delegate = delegate;
+        this.codecs = codecs;
+        this.codec = codec;
+    }
+
+    @Override
+    public PackResult pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, OutputStream output, OriginWriter writeOrigin) throws IOException {
+        try (OutputStream compressedOutput = compress(output)) {
+            return delegate.pack(entity, snapshots, compressedOutput, writeOrigin);
+        }
+    }
+
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+        BufferedInputStream bufferedInput = new BufferedInputStream(input);
+        BuildCacheEntryCodec entryCodec = codecs.detectCodec(bufferedInput);
+        try (InputStream decompressedInput = entryCodec.decompress(bufferedInput)) {
+            return delegate.unpack(entity, decompressedInput, readOrigin);
+        }
+    }
+
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, File entryFile, OriginReader readOrigin) throws IOException {
+        return isUncompressedWithoutHeader(entryFile)
+            ? delegate.unpack(entity, entryFile, readOrigin)
+            : BuildCacheEntryPacker.super.unpack(entity, entryFile, readOrigin);
+    }
+
+    private OutputStream compress(OutputStream output) throws IOException {
+        return codec == BuildCacheEntryCodecs.NONE
+            ? output
+            : codecs.compress(output, codec);
+    }
+
+    private boolean isUncompressedWithoutHeader(File entryFile) throws IOException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(entryFile))) {
+            input.mark(1);
+            int first = input.read();
+            input.reset();
+            // Entries with a codec header start with a zero byte
+            return first > 0 && codecs.detectCodec(input) == BuildCacheEntryCodecs.NONE;
+        }
+    }
+}
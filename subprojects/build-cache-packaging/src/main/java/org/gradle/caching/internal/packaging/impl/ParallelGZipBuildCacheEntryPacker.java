@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.origin.OriginReader;
+import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Compresses build cache entries with GZip, using multiple threads.
+ *
+ * <p>
+ * The packed data is split into blocks which are compressed concurrently into separate GZip members, see {@link ParallelGZipFormat}.
+ * When unpacking, the members are inflated concurrently ahead of the delegate consuming the data.
+ * The entries are valid GZip, so they can be unpacked by {@link CompressingBuildCacheEntryPacker}, too.
+ * Entries not packed by this packer are unpacked via {@link CompressingBuildCacheEntryPacker}.
+ * </p>
+ */
+public class ParallelGZipBuildCacheEntryPacker implements BuildCacheEntryPacker, Closeable {
+    public static final String PARALLEL_PACKING_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.parallel-packing";
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final BuildCacheEntryPacker delegate;
+    private final BuildCacheEntryPacker sequentialPacker;
+    private final ExecutorService executor;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+
+    /**
+     * @param executor the executor to compress blocks with; shut down when this packer is closed.
+     * @param parallelism the number of blocks to compress concurrently.
+     * @param blockSize the size of the blocks to compress, and the largest block size accepted when unpacking.
+     */
+    public ParallelGZipBuildCacheEntryPacker(BuildCacheEntryPacker delegate, BuildCacheEntryCodecs codecs, ExecutorService executor, int parallelism, int blockSize) {
+        this.delegate = delegate;
+        this.sequentialPacker = new CompressingBuildCacheEntryPacker(delegate, codecs, BuildCacheEntryCodecs.GZIP);
+        this.executor = executor;
+        this.blockSize = blockSize;
+        // Keep some blocks buffered so workers don't wait for the packing thread
+        this.maxPendingBlocks = 2 * parallelism;
+    }
+
+    public static boolean isParallelPackingEnabled() {
+        return Boolean.getBoolean(PARALLEL_PACKING_SYSTEM_PROPERTY);
+    }
+
+    @Override
+    public PackResult pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, OutputStream output, OriginWriter writeOrigin) throws IOException {
+        try (ParallelGZipOutputStream compressedOutput = new ParallelGZipOutputStream(output, executor, blockSize, maxPendingBlocks)) {
+            return delegate.pack(entity, snapshots, compressedOutput, writeOrigin);
+        }
+    }
+
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+        BufferedInputStream bufferedInput = new BufferedInputStream(input);
+        if (!isPackedInParallel(bufferedInput)) {
+            return sequentialPacker.unpack(entity, bufferedInput, readOrigin);
+        }
+        try (ParallelGZipInputStream compressedInput = new ParallelGZipInputStream(bufferedInput, executor, blockSize, maxPendingBlocks)) {
+            return delegate.unpack(entity, compressedInput, readOrigin);
+        }
+    }
+
+    private static boolean isPackedInParallel(InputStream input) throws IOException {
+        byte[] header = new byte[ParallelGZipFormat.HEADER_LENGTH];
+        input.mark(header.length);
+        try {
+            int length = 0;
+            while (length < header.length) {
+                int count = input.read(header, length, header.length - length);
+                if (count < 0) {
+                    break;
+                }
+                length += count;
+            }
+            return ParallelGZipFormat.isMemberHeader(header, length);
+        } finally {
+            input.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
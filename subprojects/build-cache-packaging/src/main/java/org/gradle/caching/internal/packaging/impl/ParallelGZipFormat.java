@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A multi-member GZip format where each member compresses an independent block of data.
+ *
+ * <p>
+ * Each member carries its own compressed length in an extra field of its header (similar to BGZF),
+ * so members can be split off the stream without inflating them, and then be inflated concurrently.
+ * As the format is valid GZip, it can also be read by {@link java.util.zip.GZIPInputStream}.
+ * </p>
+ */
+class ParallelGZipFormat {
+    private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+    private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+    private static final int DEFLATE_METHOD = 8;
+    private static final int FLAG_EXTRA = 4;
+    private static final int OS_UNKNOWN = 255;
+    private static final int EXTRA_LENGTH = 8;
+    private static final int SUBFIELD_ID_FIRST_BYTE = 'G';
+    private static final int SUBFIELD_ID_SECOND_BYTE = 'B';
+    private static final int SUBFIELD_LENGTH = 4;
+
+    static final int HEADER_LENGTH = 10 + 2 + EXTRA_LENGTH;
+    static final int TRAILER_LENGTH = 8;
+
+    private ParallelGZipFormat() {
+    }
+
+    /**
+     * Returns whether the given bytes are the start of a member written by {@link #compressMember(byte[], int)}.
+     */
+    static boolean isMemberHeader(byte[] header, int length) {
+        return length >= HEADER_LENGTH
+            && (header[0] & 0xff) == GZIP_MAGIC_FIRST_BYTE
+            && (header[1] & 0xff) == GZIP_MAGIC_SECOND_BYTE
+            && header[2] == DEFLATE_METHOD
+            && header[3] == FLAG_EXTRA
+            && readShort(header, 10) == EXTRA_LENGTH
+            && header[12] == SUBFIELD_ID_FIRST_BYTE
+            && header[13] == SUBFIELD_ID_SECOND_BYTE
+            && readShort(header, 14) == SUBFIELD_LENGTH;
+    }
+
+    /**
+     * Compresses a block of data into a complete GZip member.
+     */
+    static byte[] compressMember(byte[] data, int length) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] member = new byte[maxMemberLength(length)];
+            int memberLength = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (memberLength == member.length - TRAILER_LENGTH) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                memberLength += deflater.deflate(member, memberLength, member.length - TRAILER_LENGTH - memberLength);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            writeHeader(member, memberLength + TRAILER_LENGTH);
+            writeInt(member, memberLength, (int) crc.getValue());
+            writeInt(member, memberLength + 4, length);
+            return member.length == memberLength + TRAILER_LENGTH
+                ? member
+                : Arrays.copyOf(member, memberLength + TRAILER_LENGTH);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the length a member compressing a block of the given length is expected to have at most.
+     */
+    static int maxMemberLength(int blockSize) {
+        // Incompressible data grows slightly
+        return HEADER_LENGTH + blockSize + blockSize / 1000 + 64 + TRAILER_LENGTH;
+    }
+
+    /**
+     * Reads the next complete member from the input.
+     *
+     * <p>
+     * The lengths in the header come from the entry, so they are checked against {@code maxBlockSize} before anything is allocated.
+     * </p>
+     *
+     * @param maxBlockSize the largest block size a member may have been compressed from.
+     * @return the member, or {@code null} if the input is at its end.
+     */
+    static byte[] readMember(InputStream input, int maxBlockSize) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int headerLength = readFully(input, header, 0, HEADER_LENGTH);
+        if (headerLength == 0) {
+            return null;
+        }
+        if (!isMemberHeader(header, headerLength)) {
+            throw new IOException("Corrupt build cache entry: invalid block header");
+        }
+        int memberLength = readInt(header, 16);
+        if (memberLength < HEADER_LENGTH + TRAILER_LENGTH || memberLength > maxMemberLength(maxBlockSize)) {
+            throw new IOException("Corrupt build cache entry: invalid block length " + memberLength);
+        }
+        byte[] member = new byte[memberLength];
+        System.arraycopy(header, 0, member, 0, HEADER_LENGTH);
+        if (readFully(input, member, HEADER_LENGTH, memberLength - HEADER_LENGTH) != memberLength - HEADER_LENGTH) {
+            throw new EOFException("Unexpected end of build cache entry");
+        }
+        return member;
+    }
+
+    /**
+     * Inflates a member read by {@link #readMember(InputStream, int)} and verifies its checksum.
+     *
+     * @param maxBlockSize the largest block size the member may have been compressed from.
+     */
+    static byte[] inflateMember(byte[] member, int maxBlockSize) throws IOException {
+        int trailerOffset = member.length - TRAILER_LENGTH;
+        int expectedCrc = readInt(member, trailerOffset);
+        int uncompressedLength = readInt(member, trailerOffset + 4);
+        if (uncompressedLength < 0 || uncompressedLength > maxBlockSize) {
+            throw new IOException("Corrupt build cache entry: invalid uncompressed block length " + uncompressedLength);
+        }
+        // Leave room to inflate into even for empty blocks
+        byte[] data = new byte[Math.max(uncompressedLength, 1)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, HEADER_LENGTH, trailerOffset - HEADER_LENGTH);
+            int length = 0;
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary() || length == data.length)) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (!inflater.finished() || length != uncompressedLength) {
+                throw new IOException("Corrupt build cache entry: block does not match its recorded length");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt build cache entry", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, uncompressedLength);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Corrupt build cache entry: block checksum mismatch");
+        }
+        return uncompressedLength == data.length ? data : new byte[0];
+    }
+
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for build cache entry block");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void writeHeader(byte[] member, int memberLength) {
+        member[0] = (byte) GZIP_MAGIC_FIRST_BYTE;
+        member[1] = (byte) GZIP_MAGIC_SECOND_BYTE;
+        member[2] = DEFLATE_METHOD;
+        member[3] = FLAG_EXTRA;
+        // Modification time (4 bytes) and extra flags are left zero
+        member[9] = (byte) OS_UNKNOWN;
+        writeShort(member, 10, EXTRA_LENGTH);
+        member[12] = SUBFIELD_ID_FIRST_BYTE;
+        member[13] = SUBFIELD_ID_SECOND_BYTE;
+        writeShort(member, 14, SUBFIELD_LENGTH);
+        writeInt(member, 16, memberLength);
+    }
+
+    private static int readFully(InputStream input, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = input.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8;
+    }
+
+    private static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return readShort(buffer, offset) | readShort(buffer, offset + 2) << 16;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        writeShort(buffer, offset, value);
+        writeShort(buffer, offset + 2, value >>> 16);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads data written by {@link ParallelGZipOutputStream}, inflating up to {@code maxPendingBlocks} members ahead concurrently.
+ */
+class ParallelGZipInputStream extends InputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InputStream input;
+    private final Executor executor;
+    private final int maxBlockSize;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private byte[] current = EMPTY;
+    private int position;
+    private boolean endOfInput;
+
+    /**
+     * @param maxBlockSize the largest block size accepted; members claiming larger blocks are treated as corrupt.
+     */
+    ParallelGZipInputStream(InputStream input, Executor executor, int maxBlockSize, int maxPendingBlocks) {
+        this.input = input;
+        this.executor = executor;
+        this.maxBlockSize = maxBlockSize;
+        this.maxPendingBlocks = maxPendingBlocks;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> pendingBlock : pendingBlocks) {
+            pendingBlock.cancel(false);
+        }
+        pendingBlocks.clear();
+        input.close();
+    }
+
+    private boolean ensureData() throws IOException {
+        while (position == current.length) {
+            readAhead();
+            if (pendingBlocks.isEmpty()) {
+                return false;
+            }
+            current = ParallelGZipFormat.await(pendingBlocks.removeFirst());
+            position = 0;
+        }
+        return true;
+    }
+
+    private void readAhead() throws IOException {
+        while (!endOfInput && pendingBlocks.size() < maxPendingBlocks) {
+            byte[] member = ParallelGZipFormat.readMember(input, maxBlockSize);
+            if (member == null) {
+                endOfInput = true;
+                break;
+            }
+            FutureTask<byte[]> block = new FutureTask<>(() -> ParallelGZipFormat.inflateMember(member, maxBlockSize));
+            executor.execute(block);
+            pendingBlocks.addLast(block);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Compresses blocks of the written data concurrently, writing them as {@link ParallelGZipFormat} members in order.
+ *
+ * At most {@code maxPendingBlocks} blocks are buffered at any time.
+ */
+class ParallelGZipOutputStream extends OutputStream {
+    private final OutputStream output;
+    private final Executor executor;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingMembers = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLength;
+    private boolean anyBlockSubmitted;
+    private boolean closed;
+
+    ParallelGZipOutputStream(OutputStream output, Executor executor, int blockSize, int maxPendingBlocks) {
+        this.output = output;
+        this.executor = executor;
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = maxPendingBlocks;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+            int count = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Writes the blocks that have been compressed already.
+     * Data in the current block is only written once the block is full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingMembers.isEmpty() && pendingMembers.peekFirst().isDone()) {
+            writeFirstPendingMember();
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // An empty stream still needs a member to be valid GZip
+            if (blockLength > 0 || !anyBlockSubmitted) {
+                submitBlock();
+            }
+            while (!pendingMembers.isEmpty()) {
+                writeFirstPendingMember();
+            }
+        } finally {
+            for (Future<byte[]> pendingMember : pendingMembers) {
+                pendingMember.cancel(false);
+            }
+            output.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        FutureTask<byte[]> member = new FutureTask<>(() -> ParallelGZipFormat.compressMember(data, length));
+        executor.execute(member);
+        pendingMembers.addLast(member);
+        anyBlockSubmitted = true;
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (pendingMembers.size() >= maxPendingBlocks) {
+            writeFirstPendingMember();
+        }
+    }
+
+    private void writeFirstPendingMember() throws IOException {
+        output.write(ParallelGZipFormat.await(pendingMembers.removeFirst()));
+    }
+}
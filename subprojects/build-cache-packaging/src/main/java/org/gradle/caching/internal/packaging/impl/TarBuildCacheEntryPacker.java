@@ -23,6 +23,8 @@
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CloseShieldInputStream;
@@ -31,6 +33,8 @@
 import org.gradle.caching.internal.origin.OriginReader;
 import org.gradle.caching.internal.origin.OriginWriter;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.FileRestoreStrategy;
+import org.gradle.caching.internal.packaging.LinkDirectoryRef;
 import org.gradle.internal.RelativePathSupplier;
 import org.gradle.internal.file.BufferProvider;
 import org.gradle.internal.file.FileType;
@@ -54,6 +58,7 @@
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -64,9 +69,14 @@
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
@@ -77,6 +87,12 @@
 
 /**
  * Packages build cache entries to a POSIX TAR file.
+ *
+ * <p>
+ * When a {@link FileRestoreStrategy} other than {@link FileRestoreStrategy#COPY} is used, the content hash
+ * of each regular file is stored in a PAX header. Entries stored in uncompressed files are then restored
+ * without copying the contents of the files through the heap, see {@link #unpack(CacheableEntity, File, OriginReader)}.
+ * </p>
  */
 public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
@@ -92,12 +108,16 @@ private interface UnixPermissions {
     private static final Charset ENCODING = StandardCharsets.UTF_8;
     private static final String METADATA_PATH = "METADATA";
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
+    private static final String CONTENT_HASH_PAX_HEADER = "GRADLE.contentHash";
 
     private final TarPackerFileSystemSupport fileSystemSupport;
     private final FilePermissionAccess filePermissionAccess;
     private final StreamHasher streamHasher;
     private final Interner<String> stringInterner;
     private final BufferProvider bufferProvider;
+    private final FileRestoreStrategy restoreStrategy;
+    @Nullable
+    private final LinkDirectoryRef linkDirectoryRef;
 
     public TarBuildCacheEntryPacker(
         TarPackerFileSystemSupport fileSystemSupport,
@@ -106,11 +126,32 @@ public TarBuildCacheEntryPacker(
         Interner<String> stringInterner,
         BufferProvider bufferProvider
     ) {
+        this(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, bufferProvider, FileRestoreStrategy.COPY, null);
+    }
+
+    /**
+     * @param linkDirectoryRef the directory to keep the content-addressed files to link to, required for {@link FileRestoreStrategy#LINK}.
+     * Files are transferred instead of linked while it is not set.
+     */
+    public TarBuildCacheEntryPacker(
+        TarPackerFileSystemSupport fileSystemSupport,
+        FilePermissionAccess filePermissionAccess,
+        StreamHasher streamHasher,
+        Interner<String> stringInterner,
+        BufferProvider bufferProvider,
+        FileRestoreStrategy restoreStrategy,
+        @Nullable LinkDirectoryRef linkDirectoryRef
+    ) {
+        if (restoreStrategy == FileRestoreStrategy.LINK && linkDirectoryRef == null) {
+            throw new IllegalArgumentException("A link directory is required to restore files via links");
+        }
         this.fileSystemSupport = fileSystemSupport;
         this.filePermissionAccess = filePermissionAccess;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
         this.bufferProvider = bufferProvider;
+        this.restoreStrategy = restoreStrategy;
+        this.linkDirectoryRef = linkDirectoryRef;
     }
 
     @Override
@@ -160,20 +201,46 @@ private long packTree(String name, TreeType type, FileSystemSnapshot snapshots,
     }
 
     private static void createTarEntry(String path, long size, int mode, TarArchiveOutputStream tarOutput) throws IOException {
+        createTarEntry(path, size, mode, null, tarOutput);
+    }
+
+    private static void createTarEntry(String path, long size, int mode, @Nullable HashCode contentHash, TarArchiveOutputStream tarOutput) throws IOException {
         TarArchiveEntry entry = new TarArchiveEntry(path, true);
         entry.setSize(size);
         entry.setMode(mode);
+        if (contentHash != null) {
+            entry.addPaxHeader(CONTENT_HASH_PAX_HEADER, contentHash.toString());
+        }
         tarOutput.putArchiveEntry(entry);
     }
 
     @Override
     public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
         try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input, ENCODING.name())) {
-            return unpack(entity, tarInput, readOrigin);
+            return unpack(entity, new StreamingEntryReader(tarInput), readOrigin);
+        }
+    }
+
+    /**
+     * Unpacks an uncompressed entry stored in a file.
+     *
+     * Unless the {@link FileRestoreStrategy#COPY} strategy is used, regular files are restored
+     * directly from the entry file via {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * or via hard links.
+     */
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, File entryFile, OriginReader readOrigin) throws IOException {
+        if (restoreStrategy == FileRestoreStrategy.COPY) {
+            return BuildCacheEntryPacker.super.unpack(entity, entryFile, readOrigin);
+        }
+        FileChannel archive = FileChannel.open(entryFile.toPath(), StandardOpenOption.READ);
+        // Closing the TarFile closes the channel, too
+        try (TarFile tarFile = new TarFile(archive, TarConstants.DEFAULT_BLKSIZE, TarConstants.DEFAULT_RCDSIZE, ENCODING.name(), false)) {
+            return unpack(entity, new RandomAccessEntryReader(tarFile, archive), readOrigin);
         }
     }
 
-    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction) throws IOException {
+    private UnpackResult unpack(CacheableEntity entity, EntryReader tarInput, OriginReader readOriginAction) throws IOException {
         ImmutableMap.Builder<String, CacheableTree> treesBuilder = ImmutableMap.builder();
         entity.visitOutputTrees((name, type, root) -> treesBuilder.put(name, new CacheableTree(type, root)));
         ImmutableMap<String, CacheableTree> treesByName = treesBuilder.build();
@@ -182,7 +249,7 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
         OriginMetadata originMetadata = null;
         Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
 
-        tarEntry = tarInput.getNextTarEntry();
+        tarEntry = tarInput.getNextEntry();
         AtomicLong entries = new AtomicLong();
         while (tarEntry != null) {
             entries.incrementAndGet();
@@ -190,8 +257,8 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
 
             if (path.equals(METADATA_PATH)) {
                 // handle origin metadata
-                originMetadata = readOriginAction.execute(CloseShieldInputStream.wrap(tarInput));
-                tarEntry = tarInput.getNextTarEntry();
+                originMetadata = readOriginAction.execute(tarInput.openContent(tarEntry));
+                tarEntry = tarInput.getNextEntry();
             } else {
                 // handle tree
                 Matcher matcher = TREE_PATH.matcher(path);
@@ -236,7 +303,7 @@ public File getRoot() {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, EntryReader input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -245,7 +312,7 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
         // We are handling the root of the tree here
         if (missing) {
             fileSystemSupport.ensureFileIsMissing(treeRoot);
-            return input.getNextTarEntry();
+            return input.getNextEntry();
         }
 
         fileSystemSupport.ensureDirectoryForTree(treeType, treeRoot);
@@ -253,9 +320,9 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            RegularFileSnapshot fileSnapshot = input.unpackFile(rootEntry, treeRoot, treeRoot.getName());
             snapshots.put(treeName, fileSnapshot);
-            return input.getNextTarEntry();
+            return input.getNextEntry();
         }
 
         if (!isDirEntry) {
@@ -266,18 +333,161 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
         return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
-        try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file))) {
-            HashCode hash = streamHasher.hashCopy(input, output);
+    private RegularFileSnapshot snapshotUnpackedFile(File file, String fileName, HashCode hash, long length) {
+        String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
+        String internedFileName = stringInterner.intern(fileName);
+        return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, DefaultFileMetadata.file(length, file.lastModified(), DIRECT));
+    }
+
+    /**
+     * Provides the entries of a TAR archive and restores the regular files in it.
+     */
+    private interface EntryReader {
+        @Nullable
+        TarArchiveEntry getNextEntry() throws IOException;
+
+        InputStream openContent(TarArchiveEntry entry) throws IOException;
+
+        RegularFileSnapshot unpackFile(TarArchiveEntry entry, File file, String fileName) throws IOException;
+    }
+
+    private class StreamingEntryReader implements EntryReader {
+        private final TarArchiveInputStream input;
+
+        public StreamingEntryReader(TarArchiveInputStream input) {
+            this.input = input;
+        }
+
+        @Nullable
+        @Override
+        public TarArchiveEntry getNextEntry() throws IOException {
+            return input.getNextTarEntry();
+        }
+
+        @Override
+        public InputStream openContent(TarArchiveEntry entry) {
+            return CloseShieldInputStream.wrap(input);
+        }
+
+        @Override
+        public RegularFileSnapshot unpackFile(TarArchiveEntry entry, File file, String fileName) throws IOException {
+            try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file))) {
+                HashCode hash = streamHasher.hashCopy(input, output);
+                chmodUnpackedFile(entry, file);
+                return snapshotUnpackedFile(file, fileName, hash, output.getCount());
+            }
+        }
+    }
+
+    private class RandomAccessEntryReader implements EntryReader {
+        private final TarFile tarFile;
+        private final FileChannel archive;
+        private final Iterator<TarArchiveEntry> entries;
+
+        public RandomAccessEntryReader(TarFile tarFile, FileChannel archive) {
+            this.tarFile = tarFile;
+            this.archive = archive;
+            this.entries = tarFile.getEntries().iterator();
+        }
+
+        @Nullable
+        @Override
+        public TarArchiveEntry getNextEntry() {
+            return entries.hasNext() ? entries.next() : null;
+        }
+
+        @Override
+        public InputStream openContent(TarArchiveEntry entry) throws IOException {
+            return tarFile.getInputStream(entry);
+        }
+
+        @Override
+        public RegularFileSnapshot unpackFile(TarArchiveEntry entry, File file, String fileName) throws IOException {
+            String storedHash = entry.getExtraPaxHeader(CONTENT_HASH_PAX_HEADER);
+            HashCode expectedHash = storedHash == null ? null : HashCode.fromString(storedHash);
+            boolean linked = restoreStrategy == FileRestoreStrategy.LINK && expectedHash != null && link(entry, expectedHash, file);
+            if (!linked) {
+                transfer(entry, file);
+            }
+            // The stored hash was calculated when the entry was packed, so the contents only need to be hashed for older entries
+            HashCode hash = expectedHash != null ? expectedHash : hashFile(file);
             chmodUnpackedFile(entry, file);
-            String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
-            String internedFileName = stringInterner.intern(fileName);
-            return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, DefaultFileMetadata.file(output.getCount(), file.lastModified(), DIRECT));
+            return snapshotUnpackedFile(file, fileName, hash, entry.getSize());
+        }
+
+        private void transfer(TarArchiveEntry entry, File file) throws IOException {
+            try (FileChannel output = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = entry.getDataOffset();
+                long remaining = entry.getSize();
+                while (remaining > 0) {
+                    long transferred = archive.transferTo(position, remaining, output);
+                    if (transferred <= 0) {
+                        throw new EOFException("Unexpected end of cache entry while restoring " + file);
+                    }
+                    position += transferred;
+                    remaining -= transferred;
+                }
+            }
+        }
+
+        /**
+         * Links the file to the content-addressed copy of its contents, creating the copy if necessary.
+         *
+         * <p>
+         * The contents of a copy are verified once, when it is created.
+         * The copy is shared with all the files linked to it, so a file that is modified in place modifies the copy, too.
+         * An existing copy is therefore replaced when its length does not match, without reading its contents again.
+         * </p>
+         *
+         * @return whether the file could be linked.
+         */
+        private boolean link(TarArchiveEntry entry, HashCode hash, File file) throws IOException {
+            File linkDirectory = linkDirectoryRef.get();
+            if (linkDirectory == null) {
+                return false;
+            }
+            // The permissions are shared between links, so we need a separate copy for each mode
+            int mode = entry.getMode() & UnixPermissions.PERM_MASK;
+            File linkTarget = new File(linkDirectory, hash + "-" + Integer.toOctalString(mode));
+            try {
+                if (linkTarget.isFile() && linkTarget.length() != entry.getSize()) {
+                    Files.deleteIfExists(linkTarget.toPath());
+                }
+                if (!linkTarget.isFile()) {
+                    FileUtils.forceMkdir(linkDirectory);
+                    File temporaryLinkTarget = File.createTempFile(linkTarget.getName(), ".tmp", linkDirectory);
+                    try {
+                        transfer(entry, temporaryLinkTarget);
+                        checkContentHash(hash, hashFile(temporaryLinkTarget), file);
+                        chmodUnpackedFile(entry, temporaryLinkTarget);
+                        Files.move(temporaryLinkTarget.toPath(), linkTarget.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temporaryLinkTarget.toPath());
+                    }
+                }
+                Files.createLink(file.toPath(), linkTarget.toPath());
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                // The link directory might be on a different file system, or the copy might have been removed concurrently
+                return false;
+            }
+        }
+    }
+
+    private HashCode hashFile(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            return streamHasher.hash(input);
+        }
+    }
+
+    private static void checkContentHash(HashCode expectedHash, HashCode actualHash, File file) {
+        if (!expectedHash.equals(actualHash)) {
+            throw new IllegalStateException(String.format("Cached entry format error, the content hash of %s is %s instead of %s.", file, actualHash, expectedHash));
         }
     }
 
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(EntryReader input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName) throws IOException {
         RelativePathParser parser = new RelativePathParser(safeEntryName(rootEntry));
 
         DirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
@@ -285,7 +495,7 @@ private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArch
 
         TarArchiveEntry entry;
 
-        while ((entry = input.getNextTarEntry()) != null) {
+        while ((entry = input.getNextEntry()) != null) {
             boolean isDir = entry.isDirectory();
             boolean outsideOfRoot = parser.nextPath(safeEntryName(entry), isDir, builder::leaveDirectory);
             if (outsideOfRoot) {
@@ -301,7 +511,7 @@ private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArch
                 String internedName = stringInterner.intern(parser.getName());
                 builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS);
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
+                RegularFileSnapshot fileSnapshot = input.unpackFile(entry, file, parser.getName());
                 builder.visitLeafElement(fileSnapshot);
             }
         }
@@ -375,7 +585,8 @@ public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                     assertCorrectType(isRoot, snapshot);
                     File file = new File(snapshot.getAbsolutePath());
                     int fileMode = filePermissionAccess.getUnixMode(file);
-                    storeFileEntry(file, targetPath, file.length(), fileMode, tarOutput);
+                    HashCode contentHash = restoreStrategy.requiresUncompressedEntries() ? fileSnapshot.getHash() : null;
+                    storeFileEntry(file, targetPath, file.length(), fileMode, contentHash, tarOutput);
                 }
 
                 @Override
@@ -437,9 +648,9 @@ private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream t
             }
         }
 
-        private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
+        private void storeFileEntry(File inputFile, String path, long size, int mode, @Nullable HashCode contentHash, TarArchiveOutputStream tarOutput) {
             try {
-                createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
+                createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, contentHash, tarOutput);
                 try (FileInputStream input = new FileInputStream(inputFile)) {
                     IOUtils.copyLarge(input, tarOutput, bufferProvider.getBuffer());
                 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging
+
+import spock.lang.Specification
+
+import java.util.zip.GZIPOutputStream
+
+class BuildCacheEntryCodecsTest extends Specification {
+    def codecs = BuildCacheEntryCodecs.builtIn()
+    def content = ("some content " * 1000).bytes
+
+    def "can round-trip entries with #codec.name"() {
+        when:
+        def compressed = compress(codec)
+
+        then:
+        compressed[0..3] == [0, 71, 67, codec.id].collect { it as byte }
+        codecs.decompress(new ByteArrayInputStream(compressed)).bytes == content
+
+        where:
+        codec << [BuildCacheEntryCodecs.NONE, BuildCacheEntryCodecs.GZIP, BuildCacheEntryCodecs.GZIP_FAST, BuildCacheEntryCodecs.GZIP_BEST]
+    }
+
+    def "can read legacy GZip entries"() {
+        def output = new ByteArrayOutputStream()
+        new GZIPOutputStream(output).withCloseable { it.write(content) }
+
+        expect:
+        codecs.decompress(new ByteArrayInputStream(output.toByteArray())).bytes == content
+    }
+
+    def "can read legacy uncompressed entries"() {
+        expect:
+        codecs.decompress(new ByteArrayInputStream(content)).bytes == content
+    }
+
+    def "can transcode entries to #target.name"() {
+        def transcoded = new ByteArrayOutputStream()
+
+        when:
+        codecs.transcoderTo(target).transcode(new ByteArrayInputStream(compress(BuildCacheEntryCodecs.GZIP_FAST)), transcoded)
+
+        then:
+        transcoded.toByteArray()[3] == (byte) target.id
+        codecs.decompress(new ByteArrayInputStream(transcoded.toByteArray())).bytes == content
+
+        where:
+        target << [BuildCacheEntryCodecs.NONE, BuildCacheEntryCodecs.GZIP_BEST]
+    }
+
+    def "can transcode uncompressed entries without a header"() {
+        def transcoded = new ByteArrayOutputStream()
+
+        when:
+        codecs.transcoderTo(BuildCacheEntryCodecs.GZIP).transcode(new ByteArrayInputStream(content), transcoded)
+
+        then:
+        transcoded.toByteArray()[0..3] == [0, 71, 67, BuildCacheEntryCodecs.GZIP.id].collect { it as byte }
+        codecs.decompress(new ByteArrayInputStream(transcoded.toByteArray())).bytes == content
+    }
+
+    def "fails to read entries with unknown codec"() {
+        def entry = [0, 71, 67, 42].collect { it as byte } as byte[]
+
+        when:
+        codecs.decompress(new ByteArrayInputStream(entry))
+
+        then:
+        def ex = thrown(IOException)
+        ex.message == "Build cache entry was compressed with an unknown codec (id 42)"
+    }
+
+    def "fails for unknown codec names"() {
+        when:
+        codecs.getCodec("zstd")
+
+        then:
+        def ex = thrown(IllegalArgumentException)
+        ex.message == "Unknown build cache entry codec 'zstd'. Available codecs are: none, gzip, gzip-fast, gzip-best"
+    }
+
+    def "does not allow codecs with the same id"() {
+        when:
+        new BuildCacheEntryCodecs([BuildCacheEntryCodecs.GZIP, Stub(BuildCacheEntryCodec) {
+            getId() >> 1
+            getName() >> "other"
+        }])
+
+        then:
+        def ex = thrown(IllegalArgumentException)
+        ex.message == "Codecs 'gzip' and 'other' have the same id 1"
+    }
+
+    def "can add codecs to the built-in ones"() {
+        def reversing = new ReversingCodec()
+        def codecs = BuildCacheEntryCodecs.withBuiltIn([reversing])
+
+        when:
+        def output = new ByteArrayOutputStream()
+        codecs.compress(output, codecs.getCodec("reversing")).withCloseable { it.write(content) }
+
+        then:
+        output.toByteArray()[0..3] == [0, 71, 67, reversing.id].collect { it as byte }
+        codecs.decompress(new ByteArrayInputStream(output.toByteArray())).bytes == content
+        codecs.getCodec("gzip") == BuildCacheEntryCodecs.GZIP
+    }
+
+    def "does not allow added codecs to take the id of a built-in codec"() {
+        when:
+        BuildCacheEntryCodecs.withBuiltIn([Stub(BuildCacheEntryCodec) {
+            getId() >> 3
+            getName() >> "other"
+        }])
+
+        then:
+        def ex = thrown(IllegalArgumentException)
+        ex.message == "Codecs 'gzip-best' and 'other' have the same id 3"
+    }
+
+    private byte[] compress(BuildCacheEntryCodec codec) {
+        def output = new ByteArrayOutputStream()
+        codecs.compress(output, codec).withCloseable { it.write(content) }
+        output.toByteArray()
+    }
+
+    private static class ReversingCodec implements BuildCacheEntryCodec {
+        @Override
+        int getId() {
+            return 100
+        }
+
+        @Override
+        String getName() {
+            return "reversing"
+        }
+
+        @Override
+        OutputStream compress(OutputStream output) {
+            def buffer = new ByteArrayOutputStream()
+            return new FilterOutputStream(buffer) {
+                @Override
+                void close() {
+                    output.write(buffer.toByteArray().reverse())
+                    output.close()
+                }
+            }
+        }
+
+        @Override
+        InputStream decompress(InputStream input) {
+            return new ByteArrayInputStream(input.bytes.reverse())
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.origin.OriginReader
+import org.gradle.caching.internal.origin.OriginWriter
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.zip.GZIPInputStream
+
+class ParallelGZipBuildCacheEntryPackerTest extends Specification {
+    def entity = Stub(CacheableEntity)
+    def readOrigin = Stub(OriginReader)
+    def writeOrigin = Stub(OriginWriter)
+    def delegate = new BytesPacker()
+    def packer = new ParallelGZipBuildCacheEntryPacker(delegate, BuildCacheEntryCodecs.builtIn(), Executors.newFixedThreadPool(4), 4, 1024)
+
+    def cleanup() {
+        packer.close()
+    }
+
+    def "can unpack what it packed (#length bytes)"() {
+        delegate.packed = randomBytes(length)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer.pack(entity, [:], output, writeOrigin)
+        packer.unpack(entity, new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        delegate.unpacked == delegate.packed
+
+        where:
+        length << [0, 1, 1023, 1024, 1025, 100 * 1024 + 17]
+    }
+
+    def "packed entries are valid gzip"() {
+        delegate.packed = randomBytes(10 * 1024 + 3)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer.pack(entity, [:], output, writeOrigin)
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())).bytes == delegate.packed
+    }
+
+    def "can unpack entries packed by the sequential packer with #codec.name"() {
+        delegate.packed = randomBytes(10 * 1024 + 3)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        new CompressingBuildCacheEntryPacker(delegate, BuildCacheEntryCodecs.builtIn(), codec).pack(entity, [:], output, writeOrigin)
+        packer.unpack(entity, new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        delegate.unpacked == delegate.packed
+
+        where:
+        codec << [BuildCacheEntryCodecs.GZIP, BuildCacheEntryCodecs.GZIP_FAST, BuildCacheEntryCodecs.NONE]
+    }
+
+    def "detects corrupted blocks"() {
+        delegate.packed = randomBytes(4 * 1024)
+        def output = new ByteArrayOutputStream()
+        packer.pack(entity, [:], output, writeOrigin)
+        def bytes = output.toByteArray()
+        bytes[bytes.length - 12] = (byte) (bytes[bytes.length - 12] ^ 0xff)
+
+        when:
+        packer.unpack(entity, new ByteArrayInputStream(bytes), readOrigin)
+
+        then:
+        thrown(IOException)
+    }
+
+    def "rejects block with invalid #field #value before allocating it"() {
+        delegate.packed = randomBytes(4 * 1024)
+        def output = new ByteArrayOutputStream()
+        packer.pack(entity, [:], output, writeOrigin)
+        def bytes = output.toByteArray()
+        writeInt(bytes, field == "length" ? 16 : bytes.length - 4, value)
+
+        when:
+        packer.unpack(entity, new ByteArrayInputStream(bytes), readOrigin)
+
+        then:
+        def e = thrown(IOException)
+        e.message.startsWith("Corrupt build cache entry: invalid")
+
+        where:
+        field                 | value
+        "length"              | Integer.MAX_VALUE
+        "length"              | -1
+        "length"              | 0
+        "uncompressed length" | Integer.MAX_VALUE
+        "uncompressed length" | -1
+    }
+
+    def "detects truncated blocks"() {
+        delegate.packed = randomBytes(4 * 1024)
+        def output = new ByteArrayOutputStream()
+        packer.pack(entity, [:], output, writeOrigin)
+        def bytes = output.toByteArray()
+
+        when:
+        packer.unpack(entity, new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 5)), readOrigin)
+
+        then:
+        thrown(EOFException)
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        (0..3).each { bytes[offset + it] = (byte) (value >>> (8 * it)) }
+    }
+
+    private static byte[] randomBytes(int length) {
+        def bytes = new byte[length]
+        // Half random, half repetitive, so that blocks actually compress
+        new Random(1234L).nextBytes(bytes)
+        Arrays.fill(bytes, 0, length.intdiv(2) as int, (byte) 97)
+        return bytes
+    }
+
+    private static class BytesPacker implements BuildCacheEntryPacker {
+        byte[] packed
+        byte[] unpacked
+
+        @Override
+        BuildCacheEntryPacker.PackResult pack(CacheableEntity entity, Map<String, ?> snapshots, OutputStream output, OriginWriter writeOrigin) {
+            output.write(packed)
+            return new BuildCacheEntryPacker.PackResult(1)
+        }
+
+        @Override
+        BuildCacheEntryPacker.UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) {
+            unpacked = input.bytes
+            return new BuildCacheEntryPacker.UnpackResult(null, 1, [:])
+        }
+    }
+}
@@ -19,11 +19,16 @@ package org.gradle.caching.internal.packaging.impl
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.caching.internal.packaging.FileRestoreStrategy
+import org.gradle.caching.internal.packaging.LinkDirectoryRef
+import org.gradle.internal.file.BufferProvider
 import org.gradle.internal.file.Deleter
 import org.gradle.internal.nativeintegration.filesystem.FileSystem
 import org.gradle.test.precondition.Requires
 import org.gradle.test.preconditions.UnitTestPreconditions
 
+import java.nio.file.Files
+
 import static org.gradle.internal.file.TreeType.DIRECTORY
 import static org.gradle.internal.file.TreeType.FILE
 
@@ -41,6 +46,19 @@ class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec
         TestFiles.deleter()
     }
 
+    def linkDirectory = temporaryFolder.file("links")
+    def linkDirectoryRef = new LinkDirectoryRef()
+
+    def setup() {
+        linkDirectoryRef.set(linkDirectory)
+    }
+
+    def createPacker(FileRestoreStrategy strategy) {
+        new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, Stub(BufferProvider) {
+            getBuffer() >> new byte[4096]
+        }, strategy, linkDirectoryRef)
+    }
+
     def "can pack directory"() {
         def sourceOutputDir = temporaryFolder.file("source").createDir()
         def sourceSubDir = sourceOutputDir.file("subdir").createDir()
@@ -240,6 +258,139 @@ class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec
         targetDir.assertIsEmptyDir()
     }
 
+    def "can restore files from entry file via #strategy"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        sourceOutputDir.file("subdir/data.txt") << "output"
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "single file"
+        def targetOutputDir = temporaryFolder.file("target")
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def entryFile = temporaryFolder.file("entry.tar")
+        def packer = createPacker(strategy)
+
+        when:
+        entryFile.withOutputStream { output ->
+            packer.pack(entity(prop("dir", DIRECTORY, sourceOutputDir), prop("file", FILE, sourceOutputFile)), [
+                dir: fileSystemAccess.read(sourceOutputDir.absolutePath),
+                file: fileSystemAccess.read(sourceOutputFile.absolutePath)
+            ], output, writeOrigin)
+        }
+        def result = packer.unpack(entity(prop("dir", DIRECTORY, targetOutputDir), prop("file", FILE, targetOutputFile)), entryFile, readOrigin)
+
+        then:
+        targetOutputDir.file("subdir/data.txt").text == "output"
+        targetOutputFile.text == "single file"
+        result.entries == 5
+        result.snapshots["file"].hash == fileSystemAccess.read(sourceOutputFile.absolutePath).hash
+
+        where:
+        strategy << FileRestoreStrategy.values()
+    }
+
+    @Requires(UnitTestPreconditions.UnixDerivative)
+    def "restored files are hard linked to the link directory"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "linked"
+        def firstTarget = temporaryFolder.file("first.txt")
+        def secondTarget = temporaryFolder.file("second.txt")
+        def entryFile = temporaryFolder.file("entry.tar")
+        def packer = createPacker(FileRestoreStrategy.LINK)
+
+        when:
+        entryFile.withOutputStream { output ->
+            packer.pack(entity(prop(FILE, sourceOutputFile)), [test: fileSystemAccess.read(sourceOutputFile.absolutePath)], output, writeOrigin)
+        }
+        packer.unpack(entity(prop(FILE, firstTarget)), entryFile, readOrigin)
+        packer.unpack(entity(prop(FILE, secondTarget)), entryFile, readOrigin)
+
+        then:
+        firstTarget.text == "linked"
+        Files.isSameFile(firstTarget.toPath(), secondTarget.toPath())
+        linkDirectory.listFiles().length == 1
+    }
+
+    @Requires(UnitTestPreconditions.UnixDerivative)
+    def "does not link to a copy that has been modified in place"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "linked"
+        def firstTarget = temporaryFolder.file("first.txt")
+        def secondTarget = temporaryFolder.file("second.txt")
+        def entryFile = temporaryFolder.file("entry.tar")
+        def packer = createPacker(FileRestoreStrategy.LINK)
+
+        when:
+        entryFile.withOutputStream { output ->
+            packer.pack(entity(prop(FILE, sourceOutputFile)), [test: fileSystemAccess.read(sourceOutputFile.absolutePath)], output, writeOrigin)
+        }
+        packer.unpack(entity(prop(FILE, firstTarget)), entryFile, readOrigin)
+        firstTarget << " and modified"
+        def result = packer.unpack(entity(prop(FILE, secondTarget)), entryFile, readOrigin)
+
+        then:
+        firstTarget.text == "linked and modified"
+        secondTarget.text == "linked"
+        !Files.isSameFile(firstTarget.toPath(), secondTarget.toPath())
+        result.snapshots["test"].hash == fileSystemAccess.read(sourceOutputFile.absolutePath).hash
+        linkDirectory.listFiles().length == 1
+    }
+
+    def "fails to create a link target whose contents do not match the stored content hash"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "original"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def entryFile = temporaryFolder.file("entry.tar")
+        def packer = createPacker(FileRestoreStrategy.LINK)
+        entryFile.withOutputStream { output ->
+            packer.pack(entity(prop(FILE, sourceOutputFile)), [test: fileSystemAccess.read(sourceOutputFile.absolutePath)], output, writeOrigin)
+        }
+        // Replace the contents of the file in the entry, keeping its length
+        def entryContents = new String(entryFile.bytes, "ISO-8859-1")
+        entryFile.bytes = entryContents.replace("original", "tampered").getBytes("ISO-8859-1")
+
+        when:
+        packer.unpack(entity(prop(FILE, targetOutputFile)), entryFile, readOrigin)
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains("content hash")
+        linkDirectory.listFiles() as List == []
+    }
+
+    def "transfers files while no link directory is set"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def entryFile = temporaryFolder.file("entry.tar")
+        def packer = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, Stub(BufferProvider) {
+            getBuffer() >> new byte[4096]
+        }, FileRestoreStrategy.LINK, new LinkDirectoryRef())
+
+        when:
+        entryFile.withOutputStream { output ->
+            packer.pack(entity(prop(FILE, sourceOutputFile)), [test: fileSystemAccess.read(sourceOutputFile.absolutePath)], output, writeOrigin)
+        }
+        def result = packer.unpack(entity(prop(FILE, targetOutputFile)), entryFile, readOrigin)
+
+        then:
+        targetOutputFile.text == "output"
+        result.snapshots["test"].hash == fileSystemAccess.read(sourceOutputFile.absolutePath).hash
+        !linkDirectory.exists()
+    }
+
+    def "entries packed for copying can be restored from entry file via #strategy"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def entryFile = temporaryFolder.file("entry.tar")
+
+        when:
+        entryFile.withOutputStream { output ->
+            pack output, prop(FILE, sourceOutputFile)
+        }
+        def result = createPacker(strategy).unpack(entity(prop(FILE, targetOutputFile)), entryFile, readOrigin)
+
+        then:
+        targetOutputFile.text == "output"
+        result.snapshots["test"].hash == fileSystemAccess.read(sourceOutputFile.absolutePath).hash
+
+        where:
+        strategy << [FileRestoreStrategy.TRANSFER, FileRestoreStrategy.LINK]
+    }
+
     def "catch escaping path in tar archive entry during unpacking"() {
         given:
         def targetDir = temporaryFolder.file("target")
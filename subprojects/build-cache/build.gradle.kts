@@ -20,6 +20,9 @@ dependencies {
     implementation(project(":persistent-cache"))
     implementation(project(":resources"))
     implementation(project(":logging"))
+    implementation(project(":messaging")) {
+        because("Used in BuildCacheNG: Cache manifest uses a binary format by default")
+    }
 
     implementation(libs.slf4jApi)
     implementation(libs.guava)
@@ -31,7 +34,7 @@ dependencies {
         because("Used in BuildCacheNG")
     }
     implementation(libs.gson) {
-        because("Used in Build Cache NG: Cache manifest uses JSON format")
+        because("Used in Build Cache NG: Cache manifest can use JSON format for debugging")
     }
     implementation(libs.commonsIo)
 
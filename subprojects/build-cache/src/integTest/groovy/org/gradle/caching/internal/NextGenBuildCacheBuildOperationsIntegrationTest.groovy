@@ -16,12 +16,12 @@
 
 package org.gradle.caching.internal
 
-import com.google.common.io.ByteStreams
+import org.gradle.api.internal.cache.StringInterner
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheException
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.internal.controller.CacheManifest
-import org.gradle.caching.internal.controller.NextGenBuildCacheController
+import org.gradle.caching.internal.controller.CacheManifestSerializer
 import org.gradle.caching.internal.operations.BuildCacheArchivePackBuildOperationType
 import org.gradle.caching.internal.operations.BuildCacheArchiveUnpackBuildOperationType
 import org.gradle.caching.internal.operations.BuildCacheRemoteLoadBuildOperationType
@@ -40,7 +40,6 @@ import org.gradle.test.fixtures.file.LeaksFileHandles
 import org.gradle.util.internal.TextUtil
 import spock.lang.Shared
 
-import java.nio.charset.StandardCharsets
 import java.util.zip.GZIPInputStream
 
 @LeaksFileHandles("https://github.com/gradle/gradle-private/issues/3916")
@@ -255,9 +254,7 @@ class NextGenBuildCacheBuildOperationsIntegrationTest extends AbstractIntegratio
                 cacheKeyToCorrupt = manifestKey
             } else if (target == "content") {
                 service.load(manifestKey, input -> {
-                    def manifestBytes = ByteStreams.toByteArray(new GZIPInputStream(input));
-                    def manifestText = new String(manifestBytes, StandardCharsets.UTF_8)
-                    def manifest = NextGenBuildCacheController.createGson().fromJson(manifestText, CacheManifest.class)
+                    def manifest = new CacheManifestSerializer(CacheManifestSerializer.Format.BINARY, new StringInterner()).read(new GZIPInputStream(input))
                     cacheKeyToCorrupt = new DefaultBuildCacheKey(manifest.propertyManifests.values().stream()
                         .flatMap(List::stream)
                         .filter(entry -> entry.type == FileType.RegularFile)
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.input.UnsynchronizedByteArrayInputStream;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.caching.internal.controller.CacheManifest.ManifestEntry;
+import org.gradle.caching.internal.origin.OriginMetadata;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.hash.Hashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Compares the binary and the JSON formats for next-gen build cache manifests.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class CacheManifestSerializationBenchmark {
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @Param({"BINARY", "JSON"})
+    CacheManifestSerializer.Format format;
+
+    @Param({"100", "10000", "50000"})
+    int fileCount;
+
+    CacheManifestSerializer serializer;
+    CacheManifest manifest;
+    byte[] serializedManifest;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serializer = new CacheManifestSerializer(format, new StringInterner());
+        ImmutableList.Builder<ManifestEntry> entries = ImmutableList.builder();
+        entries.add(new ManifestEntry(FileType.Directory, "", Hashing.signature("root"), 0));
+        for (int i = 0; i < fileCount; i++) {
+            String directory = "org/gradle/generated/package" + (i / FILES_PER_DIRECTORY);
+            if (i % FILES_PER_DIRECTORY == 0) {
+                entries.add(new ManifestEntry(FileType.Directory, directory, Hashing.signature(directory), 0));
+            }
+            String path = directory + "/GeneratedClass" + i + ".java";
+            entries.add(new ManifestEntry(FileType.RegularFile, path, Hashing.hashString(path), 1024 + i));
+        }
+        manifest = new CacheManifest(
+            new OriginMetadata("invocation-id", Duration.ofSeconds(42)),
+            "org.gradle.api.DefaultTask",
+            ":generateSources",
+            ImmutableMap.of("outputDir", entries.build())
+        );
+        serializedManifest = serializer.write(manifest);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return serializer.write(manifest);
+    }
+
+    @Benchmark
+    public CacheManifest read() throws IOException {
+        return serializer.read(new UnsynchronizedByteArrayInputStream(serializedManifest));
+    }
+}
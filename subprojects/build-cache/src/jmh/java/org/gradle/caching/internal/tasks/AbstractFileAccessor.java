@@ -63,7 +63,7 @@ public DataTarget createDataTarget(String name) {
 
     protected abstract OutputStream openOutput(Path path) throws IOException;
 
-    private class Source implements DataSource {
+    private class Source implements DataSource, FileDataItem {
         private final Path path;
 
         public Source(Path path) {
@@ -75,6 +75,11 @@ public String getName() {
             return path.getFileName().toString();
         }
 
+        @Override
+        public Path getPath() {
+            return path;
+        }
+
         @Override
         public InputStream openInput() throws IOException {
             return AbstractFileAccessor.this.openInput(path);
@@ -86,7 +91,7 @@ public long getLength() throws IOException {
         }
     }
 
-    private class Target implements DataTarget {
+    private class Target implements DataTarget, FileDataItem {
         private final Path path;
 
         public Target(Path path) {
@@ -98,6 +103,11 @@ public String getName() {
             return path.getFileName().toString();
         }
 
+        @Override
+        public Path getPath() {
+            return path;
+        }
+
         @Override
         public OutputStream openOutput() throws IOException {
             return AbstractFileAccessor.this.openOutput(path);
@@ -54,6 +54,7 @@ public abstract class AbstractTaskOutputPackagingBenchmark {
         .put("tar.jtar", new JTarPacker(4))
         .put("tar.small", new CommonsTarPacker(2))
         .put("tar.large", new CommonsTarPacker(64))
+        .put("tar.transfer", new TransferTarPacker(4))
         .put("tar.gz", new GzipPacker(new CommonsTarPacker(4)))
         .put("zip", new ZipPacker(4))
         .build();
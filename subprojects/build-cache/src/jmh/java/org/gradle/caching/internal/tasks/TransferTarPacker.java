@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarFile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Packs like {@link CommonsTarPacker}, but restores entries from files via {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ */
+public class TransferTarPacker implements Packer {
+
+    private final CommonsTarPacker delegate;
+    private final byte[] buffer;
+
+    public TransferTarPacker(int bufferSizeInKBytes) {
+        this.delegate = new CommonsTarPacker(bufferSizeInKBytes);
+        this.buffer = new byte[bufferSizeInKBytes * 1024];
+    }
+
+    @Override
+    public void pack(List<DataSource> inputs, DataTarget output) throws IOException {
+        delegate.pack(inputs, output);
+    }
+
+    @Override
+    public void unpack(DataSource input, DataTargetFactory targetFactory) throws IOException {
+        if (!(input instanceof FileDataItem)) {
+            delegate.unpack(input, targetFactory);
+            return;
+        }
+        FileChannel archive = FileChannel.open(((FileDataItem) input).getPath(), StandardOpenOption.READ);
+        try (TarFile tarFile = new TarFile(archive)) {
+            for (TarArchiveEntry entry : tarFile.getEntries()) {
+                DataTarget target = targetFactory.createDataTarget(entry.getName());
+                if (target instanceof FileDataItem) {
+                    transfer(archive, entry, (FileDataItem) target);
+                } else {
+                    try (InputStream entryInput = tarFile.getInputStream(entry)) {
+                        PackerUtils.unpackEntry(entry.getName(), entryInput, buffer, targetFactory);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void transfer(FileChannel archive, TarArchiveEntry entry, FileDataItem target) throws IOException {
+        try (FileChannel output = FileChannel.open(target.getPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = entry.getDataOffset();
+            long remaining = entry.getSize();
+            while (remaining > 0) {
+                long transferred = archive.transferTo(position, remaining, output);
+                if (transferred <= 0) {
+                    throw new EOFException("Unexpected end of archive while unpacking " + entry.getName());
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+}
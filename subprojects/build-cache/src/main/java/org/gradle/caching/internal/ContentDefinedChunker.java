@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Splits a stream of bytes into chunks whose boundaries depend on the content only.
+ *
+ * <p>
+ * Boundaries are found with a rolling gear hash (as used by FastCDC): a boundary is placed
+ * after a byte when the top bits of the hash over the preceding 64 bytes are all zero.
+ * Since the boundaries depend on the content and not on offsets, inserting or removing
+ * bytes only changes the chunks around the modification, and the rest of the chunks
+ * stay the same. This makes the chunks suitable for de-duplicating near-identical content.
+ * </p>
+ *
+ * <p>
+ * Chunks are never shorter than the minimum size (except for the last one) and never longer than the maximum size.
+ * </p>
+ */
+public class ContentDefinedChunker {
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    public static final ContentDefinedChunker DEFAULT = new ContentDefinedChunker(DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+
+    /**
+     * Random values for each byte value, generated from a fixed seed so that boundaries are stable across runs and machines.
+     */
+    private static final long[] GEAR = createGear();
+
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    public ContentDefinedChunker(int minSize, int averageSize, int maxSize) {
+        if (Integer.bitCount(averageSize) != 1) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two, but was " + averageSize);
+        }
+        if (minSize <= 0 || minSize > averageSize || averageSize > maxSize) {
+            throw new IllegalArgumentException(String.format("Chunk sizes must satisfy 0 < min <= average <= max, but were %d, %d, %d", minSize, averageSize, maxSize));
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.mask = bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    /**
+     * Returns the chunks of the given input.
+     * The returned {@link Chunks} reuses the same buffer for each chunk.
+     */
+    public Chunks split(InputStream input) {
+        return new Chunks(input);
+    }
+
+    /**
+     * Returns the length of the first chunk of the given region, which is at most {@code length}.
+     */
+    private int findBoundary(byte[] buffer, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        long hash = 0;
+        for (int i = minSize; i < end; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & mask) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static long[] createGear() {
+        SplittableRandom random = new SplittableRandom(0x6772_6164_6c65L);
+        long[] gear = new long[256];
+        for (int i = 0; i < gear.length; i++) {
+            gear[i] = random.nextLong();
+        }
+        return gear;
+    }
+
+    public class Chunks {
+        private final InputStream input;
+        private final byte[] buffer = new byte[maxSize];
+        private int filled;
+        private int chunkLength;
+        private boolean endOfInput;
+
+        private Chunks(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * Advances to the next chunk.
+         *
+         * @return {@code false} if there are no more chunks.
+         */
+        public boolean next() throws IOException {
+            // Drop the previous chunk
+            if (chunkLength > 0) {
+                System.arraycopy(buffer, chunkLength, buffer, 0, filled - chunkLength);
+                filled -= chunkLength;
+                chunkLength = 0;
+            }
+            if (!endOfInput) {
+                int read = IOUtils.read(input, buffer, filled, buffer.length - filled);
+                filled += read;
+                endOfInput = filled < buffer.length;
+            }
+            if (filled == 0) {
+                return false;
+            }
+            chunkLength = findBoundary(buffer, filled);
+            return true;
+        }
+
+        /**
+         * The buffer containing the current chunk, starting at index 0.
+         */
+        public byte[] getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * The length of the current chunk.
+         */
+        public int getLength() {
+            return chunkLength;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.gradle.caching.internal;
 
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.gradle.api.Incubating;
 import org.gradle.caching.BuildCacheEntryWriter;
@@ -26,6 +27,9 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Build cache service with additional features for next-generation build cache implementation.
@@ -70,6 +74,59 @@ public long getSize() {
 
     void store(BuildCacheKey key, NextGenWriter writer) throws BuildCacheException;
 
+    /**
+     * Returns which of the given entries exist in the cache.
+     *
+     * The default implementation checks the entries one by one. Implementations that can answer the
+     * question for many keys at once should override this.
+     *
+     * @param keys the cache keys.
+     * @return the subset of {@code keys} that exist in the cache.
+     */
+    default Set<BuildCacheKey> containsAll(Collection<BuildCacheKey> keys) throws BuildCacheException {
+        ImmutableSet.Builder<BuildCacheKey> found = ImmutableSet.builder();
+        for (BuildCacheKey key : keys) {
+            if (contains(key)) {
+                found.add(key);
+            }
+        }
+        return found.build();
+    }
+
+    /**
+     * Loads the given entries, calling the reader for each entry found in the cache.
+     *
+     * The default implementation loads the entries one by one. Implementations that can load many
+     * entries at once should override this.
+     *
+     * @param keys the cache keys to load.
+     * @param reader the reader to pass the content of each found entry to.
+     * @return the subset of {@code keys} that have been found in the cache.
+     */
+    default Set<BuildCacheKey> loadAll(Collection<BuildCacheKey> keys, BatchEntryReader reader) throws BuildCacheException {
+        ImmutableSet.Builder<BuildCacheKey> found = ImmutableSet.builder();
+        for (BuildCacheKey key : keys) {
+            if (load(key, input -> reader.readFrom(key, input))) {
+                found.add(key);
+            }
+        }
+        return found.build();
+    }
+
+    /**
+     * Stores the given entries in the cache.
+     *
+     * The default implementation stores the entries one by one. Implementations that can store many
+     * entries at once should override this.
+     *
+     * @param entries the writers for the entries to store, keyed by their cache keys.
+     */
+    default void storeAll(Map<BuildCacheKey, NextGenWriter> entries) throws BuildCacheException {
+        for (Map.Entry<BuildCacheKey, NextGenWriter> entry : entries.entrySet()) {
+            store(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * A {@link BuildCacheEntryWriter} that can open an {@link InputStream} to the data instead of writing it to an {@link OutputStream}.
      *
@@ -78,4 +135,11 @@ public long getSize() {
     interface NextGenWriter extends BuildCacheEntryWriter {
         InputStream openStream() throws IOException;
     }
+
+    /**
+     * Reads the content of entries loaded via {@link #loadAll(Collection, BatchEntryReader)}.
+     */
+    interface BatchEntryReader {
+        void readFrom(BuildCacheKey key, InputStream input) throws IOException;
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.caching.internal.controller.CacheManifest.ManifestEntry;
+import org.gradle.caching.internal.origin.OriginMetadata;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.HashCodeSerializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes {@link CacheManifest}s.
+ *
+ * <p>
+ * Manifests are written in a compact binary format by default. The format starts with a zero byte
+ * (which can never start a JSON document) followed by the format version. Relative paths are
+ * front-coded against the previous path in the same property, as manifest entries are stored in
+ * depth-first order and thus share long prefixes. Hashes are stored as raw bytes.
+ * </p>
+ *
+ * <p>
+ * For debugging, manifests can be written as JSON instead via {@link #MANIFEST_FORMAT_SYSTEM_PROPERTY}.
+ * Reading detects the format automatically, so caches containing both formats keep working.
+ * </p>
+ */
+public class CacheManifestSerializer {
+
+    public static final String MANIFEST_FORMAT_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.ng.manifest-format";
+
+    private static final byte BINARY_MARKER = 0;
+    private static final int BINARY_FORMAT_VERSION = 1;
+    private static final FileType[] FILE_TYPES = FileType.values();
+
+    public enum Format {
+        BINARY, JSON
+    }
+
+    private final Format format;
+    private final StringInterner stringInterner;
+    private final HashCodeSerializer hashCodeSerializer = new HashCodeSerializer();
+    private final Gson gson = createGson();
+
+    public CacheManifestSerializer(Format format, StringInterner stringInterner) {
+        this.format = format;
+        this.stringInterner = stringInterner;
+    }
+
+    public static Format getConfiguredFormat() {
+        String format = System.getProperty(MANIFEST_FORMAT_SYSTEM_PROPERTY);
+        return "json".equalsIgnoreCase(format)
+            ? Format.JSON
+            : Format.BINARY;
+    }
+
+    public byte[] write(CacheManifest manifest) {
+        switch (format) {
+            case BINARY:
+                return writeBinary(manifest);
+            case JSON:
+                return gson.toJson(manifest).getBytes(StandardCharsets.UTF_8);
+            default:
+                throw new AssertionError("Unknown manifest format " + format);
+        }
+    }
+
+    public CacheManifest read(InputStream input) throws IOException {
+        PushbackInputStream pushbackInput = new PushbackInputStream(input, 1);
+        int first = pushbackInput.read();
+        if (first == -1) {
+            throw new IOException("Empty cache manifest");
+        }
+        if (first == BINARY_MARKER) {
+            return readBinary(pushbackInput);
+        }
+        pushbackInput.unread(first);
+        return gson.fromJson(new InputStreamReader(pushbackInput, StandardCharsets.UTF_8), CacheManifest.class);
+    }
+
+    private byte[] writeBinary(CacheManifest manifest) {
+        UnsynchronizedByteArrayOutputStream output = new UnsynchronizedByteArrayOutputStream();
+        try (KryoBackedEncoder encoder = new KryoBackedEncoder(output)) {
+            encoder.writeByte(BINARY_MARKER);
+            encoder.writeSmallInt(BINARY_FORMAT_VERSION);
+            encoder.writeString(manifest.getOriginMetadata().getBuildInvocationId());
+            encoder.writeSmallLong(manifest.getOriginMetadata().getExecutionTime().toMillis());
+            encoder.writeString(manifest.getWorkType());
+            encoder.writeString(manifest.getIdentity());
+            Map<String, List<ManifestEntry>> propertyManifests = manifest.getPropertyManifests();
+            encoder.writeSmallInt(propertyManifests.size());
+            for (Map.Entry<String, List<ManifestEntry>> propertyManifest : propertyManifests.entrySet()) {
+                encoder.writeString(propertyManifest.getKey());
+                writeEntries(encoder, propertyManifest.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    private void writeEntries(Encoder encoder, List<ManifestEntry> entries) throws IOException {
+        encoder.writeSmallInt(entries.size());
+        String previousPath = "";
+        for (ManifestEntry entry : entries) {
+            String path = entry.getRelativePath();
+            int sharedPrefixLength = sharedPrefixLength(previousPath, path);
+            encoder.writeByte((byte) entry.getType().ordinal());
+            encoder.writeSmallInt(sharedPrefixLength);
+            encoder.writeString(path.substring(sharedPrefixLength));
+            hashCodeSerializer.write(encoder, entry.getContentHash());
+            encoder.writeSmallLong(entry.getLength());
+            previousPath = path;
+        }
+    }
+
+    private CacheManifest readBinary(InputStream input) throws IOException {
+        KryoBackedDecoder decoder = new KryoBackedDecoder(input);
+        int version = decoder.readSmallInt();
+        if (version != BINARY_FORMAT_VERSION) {
+            throw new IOException("Unsupported cache manifest format version: " + version);
+        }
+        OriginMetadata originMetadata = new OriginMetadata(decoder.readString(), Duration.ofMillis(decoder.readSmallLong()));
+        String workType = decoder.readString();
+        String identity = decoder.readString();
+        int propertyCount = decoder.readSmallInt();
+        ImmutableMap.Builder<String, List<ManifestEntry>> propertyManifests = ImmutableMap.builderWithExpectedSize(propertyCount);
+        for (int i = 0; i < propertyCount; i++) {
+            String propertyName = stringInterner.intern(decoder.readString());
+            propertyManifests.put(propertyName, readEntries(decoder));
+        }
+        return new CacheManifest(originMetadata, workType, identity, propertyManifests.build());
+    }
+
+    private List<ManifestEntry> readEntries(Decoder decoder) throws IOException {
+        int entryCount = decoder.readSmallInt();
+        ImmutableList.Builder<ManifestEntry> entries = ImmutableList.builderWithExpectedSize(entryCount);
+        String previousPath = "";
+        for (int i = 0; i < entryCount; i++) {
+            byte typeOrdinal = decoder.readByte();
+            if (typeOrdinal < 0 || typeOrdinal >= FILE_TYPES.length) {
+                throw new IOException("Corrupt cache manifest: invalid file type " + typeOrdinal);
+            }
+            FileType type = FILE_TYPES[typeOrdinal];
+            int sharedPrefixLength = decoder.readSmallInt();
+            if (sharedPrefixLength < 0 || sharedPrefixLength > previousPath.length()) {
+                throw new IOException("Corrupt cache manifest: invalid shared path prefix length " + sharedPrefixLength);
+            }
+            String path = stringInterner.intern(previousPath.substring(0, sharedPrefixLength) + decoder.readString());
+            HashCode contentHash = hashCodeSerializer.read(decoder);
+            long length = decoder.readSmallLong();
+            entries.add(new ManifestEntry(type, path, contentHash, length));
+            previousPath = path;
+        }
+        return entries.build();
+    }
+
+    private static int sharedPrefixLength(String a, String b) {
+        int maxLength = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < maxLength && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Gson createGson() {
+        return new GsonBuilder()
+            .registerTypeAdapter(Duration.class, new TypeAdapter<Duration>() {
+                @Override
+                public void write(JsonWriter out, Duration value) throws IOException {
+                    out.value(value.toMillis());
+                }
+
+                @Override
+                public Duration read(JsonReader in) throws IOException {
+                    return Duration.ofMillis(in.nextLong());
+                }
+            })
+            .registerTypeAdapter(HashCode.class, new TypeAdapter<HashCode>() {
+                @Override
+                public void write(JsonWriter out, HashCode value) throws IOException {
+                    out.value(value.toString());
+                }
+
+                @Override
+                public HashCode read(JsonReader in) throws IOException {
+                    return HashCode.fromString(in.nextString());
+                }
+            })
+            .create();
+    }
+}
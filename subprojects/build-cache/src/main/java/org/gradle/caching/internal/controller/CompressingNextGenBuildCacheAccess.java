@@ -19,24 +19,47 @@
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.ContentDefinedChunker;
 import org.gradle.caching.internal.NextGenBuildCacheService;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodec;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs;
 import org.gradle.internal.file.BufferProvider;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
-public class GZipNextGenBuildCacheAccess implements NextGenBuildCacheAccess {
+/**
+ * Compresses entries with a {@link BuildCacheEntryCodec}.
+ *
+ * Entries are decompressed with the codec recorded in their header, so entries compressed with different codecs can be loaded.
+ *
+ * When a chunker is given, the compressor is reset at each content-defined chunk boundary of the uncompressed data
+ * (similar to {@code gzip --rsyncable}), if the codec supports it. The result is still a regular stream for the codec,
+ * but after a change in the uncompressed data the compressed bytes get back in sync at the next boundary, so near-identical
+ * entries produce largely identical compressed data that a chunking store can de-duplicate.
+ */
+public class CompressingNextGenBuildCacheAccess implements NextGenBuildCacheAccess {
     private final NextGenBuildCacheAccess delegate;
     private final BufferProvider bufferProvider;
+    private final BuildCacheEntryCodecs codecs;
+    private final BuildCacheEntryCodec codec;
+    @Nullable
+    private final ContentDefinedChunker resetChunker;
+
+    public CompressingNextGenBuildCacheAccess(NextGenBuildCacheAccess delegate, BufferProvider bufferProvider, BuildCacheEntryCodecs codecs, BuildCacheEntryCodec codec) {
+        this(delegate, bufferProvider, codecs, codec, null);
+    }
 
-    public GZipNextGenBuildCacheAccess(NextGenBuildCacheAccess delegate, BufferProvider bufferProvider) {
+    public CompressingNextGenBuildCacheAccess(NextGenBuildCacheAccess delegate, BufferProvider bufferProvider, BuildCacheEntryCodecs codecs, BuildCacheEntryCodec codec, @Nullable ContentDefinedChunker resetChunker) {
         this.delegate = delegate;
         this.bufferProvider = bufferProvider;
+        this.codecs = codecs;
+        this.codec = codec;
+        this.resetChunker = resetChunker;
     }
 
     @Override
@@ -44,8 +67,8 @@ public <T> void load(Map<BuildCacheKey, T> entries, LoadHandler<T> handler) {
         delegate.load(entries, new DelegatingLoadHandler<T>(handler) {
             @Override
             public void handle(InputStream inputStream, T payload) {
-                try (GZIPInputStream zipInput = new GZIPInputStream(inputStream)) {
-                    handler.handle(zipInput, payload);
+                try (InputStream decompressedInput = codecs.decompress(inputStream)) {
+                    handler.handle(decompressedInput, payload);
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
                 }
@@ -61,9 +84,17 @@ public NextGenBuildCacheService.NextGenWriter createWriter(T payload) {
                 NextGenBuildCacheService.NextGenWriter delegateWriter = handler.createWriter(payload);
                 // TODO Make this more performant for large files
                 UnsynchronizedByteArrayOutputStream compressed = new UnsynchronizedByteArrayOutputStream((int) (delegateWriter.getSize() * 1.2));
-                try (GZIPOutputStream zipOutput = new GZIPOutputStream(compressed)) {
+                try (OutputStream compressedOutput = codecs.compress(compressed, codec)) {
                     try (InputStream delegateInput = delegateWriter.openStream()) {
-                        IOUtils.copyLarge(delegateInput, zipOutput, bufferProvider.getBuffer());
+                        if (resetChunker == null || !(compressedOutput instanceof BuildCacheEntryCodec.ResettableOutputStream)) {
+                            IOUtils.copyLarge(delegateInput, compressedOutput, bufferProvider.getBuffer());
+                        } else {
+                            ContentDefinedChunker.Chunks chunks = resetChunker.split(delegateInput);
+                            while (chunks.next()) {
+                                compressedOutput.write(chunks.getBuffer(), 0, chunks.getLength());
+                                ((BuildCacheEntryCodec.ResettableOutputStream) compressedOutput).resetCompression();
+                            }
+                        }
                     }
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
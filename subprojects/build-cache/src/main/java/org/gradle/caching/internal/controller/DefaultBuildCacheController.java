@@ -30,6 +30,7 @@
 import org.gradle.caching.internal.controller.operations.PackOperationResult;
 import org.gradle.caching.internal.controller.operations.UnpackOperationDetails;
 import org.gradle.caching.internal.controller.operations.UnpackOperationResult;
+import org.gradle.caching.internal.controller.service.AsyncRemoteBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.BuildCacheLoadResult;
 import org.gradle.caching.internal.controller.service.RemoteBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
@@ -42,9 +43,11 @@
 import org.gradle.caching.internal.origin.OriginMetadata;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.BuildCacheEntryTranscoder;
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.file.FileMetadata;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.file.TreeType;
@@ -64,6 +67,8 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
@@ -80,6 +85,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
     private final BuildCacheTempFileStore tmp;
     private final boolean emitDebugLogging;
     private final PackOperationExecutor packExecutor;
+    private final BuildCacheEntryTranscoder remoteTranscoder;
 
     private boolean closed;
 
@@ -95,9 +101,33 @@ public DefaultBuildCacheController(
         OriginMetadataFactory originMetadataFactory,
         StringInterner stringInterner
     ) {
+        this(config, buildOperationExecutor, temporaryFileProvider, logStackTraces, emitDebugLogging, disableRemoteOnError, fileSystemAccess, packer, originMetadataFactory, stringInterner, null, null);
+    }
+
+    /**
+     * @param remoteTranscoder when not {@code null}, entries are transcoded before being stored in the remote cache,
+     * e.g. to use a denser compression than for the local cache.
+     * @param asyncRemoteStoreExecutorFactory when not {@code null}, entries are stored in the remote cache in the background,
+     * see {@link AsyncRemoteBuildCacheServiceHandle}.
+     */
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        TemporaryFileProvider temporaryFileProvider,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        boolean disableRemoteOnError,
+        FileSystemAccess fileSystemAccess,
+        BuildCacheEntryPacker packer,
+        OriginMetadataFactory originMetadataFactory,
+        StringInterner stringInterner,
+        @Nullable BuildCacheEntryTranscoder remoteTranscoder,
+        @Nullable ExecutorFactory asyncRemoteStoreExecutorFactory
+    ) {
+        this.remoteTranscoder = remoteTranscoder;
         this.emitDebugLogging = emitDebugLogging;
         this.local = toLocalHandle(config.getLocal(), config.isLocalPush());
-        this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError);
+        this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError, temporaryFileProvider, asyncRemoteStoreExecutorFactory);
         this.tmp = toTempFileStore(config.getLocal(), temporaryFileProvider);
         this.packExecutor = new PackOperationExecutor(
             buildOperationExecutor,
@@ -162,11 +192,30 @@ public void store(BuildCacheKey key, CacheableEntity entity, Map<String, FileSys
         }
         tmp.withTempFile(key, file -> {
             packExecutor.pack(file, key, entity, snapshots, executionTime);
-            remote.maybeStore(key, file);
+            storeRemote(key, file);
             local.maybeStore(key, file);
         });
     }
 
+    private void storeRemote(BuildCacheKey key, File file) {
+        if (remoteTranscoder == null || !remote.canStore()) {
+            remote.maybeStore(key, file);
+            return;
+        }
+        File transcodedFile = new File(file.getPath() + ".remote");
+        try {
+            try (InputStream input = new FileInputStream(file); OutputStream output = new FileOutputStream(transcodedFile)) {
+                remoteTranscoder.transcode(input, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not transcode build cache entry for remote cache", e);
+            }
+            remote.maybeStore(key, transcodedFile);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            transcodedFile.delete();
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (!closed) {
@@ -199,11 +248,9 @@ BuildCacheLoadResult unpack(BuildCacheKey key, CacheableEntity entity, File file
             return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheLoadResult>() {
                 @Override
                 public BuildCacheLoadResult call(BuildOperationContext context) throws IOException {
-                    try (InputStream input = new FileInputStream(file)) {
-                        BuildCacheLoadResult metadata = doUnpack(entity, input);
-                        context.setResult(new UnpackOperationResult(metadata.getArtifactEntryCount()));
-                        return metadata;
-                    }
+                    BuildCacheLoadResult metadata = doUnpack(entity, file);
+                    context.setResult(new UnpackOperationResult(metadata.getArtifactEntryCount()));
+                    return metadata;
                 }
 
                 @Override
@@ -215,12 +262,12 @@ public BuildOperationDescriptor.Builder description() {
             });
         }
 
-        private BuildCacheLoadResult doUnpack(CacheableEntity entity, InputStream input) throws IOException {
+        private BuildCacheLoadResult doUnpack(CacheableEntity entity, File file) throws IOException {
             ImmutableList.Builder<String> roots = ImmutableList.builder();
             entity.visitOutputTrees((name, type, root) -> roots.add(root.getAbsolutePath()));
             // TODO: Actually unpack the roots inside of the action
             fileSystemAccess.write(roots.build(), () -> {});
-            BuildCacheEntryPacker.UnpackResult unpackResult = packer.unpack(entity, input, originMetadataFactory.createReader(entity));
+            BuildCacheEntryPacker.UnpackResult unpackResult = packer.unpack(entity, file, originMetadataFactory.createReader(entity));
             // TODO: Update the snapshots from the action
             ImmutableSortedMap<String, FileSystemSnapshot> resultingSnapshots = snapshotUnpackedData(entity, unpackResult.getSnapshots());
             return new BuildCacheLoadResult() {
@@ -281,10 +328,28 @@ public BuildOperationDescriptor.Builder description() {
         }
     }
 
-    private static RemoteBuildCacheServiceHandle toRemoteHandle(@Nullable BuildCacheService service, boolean push, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, boolean disableOnError) {
-        return service == null
-            ? NullRemoteBuildCacheServiceHandle.INSTANCE
-            : new OpFiringRemoteBuildCacheServiceHandle(service, push, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces, disableOnError);
+    private static RemoteBuildCacheServiceHandle toRemoteHandle(
+        @Nullable BuildCacheService service,
+        boolean push,
+        BuildOperationExecutor buildOperationExecutor,
+        boolean logStackTraces,
+        boolean disableOnError,
+        TemporaryFileProvider temporaryFileProvider,
+        @Nullable ExecutorFactory asyncStoreExecutorFactory
+    ) {
+        if (service == null) {
+            return NullRemoteBuildCacheServiceHandle.INSTANCE;
+        }
+        RemoteBuildCacheServiceHandle handle = new OpFiringRemoteBuildCacheServiceHandle(service, push, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces, disableOnError);
+        if (asyncStoreExecutorFactory == null || !push) {
+            return handle;
+        }
+        return new AsyncRemoteBuildCacheServiceHandle(
+            handle,
+            asyncStoreExecutorFactory.create("Build cache uploads", AsyncRemoteBuildCacheServiceHandle.UPLOAD_THREADS),
+            temporaryFileProvider,
+            AsyncRemoteBuildCacheServiceHandle.getConfiguredMaxPendingUploads()
+        );
     }
 
     private static LocalBuildCacheServiceHandle toLocalHandle(@Nullable LocalBuildCacheService local, boolean localPush) {
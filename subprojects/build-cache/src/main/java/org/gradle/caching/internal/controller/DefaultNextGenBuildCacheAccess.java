@@ -21,23 +21,28 @@
 import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.internal.NextGenBuildCacheService;
+import org.gradle.caching.internal.packaging.BuildCacheEntryTranscoder;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.concurrent.ManagedThreadPoolExecutor;
 import org.gradle.internal.file.BufferProvider;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Coordinates loading and storing entries in a local and a remote cache.
@@ -45,12 +50,21 @@
  * When loading, entries unavailable locally are loaded tried from the remote cache.
  * Entries found in the remote cache are missored in the local cache.
  *
+ * Entries are loaded from and stored in the local cache in batches, see {@link NextGenBuildCacheService#loadAll(java.util.Collection, NextGenBuildCacheService.BatchEntryReader)}
+ * and {@link NextGenBuildCacheService#storeAll(Map)}.
+ * Only the local cache is accessed in batches: the remote cache is still loaded from and stored to one entry at a time,
+ * with the requests for different entries running concurrently.
+ *
+ * Entries are uploaded to the remote cache as they are stored locally, unless a transcoder is given to convert them,
+ * for example to compress them more densely.
+ *
  * Downloads and uploads to and from the remote cache are handled via a thread pool in parallel.
  * However, both {@link #load(Map, LoadHandler)} and {@link #store(Map, StoreHandler)} wait for all
  * async operations to finish before returning.
  */
 public class DefaultNextGenBuildCacheAccess implements NextGenBuildCacheAccess {
     public static final int THREAD_POOL_SIZE = 256;
+    private static final long MAX_LOCAL_STORE_BATCH_SIZE = 32 * 1024 * 1024;
 
     private final NextGenBuildCacheService local;
     private final RemoteNextGenBuildCacheServiceHandler remote;
@@ -58,6 +72,8 @@ public class DefaultNextGenBuildCacheAccess implements NextGenBuildCacheAccess {
     private final ManagedThreadPoolExecutor remoteProcessor;
     private final Logger logger;
     private final ConcurrencyCounter counter;
+    @Nullable
+    private final BuildCacheEntryTranscoder remoteTranscoder;
 
     public DefaultNextGenBuildCacheAccess(
         NextGenBuildCacheService local,
@@ -65,6 +81,17 @@ public DefaultNextGenBuildCacheAccess(
         BufferProvider bufferProvider,
         ExecutorFactory executorFactory,
         Logger logger
+    ) {
+        this(local, remote, bufferProvider, executorFactory, logger, null);
+    }
+
+    public DefaultNextGenBuildCacheAccess(
+        NextGenBuildCacheService local,
+        RemoteNextGenBuildCacheServiceHandler remote,
+        BufferProvider bufferProvider,
+        ExecutorFactory executorFactory,
+        Logger logger,
+        @Nullable BuildCacheEntryTranscoder remoteTranscoder
     ) {
         this.local = local;
         this.remote = remote;
@@ -73,61 +100,110 @@ public DefaultNextGenBuildCacheAccess(
         this.remoteProcessor = executorFactory.createThreadPool("Build cache access", THREAD_POOL_SIZE, THREAD_POOL_SIZE, 10, TimeUnit.SECONDS);
         this.logger = logger;
         this.counter = new ConcurrencyCounter(remoteProcessor);
+        this.remoteTranscoder = remoteTranscoder;
     }
 
     @Override
     public <T> void load(Map<BuildCacheKey, T> entries, LoadHandler<T> handler) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Set<BuildCacheKey> foundLocally = loadLocally(entries, handler);
+
+        if (!remote.canLoad()) {
+            return;
+        }
         CompletableFuture<?>[] asyncLoads = entries.entrySet().stream()
-            .flatMap(entry -> {
+            .filter(entry -> !foundLocally.contains(entry.getKey()))
+            .map(entry -> {
                 BuildCacheKey key = entry.getKey();
                 T payload = entry.getValue();
-                boolean foundLocally;
-                try {
-                    foundLocally = local.load(key, input -> handler.handle(input, payload));
-                } catch (Exception e) {
-                    handler.recordUnpackFailure(key, e);
-                    throw UncheckedException.throwAsUncheckedException(e);
-                }
-                if (!foundLocally && remote.canLoad()) {
-                    // TODO Improve error handling
-                    handler.ensureLoadOperationStarted(key);
-                    return Stream.of(CompletableFuture.runAsync(counter.wrap(new RemoteDownload<>(key, payload, handler)), remoteProcessor));
-                } else {
-                    return Stream.empty();
-                }
+                // TODO Improve error handling
+                handler.ensureLoadOperationStarted(key);
+                return CompletableFuture.runAsync(counter.wrap(new RemoteDownload<>(key, payload, handler)), remoteProcessor);
             })
             .toArray(CompletableFuture[]::new);
         CompletableFuture.allOf(asyncLoads)
             .join();
     }
 
+    private <T> Set<BuildCacheKey> loadLocally(Map<BuildCacheKey, T> entries, LoadHandler<T> handler) {
+        AtomicReference<BuildCacheKey> currentKey = new AtomicReference<>(entries.keySet().iterator().next());
+        try {
+            return local.loadAll(entries.keySet(), (key, input) -> {
+                currentKey.set(key);
+                handler.handle(input, entries.get(key));
+            });
+        } catch (Exception e) {
+            handler.recordUnpackFailure(currentKey.get(), e);
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
     @Override
     public <T> void store(Map<BuildCacheKey, T> entries, StoreHandler<T> handler) {
-        CompletableFuture<?>[] asyncStores = entries.entrySet().stream()
-            .flatMap(entry -> {
-                BuildCacheKey key = entry.getKey();
-                T payload = entry.getValue();
-                if (!local.contains(key)) {
-                    try {
-                        local.store(key, handler.createWriter(payload));
-                    } catch (Exception e) {
-                        handler.recordPackFailure(key, e);
-                        throw UncheckedException.throwAsUncheckedException(e);
-                    }
-                }
+        if (entries.isEmpty()) {
+            return;
+        }
+        storeLocally(entries, handler);
+
+        if (!remote.canStore()) {
+            return;
+        }
+        CompletableFuture<?>[] asyncStores = entries.keySet().stream()
+            .map(key -> {
                 // TODO Improve error handling
-                if (remote.canStore()) {
-                    handler.ensureStoreOperationStarted(key);
-                    return Stream.of(CompletableFuture.runAsync(counter.wrap(new RemoteUpload(key, handler)), remoteProcessor));
-                } else {
-                    return Stream.empty();
-                }
+                handler.ensureStoreOperationStarted(key);
+                return CompletableFuture.runAsync(counter.wrap(new RemoteUpload(key, handler)), remoteProcessor);
             })
             .toArray(CompletableFuture[]::new);
         CompletableFuture.allOf(asyncStores)
             .join();
     }
 
+    /**
+     * Stores the entries missing from the local cache in batches.
+     * Batches are limited in size, as writers might hold their content in memory.
+     */
+    private <T> void storeLocally(Map<BuildCacheKey, T> entries, StoreHandler<T> handler) {
+        Set<BuildCacheKey> presentLocally = local.containsAll(entries.keySet());
+        Map<BuildCacheKey, NextGenBuildCacheService.NextGenWriter> batch = new LinkedHashMap<>();
+        long batchSize = 0;
+        for (Map.Entry<BuildCacheKey, T> entry : entries.entrySet()) {
+            BuildCacheKey key = entry.getKey();
+            if (presentLocally.contains(key)) {
+                continue;
+            }
+            NextGenBuildCacheService.NextGenWriter writer;
+            try {
+                writer = handler.createWriter(entry.getValue());
+            } catch (Exception e) {
+                handler.recordPackFailure(key, e);
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+            batch.put(key, writer);
+            batchSize += writer.getSize();
+            if (batchSize >= MAX_LOCAL_STORE_BATCH_SIZE) {
+                storeBatchLocally(batch, handler);
+                batch.clear();
+                batchSize = 0;
+            }
+        }
+        storeBatchLocally(batch, handler);
+    }
+
+    private void storeBatchLocally(Map<BuildCacheKey, NextGenBuildCacheService.NextGenWriter> batch, StoreHandler<?> handler) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            local.storeAll(batch);
+        } catch (Exception e) {
+            handler.recordPackFailure(batch.keySet().iterator().next(), e);
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         Closer closer = Closer.create();
@@ -261,10 +337,20 @@ public void run() {
             store(data);
         }
 
+        private UnsynchronizedByteArrayOutputStream transcode(UnsynchronizedByteArrayOutputStream data) {
+            UnsynchronizedByteArrayOutputStream transcoded = new UnsynchronizedByteArrayOutputStream(data.size());
+            try {
+                remoteTranscoder.transcode(data.toInputStream(), transcoded);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return transcoded;
+        }
+
         private void store(UnsynchronizedByteArrayOutputStream data) {
             try {
                 logger.warn("Storing {} in remote (size: {})", key, data.size());
-                boolean stored = storeInner(data);
+                boolean stored = storeInner(remoteTranscoder == null ? data : transcode(data));
                 logger.warn("Stored {} in remote: {}", key, stored);
                 handler.recordStoreFinished(key, stored);
             } catch (Exception e) {
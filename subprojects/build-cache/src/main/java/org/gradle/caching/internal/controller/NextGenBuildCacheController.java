@@ -24,11 +24,6 @@
 import com.google.common.collect.Iterables;
 import com.google.common.io.Closer;
 import com.google.common.io.CountingInputStream;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.TypeAdapter;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonWriter;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.UnsynchronizedByteArrayInputStream;
@@ -62,7 +57,6 @@
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.file.TreeType;
 import org.gradle.internal.file.impl.DefaultFileMetadata;
-import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -84,12 +78,12 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -140,14 +134,17 @@
  *       For unpacking we report exactly one {@link BuildCacheArchiveUnpackBuildOperationType}; similarly to the upload
  *       case the archive size reported is actually not the copied amount, but the total size in the manifest
  *       (plus the size of the manifest). The entry count reflects the actual files unpacked (plus one for the manifest).
- *       However, for now this should always match the total number of files in the manifest, as (for now) we always
- *       delete any previous output when loading from cache, and thus we need to unpack every entry.
+ *       By default this matches the total number of files in the manifest, as we delete any previous output when loading
+ *       from cache, and thus we need to unpack every entry. With differential unpacking enabled (see
+ *       {@link #NEXT_GEN_CACHE_DIFFERENTIAL_UNPACK_SYSTEM_PROPERTY}) only the files whose content differs from what is
+ *       already in the output are unpacked, and the count can be lower.
  *   </li>
  * </ul>
  */
 public class NextGenBuildCacheController implements BuildCacheController {
 
     public static final String NEXT_GEN_CACHE_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.ng";
+    public static final String NEXT_GEN_CACHE_DIFFERENTIAL_UNPACK_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.ng.differential-unpack";
 
     private final BufferProvider bufferProvider;
     private final BuildOperationExecutor buildOperationExecutor;
@@ -157,7 +154,8 @@ public class NextGenBuildCacheController implements BuildCacheController {
     private final Logger logger;
     private final Deleter deleter;
     private final StringInterner stringInterner;
-    private final Gson gson;
+    private final boolean differentialUnpack;
+    private final CacheManifestSerializer manifestSerializer;
 
     public NextGenBuildCacheController(
         String buildInvocationId,
@@ -167,7 +165,9 @@ public NextGenBuildCacheController(
         BufferProvider bufferProvider,
         StringInterner stringInterner,
         BuildOperationExecutor buildOperationExecutor,
-        NextGenBuildCacheAccess cacheAccess
+        NextGenBuildCacheAccess cacheAccess,
+        CacheManifestSerializer manifestSerializer,
+        boolean differentialUnpack
     ) {
         this.buildInvocationId = buildInvocationId;
         this.logger = logger;
@@ -177,39 +177,12 @@ public NextGenBuildCacheController(
         this.buildOperationExecutor = buildOperationExecutor;
         this.cacheAccess = cacheAccess;
         this.stringInterner = stringInterner;
-        this.gson = createGson();
+        this.manifestSerializer = manifestSerializer;
+        this.differentialUnpack = differentialUnpack;
 
         logger.warn("Creating next-generation build cache controller");
     }
 
-    @VisibleForTesting
-    public static Gson createGson() {
-        return new GsonBuilder()
-            .registerTypeAdapter(Duration.class, new TypeAdapter<Duration>() {
-                @Override
-                public void write(JsonWriter out, Duration value) throws IOException {
-                    out.value(value.toMillis());
-                }
-
-                @Override
-                public Duration read(JsonReader in) throws IOException {
-                    return Duration.ofMillis(in.nextLong());
-                }
-            })
-            .registerTypeAdapter(HashCode.class, new TypeAdapter<HashCode>() {
-                @Override
-                public void write(JsonWriter out, HashCode value) throws IOException {
-                    out.value(value.toString());
-                }
-
-                @Override
-                public HashCode read(JsonReader in) throws IOException {
-                    return HashCode.fromString(in.nextString());
-                }
-            })
-            .create();
-    }
-
     @Override
     public boolean isEnabled() {
         return true;
@@ -228,7 +201,11 @@ public Optional<BuildCacheLoadResult> load(BuildCacheKey manifestKey, CacheableE
             AtomicLong manifestSize = new AtomicLong(-1L);
             cacheAccess.load(Collections.singletonMap(manifestKey, null), handlerFactory.create((manifestStream, __) -> {
                 CountingInputStream counterStream = new CountingInputStream(manifestStream);
-                manifestRef.set(gson.fromJson(new InputStreamReader(counterStream), CacheManifest.class));
+                try {
+                    manifestRef.set(manifestSerializer.read(counterStream));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
                 manifestSize.set(counterStream.getCount());
             }));
             CacheManifest manifest = manifestRef.get();
@@ -392,73 +369,171 @@ private void finishUnpackIfNecessary() {
         }
     }
 
+    /**
+     * Loads the content of all output properties with a single request to the cache access.
+     */
     private ImmutableSortedMap<String, FileSystemSnapshot> loadContent(CacheableEntity cacheableEntity, CacheManifest manifest, OperationFiringLoadHandlerFactory handlerFactory) {
+        List<Runnable> snapshotActions = new ArrayList<>();
         ImmutableSortedMap.Builder<String, FileSystemSnapshot> snapshots = ImmutableSortedMap.naturalOrder();
 
+        // Note that there can be multiple output files with the same content
+        ImmutableListMultimap.Builder<BuildCacheKey, File> filesBuilder = ImmutableListMultimap.builder();
         cacheableEntity.visitOutputTrees((propertyName, type, root) -> {
+            List<ManifestEntry> manifestEntries = manifest.getPropertyManifests().get(propertyName);
+
+            // Capture what is currently in the output before we invalidate the VFS
+            Map<String, FileSystemLocationSnapshot> existingEntries = differentialUnpack
+                ? indexExistingEntries(root)
+                : Collections.emptyMap();
+
             // Invalidate VFS
             fileSystemAccess.write(Collections.singleton(root.getAbsolutePath()), () -> {});
 
-            // TODO Apply diff to outputs instead of clearing them here and loading everything
             try {
-                cleanOutputDirectory(type, root);
+                if (differentialUnpack) {
+                    prepareOutputDifferentially(type, root, manifestEntries, existingEntries, filesBuilder);
+                } else {
+                    prepareOutputFromScratch(type, root, manifestEntries, filesBuilder);
+                }
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
 
-            // Note that there can be multiple output files with the same content
-            ImmutableListMultimap.Builder<BuildCacheKey, File> filesBuilder = ImmutableListMultimap.builder();
-            List<ManifestEntry> manifestEntries = manifest.getPropertyManifests().get(propertyName);
-            manifestEntries.forEach(entry -> {
-                File file = new File(root, entry.getRelativePath());
-                switch (entry.getType()) {
-                    case Directory:
-                        // TODO set correct file permissions
-                        // TODO Handle this
-                        //noinspection ResultOfMethodCallIgnored
-                        file.mkdirs();
-                        break;
-                    case RegularFile:
-                        // TODO set correct file permissions
-                        filesBuilder.put(new DefaultBuildCacheKey(entry.getContentHash()), file);
-                        break;
-                    case Missing:
-                        FileUtils.deleteQuietly(file);
-                        break;
-                }
-            });
-
-            // TODO Filter out entries that are already in the right place in the output directory
-            cacheAccess.load(filesBuilder.build().asMap(), handlerFactory.create((input, filesForHash) -> {
-                try (Closer closer = Closer.create()) {
-                    OutputStream output = filesForHash.stream()
-                        .map(file -> {
-                            try {
-                                return closer.register(new FileOutputStream(file));
-                            } catch (FileNotFoundException e) {
-                                throw new UncheckedIOException("Couldn't create " + file.getAbsolutePath(), e);
-                            }
-                        })
-                        .map(OutputStream.class::cast)
-                        .reduce(TeeOutputStream::new)
-                        .orElse(NullOutputStream.NULL_OUTPUT_STREAM);
-
-                    IOUtils.copyLarge(input, output, bufferProvider.getBuffer());
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
-                }
-            }));
-
-            createSnapshot(type, root, manifestEntries)
+            snapshotActions.add(() -> createSnapshot(type, root, manifestEntries)
                 .ifPresent(snapshot -> {
                     snapshots.put(propertyName, snapshot);
                     fileSystemAccess.record(snapshot);
-                });
+                }));
         });
 
+        cacheAccess.load(filesBuilder.build().asMap(), handlerFactory.create((input, filesForHash) -> {
+            try (Closer closer = Closer.create()) {
+                OutputStream output = filesForHash.stream()
+                    .map(file -> {
+                        try {
+                            return closer.register(new FileOutputStream(file));
+                        } catch (FileNotFoundException e) {
+                            throw new UncheckedIOException("Couldn't create " + file.getAbsolutePath(), e);
+                        }
+                    })
+                    .map(OutputStream.class::cast)
+                    .reduce(TeeOutputStream::new)
+                    .orElse(NullOutputStream.NULL_OUTPUT_STREAM);
+
+                IOUtils.copyLarge(input, output, bufferProvider.getBuffer());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }));
+
+        snapshotActions.forEach(Runnable::run);
         return snapshots.build();
     }
 
+    private void prepareOutputFromScratch(TreeType type, File root, List<ManifestEntry> manifestEntries, ImmutableListMultimap.Builder<BuildCacheKey, File> filesToLoad) throws IOException {
+        cleanOutputDirectory(type, root);
+
+        manifestEntries.forEach(entry -> {
+            File file = new File(root, entry.getRelativePath());
+            switch (entry.getType()) {
+                case Directory:
+                    // TODO set correct file permissions
+                    // TODO Handle this
+                    //noinspection ResultOfMethodCallIgnored
+                    file.mkdirs();
+                    break;
+                case RegularFile:
+                    // TODO set correct file permissions
+                    filesToLoad.put(new DefaultBuildCacheKey(entry.getContentHash()), file);
+                    break;
+                case Missing:
+                    FileUtils.deleteQuietly(file);
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Brings the output in line with the manifest by only touching what is different.
+     *
+     * Existing entries that are not in the manifest, or have a different type, are removed.
+     * Regular files that already have the expected content are left alone, and only the rest are loaded from the cache.
+     */
+    private void prepareOutputDifferentially(
+        TreeType type,
+        File root,
+        List<ManifestEntry> manifestEntries,
+        Map<String, FileSystemLocationSnapshot> existingEntries,
+        ImmutableListMultimap.Builder<BuildCacheKey, File> filesToLoad
+    ) throws IOException {
+        if (type == TreeType.FILE) {
+            makeDirectory(root.getParentFile());
+        }
+
+        Map<String, ManifestEntry> expectedEntries = manifestEntries.stream()
+            .collect(ImmutableMap.toImmutableMap(ManifestEntry::getRelativePath, Function.identity()));
+
+        List<String> removedPaths = new ArrayList<>();
+        for (Map.Entry<String, FileSystemLocationSnapshot> existingEntry : existingEntries.entrySet()) {
+            String relativePath = existingEntry.getKey();
+            FileType existingType = existingEntry.getValue().getType();
+            if (existingType == FileType.Missing || isUnderAny(relativePath, removedPaths)) {
+                continue;
+            }
+            ManifestEntry expectedEntry = expectedEntries.get(relativePath);
+            if (expectedEntry == null || expectedEntry.getType() != existingType) {
+                deleter.deleteRecursively(new File(root, relativePath));
+                removedPaths.add(relativePath);
+            }
+        }
+
+        for (ManifestEntry entry : manifestEntries) {
+            File file = new File(root, entry.getRelativePath());
+            switch (entry.getType()) {
+                case Directory:
+                    // TODO set correct file permissions
+                    //noinspection ResultOfMethodCallIgnored
+                    file.mkdirs();
+                    break;
+                case RegularFile:
+                    FileSystemLocationSnapshot existing = existingEntries.get(entry.getRelativePath());
+                    boolean upToDate = existing != null
+                        && existing.getType() == FileType.RegularFile
+                        && !isUnderAny(entry.getRelativePath(), removedPaths)
+                        && existing.getHash().equals(entry.getContentHash());
+                    if (!upToDate) {
+                        // TODO set correct file permissions
+                        filesToLoad.put(new DefaultBuildCacheKey(entry.getContentHash()), file);
+                    }
+                    break;
+                case Missing:
+                    FileUtils.deleteQuietly(file);
+                    break;
+            }
+        }
+    }
+
+    private Map<String, FileSystemLocationSnapshot> indexExistingEntries(File root) {
+        Map<String, FileSystemLocationSnapshot> existingEntries = new LinkedHashMap<>();
+        fileSystemAccess.read(root.getAbsolutePath())
+            .accept(new RelativePathTracker(), (snapshot, relativePath) -> {
+                existingEntries.put(relativePath.toRelativePath(), snapshot);
+                return SnapshotVisitResult.CONTINUE;
+            });
+        return existingEntries;
+    }
+
+    private static boolean isUnderAny(String relativePath, List<String> parentPaths) {
+        for (String parentPath : parentPaths) {
+            if (parentPath.isEmpty()
+                || relativePath.equals(parentPath)
+                || relativePath.startsWith(parentPath + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // TODO Extract snapshotting part to it's own class
     @VisibleForTesting
     Optional<FileSystemLocationSnapshot> createSnapshot(TreeType type, File root, List<ManifestEntry> entries) {
@@ -565,8 +640,7 @@ public void store(BuildCacheKey manifestKey, CacheableEntity entity, Map<String,
             entity.getIdentity(),
             propertyManifests.build());
 
-        String manifestJson = gson.toJson(manifest);
-        byte[] manifestBytes = manifestJson.getBytes(StandardCharsets.UTF_8);
+        byte[] manifestBytes = manifestSerializer.write(manifest);
 
         long totalUploadSize = contentSize.get() + manifestBytes.length;
         try (OperationFiringStoreHandlerFactory handlerFactory = new OperationFiringStoreHandlerFactory(manifestKey, totalUploadSize)) {
@@ -666,38 +740,39 @@ private void markStored() {
     }
 
     private void storeInner(BuildCacheKey manifestKey, CacheableEntity entity, CacheManifest manifest, byte[] manifestBytes, OperationFiringStoreHandlerFactory handlerFactory) {
-        entity.visitOutputTrees((propertyName, type, root) -> {
-            Map<BuildCacheKey, ManifestEntry> manifestIndex = manifest.getPropertyManifests().get(propertyName).stream()
+        // Store the content of all output properties with a single request to the cache access
+        Map<BuildCacheKey, OutputFile> filesToStore = new LinkedHashMap<>();
+        entity.visitOutputTrees((propertyName, type, root) ->
+            manifest.getPropertyManifests().get(propertyName).stream()
                 .filter(entry -> entry.getType() == FileType.RegularFile)
-                .collect(ImmutableMap.toImmutableMap(
-                    manifestEntry -> new DefaultBuildCacheKey(manifestEntry.getContentHash()),
-                    Function.identity(),
-                    // When there are multiple identical files to store, it doesn't matter which one we read
-                    (a, b) -> a)
-                );
-
-            cacheAccess.store(manifestIndex, handlerFactory.create(manifestEntry -> new CountingWriter(handlerFactory.packEntryCount, handlerFactory.totalPackSize) {
-                @Override
-                protected InputStream doOpenStream() throws IOException {
-                    // TODO Replace with "Files.newInputStream()" as it seems to be more efficient
-                    //      Might be a good idea to pass `root` as `Path` instead of `File` then
-                    //noinspection IOStreamConstructor
-                    return new FileInputStream(new File(root, manifestEntry.getRelativePath()));
-                }
+                // When there are multiple identical files to store, it doesn't matter which one we read
+                .forEach(manifestEntry -> filesToStore.putIfAbsent(
+                    new DefaultBuildCacheKey(manifestEntry.getContentHash()),
+                    new OutputFile(new File(root, manifestEntry.getRelativePath()), manifestEntry.getLength())
+                ))
+        );
 
-                @Override
-                protected void doWriteTo(OutputStream output) throws IOException {
-                    try (InputStream input = openStream()) {
-                        IOUtils.copyLarge(input, output, bufferProvider.getBuffer());
-                    }
-                }
+        cacheAccess.store(filesToStore, handlerFactory.create(outputFile -> new CountingWriter(handlerFactory.packEntryCount, handlerFactory.totalPackSize) {
+            @Override
+            protected InputStream doOpenStream() throws IOException {
+                // TODO Replace with "Files.newInputStream()" as it seems to be more efficient
+                //      Might be a good idea to pass `root` as `Path` instead of `File` then
+                //noinspection IOStreamConstructor
+                return new FileInputStream(outputFile.file);
+            }
 
-                @Override
-                public long getSize() {
-                    return manifestEntry.getLength();
+            @Override
+            protected void doWriteTo(OutputStream output) throws IOException {
+                try (InputStream input = openStream()) {
+                    IOUtils.copyLarge(input, output, bufferProvider.getBuffer());
                 }
-            }));
-        });
+            }
+
+            @Override
+            public long getSize() {
+                return outputFile.length;
+            }
+        }));
 
         cacheAccess.store(Collections.singletonMap(manifestKey, manifest), handlerFactory.create(__ -> new CountingWriter(handlerFactory.packEntryCount, handlerFactory.totalPackSize) {
             @Override
@@ -717,6 +792,16 @@ public long getSize() {
         }));
     }
 
+    private static class OutputFile {
+        private final File file;
+        private final long length;
+
+        public OutputFile(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
     private static void assertCorrectType(TreeType type, FileSystemLocationSnapshot snapshot) {
         if (snapshot.getType() == FileType.Missing) {
             return;
@@ -776,4 +861,8 @@ private boolean makeDirectory(File target) throws IOException {
     public static boolean isNextGenCachingEnabled() {
         return Boolean.getBoolean(NEXT_GEN_CACHE_SYSTEM_PROPERTY) == Boolean.TRUE;
     }
+
+    public static boolean isDifferentialUnpackEnabled() {
+        return Boolean.getBoolean(NEXT_GEN_CACHE_DIFFERENTIAL_UNPACK_SYSTEM_PROPERTY) == Boolean.TRUE;
+    }
 }
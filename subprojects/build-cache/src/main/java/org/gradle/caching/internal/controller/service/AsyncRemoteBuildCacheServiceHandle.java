@@ -0,0 +1,186 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service;
+
+import org.gradle.api.internal.file.temp.TemporaryFileProvider;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.BuildCacheService;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Stores entries in the remote cache in the background, so that the thread storing an entry
+ * (and the worker lease it holds) does not have to wait for the upload to finish.
+ *
+ * <p>
+ * Entries to upload are spilled to temporary files, as the files passed to {@link #maybeStore(BuildCacheKey, File)}
+ * are only valid during the call. Where possible, the temporary file is a hard link to the original file,
+ * so spilling does not copy the contents of the entry.
+ * </p>
+ *
+ * <p>
+ * The number of pending uploads is bounded. When the limit is reached, storing blocks until an upload finishes.
+ * Pending uploads are drained when the handle is closed at the end of the build.
+ * </p>
+ *
+ * <p>
+ * Failures are handled by the delegate the same way as for synchronous stores: they are logged and,
+ * if configured, disable the remote cache. As uploads can outlive the work that stored the entry,
+ * the store build operations are not children of the operation that stored the entry.
+ * </p>
+ */
+public class AsyncRemoteBuildCacheServiceHandle implements RemoteBuildCacheServiceHandle {
+
+    public static final String ASYNC_REMOTE_STORE_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.async-remote-store";
+    public static final String MAX_PENDING_UPLOADS_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.async-remote-store.max-pending";
+    public static final int DEFAULT_MAX_PENDING_UPLOADS = 64;
+    public static final int UPLOAD_THREADS = 4;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRemoteBuildCacheServiceHandle.class);
+
+    private final RemoteBuildCacheServiceHandle delegate;
+    private final ManagedExecutor uploader;
+    private final TemporaryFileProvider temporaryFileProvider;
+    private final int maxPendingUploads;
+    private final Semaphore pendingUploads;
+
+    private boolean closed;
+
+    public AsyncRemoteBuildCacheServiceHandle(RemoteBuildCacheServiceHandle delegate, ManagedExecutor uploader, TemporaryFileProvider temporaryFileProvider, int maxPendingUploads) {
+        this.delegate = delegate;
+        this.uploader = uploader;
+        this.temporaryFileProvider = temporaryFileProvider;
+        this.maxPendingUploads = maxPendingUploads;
+        this.pendingUploads = new Semaphore(maxPendingUploads);
+    }
+
+    public static boolean isAsyncRemoteStoreEnabled() {
+        return Boolean.getBoolean(ASYNC_REMOTE_STORE_SYSTEM_PROPERTY);
+    }
+
+    public static int getConfiguredMaxPendingUploads() {
+        return Integer.getInteger(MAX_PENDING_UPLOADS_SYSTEM_PROPERTY, DEFAULT_MAX_PENDING_UPLOADS);
+    }
+
+    @Nullable
+    @Override
+    public BuildCacheService getService() {
+        return delegate.getService();
+    }
+
+    @Override
+    public boolean canLoad() {
+        return delegate.canLoad();
+    }
+
+    @Override
+    public Optional<BuildCacheLoadResult> maybeLoad(BuildCacheKey key, File toFile, Function<File, BuildCacheLoadResult> unpackFunction) {
+        return delegate.maybeLoad(key, toFile, unpackFunction);
+    }
+
+    @Override
+    public boolean canStore() {
+        return delegate.canStore();
+    }
+
+    /**
+     * Schedules the file to be stored in the cache.
+     *
+     * Returns true if the store was scheduled, even though the upload itself can still fail.
+     */
+    @Override
+    public boolean maybeStore(BuildCacheKey key, File file) {
+        if (!canStore()) {
+            return false;
+        }
+        try {
+            pendingUploads.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        File spilledFile;
+        try {
+            spilledFile = spill(key, file);
+        } catch (RuntimeException e) {
+            pendingUploads.release();
+            throw e;
+        }
+        try {
+            uploader.execute(() -> {
+                try {
+                    delegate.maybeStore(key, spilledFile);
+                } finally {
+                    GFileUtils.deleteQuietly(spilledFile);
+                    pendingUploads.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            GFileUtils.deleteQuietly(spilledFile);
+            pendingUploads.release();
+            throw e;
+        }
+        return true;
+    }
+
+    private File spill(BuildCacheKey key, File file) {
+        File spilledFile = temporaryFileProvider.createTemporaryFile(key.getHashCode() + "-", ".upload", "build-cache-uploads");
+        try {
+            try {
+                Files.delete(spilledFile.toPath());
+                Files.createLink(spilledFile.toPath(), file.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(file.toPath(), spilledFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            GFileUtils.deleteQuietly(spilledFile);
+            throw new UncheckedIOException("Could not spill build cache entry " + key.getDisplayName() + " for upload", e);
+        }
+        return spilledFile;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int pending = maxPendingUploads - pendingUploads.availablePermits();
+        if (pending > 0) {
+            LOGGER.info("Waiting for {} remote build cache upload(s) to finish", pending);
+        }
+        try {
+            uploader.stop();
+        } finally {
+            delegate.close();
+        }
+    }
+}
@@ -38,7 +38,7 @@ public class BaseRemoteBuildCacheServiceHandle implements RemoteBuildCacheServic
     private final boolean logStackTraces;
     private final boolean disableOnError;
 
-    private boolean disabled;
+    private volatile boolean disabled;
 
     public BaseRemoteBuildCacheServiceHandle(
         BuildCacheService service,
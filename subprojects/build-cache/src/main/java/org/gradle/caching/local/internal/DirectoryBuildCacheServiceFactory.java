@@ -21,14 +21,18 @@
 import org.gradle.api.internal.file.temp.TemporaryFileProvider;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheCleanupStrategy;
+import org.gradle.cache.CleanupAction;
 import org.gradle.cache.UnscopedCacheBuilderFactory;
 import org.gradle.cache.internal.CleanupActionDecorator;
+import org.gradle.cache.internal.CompositeCleanupAction;
+import org.gradle.cache.internal.FilesFinder;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
 import org.gradle.cache.scopes.GlobalScopedCacheBuilderFactory;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
+import org.gradle.caching.internal.packaging.LinkDirectoryRef;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.internal.file.FileAccessTimeJournal;
 import org.gradle.internal.file.FileAccessTracker;
@@ -51,6 +55,7 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
     private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
+    private static final String LINK_DIRECTORY_NAME = "links";
 
     private final UnscopedCacheBuilderFactory unscopedCacheBuilderFactory;
     private final GlobalScopedCacheBuilderFactory cacheBuilderFactory;
@@ -59,11 +64,12 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
     private final CleanupActionDecorator cleanupActionDecorator;
     private final FileAccessTimeJournal fileAccessTimeJournal;
     private final TemporaryFileProvider temporaryFileProvider;
+    private final LinkDirectoryRef linkDirectoryRef;
 
     @Inject
     public DirectoryBuildCacheServiceFactory(
             UnscopedCacheBuilderFactory unscopedCacheBuilderFactory, GlobalScopedCacheBuilderFactory cacheBuilderFactory, PathToFileResolver resolver, DirectoryBuildCacheFileStoreFactory fileStoreFactory,
-            CleanupActionDecorator cleanupActionDecorator, FileAccessTimeJournal fileAccessTimeJournal, TemporaryFileProvider temporaryFileProvider) {
+            CleanupActionDecorator cleanupActionDecorator, FileAccessTimeJournal fileAccessTimeJournal, TemporaryFileProvider temporaryFileProvider, LinkDirectoryRef linkDirectoryRef) {
         this.unscopedCacheBuilderFactory = unscopedCacheBuilderFactory;
         this.cacheBuilderFactory = cacheBuilderFactory;
         this.resolver = resolver;
@@ -71,6 +77,7 @@ public DirectoryBuildCacheServiceFactory(
         this.cleanupActionDecorator = cleanupActionDecorator;
         this.fileAccessTimeJournal = fileAccessTimeJournal;
         this.temporaryFileProvider = temporaryFileProvider;
+        this.linkDirectoryRef = linkDirectoryRef;
     }
 
     @Override
@@ -90,10 +97,14 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
             config("location", target.getAbsolutePath()).
             config("removeUnusedEntriesAfter", String.valueOf(removeUnusedEntriesAfterDays) + " days");
 
+        // Files restored via links are linked to copies in the cache directory, whose cleanup removes the copies no file is linked to anymore
+        File linkDirectory = new File(target, LINK_DIRECTORY_NAME);
+        linkDirectoryRef.set(linkDirectory);
+
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
         PersistentCache persistentCache = unscopedCacheBuilderFactory
             .cache(target)
-            .withCleanupStrategy(createCacheCleanupStrategy(removeUnusedEntriesOlderThan))
+            .withCleanupStrategy(createCacheCleanupStrategy(linkDirectory, removeUnusedEntriesOlderThan))
             .withDisplayName("Build cache")
             .withLockOptions(mode(OnDemand))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
@@ -104,12 +115,22 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
     }
 
-    private CacheCleanupStrategy createCacheCleanupStrategy(Supplier<Long> removeUnusedEntriesTimestamp) {
-        return DefaultCacheCleanupStrategy.from(cleanupActionDecorator.decorate(createCleanupAction(removeUnusedEntriesTimestamp)));
+    private CacheCleanupStrategy createCacheCleanupStrategy(File linkDirectory, Supplier<Long> removeUnusedEntriesTimestamp) {
+        return DefaultCacheCleanupStrategy.from(cleanupActionDecorator.decorate(createCleanupAction(linkDirectory, removeUnusedEntriesTimestamp)));
+    }
+
+    private CleanupAction createCleanupAction(File linkDirectory, Supplier<Long> removeUnusedEntriesTimestamp) {
+        SingleDepthFilesFinder entriesFinder = new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
+        // The link directory is cleaned up file by file, rather than as a single entry
+        FilesFinder entriesWithoutLinkDirectory = (baseDir, filter) -> entriesFinder.find(baseDir, file -> filter.accept(file) && !isLinkDirectory(baseDir, file));
+        return CompositeCleanupAction.builder()
+            .add(new LeastRecentlyUsedCacheCleanup(entriesWithoutLinkDirectory, fileAccessTimeJournal, removeUnusedEntriesTimestamp))
+            .add(linkDirectory, new LinkDirectoryCleanup(removeUnusedEntriesTimestamp))
+            .build();
     }
 
-    private LeastRecentlyUsedCacheCleanup createCleanupAction(Supplier<Long> removeUnusedEntriesTimestamp) {
-        return new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesTimestamp);
+    private static boolean isLinkDirectory(File baseDir, File file) {
+        return file.getName().equals(LINK_DIRECTORY_NAME) && baseDir.equals(file.getParentFile());
     }
 
     private static void checkDirectory(File directory) {
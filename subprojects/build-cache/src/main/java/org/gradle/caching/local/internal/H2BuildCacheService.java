@@ -17,17 +17,25 @@
 package org.gradle.caching.local.internal;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Closer;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.gradle.cache.HasCleanupAction;
 import org.gradle.caching.BuildCacheEntryReader;
 import org.gradle.caching.BuildCacheException;
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.ContentDefinedChunker;
 import org.gradle.caching.internal.NextGenBuildCacheService;
 import org.gradle.caching.internal.StatefulNextGenBuildCacheService;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.hash.PrimitiveHasher;
 import org.gradle.internal.time.Clock;
 import org.h2.Driver;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
@@ -38,26 +46,64 @@
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Local build cache backed by an H2 database.
+ *
+ * <p>
+ * Entries are either stored as a single blob, or when chunking is enabled (see {@link #CHUNKED_STORE_SYSTEM_PROPERTY}),
+ * split into content-defined chunks via {@link ContentDefinedChunker}. Each chunk is stored only once, no matter how many
+ * entries contain it, so near-identical entries take up little additional space. Entries stored either way can be loaded
+ * regardless of the current setting.
+ * </p>
+ *
  * TODO: Extract H2 specific code to a generic "H2Cache" class
  */
 public class H2BuildCacheService implements NextGenBuildCacheService, StatefulNextGenBuildCacheService {
 
+    public static final String CHUNKED_STORE_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.ng.chunked-store";
+
     private static final String DATABASE_NAME = "filestore";
 
+    /**
+     * Maximum number of keys to put in a single {@code IN (...)} clause.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final int removeUnusedEntriesAfterDays;
     private HikariDataSource dataSource;
     private final Clock clock;
     private final Path dbPath;
     private final int maxPoolSize;
+    @Nullable
+    private final ContentDefinedChunker chunker;
 
     public H2BuildCacheService(Path dbPath, int maxPoolSize, int removeUnusedEntriesAfterDays, Clock clock) {
+        this(dbPath, maxPoolSize, removeUnusedEntriesAfterDays, clock, null);
+    }
+
+    /**
+     * Creates a service that splits entries into chunks with the given chunker before storing them,
+     * or stores entries as a single blob when the chunker is {@code null}.
+     */
+    public H2BuildCacheService(Path dbPath, int maxPoolSize, int removeUnusedEntriesAfterDays, Clock clock, @Nullable ContentDefinedChunker chunker) {
         this.dbPath = dbPath;
         this.maxPoolSize = maxPoolSize;
         this.clock = clock;
         this.removeUnusedEntriesAfterDays = removeUnusedEntriesAfterDays;
+        this.chunker = chunker;
+    }
+
+    public static boolean isChunkedStoreEnabled() {
+        return Boolean.getBoolean(CHUNKED_STORE_SYSTEM_PROPERTY);
     }
 
     @Override
@@ -102,7 +148,7 @@ public boolean contains(BuildCacheKey key) {
     public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws BuildCacheException {
         try (Connection conn = dataSource.getConnection()) {
             try (PreparedStatement stmt = conn.prepareStatement(
-                "select entry_content from filestore.catalog where entry_key = ?;" +
+                "select entry_content, entry_chunked from filestore.catalog where entry_key = ?;" +
                     "update filestore.lru set entry_accessed = ? where entry_key = ?;"
             )) {
                 stmt.setString(1, key.getHashCode());
@@ -110,8 +156,7 @@ public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws Buil
                 stmt.setString(3, key.getHashCode());
                 try (ResultSet rs = stmt.executeQuery()) {
                     if (rs.next()) {
-                        Blob content = rs.getBlob(1);
-                        try (InputStream binaryStream = content.getBinaryStream()) {
+                        try (InputStream binaryStream = openContent(conn, key.getHashCode(), rs)) {
                             reader.readFrom(binaryStream);
                         }
                         return true;
@@ -126,6 +171,10 @@ public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws Buil
 
     @Override
     public void store(BuildCacheKey key, NextGenWriter writer) throws BuildCacheException {
+        if (chunker != null) {
+            storeAll(Collections.singletonMap(key, writer));
+            return;
+        }
         try (Connection conn = dataSource.getConnection()) {
             try (PreparedStatement stmt = conn.prepareStatement(
                 "insert ignore into filestore.lru(entry_key, entry_accessed) values (?, ?);" +
@@ -145,9 +194,293 @@ public void store(BuildCacheKey key, NextGenWriter writer) throws BuildCacheExce
         }
     }
 
+    @Override
+    public Set<BuildCacheKey> containsAll(Collection<BuildCacheKey> keys) throws BuildCacheException {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<String, BuildCacheKey> keysByHash = indexByHash(keys);
+        ImmutableSet.Builder<BuildCacheKey> found = ImmutableSet.builder();
+        try (Connection conn = dataSource.getConnection()) {
+            for (List<String> batch : Iterables.partition(keysByHash.keySet(), MAX_BATCH_SIZE)) {
+                try (PreparedStatement stmt = conn.prepareStatement("select entry_key from filestore.catalog where entry_key in (" + placeholders(batch.size()) + ")")) {
+                    setKeys(stmt, 1, batch);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            found.add(keysByHash.get(rs.getString(1)));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new BuildCacheException("contains " + keys.size() + " entries", e);
+        }
+        return found.build();
+    }
+
+    @Override
+    public Set<BuildCacheKey> loadAll(Collection<BuildCacheKey> keys, BatchEntryReader reader) throws BuildCacheException {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<String, BuildCacheKey> keysByHash = indexByHash(keys);
+        ImmutableSet.Builder<BuildCacheKey> found = ImmutableSet.builder();
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                long accessTime = clock.getCurrentTime();
+                for (List<String> batch : Iterables.partition(keysByHash.keySet(), MAX_BATCH_SIZE)) {
+                    String placeholders = placeholders(batch.size());
+                    try (PreparedStatement stmt = conn.prepareStatement("select entry_content, entry_chunked, entry_key from filestore.catalog where entry_key in (" + placeholders + ")")) {
+                        setKeys(stmt, 1, batch);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                String hashCode = rs.getString(3);
+                                BuildCacheKey key = keysByHash.get(hashCode);
+                                try (InputStream binaryStream = openContent(conn, hashCode, rs)) {
+                                    reader.readFrom(key, binaryStream);
+                                }
+                                found.add(key);
+                            }
+                        }
+                    }
+                    try (PreparedStatement stmt = conn.prepareStatement("update filestore.lru set entry_accessed = ? where entry_key in (" + placeholders + ")")) {
+                        stmt.setLong(1, accessTime);
+                        setKeys(stmt, 2, batch);
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException | IOException e) {
+            throw new BuildCacheException("loading " + keys.size() + " entries", e);
+        }
+        return found.build();
+    }
+
+    @Override
+    public void storeAll(Map<BuildCacheKey, NextGenWriter> entries) throws BuildCacheException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (chunker != null) {
+            storeAllChunked(entries, chunker);
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Closer closer = Closer.create()) {
+                try (
+                    PreparedStatement lruStmt = conn.prepareStatement("insert ignore into filestore.lru(entry_key, entry_accessed) values (?, ?)");
+                    PreparedStatement catalogStmt = conn.prepareStatement("insert ignore into filestore.catalog(entry_key, entry_size, entry_content) values (?, ?, ?)")
+                ) {
+                    long accessTime = clock.getCurrentTime();
+                    for (Map.Entry<BuildCacheKey, NextGenWriter> entry : entries.entrySet()) {
+                        String hashCode = entry.getKey().getHashCode();
+                        NextGenWriter writer = entry.getValue();
+                        lruStmt.setString(1, hashCode);
+                        lruStmt.setLong(2, accessTime);
+                        lruStmt.addBatch();
+                        catalogStmt.setString(1, hashCode);
+                        catalogStmt.setLong(2, writer.getSize());
+                        catalogStmt.setBinaryStream(3, closer.register(writer.openStream()));
+                        catalogStmt.addBatch();
+                    }
+                    lruStmt.executeBatch();
+                    catalogStmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException | IOException e) {
+            throw new BuildCacheException("storing " + entries.size() + " entries", e);
+        }
+    }
+
+    private void storeAllChunked(Map<BuildCacheKey, NextGenWriter> entries, ContentDefinedChunker chunker) throws BuildCacheException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (
+                PreparedStatement existsStmt = conn.prepareStatement("select entry_key from filestore.catalog where entry_key = ?");
+                PreparedStatement chunkExistsStmt = conn.prepareStatement("select chunk_key from filestore.chunk where chunk_key = ?");
+                PreparedStatement chunkStmt = conn.prepareStatement("insert ignore into filestore.chunk(chunk_key, chunk_size, chunk_content) values (?, ?, ?)");
+                PreparedStatement entryChunkStmt = conn.prepareStatement("insert ignore into filestore.entry_chunk(entry_key, chunk_index, chunk_key) values (?, ?, ?)");
+                PreparedStatement lruStmt = conn.prepareStatement("insert ignore into filestore.lru(entry_key, entry_accessed) values (?, ?)");
+                PreparedStatement catalogStmt = conn.prepareStatement("insert ignore into filestore.catalog(entry_key, entry_size, entry_content, entry_chunked) values (?, ?, ?, true)")
+            ) {
+                long accessTime = clock.getCurrentTime();
+                for (Map.Entry<BuildCacheKey, NextGenWriter> entry : entries.entrySet()) {
+                    String entryKey = entry.getKey().getHashCode();
+                    NextGenWriter writer = entry.getValue();
+                    existsStmt.setString(1, entryKey);
+                    try (ResultSet rs = existsStmt.executeQuery()) {
+                        if (rs.next()) {
+                            continue;
+                        }
+                    }
+
+                    try (InputStream input = writer.openStream()) {
+                        ContentDefinedChunker.Chunks chunks = chunker.split(input);
+                        int chunkIndex = 0;
+                        while (chunks.next()) {
+                            PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
+                            hasher.putBytes(chunks.getBuffer(), 0, chunks.getLength());
+                            String chunkKey = hasher.hash().toString();
+
+                            chunkExistsStmt.setString(1, chunkKey);
+                            boolean chunkExists;
+                            try (ResultSet rs = chunkExistsStmt.executeQuery()) {
+                                chunkExists = rs.next();
+                            }
+                            if (!chunkExists) {
+                                chunkStmt.setString(1, chunkKey);
+                                chunkStmt.setLong(2, chunks.getLength());
+                                chunkStmt.setBytes(3, Arrays.copyOf(chunks.getBuffer(), chunks.getLength()));
+                                chunkStmt.executeUpdate();
+                            }
+
+                            entryChunkStmt.setString(1, entryKey);
+                            entryChunkStmt.setInt(2, chunkIndex++);
+                            entryChunkStmt.setString(3, chunkKey);
+                            entryChunkStmt.executeUpdate();
+                        }
+                    }
+
+                    lruStmt.setString(1, entryKey);
+                    lruStmt.setLong(2, accessTime);
+                    lruStmt.executeUpdate();
+                    catalogStmt.setString(1, entryKey);
+                    catalogStmt.setLong(2, writer.getSize());
+                    catalogStmt.setBytes(3, new byte[0]);
+                    catalogStmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException | IOException e) {
+            throw new BuildCacheException("storing " + entries.size() + " entries", e);
+        }
+    }
+
+    /**
+     * Opens the content of the entry in the current row of the given result set.
+     * The result set must have the entry content in the first and the chunked flag in the second column.
+     */
+    private static InputStream openContent(Connection conn, String entryKey, ResultSet rs) throws SQLException {
+        if (!rs.getBoolean(2)) {
+            Blob content = rs.getBlob(1);
+            return content.getBinaryStream();
+        }
+        PreparedStatement stmt = conn.prepareStatement(
+            "select c.chunk_content from filestore.entry_chunk ec join filestore.chunk c on ec.chunk_key = c.chunk_key " +
+                "where ec.entry_key = ? order by ec.chunk_index"
+        );
+        try {
+            stmt.setString(1, entryKey);
+            return new ChunkedContentInputStream(stmt, stmt.executeQuery());
+        } catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the chunks of an entry one after the other, without loading all of them into memory.
+     */
+    private static class ChunkedContentInputStream extends InputStream {
+        private final PreparedStatement stmt;
+        private final ResultSet chunks;
+        private InputStream currentChunk = new ByteArrayInputStream(new byte[0]);
+
+        public ChunkedContentInputStream(PreparedStatement stmt, ResultSet chunks) {
+            this.stmt = stmt;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] singleByte = new byte[1];
+            int read = read(singleByte, 0, 1);
+            return read == -1 ? -1 : singleByte[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int read = currentChunk.read(b, off, len);
+                if (read != -1) {
+                    return read;
+                }
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+        }
+
+        private boolean nextChunk() throws IOException {
+            currentChunk.close();
+            try {
+                if (!chunks.next()) {
+                    return false;
+                }
+                currentChunk = chunks.getBlob(1).getBinaryStream();
+                return true;
+            } catch (SQLException e) {
+                throw new IOException("Could not read chunk", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (Closer closer = Closer.create()) {
+                closer.register(currentChunk);
+                closer.register(() -> {
+                    try {
+                        chunks.close();
+                        stmt.close();
+                    } catch (SQLException e) {
+                        throw new IOException(e);
+                    }
+                });
+            }
+        }
+    }
+
+    private static Map<String, BuildCacheKey> indexByHash(Collection<BuildCacheKey> keys) {
+        Map<String, BuildCacheKey> keysByHash = new LinkedHashMap<>();
+        for (BuildCacheKey key : keys) {
+            keysByHash.put(key.getHashCode(), key);
+        }
+        return keysByHash;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static void setKeys(PreparedStatement stmt, int firstIndex, List<String> keys) throws SQLException {
+        for (int i = 0; i < keys.size(); i++) {
+            stmt.setString(firstIndex + i, keys.get(i));
+        }
+    }
+
     @VisibleForTesting
     public boolean remove(BuildCacheKey key) throws BuildCacheException {
         try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("delete from filestore.entry_chunk where entry_key = ?")) {
+                stmt.setString(1, key.getHashCode());
+                stmt.executeUpdate();
+            }
             try (PreparedStatement stmt = conn.prepareStatement("delete from filestore.catalog where entry_key = ?")) {
                 stmt.setString(1, key.getHashCode());
                 return stmt.executeUpdate() > 0;
@@ -202,6 +535,11 @@ private void deleteLruEntries() throws RuntimeException {
                     stmt.setLong(2, deleteThresholdMillis);
                     stmt.execute();
                 }
+                // Chunks are shared between entries, so only remove the ones no remaining entry refers to
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("delete from filestore.entry_chunk where entry_key not in (select entry_key from filestore.catalog)");
+                    stmt.execute("delete from filestore.chunk where chunk_key not in (select chunk_key from filestore.entry_chunk)");
+                }
                 try (Statement stat = conn.createStatement()) {
                     stat.execute("shutdown compact");
                 }
@@ -28,6 +28,7 @@
 import org.gradle.cache.scopes.GlobalScopedCacheBuilderFactory;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
+import org.gradle.caching.internal.ContentDefinedChunker;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.concurrent.ParallelismConfiguration;
 import org.gradle.internal.file.PathToFileResolver;
@@ -83,7 +84,8 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         int removeUnusedEntriesAfterDays = configuration.getRemoveUnusedEntriesAfterDays();
         describer.type(H2_BUILD_CACHE_TYPE)
             .config("location", target.getAbsolutePath())
-            .config("removeUnusedEntriesAfter", removeUnusedEntriesAfterDays + " days");
+            .config("removeUnusedEntriesAfter", removeUnusedEntriesAfterDays + " days")
+            .config("chunked", String.valueOf(H2BuildCacheService.isChunkedStoreEnabled()));
         // TODO: H2Cache could be provided by PersistentCache
         // TODO: Add open/close functionality to LockOptionsBuilder, so we can open and close database when process acquires a lock
         //  and we can remove crossProcessCacheAccess logic from LockOnDemandCrossProcessBuildCacheService
@@ -94,7 +96,10 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
             .withDisplayName("Build cache NG")
             .withLockOptions(mode(None))
             .open();
-        H2BuildCacheService h2Service = new H2BuildCacheService(target.toPath(), parallelismConfiguration.getMaxWorkerCount(), removeUnusedEntriesAfterDays, Time.clock());
+        ContentDefinedChunker chunker = H2BuildCacheService.isChunkedStoreEnabled()
+            ? ContentDefinedChunker.DEFAULT
+            : null;
+        H2BuildCacheService h2Service = new H2BuildCacheService(target.toPath(), parallelismConfiguration.getMaxWorkerCount(), removeUnusedEntriesAfterDays, Time.clock(), chunker);
         return new LockOnDemandCrossProcessBuildCacheService("build-cache-2", target, lockManager, h2Service, persistentCacheFactory);
     }
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.cache.internal.AbstractCacheCleanup;
+import org.gradle.cache.internal.SingleDepthFilesFinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+/**
+ * Deletes the content-addressed copies in the link directory that no restored file is linked to anymore,
+ * once they have not been modified for the given time.
+ *
+ * Copies that restored files are still linked to do not take up additional space, so they are kept.
+ */
+class LinkDirectoryCleanup extends AbstractCacheCleanup {
+    private final Supplier<Long> removeUnusedEntriesOlderThan;
+
+    LinkDirectoryCleanup(Supplier<Long> removeUnusedEntriesOlderThan) {
+        super(new SingleDepthFilesFinder(1));
+        this.removeUnusedEntriesOlderThan = removeUnusedEntriesOlderThan;
+    }
+
+    @Override
+    protected boolean shouldDelete(File file) {
+        return file.lastModified() < removeUnusedEntriesOlderThan.get() && getLinkCount(file) <= 1;
+    }
+
+    @Override
+    protected void handleDeletion(File file) {
+    }
+
+    private static int getLinkCount(File file) {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            // Without links there is nothing linking to the file
+            return 1;
+        }
+    }
+}
@@ -39,6 +39,9 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -129,6 +132,24 @@ public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws Buil
         return crossProcessCacheAccess.withFileLock(() -> delegate.load(key, reader));
     }
 
+    @Override
+    public Set<BuildCacheKey> containsAll(Collection<BuildCacheKey> keys) throws BuildCacheException {
+        return crossProcessCacheAccess.withFileLock(() -> delegate.containsAll(keys));
+    }
+
+    @Override
+    public Set<BuildCacheKey> loadAll(Collection<BuildCacheKey> keys, BatchEntryReader reader) throws BuildCacheException {
+        return crossProcessCacheAccess.withFileLock(() -> delegate.loadAll(keys, reader));
+    }
+
+    @Override
+    public void storeAll(Map<BuildCacheKey, NextGenWriter> entries) throws BuildCacheException {
+        crossProcessCacheAccess.withFileLock(() -> {
+            delegate.storeAll(entries);
+            return null;
+        });
+    }
+
     @Override
     public void cleanup() {
         crossProcessCacheAccess.withFileLock(() -> {
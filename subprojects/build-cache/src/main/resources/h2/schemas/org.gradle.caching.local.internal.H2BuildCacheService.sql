@@ -31,3 +31,24 @@ CREATE TABLE IF NOT EXISTS filestore.lru
 
 CREATE INDEX IF NOT EXISTS entry_accessed
 ON filestore.lru (entry_accessed);
+
+-- Entries stored in chunks have an empty entry_content, their content is the concatenation of their chunks
+ALTER TABLE filestore.catalog ADD COLUMN IF NOT EXISTS entry_chunked BOOLEAN DEFAULT FALSE NOT NULL;
+
+CREATE TABLE IF NOT EXISTS filestore.chunk
+(
+    chunk_key     VARCHAR(32)         NOT NULL PRIMARY KEY,
+    chunk_size    BIGINT              NOT NULL,
+    chunk_content BINARY LARGE OBJECT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS filestore.entry_chunk
+(
+    entry_key     VARCHAR(32)         NOT NULL,
+    chunk_index   INT                 NOT NULL,
+    chunk_key     VARCHAR(32)         NOT NULL,
+    PRIMARY KEY (entry_key, chunk_index)
+);
+
+CREATE INDEX IF NOT EXISTS entry_chunk_key
+ON filestore.entry_chunk (chunk_key);
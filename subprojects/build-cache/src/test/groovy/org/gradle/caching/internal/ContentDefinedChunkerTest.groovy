@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal
+
+import spock.lang.Specification
+
+class ContentDefinedChunkerTest extends Specification {
+
+    def chunker = new ContentDefinedChunker(64, 256, 1024)
+
+    def "chunks concatenate to the original content"() {
+        def content = randomBytes(size, 1)
+
+        when:
+        def chunks = split(content)
+
+        then:
+        chunks.every { it.length <= 1024 }
+        chunks.dropRight(1).every { it.length >= 64 }
+        concat(chunks) == content
+
+        where:
+        size << [0, 1, 63, 64, 1024, 1025, 100_000]
+    }
+
+    def "inserting bytes only changes chunks around the insertion"() {
+        def original = randomBytes(100_000, 2)
+        def modified = new ByteArrayOutputStream()
+        modified.write(original, 0, 50_000)
+        modified.write("inserted".bytes)
+        modified.write(original, 50_000, 50_000)
+
+        when:
+        def originalChunks = split(original).collect { it.encodeHex().toString() }
+        def modifiedChunks = split(modified.toByteArray()).collect { it.encodeHex().toString() }
+
+        then:
+        def shared = originalChunks.intersect(modifiedChunks)
+        shared.size() >= originalChunks.size() - 3
+    }
+
+    def "rejects average size that is not a power of two"() {
+        when:
+        new ContentDefinedChunker(64, 300, 1024)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    private List<byte[]> split(byte[] content) {
+        def result = []
+        def chunks = chunker.split(new ByteArrayInputStream(content))
+        while (chunks.next()) {
+            result << Arrays.copyOf(chunks.buffer, chunks.length)
+        }
+        return result
+    }
+
+    private static byte[] concat(List<byte[]> chunks) {
+        def output = new ByteArrayOutputStream()
+        chunks.each { output.write(it) }
+        return output.toByteArray()
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        def bytes = new byte[size]
+        new Random(seed).nextBytes(bytes)
+        return bytes
+    }
+}
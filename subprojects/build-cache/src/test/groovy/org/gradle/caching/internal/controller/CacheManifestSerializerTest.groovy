@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.caching.internal.origin.OriginMetadata
+import org.gradle.internal.file.FileType
+import org.gradle.internal.hash.TestHashCodes
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder
+import spock.lang.Specification
+
+import java.time.Duration
+
+class CacheManifestSerializerTest extends Specification {
+
+    def manifest = new CacheManifest(
+        new OriginMetadata("build-id", Duration.ofMillis(1234)),
+        "org.gradle.api.DefaultTask",
+        ":compile",
+        [
+            classes: [
+                new CacheManifest.ManifestEntry(FileType.Directory, "", TestHashCodes.hashCodeFrom(1), 0),
+                new CacheManifest.ManifestEntry(FileType.Directory, "org/gradle", TestHashCodes.hashCodeFrom(2), 0),
+                new CacheManifest.ManifestEntry(FileType.RegularFile, "org/gradle/A.class", TestHashCodes.hashCodeFrom(3), 123),
+                new CacheManifest.ManifestEntry(FileType.RegularFile, "org/gradle/B.class", TestHashCodes.hashCodeFrom(4), 456),
+                new CacheManifest.ManifestEntry(FileType.RegularFile, "other.txt", TestHashCodes.hashCodeFrom(5), 7),
+            ],
+            missing: [
+                new CacheManifest.ManifestEntry(FileType.Missing, "", TestHashCodes.hashCodeFrom(6), 0),
+            ]
+        ]
+    )
+
+    def "can round-trip manifest in #format format"() {
+        def serializer = new CacheManifestSerializer(format, new StringInterner())
+
+        when:
+        def read = serializer.read(new ByteArrayInputStream(serializer.write(manifest)))
+
+        then:
+        read.originMetadata == manifest.originMetadata
+        read.workType == manifest.workType
+        read.identity == manifest.identity
+        read.propertyManifests.keySet() == manifest.propertyManifests.keySet()
+        read.propertyManifests.each { propertyName, entries ->
+            def expectedEntries = manifest.propertyManifests[propertyName]
+            assert entries.size() == expectedEntries.size()
+            [entries, expectedEntries].transpose().each { CacheManifest.ManifestEntry actual, CacheManifest.ManifestEntry expected ->
+                assert actual.type == expected.type
+                assert actual.relativePath == expected.relativePath
+                assert actual.contentHash == expected.contentHash
+                assert actual.length == expected.length
+            }
+        }
+
+        where:
+        format << CacheManifestSerializer.Format.values()
+    }
+
+    def "can read manifest written in other format"() {
+        def jsonManifest = new CacheManifestSerializer(CacheManifestSerializer.Format.JSON, new StringInterner()).write(manifest)
+
+        when:
+        def read = new CacheManifestSerializer(CacheManifestSerializer.Format.BINARY, new StringInterner()).read(new ByteArrayInputStream(jsonManifest))
+
+        then:
+        read.identity == manifest.identity
+        read.propertyManifests["classes"]*.relativePath == manifest.propertyManifests["classes"]*.relativePath
+    }
+
+    def "fails to read binary manifest with invalid #description"() {
+        def serializer = new CacheManifestSerializer(CacheManifestSerializer.Format.BINARY, new StringInterner())
+        def output = new ByteArrayOutputStream()
+        new KryoBackedEncoder(output).withCloseable { encoder ->
+            encoder.writeByte((byte) 0)
+            encoder.writeSmallInt(1)
+            encoder.writeString("build-id")
+            encoder.writeSmallLong(1234)
+            encoder.writeString("org.gradle.api.DefaultTask")
+            encoder.writeString(":compile")
+            encoder.writeSmallInt(1)
+            encoder.writeString("classes")
+            encoder.writeSmallInt(1)
+            encoder.writeByte(type)
+            encoder.writeSmallInt(sharedPrefixLength)
+            encoder.writeString("A.class")
+        }
+
+        when:
+        serializer.read(new ByteArrayInputStream(output.toByteArray()))
+
+        then:
+        def ex = thrown(IOException)
+        ex.message == message
+
+        where:
+        description          | type        | sharedPrefixLength | message
+        "file type"          | (byte) 42   | 0                  | "Corrupt cache manifest: invalid file type 42"
+        "negative file type" | (byte) -1   | 0                  | "Corrupt cache manifest: invalid file type -1"
+        "path prefix length" | (byte) 0    | 5                  | "Corrupt cache manifest: invalid shared path prefix length 5"
+    }
+
+    def "binary format is more compact than JSON"() {
+        expect:
+        new CacheManifestSerializer(CacheManifestSerializer.Format.BINARY, new StringInterner()).write(manifest).length <
+            new CacheManifestSerializer(CacheManifestSerializer.Format.JSON, new StringInterner()).write(manifest).length
+    }
+}
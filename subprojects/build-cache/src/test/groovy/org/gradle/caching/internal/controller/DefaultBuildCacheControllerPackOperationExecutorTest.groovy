@@ -96,7 +96,7 @@ class DefaultBuildCacheControllerPackOperationExecutorTest extends Specification
         1 * fileSystemAccess.write([outputDir.absolutePath, outputFile.absolutePath], _)
 
         then:
-        1 * packer.unpack(entity, _ as InputStream, originReader) >> new BuildCacheEntryPacker.UnpackResult(originMetadata, 123L, fileSnapshots)
+        1 * packer.unpack(entity, input, originReader) >> new BuildCacheEntryPacker.UnpackResult(originMetadata, 123L, fileSnapshots)
 
         then:
         1 * fileSystemAccess.record(_ as DirectorySnapshot) >> { FileSystemLocationSnapshot snapshot  ->
@@ -137,7 +137,7 @@ class DefaultBuildCacheControllerPackOperationExecutorTest extends Specification
         1 * fileSystemAccess.write([outputFile.absolutePath], _)
 
         then:
-        1 * packer.unpack(entity, _ as InputStream, originReader) >> {
+        1 * packer.unpack(entity, input, originReader) >> {
             outputFile << "partially extracted output fil..."
             throw new RuntimeException("unpacking error")
         }
@@ -19,6 +19,10 @@ package org.gradle.caching.internal.controller
 import com.google.common.collect.ImmutableList
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.DefaultBuildCacheKey
+import org.gradle.caching.internal.origin.OriginMetadata
 import org.gradle.internal.RelativePathSupplier
 import org.gradle.internal.file.FileType
 import org.gradle.internal.file.ThreadLocalBufferProvider
@@ -40,6 +44,8 @@ import org.junit.Rule
 import org.slf4j.Logger
 import spock.lang.Specification
 
+import java.time.Duration
+
 @LeaksFileHandles("https://github.com/gradle/gradle-private/issues/3916")
 class NextGenBuildCacheControllerTest extends Specification {
 
@@ -48,10 +54,15 @@ class NextGenBuildCacheControllerTest extends Specification {
 
     NextGenBuildCacheController controller
     FileSystemAccess fileSystemAccess
+    NextGenBuildCacheAccess cacheAccess = Mock(NextGenBuildCacheAccess)
 
     def setup() {
         fileSystemAccess = TestFiles.fileSystemAccess()
-        controller = new NextGenBuildCacheController(
+        controller = createController(false)
+    }
+
+    NextGenBuildCacheController createController(boolean differentialUnpack) {
+        new NextGenBuildCacheController(
             "id",
             Stub(Logger),
             TestFiles.deleter(),
@@ -59,7 +70,9 @@ class NextGenBuildCacheControllerTest extends Specification {
             new ThreadLocalBufferProvider(64 * 1024),
             new StringInterner(),
             new TestBuildOperationExecutor(),
-            Mock(NextGenBuildCacheAccess)
+            cacheAccess,
+            new CacheManifestSerializer(CacheManifestSerializer.Format.BINARY, new StringInterner()),
+            differentialUnpack
         )
     }
 
@@ -129,6 +142,74 @@ class NextGenBuildCacheControllerTest extends Specification {
         })
     }
 
+    def "differential unpack only loads entries that differ from the existing output"() {
+        given:
+        def cached = tmpDir.file("cached")
+        cached.createFile("same.txt") << "same"
+        cached.createFile("changed.txt") << "new content"
+        cached.createFile("added/added.txt") << "added"
+        def manifestEntries = manifestEntriesFor(fileSystemAccess.read(cached.absolutePath))
+        def contentByKey = [:]
+        manifestEntries.findAll { it.type == FileType.RegularFile }.each {
+            contentByKey[new DefaultBuildCacheKey(it.contentHash)] = cached.file(it.relativePath).bytes
+        }
+        def manifestKey = new DefaultBuildCacheKey(TestHashCodes.hashCodeFrom(1234L))
+        def manifest = new CacheManifest(new OriginMetadata("origin", Duration.ofMillis(1)), "test", "test", [root: manifestEntries])
+        def manifestBytes = new CacheManifestSerializer(CacheManifestSerializer.Format.BINARY, new StringInterner()).write(manifest)
+
+        def root = tmpDir.file("root")
+        root.createFile("same.txt") << "same"
+        root.createFile("changed.txt") << "old content"
+        root.createFile("stale/stale.txt") << "stale"
+        def entity = Stub(CacheableEntity) {
+            visitOutputTrees(_ as CacheableEntity.CacheableTreeVisitor) >> { CacheableEntity.CacheableTreeVisitor visitor ->
+                visitor.visitOutputTree("root", TreeType.DIRECTORY, root)
+            }
+        }
+        def loadedKeys = []
+        controller = createController(true)
+
+        when:
+        def result = controller.load(manifestKey, entity)
+
+        then:
+        _ * cacheAccess.load(_, _) >> { Map<BuildCacheKey, Object> entries, NextGenBuildCacheAccess.LoadHandler<Object> handler ->
+            entries.each { key, payload ->
+                loadedKeys << key
+                def content = key == manifestKey ? manifestBytes : contentByKey[key]
+                handler.handle(new ByteArrayInputStream(content), payload)
+            }
+        }
+
+        then:
+        result.present
+        loadedKeys as Set == [
+            manifestKey,
+            new DefaultBuildCacheKey(fileSystemAccess.read(cached.file("changed.txt").absolutePath).hash),
+            new DefaultBuildCacheKey(fileSystemAccess.read(cached.file("added/added.txt").absolutePath).hash)
+        ] as Set
+        root.file("same.txt").text == "same"
+        root.file("changed.txt").text == "new content"
+        root.file("added/added.txt").text == "added"
+        !root.file("stale").exists()
+    }
+
+    List<CacheManifest.ManifestEntry> manifestEntriesFor(FileSystemLocationSnapshot rootSnapshot) {
+        def manifestEntriesBuilder = ImmutableList.<CacheManifest.ManifestEntry> builder()
+        rootSnapshot.accept(new RelativePathTracker(), new RelativePathTrackingFileSystemSnapshotHierarchyVisitor() {
+            @Override
+            SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot, RelativePathSupplier relativePath) {
+                manifestEntriesBuilder.add(new CacheManifest.ManifestEntry(
+                    snapshot.getType(),
+                    relativePath.toRelativePath(),
+                    snapshot.getHash(),
+                    SnapshotUtil.getLength(snapshot)))
+                return SnapshotVisitResult.CONTINUE
+            }
+        })
+        return manifestEntriesBuilder.build()
+    }
+
     void createFileOutput(TestFile location) {
         location.createFile() << "Hello world"
     }
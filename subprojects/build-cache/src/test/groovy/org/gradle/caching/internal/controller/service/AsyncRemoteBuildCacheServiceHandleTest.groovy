@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service
+
+import org.gradle.api.internal.file.temp.DefaultTemporaryFileProvider
+import org.gradle.caching.BuildCacheKey
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.concurrent.ManagedExecutor
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+class AsyncRemoteBuildCacheServiceHandleTest extends Specification {
+
+    @Rule
+    final TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
+    def executorFactory = new DefaultExecutorFactory()
+    def temporaryFileProvider = new DefaultTemporaryFileProvider({ temporaryFolder.file("tmp") })
+    def delegate = Mock(RemoteBuildCacheServiceHandle)
+    def key = Stub(BuildCacheKey) {
+        getHashCode() >> "0123456789abcdef"
+        getDisplayName() >> "0123456789abcdef"
+    }
+
+    def cleanup() {
+        executorFactory.stop()
+    }
+
+    def "stores spilled copy of entry in background"() {
+        def handle = createHandle(4)
+        def file = temporaryFolder.file("entry") << "content"
+        def uploaded = new CountDownLatch(1)
+        String uploadedContent = null
+
+        when:
+        def scheduled = handle.maybeStore(key, file)
+        file.delete()
+        handle.close()
+
+        then:
+        scheduled
+        1 * delegate.canStore() >> true
+        1 * delegate.maybeStore(key, _) >> { BuildCacheKey k, File spilled ->
+            assert spilled != file
+            uploadedContent = spilled.text
+            uploaded.countDown()
+            true
+        }
+        1 * delegate.close()
+        uploaded.await(10, TimeUnit.SECONDS)
+        uploadedContent == "content"
+        temporaryFolder.file("tmp/build-cache-uploads").listFiles() as List == []
+    }
+
+    def "does not schedule store when storing is disabled"() {
+        def handle = createHandle(4)
+
+        when:
+        def scheduled = handle.maybeStore(key, temporaryFolder.file("entry") << "content")
+
+        then:
+        !scheduled
+        1 * delegate.canStore() >> false
+        0 * delegate.maybeStore(_, _)
+    }
+
+    def "blocks storing when too many uploads are pending"() {
+        def handle = createHandle(1)
+        def uploadStarted = new CountDownLatch(1)
+        def finishUpload = new CountDownLatch(1)
+        delegate.canStore() >> true
+        delegate.maybeStore(key, _) >> {
+            uploadStarted.countDown()
+            finishUpload.await()
+            true
+        }
+
+        when:
+        handle.maybeStore(key, temporaryFolder.file("entry1") << "content")
+        uploadStarted.await()
+        def secondStore = Thread.start {
+            handle.maybeStore(key, temporaryFolder.file("entry2") << "content")
+        }
+        secondStore.join(200)
+
+        then:
+        secondStore.alive
+
+        when:
+        finishUpload.countDown()
+        secondStore.join()
+        handle.close()
+
+        then:
+        !secondStore.alive
+    }
+
+    def "releases pending upload when the upload is rejected"() {
+        def uploader = Mock(ManagedExecutor)
+        def handle = new AsyncRemoteBuildCacheServiceHandle(delegate, uploader, temporaryFileProvider, 1)
+        delegate.canStore() >> true
+
+        when:
+        handle.maybeStore(key, temporaryFolder.file("entry1") << "content")
+
+        then:
+        1 * uploader.execute(_) >> { throw new RejectedExecutionException() }
+        thrown(RejectedExecutionException)
+        temporaryFolder.file("tmp/build-cache-uploads").listFiles() as List == []
+
+        when:
+        handle.maybeStore(key, temporaryFolder.file("entry2") << "content")
+
+        then:
+        1 * uploader.execute(_)
+    }
+
+    private AsyncRemoteBuildCacheServiceHandle createHandle(int maxPendingUploads) {
+        new AsyncRemoteBuildCacheServiceHandle(delegate, executorFactory.create("test uploads", 2), temporaryFileProvider, maxPendingUploads)
+    }
+}
@@ -24,6 +24,7 @@ import org.gradle.cache.UnscopedCacheBuilderFactory
 import org.gradle.cache.internal.CleanupActionDecorator
 import org.gradle.cache.scopes.GlobalScopedCacheBuilderFactory
 import org.gradle.caching.BuildCacheServiceFactory
+import org.gradle.caching.internal.packaging.LinkDirectoryRef
 import org.gradle.caching.local.DirectoryBuildCache
 import org.gradle.internal.file.FileAccessTimeJournal
 import org.gradle.internal.resource.local.PathKeyFileStore
@@ -44,7 +45,8 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
     def fileStoreFactory = Mock(DirectoryBuildCacheFileStoreFactory)
     def cleanupActionDecorator = Mock(CleanupActionDecorator)
     def fileAccessTimeJournal = Mock(FileAccessTimeJournal)
-    def factory = new DirectoryBuildCacheServiceFactory(cacheRepository, globalScopedCache, resolver, fileStoreFactory, cleanupActionDecorator, fileAccessTimeJournal, TestFiles.tmpDirTemporaryFileProvider(temporaryFolder.createDir("tmp")))
+    def linkDirectoryRef = new LinkDirectoryRef()
+    def factory = new DirectoryBuildCacheServiceFactory(cacheRepository, globalScopedCache, resolver, fileStoreFactory, cleanupActionDecorator, fileAccessTimeJournal, TestFiles.tmpDirTemporaryFileProvider(temporaryFolder.createDir("tmp")), linkDirectoryRef)
     def cacheBuilder = Stub(CacheBuilder)
     def config = Mock(DirectoryBuildCache)
     def buildCacheDescriber = new NoopBuildCacheDescriber()
@@ -63,6 +65,7 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         1 * cacheRepository.cache(cacheDir) >> cacheBuilder
         1 * cleanupActionDecorator.decorate(_) >> Mock(CleanupAction)
         0 * _
+        linkDirectoryRef.get() == new File(cacheDir, "links")
     }
 
     def "can create service with given directory"() {
@@ -79,6 +82,7 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         1 * cacheRepository.cache(cacheDir) >> cacheBuilder
         1 * cleanupActionDecorator.decorate(_) >> Mock(CleanupAction)
         0 * _
+        linkDirectoryRef.get() == new File(cacheDir, "links")
     }
 
     private class NoopBuildCacheDescriber implements BuildCacheServiceFactory.Describer {
@@ -18,6 +18,8 @@ package org.gradle.caching.local.internal
 
 import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.internal.ContentDefinedChunker
+import org.gradle.caching.internal.NextGenBuildCacheService
 import org.gradle.caching.internal.controller.service.StoreTarget
 import org.gradle.internal.time.Clock
 import org.gradle.internal.time.Time
@@ -25,6 +27,7 @@ import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.junit.Rule
 import spock.lang.Specification
 
+import java.nio.charset.StandardCharsets
 import java.util.concurrent.TimeUnit
 
 class H2BuildCacheServiceTest extends Specification {
@@ -161,6 +164,138 @@ class H2BuildCacheServiceTest extends Specification {
         dbDir.listFiles().collect { it.name } == ["filestore.mv.db"]
     }
 
+    def "can store, find and load multiple entries in a batch"() {
+        given:
+        BuildCacheKey missingKey = Mock(BuildCacheKey) {
+            getHashCode() >> "123456abcdef"
+        }
+        service.storeAll([(key): writer("Hello world"), (otherKey): writer("Hello Bob")])
+
+        expect:
+        service.containsAll([key, otherKey, missingKey]) == [key, otherKey] as Set
+
+        when:
+        def loaded = [:]
+        def found = service.loadAll([key, otherKey, missingKey]) { BuildCacheKey loadedKey, InputStream input ->
+            loaded[loadedKey] = input.text
+        }
+
+        then:
+        found == [key, otherKey] as Set
+        loaded == [(key): "Hello world", (otherKey): "Hello Bob"]
+    }
+
+    def "batch store doesn't overwrite existing entries"() {
+        given:
+        service.store(key, writer("Hello world"))
+
+        when:
+        service.storeAll([(key): writer("Hello Bob"), (otherKey): writer("Hello Alice")])
+
+        then:
+        service.load(key, new BuildCacheEntryReader() {
+            @Override
+            void readFrom(InputStream input) throws IOException {
+                assert input.text == "Hello world"
+            }
+        })
+        service.contains(otherKey)
+    }
+
+    def "can store and load chunked entries"() {
+        given:
+        openChunkedService()
+        def content = randomBytes(100_000, 1)
+        def similarContent = Arrays.copyOf(content, content.length)
+        similarContent[70_000] = (byte) (similarContent[70_000] + 1)
+
+        when:
+        service.store(key, writer(content))
+        service.store(otherKey, writer(similarContent))
+
+        then:
+        loadBytes(key) == content
+        loadBytes(otherKey) == similarContent
+        service.loadAll([key, otherKey]) { BuildCacheKey loadedKey, InputStream input ->
+            assert input.bytes == (loadedKey == key ? content : similarContent)
+        } == [key, otherKey] as Set
+    }
+
+    def "can load unchunked entries after enabling chunking"() {
+        given:
+        service.store(key, writer("Hello world"))
+
+        when:
+        openChunkedService()
+
+        then:
+        new String(loadBytes(key), StandardCharsets.UTF_8) == "Hello world"
+    }
+
+    def "removing a chunked entry keeps chunks shared with other entries"() {
+        given:
+        openChunkedService()
+        def content = randomBytes(10_000, 2)
+        def extendedContent = Arrays.copyOf(content, content.length + 3)
+        service.store(key, writer(content))
+        service.store(otherKey, writer(extendedContent))
+
+        when:
+        service.remove(key)
+        service.cleanup()
+        service.open()
+
+        then:
+        !service.contains(key)
+        loadBytes(otherKey) == extendedContent
+    }
+
+    private void openChunkedService() {
+        service.close()
+        service = new H2BuildCacheService(dbDir.toPath(), 20, REMOVE_UNUSED_ENTRIES_AFTER_7_DAYS, Time.clock(), new ContentDefinedChunker(256, 1024, 4096))
+        service.open()
+    }
+
+    private byte[] loadBytes(BuildCacheKey key) {
+        byte[] result = null
+        assert service.load(key, new BuildCacheEntryReader() {
+            @Override
+            void readFrom(InputStream input) throws IOException {
+                result = input.bytes
+            }
+        })
+        return result
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        def bytes = new byte[size]
+        new Random(seed).nextBytes(bytes)
+        return bytes
+    }
+
+    private static NextGenBuildCacheService.NextGenWriter writer(String content) {
+        return writer(content.getBytes(StandardCharsets.UTF_8))
+    }
+
+    private static NextGenBuildCacheService.NextGenWriter writer(byte[] bytes) {
+        return new NextGenBuildCacheService.NextGenWriter() {
+            @Override
+            InputStream openStream() throws IOException {
+                return new ByteArrayInputStream(bytes)
+            }
+
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                output.write(bytes)
+            }
+
+            @Override
+            long getSize() {
+                return bytes.length
+            }
+        }
+    }
+
     private void openServiceWithClock(Clock clock) {
         if (service != null) {
             service.close()
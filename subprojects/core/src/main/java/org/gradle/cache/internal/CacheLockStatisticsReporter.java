@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.service.scopes.Scopes;
+import org.gradle.internal.service.scopes.ServiceScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Reports the use of cross-process cache locks at the end of each build, as a build operation and in the log.
+ */
+@ServiceScope(Scopes.BuildSession.class)
+public class CacheLockStatisticsReporter implements RootBuildLifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheLockStatisticsReporter.class);
+    private static final CacheLockStatisticsBuildOperationType.Details DETAILS = new CacheLockStatisticsBuildOperationType.Details() {};
+
+    private final FileLockStatistics.Collector collector;
+    private final BuildOperationExecutor buildOperationExecutor;
+
+    public CacheLockStatisticsReporter(FileLockStatistics.Collector collector, BuildOperationExecutor buildOperationExecutor) {
+        this.collector = collector;
+        this.buildOperationExecutor = buildOperationExecutor;
+    }
+
+    @Override
+    public void afterStart() {
+        // Discard what was recorded between builds
+        collector.collect();
+    }
+
+    @Override
+    public void beforeComplete() {
+        List<FileLockStatistics> locks = collector.collect();
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                context.setResult((CacheLockStatisticsBuildOperationType.Result) () -> locks);
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Report cache lock statistics")
+                    .details(DETAILS);
+            }
+        });
+        for (FileLockStatistics lock : locks) {
+            if (lock.getContendedAcquireCount() > 0 || lock.getReleaseRequestCount() > 0) {
+                LOGGER.info("Cache lock contention: {}", lock);
+            } else {
+                LOGGER.debug("Cache lock use: {}", lock);
+            }
+        }
+    }
+}
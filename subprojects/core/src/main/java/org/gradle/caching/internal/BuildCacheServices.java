@@ -29,10 +29,15 @@
 import org.gradle.caching.internal.controller.NextGenBuildCacheController;
 import org.gradle.caching.internal.controller.RootBuildCacheControllerRef;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodec;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.FileRestoreStrategy;
+import org.gradle.caching.internal.packaging.LinkDirectoryRef;
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.DefaultTarPackerFileSystemSupport;
 import org.gradle.caching.internal.packaging.impl.FilePermissionAccess;
-import org.gradle.caching.internal.packaging.impl.GZipBuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.ParallelGZipBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.TarPackerFileSystemSupport;
 import org.gradle.caching.internal.services.BuildCacheControllerFactory;
@@ -59,6 +64,7 @@
 import org.gradle.internal.resource.local.DefaultPathKeyFileStore;
 import org.gradle.internal.resource.local.PathKeyFileStore;
 import org.gradle.internal.scopeids.id.BuildInvocationScopeId;
+import org.gradle.internal.service.CachingServiceLocator;
 import org.gradle.internal.service.ServiceRegistration;
 import org.gradle.internal.service.ServiceRegistry;
 import org.gradle.internal.service.scopes.AbstractPluginServiceRegistry;
@@ -131,15 +137,35 @@ TarPackerFileSystemSupport createPackerFileSystemSupport(Deleter deleter) {
                 return new DefaultTarPackerFileSystemSupport(deleter);
             }
 
+            LinkDirectoryRef createLinkDirectoryRef() {
+                return new LinkDirectoryRef();
+            }
+
+            BuildCacheEntryCodecs createBuildCacheEntryCodecs(CachingServiceLocator serviceLocator) {
+                return BuildCacheEntryCodecs.withBuiltIn(serviceLocator.getAll(BuildCacheEntryCodec.class));
+            }
+
             BuildCacheEntryPacker createResultPacker(
+                BuildCacheEntryCodecs codecs,
                 TarPackerFileSystemSupport fileSystemSupport,
                 FileSystem fileSystem,
                 StreamHasher fileHasher,
                 StringInterner stringInterner,
-                BufferProvider bufferProvider
+                BufferProvider bufferProvider,
+                LinkDirectoryRef linkDirectoryRef,
+                ExecutorFactory executorFactory
             ) {
-                return new GZipBuildCacheEntryPacker(
-                    new TarBuildCacheEntryPacker(fileSystemSupport, new FilePermissionsAccessAdapter(fileSystem), fileHasher, stringInterner, bufferProvider));
+                FileRestoreStrategy restoreStrategy = FileRestoreStrategy.getConfiguredStrategy();
+                TarBuildCacheEntryPacker tarPacker = new TarBuildCacheEntryPacker(fileSystemSupport, new FilePermissionsAccessAdapter(fileSystem), fileHasher, stringInterner, bufferProvider, restoreStrategy, linkDirectoryRef);
+                // Entries for the remote cache are compressed when they are stored, see LegacyBuildCacheControllerFactory
+                BuildCacheEntryCodec codec = restoreStrategy.requiresUncompressedEntries()
+                    ? BuildCacheEntryCodecs.NONE
+                    : codecs.getConfiguredCodecOrDefault();
+                if (codec == BuildCacheEntryCodecs.GZIP && ParallelGZipBuildCacheEntryPacker.isParallelPackingEnabled()) {
+                    int parallelism = Runtime.getRuntime().availableProcessors();
+                    return new ParallelGZipBuildCacheEntryPacker(tarPacker, codecs, executorFactory.create("Build cache entry packing", parallelism), parallelism, ParallelGZipBuildCacheEntryPacker.DEFAULT_BLOCK_SIZE);
+                }
+                return new CompressingBuildCacheEntryPacker(tarPacker, codecs, codec);
             }
 
             OriginMetadataFactory createOriginMetadataFactory(
@@ -196,7 +222,8 @@ BuildCacheControllerFactory createBuildCacheControllerFactory(
                 Deleter deleter,
                 BuildInvocationScopeId buildInvocationScopeId,
                 ExecutorFactory executorFactory,
-                BufferProvider bufferProvider
+                BufferProvider bufferProvider,
+                BuildCacheEntryCodecs codecs
             ) {
                 if (NextGenBuildCacheController.isNextGenCachingEnabled()) {
                     return new NextGenBuildCacheControllerFactory(
@@ -208,7 +235,8 @@ BuildCacheControllerFactory createBuildCacheControllerFactory(
                         deleter,
                         buildInvocationScopeId,
                         executorFactory,
-                        bufferProvider
+                        bufferProvider,
+                        codecs
                     );
                 } else {
                     return new LegacyBuildCacheControllerFactory(
@@ -218,7 +246,9 @@ BuildCacheControllerFactory createBuildCacheControllerFactory(
                         fileSystemAccess,
                         stringInterner,
                         temporaryFileProvider,
-                        packer
+                        packer,
+                        codecs,
+                        executorFactory
                     );
                 }
             }
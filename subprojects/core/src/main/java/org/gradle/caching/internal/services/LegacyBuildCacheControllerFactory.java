@@ -24,11 +24,16 @@
 import org.gradle.caching.configuration.BuildCache;
 import org.gradle.caching.internal.controller.BuildCacheController;
 import org.gradle.caching.internal.controller.DefaultBuildCacheController;
+import org.gradle.caching.internal.controller.service.AsyncRemoteBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodec;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs;
+import org.gradle.caching.internal.packaging.FileRestoreStrategy;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.caching.local.internal.DirectoryBuildCacheService;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.vfs.FileSystemAccess;
 
@@ -38,6 +43,8 @@ public class LegacyBuildCacheControllerFactory extends AbstractBuildCacheControl
 
     private final TemporaryFileProvider temporaryFileProvider;
     private final BuildCacheEntryPacker packer;
+    private final BuildCacheEntryCodecs codecs;
+    private final ExecutorFactory executorFactory;
 
     public LegacyBuildCacheControllerFactory(
         StartParameter startParameter,
@@ -46,7 +53,9 @@ public LegacyBuildCacheControllerFactory(
         FileSystemAccess fileSystemAccess,
         StringInterner stringInterner,
         TemporaryFileProvider temporaryFileProvider,
-        BuildCacheEntryPacker packer
+        BuildCacheEntryPacker packer,
+        BuildCacheEntryCodecs codecs,
+        ExecutorFactory executorFactory
     ) {
         super(
             startParameter,
@@ -57,6 +66,8 @@ public LegacyBuildCacheControllerFactory(
         );
         this.temporaryFileProvider = temporaryFileProvider;
         this.packer = packer;
+        this.codecs = codecs;
+        this.executorFactory = executorFactory;
     }
 
     @Override
@@ -71,6 +82,7 @@ protected BuildCacheController doCreateController(
 
         boolean logStackTraces = startParameter.getShowStacktrace() != ShowStacktrace.INTERNAL_EXCEPTIONS;
         boolean emitDebugLogging = startParameter.isBuildCacheDebugLogging();
+        BuildCacheEntryCodec remoteCodec = getRemoteCodec();
 
         return new DefaultBuildCacheController(
             config,
@@ -82,10 +94,22 @@ protected BuildCacheController doCreateController(
             fileSystemAccess,
             packer,
             originMetadataFactory,
-            stringInterner
+            stringInterner,
+            remoteCodec != null ? codecs.transcoderTo(remoteCodec) : null,
+            AsyncRemoteBuildCacheServiceHandle.isAsyncRemoteStoreEnabled() ? executorFactory : null
         );
     }
 
+    @Nullable
+    private BuildCacheEntryCodec getRemoteCodec() {
+        BuildCacheEntryCodec remoteCodec = codecs.getConfiguredCodec(BuildCacheEntryCodecs.REMOTE_CODEC_SYSTEM_PROPERTY);
+        if (remoteCodec == null && FileRestoreStrategy.getConfiguredStrategy().requiresUncompressedEntries()) {
+            // Entries are only packed uncompressed so that files can be restored directly from the local cache
+            return codecs.getConfiguredCodecOrDefault();
+        }
+        return remoteCodec;
+    }
+
     private static BuildCacheServicesConfiguration toConfiguration(
         @Nullable DescribedBuildCacheService<DirectoryBuildCache, DirectoryBuildCacheService> local,
         @Nullable DescribedBuildCacheService<BuildCache, BuildCacheService> remote
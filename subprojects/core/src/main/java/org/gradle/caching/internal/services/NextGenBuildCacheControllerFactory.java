@@ -24,13 +24,17 @@
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.configuration.BuildCache;
+import org.gradle.caching.internal.ContentDefinedChunker;
 import org.gradle.caching.internal.NextGenBuildCacheService;
 import org.gradle.caching.internal.controller.BuildCacheController;
+import org.gradle.caching.internal.controller.CacheManifestSerializer;
+import org.gradle.caching.internal.controller.CompressingNextGenBuildCacheAccess;
 import org.gradle.caching.internal.controller.DefaultNextGenBuildCacheAccess;
-import org.gradle.caching.internal.controller.GZipNextGenBuildCacheAccess;
 import org.gradle.caching.internal.controller.NextGenBuildCacheController;
 import org.gradle.caching.internal.controller.RemoteNextGenBuildCacheServiceHandler;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodec;
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.caching.local.internal.H2BuildCacheService;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -46,6 +50,10 @@
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 
 public final class NextGenBuildCacheControllerFactory extends AbstractBuildCacheControllerFactory<H2BuildCacheService> {
 
@@ -53,6 +61,7 @@ public final class NextGenBuildCacheControllerFactory extends AbstractBuildCache
     private final BuildInvocationScopeId buildInvocationScopeId;
     private final ExecutorFactory executorFactory;
     private final BufferProvider bufferProvider;
+    private final BuildCacheEntryCodecs codecs;
 
     public NextGenBuildCacheControllerFactory(
         StartParameter startParameter,
@@ -63,7 +72,8 @@ public NextGenBuildCacheControllerFactory(
         Deleter deleter,
         BuildInvocationScopeId buildInvocationScopeId,
         ExecutorFactory executorFactory,
-        BufferProvider bufferProvider
+        BufferProvider bufferProvider,
+        BuildCacheEntryCodecs codecs
     ) {
         super(
             startParameter,
@@ -75,6 +85,7 @@ public NextGenBuildCacheControllerFactory(
         this.buildInvocationScopeId = buildInvocationScopeId;
         this.executorFactory = executorFactory;
         this.bufferProvider = bufferProvider;
+        this.codecs = codecs;
     }
 
     @Override
@@ -93,6 +104,8 @@ protected BuildCacheController doCreateController(
         Logger logger = startParameter.isBuildCacheDebugLogging()
             ? LoggerFactory.getLogger(NextGenBuildCacheController.class)
             : NOPLogger.NOP_LOGGER;
+        BuildCacheEntryCodec localCodec = codecs.getConfiguredCodec(BuildCacheEntryCodecs.CODEC_SYSTEM_PROPERTY);
+        BuildCacheEntryCodec remoteCodec = codecs.getConfiguredCodec(BuildCacheEntryCodecs.REMOTE_CODEC_SYSTEM_PROPERTY);
 
         return new NextGenBuildCacheController(
             buildInvocationScopeId.getId().asString(),
@@ -102,16 +115,23 @@ protected BuildCacheController doCreateController(
             bufferProvider,
             stringInterner,
             buildOperationExecutor,
-            new GZipNextGenBuildCacheAccess(
+            new CompressingNextGenBuildCacheAccess(
                 new DefaultNextGenBuildCacheAccess(
                     local,
                     remote,
                     bufferProvider,
                     executorFactory,
-                    logger
+                    logger,
+                    remoteCodec != null ? codecs.transcoderTo(remoteCodec) : null
                 ),
-                bufferProvider
-            )
+                bufferProvider,
+                codecs,
+                localCodec != null ? localCodec : BuildCacheEntryCodecs.GZIP,
+                // Make compressed entries chunking-friendly when the local cache de-duplicates chunks
+                H2BuildCacheService.isChunkedStoreEnabled() ? ContentDefinedChunker.DEFAULT : null
+            ),
+            new CacheManifestSerializer(CacheManifestSerializer.getConfiguredFormat(), stringInterner),
+            NextGenBuildCacheController.isDifferentialUnpackEnabled()
         );
     }
 
@@ -233,6 +253,23 @@ public void store(BuildCacheKey key, NextGenBuildCacheService.NextGenWriter writ
             }
         }
 
+        @Override
+        public Set<BuildCacheKey> containsAll(Collection<BuildCacheKey> keys) throws BuildCacheException {
+            return canLoad() ? service.containsAll(keys) : Collections.emptySet();
+        }
+
+        @Override
+        public Set<BuildCacheKey> loadAll(Collection<BuildCacheKey> keys, NextGenBuildCacheService.BatchEntryReader reader) throws BuildCacheException {
+            return canLoad() ? service.loadAll(keys, reader) : Collections.emptySet();
+        }
+
+        @Override
+        public void storeAll(Map<BuildCacheKey, NextGenBuildCacheService.NextGenWriter> entries) throws BuildCacheException {
+            if (canStore()) {
+                service.storeAll(entries);
+            }
+        }
+
         @Override
         public void close() throws IOException {
             service.close();
@@ -21,6 +21,7 @@
 import org.gradle.api.Action;
 import org.gradle.api.BuildCancelledException;
 import org.gradle.api.NonNullApi;
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
 import org.gradle.internal.MutableBoolean;
 import org.gradle.internal.Pair;
 import org.gradle.internal.resources.ResourceLock;
@@ -35,11 +36,13 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
@@ -67,7 +70,7 @@ public int compare(Node node1, Node node2) {
     };
 
     private final Set<Node> waitingToStartNodes = new HashSet<>();
-    private final ExecutionQueue readyNodes = new ExecutionQueue();
+    private final ExecutionQueue readyNodes;
     private final List<Throwable> failures = new ArrayList<>();
     private final List<DiagnosticEvent> diagnosticEvents = new ArrayList<>();
     private final String displayName;
@@ -84,6 +87,10 @@ public int compare(Node node1, Node node2) {
     private final Map<Pair<Node, Node>, Boolean> reachableCache = new HashMap<>();
     private final OrdinalNodeAccess ordinalNodeAccess;
     private final Consumer<LocalTaskNode> completionHandler;
+    private final TaskDurationHistory durationHistory;
+    // The expected duration of the longest path from each node to the end of the plan, when the duration history is used
+    private final Map<Node, Long> criticalPathDurations = new IdentityHashMap<>();
+    private final Map<Node, Long> executionStartTimes = new IdentityHashMap<>();
 
     // When true, there may be nodes that are both ready and "selectable", which means their project and resources are able to be locked
     // When false, there are definitely no nodes that are "selectable"
@@ -100,7 +107,8 @@ public DefaultFinalizedExecutionPlan(
         List<Node> scheduledNodes,
         boolean continueOnFailure,
         QueryableExecutionPlan contents,
-        Consumer<LocalTaskNode> completionHandler
+        Consumer<LocalTaskNode> completionHandler,
+        TaskDurationHistory durationHistory
     ) {
         this.displayName = displayName;
         this.outputHierarchy = outputHierarchy;
@@ -110,6 +118,13 @@ public DefaultFinalizedExecutionPlan(
         this.continueOnFailure = continueOnFailure;
         this.contents = contents;
         this.completionHandler = completionHandler;
+        this.durationHistory = durationHistory;
+        if (durationHistory == TaskDurationHistory.NONE) {
+            this.readyNodes = new ExecutionQueue(NODE_EXECUTION_ORDER);
+        } else {
+            calculateCriticalPathDurations(scheduledNodes);
+            this.readyNodes = new ExecutionQueue(criticalPathFirst().thenComparing(NODE_EXECUTION_ORDER));
+        }
 
         SetMultimap<FinalizerGroup, FinalizerGroup> reachableGroups = LinkedHashMultimap.create();
         for (Node node : scheduledNodes) {
@@ -129,6 +144,46 @@ public DefaultFinalizedExecutionPlan(
         lockCoordinator.addLockReleaseListener(resourceUnlockListener);
     }
 
+    /**
+     * Calculates the expected duration of the longest chain of work that each node starts, using the recorded task durations.
+     * Nodes without a recorded duration, such as tasks that have not executed before, count as taking no time.
+     */
+    private void calculateCriticalPathDurations(List<Node> scheduledNodes) {
+        List<LocalTaskNode> tasks = new ArrayList<>();
+        for (Node node : scheduledNodes) {
+            if (node instanceof LocalTaskNode) {
+                tasks.add((LocalTaskNode) node);
+            }
+        }
+        Map<LocalTaskNode, Long> durations = durationHistory.getExpectedDurations(tasks);
+
+        // Dependencies are scheduled before the nodes that depend on them, so visit the nodes in reverse to see the dependents first
+        for (int i = scheduledNodes.size() - 1; i >= 0; i--) {
+            Node node = scheduledNodes.get(i);
+            long longestDependent = 0;
+            for (Node dependent : node.getDependencyPredecessors()) {
+                longestDependent = Math.max(longestDependent, criticalPathDurations.getOrDefault(dependent, 0L));
+            }
+            Long duration = node instanceof LocalTaskNode ? durations.get(node) : null;
+            criticalPathDurations.put(node, longestDependent + (duration == null ? 0 : duration));
+        }
+    }
+
+    private Comparator<Node> criticalPathFirst() {
+        return (node1, node2) -> {
+            if (node1.isPriority() != node2.isPriority()) {
+                return node1.isPriority() ? -1 : 1;
+            }
+            return Long.compare(criticalPathDurations.getOrDefault(node2, 0L), criticalPathDurations.getOrDefault(node1, 0L));
+        };
+    }
+
+    private void inheritCriticalPathDuration(Node node, Node from) {
+        if (durationHistory != TaskDurationHistory.NONE) {
+            criticalPathDurations.put(node, criticalPathDurations.getOrDefault(from, 0L));
+        }
+    }
+
     @Override
     public String getDisplayName() {
         return displayName;
@@ -151,6 +206,8 @@ public void close() {
         readyNodes.clear();
         runningNodes.clear();
         reachableCache.clear();
+        criticalPathDurations.clear();
+        executionStartTimes.clear();
     }
 
     private void resourceUnlocked(ResourceLock resourceLock) {
@@ -262,6 +319,7 @@ public Selection<Node> selectNext() {
                     // The node is ready to execute and its pre-execution nodes have not been scheduled, so do this now
                     node.visitPreExecutionNodes(prepareNode -> {
                         prepareNode.setIndex(node.getIndex());
+                        inheritCriticalPathDuration(prepareNode, node);
                         prepareNode.require();
                         prepareNode.updateAllDependenciesComplete();
                         node.addDependencySuccessor(prepareNode);
@@ -506,6 +564,17 @@ private boolean doesConsumerDependOnDestroyer(Node consumer, Node destroyer) {
 
     private void recordNodeExecutionStarted(Node node) {
         runningNodes.add(node);
+        if (durationHistory != TaskDurationHistory.NONE && node instanceof LocalTaskNode) {
+            executionStartTimes.put(node, System.nanoTime());
+        }
+    }
+
+    private void recordNodeExecutionFinished(Node node) {
+        Long startTime = executionStartTimes.remove(node);
+        // Only record actual executions, up-to-date or cached tasks would lower the expected duration
+        if (startTime != null && node.isExecuted() && !node.isFailed() && ((LocalTaskNode) node).getTask().getState().getOutcome() == TaskExecutionOutcome.EXECUTED) {
+            durationHistory.recordDuration((LocalTaskNode) node, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        }
     }
 
     private void recordNodeCompleted(Node node) {
@@ -560,6 +629,7 @@ public void finishedExecuting(Node node, @Nullable Throwable failure) {
             }
 
             node.finishExecution(this::recordNodeCompleted);
+            recordNodeExecutionFinished(node);
             if (node.isFailed()) {
                 LOGGER.debug("Node {} failed", node);
                 handleFailure(node);
@@ -567,6 +637,7 @@ public void finishedExecuting(Node node, @Nullable Throwable failure) {
                 LOGGER.debug("Node {} finished executing", node);
                 node.visitPostExecutionNodes(postNode -> {
                     postNode.setIndex(node.getIndex());
+                    inheritCriticalPathDuration(postNode, node);
                     postNode.require();
                     postNode.updateAllDependenciesComplete();
                     addNodeToPlan(postNode);
@@ -679,12 +750,16 @@ public boolean allExecutionComplete() {
     }
 
     /**
-     * An ordered queue of nodes, sorted by {@link #NODE_EXECUTION_ORDER}.
+     * An ordered queue of nodes, sorted by {@link #NODE_EXECUTION_ORDER} or by the expected duration of their critical path.
      */
     static class ExecutionQueue {
-        private final Set<Node> nodes = new TreeSet<>(NODE_EXECUTION_ORDER);
+        private final Set<Node> nodes;
         private Iterator<Node> current;
 
+        public ExecutionQueue(Comparator<Node> order) {
+            this.nodes = new TreeSet<>(order);
+        }
+
         public void clear() {
             nodes.clear();
             current = null;
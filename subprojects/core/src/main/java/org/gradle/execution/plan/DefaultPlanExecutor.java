@@ -16,6 +16,7 @@
 
 package org.gradle.execution.plan;
 
+import org.gradle.StartParameter;
 import org.gradle.api.Action;
 import org.gradle.api.NonNullApi;
 import org.gradle.api.logging.Logger;
@@ -28,6 +29,7 @@
 import org.gradle.internal.build.ExecutionResult;
 import org.gradle.internal.buildoption.InternalFlag;
 import org.gradle.internal.buildoption.InternalOptions;
+import org.gradle.internal.buildoption.StringInternalOption;
 import org.gradle.internal.concurrent.CompositeStoppable;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.concurrent.ManagedExecutor;
@@ -39,9 +41,13 @@
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -61,6 +67,11 @@
 @NonNullApi
 public class DefaultPlanExecutor implements PlanExecutor, Stoppable {
     public static final InternalFlag STATS = new InternalFlag("org.gradle.internal.executor.stats");
+    /**
+     * The file to write a timeline of the worker threads to, in the Chrome trace event format. No timeline is recorded when empty.
+     * A relative path is resolved against the directory the build was invoked from.
+     */
+    public static final StringInternalOption TIMELINE = new StringInternalOption("org.gradle.internal.executor.timeline", "");
     private static final Logger LOGGER = Logging.getLogger(DefaultPlanExecutor.class);
     private final int executorCount;
     private final WorkerLeaseService workerLeaseService;
@@ -77,7 +88,8 @@ public DefaultPlanExecutor(
         WorkerLeaseService workerLeaseService,
         BuildCancellationToken cancellationToken,
         ResourceLockCoordinationService coordinationService,
-        InternalOptions internalOptions
+        InternalOptions internalOptions,
+        StartParameter startParameter
     ) {
         this.cancellationToken = cancellationToken;
         this.coordinationService = coordinationService;
@@ -88,11 +100,19 @@ public DefaultPlanExecutor(
 
         this.executorCount = numberOfParallelExecutors;
         this.workerLeaseService = workerLeaseService;
-        this.stats = internalOptions.getOption(STATS).get() ? new CollectingExecutorStats(state) : state;
+        ExecutorStats stats = internalOptions.getOption(STATS).get() ? new CollectingExecutorStats(state) : state;
+        String timelineFile = internalOptions.getOption(TIMELINE).get();
+        this.stats = timelineFile.isEmpty() ? stats : new TimelineExecutorStats(stats, resolveTimelineFile(timelineFile, startParameter.getCurrentDir()));
         this.queue = new MergedQueues(coordinationService, false);
         this.executor = executorFactory.create("Execution worker");
     }
 
+    private static File resolveTimelineFile(String path, File currentDir) {
+        File file = new File(path);
+        // Resolve against the directory of the invocation rather than the working directory of the daemon
+        return file.isAbsolute() ? file : new File(currentDir, path).getAbsoluteFile();
+    }
+
     @Override
     public void stop() {
         try {
@@ -164,6 +184,7 @@ private void awaitCompletion(WorkSource<?> workSource, WorkerLease workerLease,
                 // Need to hold a worker lease in order to finish up
                 if (!workerLease.isLockedByCurrentThread()) {
                     if (!workerLease.tryLock()) {
+                        resourceLockState.registerBlockedOn(workerLease);
                         return RETRY;
                     }
                 }
@@ -416,6 +437,9 @@ private WorkItem getNextItem(final WorkerLease workerLease) {
                         // Do not call `startWaitingForNextItem()` as there may be work available but this worker cannot start it, and so should not be considered "waiting for work".
                         // The health monitoring is currently only concerned with whether work can be started.
                         // At some point it could be improved to track the health of all worker threads, not just the plan executor threads
+                        stats.startWaitingForWorkerLease();
+                        // Only retry once some worker lease has been released
+                        resourceLockState.registerBlockedOn(workerLease);
                         return RETRY;
                     }
 
@@ -458,7 +482,7 @@ private WorkItem getNextItem(final WorkerLease workerLease) {
         private void execute(Object selected, WorkSource<Object> executionPlan, Action<Object> worker) {
             Throwable failure = null;
             try {
-                stats.startExecute();
+                stats.startExecute(selected);
                 try {
                     worker.execute(selected);
                 } catch (Throwable t) {
@@ -514,9 +538,11 @@ private interface WorkerState {
     private interface WorkerStats extends WorkerState {
         void startSelect();
 
+        void startWaitingForWorkerLease();
+
         void finishSelect();
 
-        void startExecute();
+        void startExecute(Object item);
 
         void finishExecute();
 
@@ -610,12 +636,16 @@ private static class WorkerState implements WorkerStats {
             public void startSelect() {
             }
 
+            @Override
+            public void startWaitingForWorkerLease() {
+            }
+
             @Override
             public void finishSelect() {
             }
 
             @Override
-            public void startExecute() {
+            public void startExecute(Object item) {
             }
 
             @Override
@@ -714,6 +744,10 @@ public void startSelect() {
             startCurrentOperation = System.nanoTime();
         }
 
+        @Override
+        public void startWaitingForWorkerLease() {
+        }
+
         @Override
         public void finishSelect() {
             long duration = System.nanoTime() - startCurrentOperation;
@@ -723,7 +757,7 @@ public void finishSelect() {
         }
 
         @Override
-        public void startExecute() {
+        public void startExecute(Object item) {
             startCurrentOperation = System.nanoTime();
         }
 
@@ -758,4 +792,136 @@ public void finishWaitingForNextItem() {
             delegate.finishWaitingForNextItem();
         }
     }
+
+    private static class TimelineExecutorStats implements ExecutorStats {
+        private final ExecutorStats delegate;
+        private final File timelineFile;
+        private final ExecutorTimeline timeline = new ExecutorTimeline();
+
+        public TimelineExecutorStats(ExecutorStats delegate, File timelineFile) {
+            this.delegate = delegate;
+            this.timelineFile = timelineFile;
+        }
+
+        @Override
+        public WorkerStats startWorker() {
+            return new TimelineWorkerStats(delegate.startWorker(), timeline.startWorker());
+        }
+
+        @Override
+        public void report() {
+            try {
+                delegate.report();
+            } finally {
+                writeTimeline();
+            }
+        }
+
+        private void writeTimeline() {
+            if (timeline.isEmpty()) {
+                return;
+            }
+            try {
+                Files.createDirectories(timelineFile.getParentFile().toPath());
+                try (Writer writer = Files.newBufferedWriter(timelineFile.toPath(), StandardCharsets.UTF_8)) {
+                    timeline.writeTo(writer);
+                }
+                LOGGER.lifecycle("Worker thread timeline written to {}", timelineFile);
+            } catch (IOException e) {
+                LOGGER.warn("Could not write worker thread timeline to {}.", timelineFile, e);
+            } finally {
+                timeline.clear();
+            }
+        }
+    }
+
+    private static class TimelineWorkerStats implements WorkerStats {
+        private final WorkerStats delegate;
+        private final ExecutorTimeline.Worker timeline;
+        private ExecutorTimeline.Activity currentActivity;
+        private Object currentItem;
+        private long currentActivityStart;
+
+        public TimelineWorkerStats(WorkerStats delegate, ExecutorTimeline.Worker timeline) {
+            this.delegate = delegate;
+            this.timeline = timeline;
+        }
+
+        private void startActivity(ExecutorTimeline.Activity activity, @Nullable Object item) {
+            long now = System.nanoTime();
+            finishActivity(now);
+            currentActivity = activity;
+            currentItem = item;
+            currentActivityStart = now;
+        }
+
+        private void finishActivity(long now) {
+            if (currentActivity != null) {
+                timeline.record(currentActivity, currentItem, currentActivityStart, now);
+                currentActivity = null;
+                currentItem = null;
+            }
+        }
+
+        @Override
+        public void startSelect() {
+            delegate.startSelect();
+            startActivity(ExecutorTimeline.Activity.WAITING_FOR_STATE_LOCK, null);
+        }
+
+        @Override
+        public void finishWaitingForNextItem() {
+            delegate.finishWaitingForNextItem();
+            // Called whenever the worker gets hold of the state lock
+            startActivity(ExecutorTimeline.Activity.SELECTING, null);
+        }
+
+        @Override
+        public void startWaitingForNextItem() {
+            delegate.startWaitingForNextItem();
+            startActivity(ExecutorTimeline.Activity.WAITING_FOR_WORK, null);
+        }
+
+        @Override
+        public void startWaitingForWorkerLease() {
+            delegate.startWaitingForWorkerLease();
+            startActivity(ExecutorTimeline.Activity.WAITING_FOR_WORKER_LEASE, null);
+        }
+
+        @Override
+        public void finishSelect() {
+            delegate.finishSelect();
+            finishActivity(System.nanoTime());
+        }
+
+        @Override
+        public void startExecute(Object item) {
+            delegate.startExecute(item);
+            startActivity(ExecutorTimeline.Activity.EXECUTING, item);
+        }
+
+        @Override
+        public void finishExecute() {
+            delegate.finishExecute();
+            finishActivity(System.nanoTime());
+        }
+
+        @Override
+        public void startMarkFinished() {
+            delegate.startMarkFinished();
+            startActivity(ExecutorTimeline.Activity.MARKING_FINISHED, null);
+        }
+
+        @Override
+        public void finishMarkFinished() {
+            delegate.finishMarkFinished();
+            finishActivity(System.nanoTime());
+        }
+
+        @Override
+        public void finish() {
+            finishActivity(System.nanoTime());
+            delegate.finish();
+        }
+    }
 }
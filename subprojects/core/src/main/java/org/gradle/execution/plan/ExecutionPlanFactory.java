@@ -16,12 +16,19 @@
 
 package org.gradle.execution.plan;
 
+import org.gradle.internal.buildoption.InternalFlag;
+import org.gradle.internal.buildoption.InternalOptions;
 import org.gradle.internal.resources.ResourceLockCoordinationService;
 import org.gradle.internal.service.scopes.Scopes;
 import org.gradle.internal.service.scopes.ServiceScope;
 
 @ServiceScope(Scopes.Build.class)
 public class ExecutionPlanFactory {
+    /**
+     * When enabled, ready nodes on the longest path through the plan start first, based on the task durations of previous builds.
+     */
+    public static final InternalFlag CRITICAL_PATH_SCHEDULING = new InternalFlag("org.gradle.internal.execution.critical-path-scheduling");
+
     private final String displayName;
     private final TaskNodeFactory taskNodeFactory;
     private final OrdinalGroupFactory ordinalGroupFactory;
@@ -29,6 +36,7 @@ public class ExecutionPlanFactory {
     private final ExecutionNodeAccessHierarchy outputHierarchy;
     private final ExecutionNodeAccessHierarchy destroyableHierarchy;
     private final ResourceLockCoordinationService lockCoordinationService;
+    private final TaskDurationHistory durationHistory;
 
     public ExecutionPlanFactory(
         String displayName,
@@ -37,7 +45,9 @@ public ExecutionPlanFactory(
         TaskDependencyResolver dependencyResolver,
         ExecutionNodeAccessHierarchy outputHierarchy,
         ExecutionNodeAccessHierarchy destroyableHierarchy,
-        ResourceLockCoordinationService lockCoordinationService
+        ResourceLockCoordinationService lockCoordinationService,
+        TaskDurationHistory durationHistory,
+        InternalOptions internalOptions
     ) {
         this.displayName = displayName;
         this.taskNodeFactory = taskNodeFactory;
@@ -46,9 +56,10 @@ public ExecutionPlanFactory(
         this.outputHierarchy = outputHierarchy;
         this.destroyableHierarchy = destroyableHierarchy;
         this.lockCoordinationService = lockCoordinationService;
+        this.durationHistory = internalOptions.getOption(CRITICAL_PATH_SCHEDULING).get() ? durationHistory : TaskDurationHistory.NONE;
     }
 
     public ExecutionPlan createPlan() {
-        return new DefaultExecutionPlan(displayName, taskNodeFactory, ordinalGroupFactory, dependencyResolver, outputHierarchy, destroyableHierarchy, lockCoordinationService);
+        return new DefaultExecutionPlan(displayName, taskNodeFactory, ordinalGroupFactory, dependencyResolver, outputHierarchy, destroyableHierarchy, lockCoordinationService, durationHistory);
     }
 }
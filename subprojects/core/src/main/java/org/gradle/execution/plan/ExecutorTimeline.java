@@ -0,0 +1,162 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records what each worker of the plan executor was doing over time, and writes it in the Chrome trace event format.
+ * The result can be loaded into chrome://tracing or Perfetto.
+ */
+class ExecutorTimeline {
+    private final long startTime;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger workerIds = new AtomicInteger();
+
+    ExecutorTimeline() {
+        this(System.nanoTime());
+    }
+
+    ExecutorTimeline(long startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Thread safe.
+     */
+    Worker startWorker() {
+        Worker worker = new Worker(workerIds.incrementAndGet());
+        workers.add(worker);
+        return worker;
+    }
+
+    boolean isEmpty() {
+        return workers.isEmpty();
+    }
+
+    void clear() {
+        workers.clear();
+    }
+
+    /**
+     * Writes the timeline. Must only be called once the workers have finished.
+     */
+    void writeTo(Writer writer) throws IOException {
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (Worker worker : workers) {
+            if (worker.threadName == null) {
+                continue;
+            }
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+            writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+            writer.write(String.valueOf(worker.id));
+            writer.write(",\"args\":{\"name\":");
+            writeString(writer, worker.threadName);
+            writer.write("}}");
+            for (Event event : worker.events) {
+                writer.write(",\n{\"name\":");
+                writeString(writer, event.name);
+                writer.write(",\"cat\":\"");
+                writer.write(event.activity.category);
+                writer.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+                writer.write(String.valueOf(worker.id));
+                writer.write(",\"ts\":");
+                writer.write(String.valueOf((event.startTime - startTime) / 1000));
+                writer.write(",\"dur\":");
+                writer.write(String.valueOf((event.endTime - event.startTime) / 1000));
+                writer.write("}");
+            }
+        }
+        writer.write("]}\n");
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                writer.write('\\');
+                writer.write(ch);
+            } else if (ch < 0x20) {
+                writer.write(String.format("\\u%04x", (int) ch));
+            } else {
+                writer.write(ch);
+            }
+        }
+        writer.write('"');
+    }
+
+    enum Activity {
+        WAITING_FOR_STATE_LOCK("waiting for state lock", "wait"),
+        WAITING_FOR_WORK("waiting for work", "wait"),
+        WAITING_FOR_WORKER_LEASE("waiting for worker lease", "wait"),
+        SELECTING("selecting work", "schedule"),
+        EXECUTING("executing", "execute"),
+        MARKING_FINISHED("marking work finished", "schedule");
+
+        private final String displayName;
+        private final String category;
+
+        Activity(String displayName, String category) {
+            this.displayName = displayName;
+            this.category = category;
+        }
+    }
+
+    /**
+     * Only used by the worker thread, so not thread safe.
+     */
+    static class Worker {
+        private final int id;
+        private final List<Event> events = new ArrayList<>();
+        private String threadName;
+
+        private Worker(int id) {
+            this.id = id;
+        }
+
+        void record(Activity activity, @Nullable Object item, long startTime, long endTime) {
+            if (threadName == null) {
+                threadName = Thread.currentThread().getName();
+            }
+            String name = item == null ? activity.displayName : activity.displayName + " " + item;
+            events.add(new Event(activity, name, startTime, endTime));
+        }
+    }
+
+    private static class Event {
+        final Activity activity;
+        final String name;
+        final long startTime;
+        final long endTime;
+
+        Event(Activity activity, String name, long startTime, long endTime) {
+            this.activity = activity;
+            this.name = name;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+}
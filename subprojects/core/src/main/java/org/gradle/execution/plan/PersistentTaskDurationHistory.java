@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.cache.FileLockManager;
+import org.gradle.cache.IndexedCache;
+import org.gradle.cache.IndexedCacheParameters;
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.scopes.BuildTreeScopedCacheBuilderFactory;
+import org.gradle.initialization.RootBuildLifecycleListener;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+import static org.gradle.internal.serialize.BaseSerializerFactory.LONG_SERIALIZER;
+import static org.gradle.internal.serialize.BaseSerializerFactory.STRING_SERIALIZER;
+
+/**
+ * Keeps the task durations in the build tree scoped cache, keyed by the identity path of the task.
+ *
+ * <p>
+ * The recorded duration is a moving average, so that a single slow or fast execution does not change the schedule of the next build too much.
+ * New durations are kept in memory and written at the end of the build.
+ * The cache is only opened when the history is used.
+ * </p>
+ */
+public class PersistentTaskDurationHistory implements TaskDurationHistory, RootBuildLifecycleListener, Closeable {
+    private static final String CACHE_NAME = "taskDurations";
+
+    private final BuildTreeScopedCacheBuilderFactory cacheBuilderFactory;
+    private final Map<String, Long> knownDurations = new ConcurrentHashMap<>();
+    private final Map<String, Long> pendingDurations = new ConcurrentHashMap<>();
+    private PersistentCache cache;
+    private IndexedCache<String, Long> durations;
+
+    public PersistentTaskDurationHistory(BuildTreeScopedCacheBuilderFactory cacheBuilderFactory) {
+        this.cacheBuilderFactory = cacheBuilderFactory;
+    }
+
+    @Override
+    public Map<LocalTaskNode, Long> getExpectedDurations(Collection<LocalTaskNode> tasks) {
+        Map<LocalTaskNode, String> unknownTasks = new LinkedHashMap<>();
+        Map<LocalTaskNode, Long> result = new HashMap<>();
+        for (LocalTaskNode task : tasks) {
+            String key = keyOf(task);
+            Long duration = knownDurations.get(key);
+            if (duration != null) {
+                result.put(task, duration);
+            } else {
+                unknownTasks.put(task, key);
+            }
+        }
+        if (!unknownTasks.isEmpty()) {
+            IndexedCache<String, Long> durations = durations();
+            cache.useCache(() -> unknownTasks.forEach((task, key) -> {
+                Long duration = durations.getIfPresent(key);
+                if (duration != null) {
+                    knownDurations.putIfAbsent(key, duration);
+                    result.put(task, duration);
+                }
+            }));
+        }
+        return result;
+    }
+
+    @Override
+    public void recordDuration(LocalTaskNode task, long durationMillis) {
+        String key = keyOf(task);
+        Long average = knownDurations.merge(key, durationMillis, (previous, current) -> (3 * previous + current) / 4);
+        pendingDurations.put(key, average);
+    }
+
+    @Override
+    public void afterStart() {
+    }
+
+    @Override
+    public void beforeComplete() {
+        if (pendingDurations.isEmpty()) {
+            return;
+        }
+        Map<String, Long> toWrite = new HashMap<>(pendingDurations);
+        toWrite.forEach(pendingDurations::remove);
+        IndexedCache<String, Long> durations = durations();
+        cache.useCache(() -> toWrite.forEach(durations::put));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (cache != null) {
+            cache.close();
+            cache = null;
+            durations = null;
+        }
+    }
+
+    private synchronized IndexedCache<String, Long> durations() {
+        if (durations == null) {
+            cache = cacheBuilderFactory.createCacheBuilder(CACHE_NAME)
+                .withDisplayName("task duration cache")
+                .withLockOptions(mode(FileLockManager.LockMode.OnDemand)) // Lock on demand
+                .open();
+            durations = cache.createIndexedCache(IndexedCacheParameters.of(CACHE_NAME, STRING_SERIALIZER, LONG_SERIALIZER));
+        }
+        return durations;
+    }
+
+    private static String keyOf(LocalTaskNode task) {
+        return task.getTask().getIdentityPath().getPath();
+    }
+}
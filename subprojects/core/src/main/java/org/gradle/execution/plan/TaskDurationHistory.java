@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.internal.service.scopes.Scopes;
+import org.gradle.internal.service.scopes.ServiceScope;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Remembers how long tasks took to execute, so that the execution plan can start the tasks on the critical path first.
+ */
+@ServiceScope(Scopes.BuildSession.class)
+public interface TaskDurationHistory {
+    /**
+     * A history that knows nothing and forgets everything.
+     */
+    TaskDurationHistory NONE = new TaskDurationHistory() {
+        @Override
+        public Map<LocalTaskNode, Long> getExpectedDurations(Collection<LocalTaskNode> tasks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void recordDuration(LocalTaskNode task, long durationMillis) {
+        }
+    };
+
+    /**
+     * Returns the expected execution duration of the given tasks, in milliseconds. Tasks that have not executed before are not included.
+     */
+    Map<LocalTaskNode, Long> getExpectedDurations(Collection<LocalTaskNode> tasks);
+
+    /**
+     * Records that the given task executed for the given duration.
+     */
+    void recordDuration(LocalTaskNode task, long durationMillis);
+}
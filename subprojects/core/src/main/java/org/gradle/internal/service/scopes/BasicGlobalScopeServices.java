@@ -33,8 +33,10 @@
 import org.gradle.cache.FileLockManager;
 import org.gradle.cache.internal.DefaultFileLockManager;
 import org.gradle.cache.internal.DefaultProcessMetaDataProvider;
+import org.gradle.cache.internal.FileLockStatistics;
 import org.gradle.cache.internal.locklistener.DefaultFileLockContentionHandler;
 import org.gradle.cache.internal.locklistener.FileLockContentionHandler;
+import org.gradle.initialization.GradleUserHomeDirProvider;
 import org.gradle.internal.Factory;
 import org.gradle.internal.concurrent.DefaultExecutorFactory;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -58,6 +60,8 @@
 import org.gradle.process.internal.ExecFactory;
 import org.gradle.process.internal.ExecHandleFactory;
 
+import java.io.File;
+
 /**
  * Defines the basic global services of a given process. This includes the Gradle CLI, daemon and tooling API provider. These services
  * should be as few as possible to keep the CLI startup fast. Global services that are only needed for the process running the build should go in
@@ -69,18 +73,24 @@ void configure(ServiceRegistration serviceRegistration) {
         serviceRegistration.addProvider(new MessagingServices());
     }
 
-    FileLockManager createFileLockManager(ProcessEnvironment processEnvironment, FileLockContentionHandler fileLockContentionHandler) {
+    FileLockManager createFileLockManager(ProcessEnvironment processEnvironment, FileLockContentionHandler fileLockContentionHandler, FileLockStatistics.Collector fileLockStatisticsCollector) {
         return new DefaultFileLockManager(
             new DefaultProcessMetaDataProvider(
                 processEnvironment),
-            fileLockContentionHandler);
+            fileLockContentionHandler,
+            fileLockStatisticsCollector);
+    }
+
+    FileLockStatistics.Collector createFileLockStatisticsCollector() {
+        return new FileLockStatistics.Collector();
     }
 
 
-    DefaultFileLockContentionHandler createFileLockContentionHandler(ExecutorFactory executorFactory, InetAddressFactory inetAddressFactory) {
+    DefaultFileLockContentionHandler createFileLockContentionHandler(ExecutorFactory executorFactory, InetAddressFactory inetAddressFactory, GradleUserHomeDirProvider gradleUserHomeDirProvider) {
         return new DefaultFileLockContentionHandler(
             executorFactory,
-            inetAddressFactory);
+            inetAddressFactory,
+            DefaultFileLockContentionHandler.isSharedMemoryCoordinationEnabled() ? new File(gradleUserHomeDirProvider.getGradleUserHomeDirectory(), "lock-mailboxes") : null);
     }
 
     ExecutorFactory createExecutorFactory() {
@@ -69,6 +69,8 @@
 import org.gradle.internal.execution.history.changes.DefaultExecutionStateChangeDetector;
 import org.gradle.internal.execution.history.changes.ExecutionStateChangeDetector;
 import org.gradle.internal.execution.history.impl.DefaultOverlappingOutputDetector;
+import org.gradle.internal.hash.DefaultStreamHasher;
+import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.installation.GradleRuntimeShadedJarDetector;
 import org.gradle.internal.instantiation.InjectAnnotationHandler;
 import org.gradle.internal.instantiation.InstanceGenerator;
@@ -88,6 +90,7 @@
 import org.gradle.internal.service.DefaultServiceLocator;
 import org.gradle.internal.service.ServiceRegistration;
 import org.gradle.internal.service.ServiceRegistry;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotter;
 import org.gradle.internal.time.Clock;
 import org.gradle.model.internal.inspect.MethodModelRuleExtractor;
 import org.gradle.model.internal.inspect.MethodModelRuleExtractors;
@@ -179,6 +182,12 @@ CachingServiceLocator createPluginsServiceLocator(ClassLoaderRegistry registry)
         );
     }
 
+    @Override
+    StreamHasher createStreamHasher() {
+        // Large files are hashed in chunks only when they are also hashed concurrently while snapshotting
+        return new DefaultStreamHasher(DefaultStreamHasher.configuredHashFunction(), DirectorySnapshotter.configuredParallelism() > 1);
+    }
+
     JdkToolsInitializer createJdkToolsInitializer(ClassLoaderFactory classLoaderFactory) {
         return new DefaultJdkToolsInitializer(classLoaderFactory);
     }
@@ -66,8 +66,11 @@
 import org.gradle.internal.fingerprint.impl.DefaultFileCollectionSnapshotter;
 import org.gradle.internal.fingerprint.impl.FileCollectionFingerprinterRegistrations;
 import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.DefaultStreamHasher;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.HashFunction;
+import org.gradle.internal.hash.Hashing;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeintegration.NativeCapabilities;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
@@ -77,6 +80,8 @@
 import org.gradle.internal.snapshot.CaseSensitivity;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.snapshot.ValueSnapshotter;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotter;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterPool;
 import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics;
 import org.gradle.internal.vfs.FileSystemAccess;
 import org.gradle.internal.vfs.VirtualFileSystem;
@@ -97,6 +102,7 @@
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.function.Predicate;
 
@@ -117,6 +123,12 @@ public class VirtualFileSystemServices extends AbstractPluginServiceRegistry {
     public static final IntegerInternalOption MAX_HIERARCHIES_TO_WATCH_PROPERTY = new IntegerInternalOption("org.gradle.vfs.watch.hierarchies.max", DEFAULT_MAX_HIERARCHIES_TO_WATCH);
     private static final int FILE_HASHER_MEMORY_CACHE_SIZE = 400000;
 
+    /**
+     * When file system watching is enabled, this system property makes the daemon retain the watched parts of the VFS on shutdown,
+     * so the next daemon can restore them instead of snapshotting everything again.
+     */
+    public static final String RETAIN_VFS_STATE_PROPERTY = "org.gradle.unsafe.vfs.retain-state";
+
     public static boolean isDropVfs(InternalOptions options) {
         return options.getOption(VFS_DROP_PROPERTY).get();
     }
@@ -125,6 +137,20 @@ public static int getMaximumNumberOfWatchedHierarchies(InternalOptions options)
         return options.getOption(MAX_HIERARCHIES_TO_WATCH_PROPERTY).get();
     }
 
+    /**
+     * Hashes of different functions must not be mixed, so persistent state containing file content hashes is kept separate for each hash function.
+     * The same goes for hashing large files in chunks, which is enabled together with the concurrent snapshotting.
+     */
+    private static String forFileContentHashFunction(String name) {
+        HashFunction hashFunction = DefaultStreamHasher.configuredHashFunction();
+        String qualifiedName = hashFunction == Hashing.defaultFunction()
+            ? name
+            : name + "-" + hashFunction.getAlgorithm().toLowerCase(Locale.ROOT);
+        return DirectorySnapshotter.configuredParallelism() > 1
+            ? qualifiedName + "-chunked"
+            : qualifiedName;
+    }
+
     @Override
     public void registerGlobalServices(ServiceRegistration registration) {
         registration.addProvider(new GlobalScopeServices());
@@ -148,6 +174,10 @@ FileHasherStatistics.Collector createCachingFileHasherStatisticsCollector() {
         DirectorySnapshotterStatistics.Collector createDirectorySnapshotterStatisticsCollector() {
             return new DirectorySnapshotterStatistics.Collector();
         }
+
+        DirectorySnapshotterPool createDirectorySnapshotterPool() {
+            return DirectorySnapshotterPool.configured();
+        }
     }
 
     @VisibleForTesting
@@ -165,7 +195,7 @@ FileHasher createCachingFileHasher(
             StreamHasher streamHasher,
             StringInterner stringInterner
         ) {
-            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, forFileContentHashFunction("fileHashes"), fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
             fileTimeStampInspector.attach(fileHasher);
             return fileHasher;
         }
@@ -198,13 +228,18 @@ BuildLifecycleAwareVirtualFileSystem createVirtualFileSystem(
             FileChangeListeners fileChangeListeners,
             FileSystem fileSystem,
             GlobalCacheLocations globalCacheLocations,
-            WatchableFileSystemDetector watchableFileSystemDetector
+            WatchableFileSystemDetector watchableFileSystemDetector,
+            GlobalScopedCacheBuilderFactory cacheBuilderFactory
         ) {
             CaseSensitivity caseSensitivity = fileSystem.isCaseSensitive() ? CASE_SENSITIVE : CASE_INSENSITIVE;
             SnapshotHierarchy root = DefaultSnapshotHierarchy.empty(caseSensitivity);
             // All the changes in global caches should be done by Gradle itself, so in order
             // to minimize the number of watches we don't watch anything within the global caches.
             Predicate<String> watchFilter = path -> !globalCacheLocations.isInsideGlobalCache(path);
+            // The retained state is specific to the Gradle version, since snapshots and hashes can change between versions
+            File retainedStateFile = Boolean.getBoolean(RETAIN_VFS_STATE_PROPERTY)
+                ? new File(cacheBuilderFactory.baseDirForCache("vfs"), forFileContentHashFunction("retained-state") + ".bin")
+                : null;
 
             BuildLifecycleAwareVirtualFileSystem virtualFileSystem = determineWatcherRegistryFactory(
                 OperatingSystem.current(),
@@ -216,7 +251,8 @@ BuildLifecycleAwareVirtualFileSystem createVirtualFileSystem(
                     sectionId -> documentationRegistry.getDocumentationRecommendationFor("details", "gradle_daemon", sectionId),
                     locationsWrittenByCurrentBuild,
                     watchableFileSystemDetector,
-                    fileChangeListeners
+                    fileChangeListeners,
+                    retainedStateFile
                 ))
                 .orElse(new WatchingNotSupportedVirtualFileSystem(root));
             listenerManager.addListener((BuildAddedListener) buildState -> {
@@ -234,6 +270,7 @@ FileSystemAccess createFileSystemAccess(
             StringInterner stringInterner,
             FileSystemAccess.WriteListener writeListener,
             DirectorySnapshotterStatistics.Collector statisticsCollector,
+            DirectorySnapshotterPool snapshotterPool,
             ListenerManager listenerManager
         ) {
             DefaultFileSystemAccess defaultFileSystemAccess = new DefaultFileSystemAccess(
@@ -243,6 +280,7 @@ FileSystemAccess createFileSystemAccess(
                 virtualFileSystem,
                 writeListener,
                 statisticsCollector,
+                snapshotterPool,
                 DirectoryScanner.getDefaultExcludes()
             );
             listenerManager.addListener(defaultFileSystemAccess);
@@ -318,7 +356,7 @@ FileHasher createFileHasher(
             StringInterner stringInterner,
             FileHasherStatistics.Collector statisticsCollector
         ) {
-            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, forFileContentHashFunction("fileHashes"), fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
             return new SplitFileHasher(globalHasher, localHasher, globalCacheLocations);
         }
 
@@ -329,7 +367,8 @@ FileSystemAccess createFileSystemAccess(
             StringInterner stringInterner,
             VirtualFileSystem root,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            DirectorySnapshotterPool snapshotterPool
         ) {
             DefaultFileSystemAccess buildSessionsScopedVirtualFileSystem = new DefaultFileSystemAccess(
                 hasher,
@@ -338,6 +377,7 @@ FileSystemAccess createFileSystemAccess(
                 root,
                 writeListener,
                 statisticsCollector,
+                snapshotterPool,
                 DirectoryScanner.getDefaultExcludes()
             );
 
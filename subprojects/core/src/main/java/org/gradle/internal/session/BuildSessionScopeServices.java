@@ -35,12 +35,15 @@
 import org.gradle.cache.UnscopedCacheBuilderFactory;
 import org.gradle.cache.internal.BuildOperationCleanupActionDecorator;
 import org.gradle.cache.internal.BuildScopeCacheDir;
+import org.gradle.cache.internal.CacheLockStatisticsReporter;
 import org.gradle.cache.internal.CleanupActionDecorator;
+import org.gradle.cache.internal.FileLockStatistics;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.cache.internal.scopes.DefaultBuildTreeScopedCacheBuilderFactory;
 import org.gradle.cache.scopes.BuildTreeScopedCacheBuilderFactory;
 import org.gradle.deployment.internal.DefaultDeploymentRegistry;
 import org.gradle.deployment.internal.PendingChangesManager;
+import org.gradle.execution.plan.PersistentTaskDurationHistory;
 import org.gradle.groovy.scripts.internal.DefaultScriptSourceHasher;
 import org.gradle.groovy.scripts.internal.ScriptSourceHasher;
 import org.gradle.initialization.BuildCancellationToken;
@@ -164,6 +167,10 @@ BuildTreeScopedCacheBuilderFactory createBuildTreeScopedCache(ProjectCacheDir pr
         return new DefaultBuildTreeScopedCacheBuilderFactory(projectCacheDir.getDir(), unscopedCacheBuilderFactory);
     }
 
+    PersistentTaskDurationHistory createTaskDurationHistory(BuildTreeScopedCacheBuilderFactory cacheBuilderFactory) {
+        return new PersistentTaskDurationHistory(cacheBuilderFactory);
+    }
+
     BuildSessionScopeFileTimeStampInspector createFileTimeStampInspector(BuildTreeScopedCacheBuilderFactory cacheBuilderFactory) {
         File workDir = cacheBuilderFactory.baseDirForCache("fileChanges");
         return new BuildSessionScopeFileTimeStampInspector(workDir);
@@ -190,6 +197,10 @@ CleanupActionDecorator createCleanupActionFactory(BuildOperationExecutor buildOp
         return new BuildOperationCleanupActionDecorator(buildOperationExecutor);
     }
 
+    CacheLockStatisticsReporter createCacheLockStatisticsReporter(FileLockStatistics.Collector collector, BuildOperationExecutor buildOperationExecutor) {
+        return new CacheLockStatisticsReporter(collector, buildOperationExecutor);
+    }
+
     protected ExecFactory decorateExecFactory(ExecFactory execFactory, FileResolver fileResolver, FileCollectionFactory fileCollectionFactory, Instantiator instantiator, BuildCancellationToken buildCancellationToken, ObjectFactory objectFactory, JavaModuleDetector javaModuleDetector) {
         return execFactory.forContext()
             .withFileResolver(fileResolver)
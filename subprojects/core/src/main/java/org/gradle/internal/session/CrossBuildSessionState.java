@@ -26,6 +26,7 @@
 import org.gradle.configuration.internal.DefaultUserCodeApplicationContext;
 import org.gradle.configuration.internal.ListenerBuildOperationDecorator;
 import org.gradle.configuration.internal.UserCodeApplicationContext;
+import org.gradle.internal.buildoption.DefaultInternalOptions;
 import org.gradle.internal.concurrent.CompositeStoppable;
 import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -49,8 +50,10 @@
 import org.gradle.internal.service.scopes.Scopes;
 import org.gradle.internal.service.scopes.ServiceScope;
 import org.gradle.internal.time.Clock;
+import org.gradle.internal.work.AdaptiveWorkerLeaseLimit;
 import org.gradle.internal.work.DefaultWorkerLeaseService;
 import org.gradle.internal.work.WorkerLeaseService;
+import org.gradle.process.internal.health.memory.MemoryManager;
 
 import java.io.Closeable;
 
@@ -76,6 +79,9 @@ public CrossBuildSessionState(ServiceRegistry parent, StartParameter startParame
             .build();
         // Trigger listener to wire itself in
         services.get(BuildOperationTrace.class);
+        if (new DefaultInternalOptions(startParameter.getSystemPropertiesArgs()).getOption(AdaptiveWorkerLeaseLimit.ADAPTIVE_WORKER_COUNT).get()) {
+            services.get(AdaptiveWorkerLeaseLimit.class);
+        }
     }
 
     public ServiceRegistry getServices() {
@@ -109,6 +115,10 @@ ParallelismConfiguration createParallelismConfiguration() {
             return new DefaultParallelismConfiguration(startParameter.isParallelProjectExecutionEnabled(), startParameter.getMaxWorkerCount());
         }
 
+        AdaptiveWorkerLeaseLimit createAdaptiveWorkerLeaseLimit(DefaultWorkerLeaseService workerLeaseService, MemoryManager memoryManager) {
+            return new AdaptiveWorkerLeaseLimit(workerLeaseService, memoryManager);
+        }
+
         BuildOperationExecutor createBuildOperationExecutor(
             Clock clock,
             ProgressLoggerFactory progressLoggerFactory,
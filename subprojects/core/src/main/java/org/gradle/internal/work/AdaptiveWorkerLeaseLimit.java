@@ -0,0 +1,151 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.work;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.gradle.internal.buildoption.InternalFlag;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.process.internal.health.memory.JvmMemoryStatus;
+import org.gradle.process.internal.health.memory.JvmMemoryStatusListener;
+import org.gradle.process.internal.health.memory.MemoryManager;
+import org.gradle.process.internal.health.memory.OsMemoryStatus;
+import org.gradle.process.internal.health.memory.OsMemoryStatusAspect;
+import org.gradle.process.internal.health.memory.OsMemoryStatusListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the number of worker leases that can be granted to the load of the machine, between 1 and the configured maximum worker count.
+ *
+ * <p>
+ * The limit is re-evaluated each time the {@link MemoryManager} publishes a memory status.
+ * It is reduced quickly when the system is overloaded, the OS is running out of physical memory or this JVM spends too much time collecting garbage,
+ * and increased one lease at a time when the machine has capacity to spare.
+ * </p>
+ *
+ * <p>
+ * The system load average lags behind by about a minute and includes the workers of this build,
+ * so after each reduction the limit is not reduced again until the load average has caught up with it.
+ * </p>
+ */
+public class AdaptiveWorkerLeaseLimit implements JvmMemoryStatusListener, OsMemoryStatusListener, Stoppable {
+    public static final InternalFlag ADAPTIVE_WORKER_COUNT = new InternalFlag("org.gradle.internal.workers.adaptive");
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveWorkerLeaseLimit.class);
+
+    private static final double MAX_LOAD_PER_CPU = 1.25;
+    private static final double IDLE_LOAD_PER_CPU = 0.9;
+    private static final double MAX_GC_FRACTION = 0.1;
+    private static final double IDLE_GC_FRACTION = 0.02;
+    private static final double MIN_FREE_MEMORY_FRACTION = 0.1;
+    private static final double IDLE_FREE_MEMORY_FRACTION = 0.2;
+    // The window of the load average returned by OperatingSystemMXBean.getSystemLoadAverage()
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final DefaultWorkerLeaseService workerLeaseService;
+    private final MemoryManager memoryManager;
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private volatile double freeMemoryFraction = Double.NaN;
+    private long lastGcTime;
+    private long lastSampleTime;
+    private boolean decreased;
+    private long lastDecreaseTime;
+
+    public AdaptiveWorkerLeaseLimit(DefaultWorkerLeaseService workerLeaseService, MemoryManager memoryManager) {
+        this.workerLeaseService = workerLeaseService;
+        this.memoryManager = memoryManager;
+        this.lastGcTime = totalGcTimeMillis();
+        this.lastSampleTime = System.nanoTime();
+        memoryManager.addListener((OsMemoryStatusListener) this);
+        memoryManager.addListener((JvmMemoryStatusListener) this);
+    }
+
+    @Override
+    public void onOsMemoryStatus(OsMemoryStatus os) {
+        OsMemoryStatusAspect.Available physicalMemory = os.getPhysicalMemory();
+        if (physicalMemory.getTotal() > 0) {
+            freeMemoryFraction = (double) physicalMemory.getFree() / physicalMemory.getTotal();
+        }
+    }
+
+    @Override
+    public void onJvmMemoryStatus(JvmMemoryStatus jvmMemoryStatus) {
+        // Published right after the OS memory status, so use this as the signal to re-evaluate
+        long gcTime = totalGcTimeMillis();
+        long now = System.nanoTime();
+        long elapsedMillis = (now - lastSampleTime) / 1_000_000;
+        double gcFraction = elapsedMillis > 0 ? (double) (gcTime - lastGcTime) / elapsedMillis : 0;
+        lastGcTime = gcTime;
+        lastSampleTime = now;
+
+        double loadAverage = operatingSystem.getSystemLoadAverage();
+        double loadPerCpu = loadAverage < 0 ? Double.NaN : loadAverage / operatingSystem.getAvailableProcessors();
+        adjust(now, loadPerCpu, gcFraction, freeMemoryFraction);
+    }
+
+    /**
+     * @param timestamp the value of {@link System#nanoTime()} when the values were sampled.
+     * @param loadPerCpu the system load average divided by the number of processors, or NaN when not known.
+     * @param gcFraction the fraction of time this JVM spent collecting garbage since the previous adjustment.
+     * @param freeMemoryFraction the fraction of the physical memory that is free, or NaN when not known.
+     */
+    @VisibleForTesting
+    void adjust(long timestamp, double loadPerCpu, double gcFraction, double freeMemoryFraction) {
+        int current = workerLeaseService.getWorkerLeaseLimit();
+        int next = current;
+        if (loadPerCpu > MAX_LOAD_PER_CPU || gcFraction > MAX_GC_FRACTION || freeMemoryFraction < MIN_FREE_MEMORY_FRACTION) {
+            if (decreased && timestamp - lastDecreaseTime < DECREASE_COOLDOWN_NANOS) {
+                // The previous reduction has not shown in the load yet
+                return;
+            }
+            next = current - Math.max(1, current / 4);
+        } else if (!(loadPerCpu >= IDLE_LOAD_PER_CPU) && gcFraction < IDLE_GC_FRACTION && !(freeMemoryFraction <= IDLE_FREE_MEMORY_FRACTION)) {
+            next = current + 1;
+        }
+        next = Math.max(1, Math.min(next, workerLeaseService.getMaxWorkerCount()));
+        if (next < current) {
+            decreased = true;
+            lastDecreaseTime = timestamp;
+        }
+        if (next != current) {
+            LOGGER.debug("Changing worker lease limit from {} to {} (load per CPU: {}, GC time: {}, free memory: {}).", current, next, loadPerCpu, gcFraction, freeMemoryFraction);
+            workerLeaseService.setWorkerLeaseLimit(next);
+        }
+    }
+
+    @Override
+    public void stop() {
+        memoryManager.removeListener((JvmMemoryStatusListener) this);
+        memoryManager.removeListener((OsMemoryStatusListener) this);
+        workerLeaseService.setWorkerLeaseLimit(workerLeaseService.getMaxWorkerCount());
+    }
+
+    private static long totalGcTimeMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long time = garbageCollector.getCollectionTime();
+            if (time > 0) {
+                total += time;
+            }
+        }
+        return total;
+    }
+}
@@ -45,7 +45,7 @@ class DefaultFileAccessTimeJournalTest extends Specification {
     def globalScopedCache = new DefaultGlobalScopedCacheBuilderFactory(cachesDir, cacheRepository)
     def cacheDecoratorFactory = Stub(DefaultInMemoryCacheDecoratorFactory) {
         decorator(_, _) >> Stub(CacheDecorator) {
-            decorate(_, _, _, _, _) >> { cacheId, cacheName, persistentCache, crossProcessCacheAccess, asyncCacheAccess ->
+            decorate(_, _, _, _, _, _, _) >> { cacheId, cacheName, keySerializer, valueSerializer, persistentCache, crossProcessCacheAccess, asyncCacheAccess ->
                 persistentCache
             }
         }
@@ -31,10 +31,12 @@ import org.gradle.caching.configuration.internal.DefaultBuildCacheConfiguration
 import org.gradle.caching.configuration.internal.DefaultBuildCacheServiceRegistration
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType
 import org.gradle.caching.internal.origin.OriginMetadataFactory
+import org.gradle.caching.internal.packaging.BuildCacheEntryCodecs
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
 import org.gradle.caching.internal.services.LegacyBuildCacheControllerFactory
 import org.gradle.caching.local.DirectoryBuildCache
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.vfs.FileSystemAccess
 import org.gradle.util.Path
@@ -68,7 +70,9 @@ class LegacyBuildCacheControllerFactoryTest extends Specification {
             Stub(FileSystemAccess),
             Stub(StringInterner),
             Stub(TemporaryFileProvider),
-            Stub(BuildCacheEntryPacker)
+            Stub(BuildCacheEntryPacker),
+            BuildCacheEntryCodecs.builtIn(),
+            Stub(ExecutorFactory)
         ).createController(Path.path("test"), config, TestUtil.instantiatorFactory().inject())
         assert controllerType.isInstance(controller)
         controllerType.cast(controller)
@@ -23,6 +23,7 @@ import org.gradle.api.internal.TaskInternal
 import org.gradle.api.internal.project.ProjectInternal
 import org.gradle.api.internal.project.taskfactory.TestTaskIdentities
 import org.gradle.api.internal.tasks.NodeExecutionContext
+import org.gradle.api.internal.tasks.TaskExecutionOutcome
 import org.gradle.api.internal.tasks.TaskStateInternal
 import org.gradle.api.problems.Problems
 import org.gradle.api.tasks.Destroys
@@ -55,8 +56,9 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
     def accessHierarchies = new ExecutionNodeAccessHierarchies(CASE_SENSITIVE, Stub(Stat))
     def taskNodeFactory = new TaskNodeFactory(project.gradle, Stub(BuildTreeWorkGraphController), nodeValidator, new TestBuildOperationExecutor(), accessHierarchies, Stub(Problems))
 
+    def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
+
     def setup() {
-        def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
         executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, new OrdinalGroupFactory(), dependencyResolver, accessHierarchies.outputHierarchy, accessHierarchies.destroyableHierarchy, coordinator)
     }
 
@@ -76,6 +78,7 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
         _ * task.taskIdentity >> TestTaskIdentities.create(name, DefaultTask, project as ProjectInternal)
         TaskStateInternal state = Mock()
         _ * task.state >> state
+        _ * state.outcome >> options.outcome
         if (options.failure != null) {
             failure(task, options.failure)
         }
@@ -2062,6 +2065,73 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
         continueOnFailure << [false, true]
     }
 
+    def "starts tasks with the longest expected remaining duration first when task durations are known"() {
+        given:
+        def durationHistory = Mock(TaskDurationHistory)
+        executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, new OrdinalGroupFactory(), dependencyResolver, accessHierarchies.outputHierarchy, accessHierarchies.destroyableHierarchy, coordinator, durationHistory)
+        def durations = [a: 10L, c: 100L]
+        Task a = task("a", type: Async, outcome: TaskExecutionOutcome.EXECUTED)
+        Task b = task("b", type: Async, outcome: TaskExecutionOutcome.EXECUTED)
+        Task c = task("c", type: Async, dependsOn: [b], outcome: TaskExecutionOutcome.EXECUTED)
+
+        when:
+        addToGraphAndPopulate(a, c)
+
+        then:
+        1 * durationHistory.getExpectedDurations(_) >> { Collection<LocalTaskNode> tasks ->
+            tasks.findAll { durations.containsKey(it.task.name) }.collectEntries { [it, durations[it.task.name]] }
+        }
+
+        when:
+        assertTasksReady(b, a)
+        assertTaskReadyAndNoMoreToStart(c)
+        assertAllWorkComplete()
+
+        then:
+        1 * durationHistory.recordDuration({ it.task == a }, _)
+        1 * durationHistory.recordDuration({ it.task == b }, _)
+        1 * durationHistory.recordDuration({ it.task == c }, _)
+        0 * durationHistory._
+    }
+
+    def "only records the duration of tasks that were actually executed"() {
+        given:
+        def durationHistory = Mock(TaskDurationHistory)
+        executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, new OrdinalGroupFactory(), dependencyResolver, accessHierarchies.outputHierarchy, accessHierarchies.destroyableHierarchy, coordinator, durationHistory)
+        Task a = task("a", type: Async, outcome: TaskExecutionOutcome.EXECUTED)
+        Task b = task("b", type: Async, outcome: TaskExecutionOutcome.UP_TO_DATE)
+        Task c = task("c", type: Async, outcome: TaskExecutionOutcome.FROM_CACHE)
+
+        when:
+        addToGraphAndPopulate(a, b, c)
+
+        then:
+        1 * durationHistory.getExpectedDurations(_) >> [:]
+
+        when:
+        assertTasksReady(a, b, c)
+        assertAllWorkComplete()
+
+        then:
+        1 * durationHistory.recordDuration({ it.task == a }, _)
+        0 * durationHistory._
+    }
+
+    def "starts tasks in plan order when task durations are not known"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async, dependsOn: [b])
+
+        when:
+        addToGraphAndPopulate(a, c)
+
+        then:
+        assertTasksReady(a, b)
+        assertTaskReadyAndNoMoreToStart(c)
+        assertAllWorkComplete()
+    }
+
     private void tasksAreNotExecutedInParallel(Task first, Task second) {
         addToGraphAndPopulate(first, second)
 
@@ -18,6 +18,7 @@ package org.gradle.execution.plan
 
 import org.gradle.api.Action
 import org.gradle.api.Project
+import org.gradle.api.internal.StartParameterInternal
 import org.gradle.api.internal.TaskInternal
 import org.gradle.api.internal.tasks.TaskStateInternal
 import org.gradle.api.invocation.Gradle
@@ -28,9 +29,13 @@ import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.resources.DefaultResourceLockCoordinationService
 import org.gradle.internal.work.WorkerLeaseRegistry
 import org.gradle.internal.work.WorkerLeaseService
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
 import spock.lang.Specification
 
 class DefaultPlanExecutorTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
     def workSource = Mock(WorkSource)
     def worker = Mock(Action)
     def executorFactory = Mock(ExecutorFactory)
@@ -38,7 +43,7 @@ class DefaultPlanExecutorTest extends Specification {
     def coordinationService = new DefaultResourceLockCoordinationService()
     def workerLeaseService = Mock(WorkerLeaseService)
     def workerLease = Mock(WorkerLeaseRegistry.WorkerLease)
-    def executor = new DefaultPlanExecutor(new DefaultParallelismConfiguration(false, 1), executorFactory, workerLeaseService, cancellationHandler, coordinationService, new DefaultInternalOptions([:]))
+    def executor = new DefaultPlanExecutor(new DefaultParallelismConfiguration(false, 1), executorFactory, workerLeaseService, cancellationHandler, coordinationService, new DefaultInternalOptions([:]), new StartParameterInternal())
 
     def "executes tasks until no further tasks remain"() {
         def gradle = Mock(Gradle)
@@ -113,4 +118,26 @@ class DefaultPlanExecutorTest extends Specification {
         1 * workSource.collectFailures([])
         0 * workSource._
     }
+
+    def "writes timeline relative to the directory the build was invoked from"() {
+        def startParameter = new StartParameterInternal()
+        startParameter.currentDir = tmpDir.file("invocation")
+        def options = new DefaultInternalOptions([(DefaultPlanExecutor.TIMELINE.systemPropertyName): "build/timeline.json"])
+        def executor = new DefaultPlanExecutor(new DefaultParallelismConfiguration(false, 1), executorFactory, workerLeaseService, cancellationHandler, coordinationService, options, startParameter)
+        def node = Mock(LocalTaskNode)
+
+        when:
+        executor.process(workSource, worker)
+
+        then:
+        1 * workerLeaseService.currentWorkerLease >> workerLease
+        _ * workerLease.tryLock() >> true
+        _ * cancellationHandler.isCancellationRequested() >> false
+        2 * workSource.executionState() >>> [WorkSource.State.MaybeWorkReadyToStart, WorkSource.State.NoMoreWorkToStart]
+        1 * workSource.selectNext() >> WorkSource.Selection.of(node)
+        _ * workSource.allExecutionComplete() >> true
+
+        and:
+        tmpDir.file("invocation/build/timeline.json").file
+    }
 }
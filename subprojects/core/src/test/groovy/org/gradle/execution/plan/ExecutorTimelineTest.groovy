@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan
+
+import groovy.json.JsonSlurper
+import spock.lang.Specification
+
+class ExecutorTimelineTest extends Specification {
+    def timeline = new ExecutorTimeline(1_000_000)
+
+    def "writes activities of each worker as trace events"() {
+        def worker1 = timeline.startWorker()
+        def worker2 = timeline.startWorker()
+
+        when:
+        worker1.record(ExecutorTimeline.Activity.WAITING_FOR_WORK, null, 1_000_000, 3_000_000)
+        worker1.record(ExecutorTimeline.Activity.EXECUTING, ":compile \"main\"", 3_000_000, 10_500_000)
+        worker2.record(ExecutorTimeline.Activity.WAITING_FOR_WORKER_LEASE, null, 2_000_000, 2_250_000)
+        def trace = parse()
+
+        then:
+        trace.traceEvents.size() == 5
+        def threadNames = trace.traceEvents.findAll { it.ph == "M" }
+        threadNames*.tid == [1, 2]
+        threadNames*.args*.name == [Thread.currentThread().name] * 2
+
+        def events = trace.traceEvents.findAll { it.ph == "X" }
+        events*.tid == [1, 1, 2]
+        events*.name == ["waiting for work", "executing :compile \"main\"", "waiting for worker lease"]
+        events*.cat == ["wait", "execute", "wait"]
+        events*.ts == [0, 2000, 1000]
+        events*.dur == [2000, 7500, 250]
+    }
+
+    def "does not write workers that did nothing"() {
+        timeline.startWorker()
+
+        expect:
+        !timeline.empty
+        parse().traceEvents.empty
+    }
+
+    def "forgets workers when cleared"() {
+        timeline.startWorker().record(ExecutorTimeline.Activity.SELECTING, null, 1_000_000, 2_000_000)
+
+        when:
+        timeline.clear()
+
+        then:
+        timeline.empty
+        parse().traceEvents.empty
+    }
+
+    private Map<String, Object> parse() {
+        def writer = new StringWriter()
+        timeline.writeTo(writer)
+        return new JsonSlurper().parseText(writer.toString()) as Map<String, Object>
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.work
+
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService
+import org.gradle.process.internal.health.memory.MemoryManager
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class AdaptiveWorkerLeaseLimitTest extends Specification {
+    static final long TICK = TimeUnit.SECONDS.toNanos(5)
+    def memoryManager = Mock(MemoryManager)
+    def workerLeaseService = new DefaultWorkerLeaseService(new DefaultResourceLockCoordinationService(), new DefaultParallelismConfiguration(true, 8))
+    def limit = new AdaptiveWorkerLeaseLimit(workerLeaseService, memoryManager)
+
+    def "reduces the limit when the machine is under pressure"() {
+        when:
+        limit.adjust(0, loadPerCpu, gcFraction, freeMemory)
+
+        then:
+        workerLeaseService.workerLeaseLimit == 6
+
+        where:
+        loadPerCpu | gcFraction | freeMemory
+        2.0        | 0          | 0.5
+        0.5        | 0.2        | 0.5
+        0.5        | 0          | 0.05
+        Double.NaN | 0.2        | Double.NaN
+    }
+
+    def "increases the limit one lease at a time when the machine is idle"() {
+        given:
+        workerLeaseService.workerLeaseLimit = 2
+
+        when:
+        limit.adjust(0, loadPerCpu, 0, freeMemory)
+
+        then:
+        workerLeaseService.workerLeaseLimit == 3
+
+        where:
+        loadPerCpu | freeMemory
+        0.2        | 0.5
+        Double.NaN | Double.NaN
+    }
+
+    def "keeps the limit when the machine is busy but not overloaded"() {
+        given:
+        workerLeaseService.workerLeaseLimit = 4
+
+        when:
+        limit.adjust(0, 1.0, 0.05, 0.15)
+
+        then:
+        workerLeaseService.workerLeaseLimit == 4
+    }
+
+    def "waits for the load average to catch up before reducing the limit again"() {
+        def limits = []
+
+        when:
+        // Load stays high for a while after the first reduction, as the load average lags behind
+        [3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 3.0, 2.0, 1.0].eachWithIndex { load, tick ->
+            limit.adjust(tick * TICK, load, 0, 0.5)
+            limits << workerLeaseService.workerLeaseLimit
+        }
+
+        then:
+        limits == [6, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6, 5, 5, 5]
+    }
+
+    def "keeps the limit between one and the max worker count"() {
+        when:
+        10.times { limit.adjust(it * TimeUnit.MINUTES.toNanos(1), 3.0, 0, 0.5) }
+
+        then:
+        workerLeaseService.workerLeaseLimit == 1
+
+        when:
+        10.times { limit.adjust(0, 0.1, 0, 0.5) }
+
+        then:
+        workerLeaseService.workerLeaseLimit == 8
+    }
+
+    def "restores the max worker count when stopped"() {
+        given:
+        workerLeaseService.workerLeaseLimit = 2
+
+        when:
+        limit.stop()
+
+        then:
+        2 * memoryManager.removeListener(limit)
+        workerLeaseService.workerLeaseLimit == 8
+    }
+}
@@ -16,15 +16,17 @@
 
 package org.gradle.internal.execution.history.changes;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Maps;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
 import org.gradle.internal.fingerprint.impl.IgnoredPathFingerprintingStrategy;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.HashCodeMap;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 
@@ -54,29 +56,33 @@ private static boolean visitChangesSince(
         String propertyTitle,
         ChangeVisitor visitor
     ) {
-        ListMultimap<HashCode, FilePathWithType> unaccountedForPreviousFiles = MultimapBuilder.hashKeys(previous.size()).linkedListValues().build();
+        HashCodeMap<Deque<FilePathWithType>> unaccountedForPreviousFiles = new HashCodeMap<>(previous.size());
         for (Map.Entry<String, FileSystemLocationFingerprint> entry : previous.entrySet()) {
             String absolutePath = entry.getKey();
             FileSystemLocationFingerprint previousFingerprint = entry.getValue();
-            unaccountedForPreviousFiles.put(previousFingerprint.getNormalizedContentHash(), new FilePathWithType(absolutePath, previousFingerprint.getType()));
+            unaccountedForPreviousFiles.computeIfAbsent(previousFingerprint.getNormalizedContentHash(), key -> new ArrayDeque<>(1))
+                .add(new FilePathWithType(absolutePath, previousFingerprint.getType()));
         }
 
         for (Map.Entry<String, FileSystemLocationFingerprint> entry : current.entrySet()) {
             String currentAbsolutePath = entry.getKey();
             FileSystemLocationFingerprint currentFingerprint = entry.getValue();
             HashCode normalizedContentHash = currentFingerprint.getNormalizedContentHash();
-            List<FilePathWithType> previousFilesForContent = unaccountedForPreviousFiles.get(normalizedContentHash);
-            if (previousFilesForContent.isEmpty()) {
+            Deque<FilePathWithType> previousFilesForContent = unaccountedForPreviousFiles.get(normalizedContentHash);
+            if (previousFilesForContent == null || previousFilesForContent.isEmpty()) {
                 DefaultFileChange added = DefaultFileChange.added(currentAbsolutePath, propertyTitle, currentFingerprint.getType(), IgnoredPathFingerprintingStrategy.IGNORED_PATH);
                 if (!visitor.visitChange(added)) {
                     return false;
                 }
             } else {
-                previousFilesForContent.remove(0);
+                previousFilesForContent.removeFirst();
             }
         }
 
-        List<Map.Entry<HashCode, FilePathWithType>> unaccountedForPreviousEntries = ImmutableList.sortedCopyOf(ENTRY_COMPARATOR, unaccountedForPreviousFiles.entries());
+        List<Map.Entry<HashCode, FilePathWithType>> unaccountedForPreviousEntries = new ArrayList<>();
+        unaccountedForPreviousFiles.forEach((normalizedContentHash, files) ->
+            files.forEach(file -> unaccountedForPreviousEntries.add(Maps.immutableEntry(normalizedContentHash, file))));
+        unaccountedForPreviousEntries.sort(ENTRY_COMPARATOR);
         for (Map.Entry<HashCode, FilePathWithType> unaccountedForPreviousEntry : unaccountedForPreviousEntries) {
             FilePathWithType removedFile = unaccountedForPreviousEntry.getValue();
             DefaultFileChange removed = DefaultFileChange.removed(removedFile.getAbsolutePath(), propertyTitle, removedFile.getFileType(), IgnoredPathFingerprintingStrategy.IGNORED_PATH);
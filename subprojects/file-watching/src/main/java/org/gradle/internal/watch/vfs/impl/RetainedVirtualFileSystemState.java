@@ -0,0 +1,438 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.vfs.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.MissingFileSnapshot;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The contents of the virtual file system retained by a daemon on shutdown, so that the next daemon can reuse them.
+ *
+ * <p>
+ * There is no file system event journal we can query across processes, so the retained snapshots are validated against the file system when they are restored:
+ * regular files are compared by length and modification time, and directories are listed again unless their modification time is unchanged.
+ * Locations modified too close to the time their root was written are always considered stale, since the modification time might not have changed
+ * for a modification happening within its granularity.
+ * </p>
+ */
+class RetainedVirtualFileSystemState {
+    private static final int MAGIC = 0x47564653;
+    private static final int VERSION = 2;
+    private static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+    private static final byte DIRECTORY = 1;
+    private static final byte REGULAR_FILE = 2;
+    private static final byte MISSING = 3;
+    private static final byte DIRECTORY_END = 4;
+    private static final byte END = 5;
+    private static final byte ROOT = 6;
+
+    private static final long UNKNOWN_MODIFICATION_TIME = -1;
+
+    private final List<FileSystemLocationSnapshot> roots;
+    private final Map<String, Long> rootWriteTimes;
+    private final Map<String, Long> directoryModificationTimes;
+
+    private RetainedVirtualFileSystemState(List<FileSystemLocationSnapshot> roots, Map<String, Long> rootWriteTimes, Map<String, Long> directoryModificationTimes) {
+        this.roots = roots;
+        this.rootWriteTimes = rootWriteTimes;
+        this.directoryModificationTimes = directoryModificationTimes;
+    }
+
+    /**
+     * Writes the given root snapshots to the state file.
+     *
+     * <p>
+     * Several daemons can share the state file, so the state is merged instead of replaced:
+     * the given roots replace the retained roots they overlap with, and the other retained roots are kept as long as their location still exists.
+     * Writers are serialized by a lock file next to the state file, and the state is written to a unique temporary file which is then moved into place,
+     * so that readers only ever see a complete state.
+     * </p>
+     *
+     * @return the number of written root snapshots.
+     */
+    static int write(File stateFile, Stream<FileSystemLocationSnapshot> roots) throws IOException {
+        File directory = stateFile.getParentFile();
+        Files.createDirectories(directory.toPath());
+        long writeTime = System.currentTimeMillis();
+        List<FileSystemLocationSnapshot> writtenRoots = roots
+            .filter(root -> root.getAccessType() == AccessType.DIRECT)
+            .collect(Collectors.toList());
+        Path lockFile = new File(directory, stateFile.getName() + ".lock").toPath();
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = lockChannel.lock()) {
+            RetainedVirtualFileSystemState previousState = readIgnoringFailures(stateFile);
+            File tempFile = File.createTempFile(stateFile.getName(), ".tmp", directory);
+            try {
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    for (FileSystemLocationSnapshot root : writtenRoots) {
+                        writeRoot(root, writeTime, path -> stableModificationTime(path, writeTime), output);
+                    }
+                    if (previousState != null) {
+                        previousState.writeRootsNotOverlapping(writtenRoots, output);
+                    }
+                    output.writeByte(END);
+                }
+                Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+        return writtenRoots.size();
+    }
+
+    @Nullable
+    private static RetainedVirtualFileSystemState readIgnoringFailures(File stateFile) {
+        try {
+            return read(stateFile);
+        } catch (IOException | RuntimeException e) {
+            // A broken state is replaced by the roots written now
+            return null;
+        }
+    }
+
+    /**
+     * Writes the retained roots, e.g. written by another daemon, which are neither located in nor contain any of the given roots.
+     */
+    private void writeRootsNotOverlapping(List<FileSystemLocationSnapshot> writtenRoots, DataOutputStream output) throws IOException {
+        for (FileSystemLocationSnapshot root : roots) {
+            String rootPath = root.getAbsolutePath();
+            boolean overlapping = writtenRoots.stream()
+                .map(FileSystemLocationSnapshot::getAbsolutePath)
+                .anyMatch(writtenPath -> isSameOrAncestor(writtenPath, rootPath) || isSameOrAncestor(rootPath, writtenPath));
+            if (!overlapping && Files.exists(Paths.get(rootPath), LinkOption.NOFOLLOW_LINKS)) {
+                // Keep the times recorded when the root was written, as the file system may have changed since
+                writeRoot(root, rootWriteTimes.get(rootPath), path -> directoryModificationTimes.getOrDefault(path, UNKNOWN_MODIFICATION_TIME), output);
+            }
+        }
+    }
+
+    private static void writeRoot(FileSystemLocationSnapshot root, long writeTime, ToLongFunction<String> directoryModificationTime, DataOutputStream output) throws IOException {
+        output.writeByte(ROOT);
+        output.writeLong(writeTime);
+        writeSnapshot(root, directoryModificationTime, output);
+    }
+
+    private static void writeSnapshot(FileSystemLocationSnapshot snapshot, ToLongFunction<String> directoryModificationTime, DataOutputStream output) throws IOException {
+        try {
+            snapshot.accept(new FileSystemLocationSnapshot.FileSystemLocationSnapshotVisitor() {
+                @Override
+                public void visitDirectory(DirectorySnapshot directorySnapshot) {
+                    try {
+                        writeHeader(DIRECTORY, directorySnapshot, output);
+                        output.writeLong(directoryModificationTime.applyAsLong(directorySnapshot.getAbsolutePath()));
+                        for (FileSystemLocationSnapshot child : directorySnapshot.getChildren()) {
+                            writeSnapshot(child, directoryModificationTime, output);
+                        }
+                        output.writeByte(DIRECTORY_END);
+                        writeHash(directorySnapshot.getHash(), output);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
+                    try {
+                        writeHeader(REGULAR_FILE, fileSnapshot, output);
+                        writeHash(fileSnapshot.getHash(), output);
+                        output.writeLong(fileSnapshot.getMetadata().getLastModified());
+                        output.writeLong(fileSnapshot.getMetadata().getLength());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void visitMissing(MissingFileSnapshot missingSnapshot) {
+                    try {
+                        writeHeader(MISSING, missingSnapshot, output);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeHeader(byte type, FileSystemLocationSnapshot snapshot, DataOutputStream output) throws IOException {
+        output.writeByte(type);
+        output.writeUTF(snapshot.getAbsolutePath());
+        output.writeUTF(snapshot.getName());
+        output.writeByte(snapshot.getAccessType().ordinal());
+    }
+
+    private static void writeHash(HashCode hash, DataOutputStream output) throws IOException {
+        byte[] bytes = hash.toByteArray();
+        output.writeByte(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * The modification time of the directory, if it is old enough to notice later modifications.
+     */
+    private static long stableModificationTime(String absolutePath, long writeTime) {
+        try {
+            long modificationTime = Files.getLastModifiedTime(Paths.get(absolutePath), LinkOption.NOFOLLOW_LINKS).toMillis();
+            return modificationTime < writeTime - MODIFICATION_TIME_GRANULARITY_MILLIS ? modificationTime : UNKNOWN_MODIFICATION_TIME;
+        } catch (IOException e) {
+            return UNKNOWN_MODIFICATION_TIME;
+        }
+    }
+
+    /**
+     * Reads the state file.
+     *
+     * @return the retained state, or {@code null} if there is no state file or it has been written by an incompatible version.
+     */
+    @Nullable
+    static RetainedVirtualFileSystemState read(File stateFile) throws IOException {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile.toPath())))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+            List<FileSystemLocationSnapshot> roots = new ArrayList<>();
+            Map<String, Long> rootWriteTimes = new HashMap<>();
+            Map<String, Long> directoryModificationTimes = new HashMap<>();
+            byte type;
+            while ((type = input.readByte()) != END) {
+                if (type != ROOT) {
+                    throw new IOException("Unexpected entry of type " + type + " in retained VFS state");
+                }
+                long writeTime = input.readLong();
+                FileSystemLocationSnapshot root = readSnapshot(input.readByte(), input, directoryModificationTimes);
+                roots.add(root);
+                rootWriteTimes.put(root.getAbsolutePath(), writeTime);
+            }
+            return new RetainedVirtualFileSystemState(roots, rootWriteTimes, directoryModificationTimes);
+        }
+    }
+
+    private static FileSystemLocationSnapshot readSnapshot(byte type, DataInputStream input, Map<String, Long> directoryModificationTimes) throws IOException {
+        String absolutePath = input.readUTF();
+        String name = input.readUTF();
+        AccessType accessType = AccessType.values()[input.readByte()];
+        switch (type) {
+            case DIRECTORY:
+                long modificationTime = input.readLong();
+                if (modificationTime != UNKNOWN_MODIFICATION_TIME) {
+                    directoryModificationTimes.put(absolutePath, modificationTime);
+                }
+                ImmutableList.Builder<FileSystemLocationSnapshot> children = ImmutableList.builder();
+                byte childType;
+                while ((childType = input.readByte()) != DIRECTORY_END) {
+                    children.add(readSnapshot(childType, input, directoryModificationTimes));
+                }
+                return new DirectorySnapshot(absolutePath, name, accessType, readHash(input), children.build());
+            case REGULAR_FILE:
+                HashCode hash = readHash(input);
+                long lastModified = input.readLong();
+                long length = input.readLong();
+                return new RegularFileSnapshot(absolutePath, name, hash, DefaultFileMetadata.file(lastModified, length, accessType));
+            case MISSING:
+                return new MissingFileSnapshot(absolutePath, name, accessType);
+            default:
+                throw new IOException("Unexpected entry of type " + type + " in retained VFS state");
+        }
+    }
+
+    private static HashCode readHash(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedByte()];
+        input.readFully(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+
+    /**
+     * Removes and returns the retained root snapshots located in the given hierarchy.
+     */
+    List<FileSystemLocationSnapshot> takeSnapshotsUnder(File hierarchy) {
+        String hierarchyPath = hierarchy.getAbsolutePath();
+        List<FileSystemLocationSnapshot> snapshots = new ArrayList<>();
+        Iterator<FileSystemLocationSnapshot> iterator = roots.iterator();
+        while (iterator.hasNext()) {
+            FileSystemLocationSnapshot root = iterator.next();
+            if (isSameOrAncestor(hierarchyPath, root.getAbsolutePath())) {
+                snapshots.add(root);
+                iterator.remove();
+            }
+        }
+        return snapshots;
+    }
+
+    private static boolean isSameOrAncestor(String ancestorPath, String path) {
+        if (path.equals(ancestorPath)) {
+            return true;
+        }
+        String ancestorPrefix = ancestorPath.endsWith(File.separator) ? ancestorPath : ancestorPath + File.separator;
+        return path.startsWith(ancestorPrefix);
+    }
+
+    boolean isEmpty() {
+        return roots.isEmpty();
+    }
+
+    /**
+     * Compares the snapshot with the file system.
+     *
+     * @param root a root snapshot taken from this state.
+     * @return the locations that changed since the state was written, which need to be invalidated after storing the snapshot.
+     */
+    List<String> findStaleLocations(FileSystemLocationSnapshot root) {
+        List<String> staleLocations = new ArrayList<>();
+        Long writeTime = rootWriteTimes.get(root.getAbsolutePath());
+        if (writeTime == null) {
+            staleLocations.add(root.getAbsolutePath());
+        } else {
+            collectStaleLocations(root, writeTime, staleLocations);
+        }
+        return staleLocations;
+    }
+
+    private void collectStaleLocations(FileSystemLocationSnapshot snapshot, long writeTime, List<String> staleLocations) {
+        String absolutePath = snapshot.getAbsolutePath();
+        if (snapshot.getAccessType() != AccessType.DIRECT) {
+            staleLocations.add(absolutePath);
+            return;
+        }
+        BasicFileAttributes attributes = readAttributes(Paths.get(absolutePath));
+        snapshot.accept(new FileSystemLocationSnapshot.FileSystemLocationSnapshotVisitor() {
+            @Override
+            public void visitDirectory(DirectorySnapshot directorySnapshot) {
+                if (attributes == null || !attributes.isDirectory()) {
+                    staleLocations.add(absolutePath);
+                    return;
+                }
+                Long retainedModificationTime = directoryModificationTimes.get(absolutePath);
+                if (retainedModificationTime == null || retainedModificationTime != attributes.lastModifiedTime().toMillis()) {
+                    if (!collectChangedChildren(directorySnapshot, staleLocations)) {
+                        staleLocations.add(absolutePath);
+                        return;
+                    }
+                }
+                for (FileSystemLocationSnapshot child : directorySnapshot.getChildren()) {
+                    collectStaleLocations(child, writeTime, staleLocations);
+                }
+            }
+
+            @Override
+            public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
+                if (attributes == null
+                    || !attributes.isRegularFile()
+                    || attributes.size() != fileSnapshot.getMetadata().getLength()
+                    || attributes.lastModifiedTime().toMillis() != fileSnapshot.getMetadata().getLastModified()
+                    || fileSnapshot.getMetadata().getLastModified() >= writeTime - MODIFICATION_TIME_GRANULARITY_MILLIS
+                ) {
+                    staleLocations.add(absolutePath);
+                }
+            }
+
+            @Override
+            public void visitMissing(MissingFileSnapshot missingSnapshot) {
+                if (attributes != null) {
+                    staleLocations.add(absolutePath);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists the directory again, and collects the children which have been added or removed.
+     *
+     * <p>Invalidating those children keeps the rest of the directory, which then becomes a partial directory in the virtual file system.</p>
+     *
+     * @return whether the directory could be listed.
+     */
+    private static boolean collectChangedChildren(DirectorySnapshot directorySnapshot, List<String> staleLocations) {
+        Set<String> retainedChildren = new HashSet<>();
+        for (FileSystemLocationSnapshot child : directorySnapshot.getChildren()) {
+            retainedChildren.add(child.getName());
+        }
+        Path directory = Paths.get(directorySnapshot.getAbsolutePath());
+        Set<String> existingChildren = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                existingChildren.add(entry.getFileName().toString());
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return false;
+        }
+        for (String existingChild : existingChildren) {
+            if (!retainedChildren.contains(existingChild)) {
+                // Also covers files excluded from the snapshot, which invalidates a bit too much but is safe
+                staleLocations.add(directory.resolve(existingChild).toString());
+            }
+        }
+        for (FileSystemLocationSnapshot child : directorySnapshot.getChildren()) {
+            if (!existingChildren.contains(child.getName())) {
+                staleLocations.add(child.getAbsolutePath());
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -24,6 +24,7 @@
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationRunner;
 import org.gradle.internal.operations.CallableBuildOperation;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemNode;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem;
@@ -67,6 +68,8 @@ public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem impleme
     private final LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild;
     private final WatchableFileSystemDetector watchableFileSystemDetector;
     private final FileChangeListeners fileChangeListeners;
+    @Nullable
+    private final File retainedStateFile;
     private final List<File> unsupportedFileSystems = new ArrayList<>();
     private Logger warningLogger = LOGGER;
 
@@ -79,6 +82,12 @@ public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem impleme
     private Exception reasonForNotWatchingFiles;
     private boolean stateInvalidatedAtStartOfBuild;
 
+    /**
+     * The state retained by a previous daemon, which has not been restored yet.
+     */
+    private RetainedVirtualFileSystemState retainedState;
+    private boolean retainedStateLoaded;
+
     public WatchingVirtualFileSystem(
         FileWatcherRegistryFactory watcherRegistryFactory,
         SnapshotHierarchy root,
@@ -86,6 +95,21 @@ public WatchingVirtualFileSystem(
         LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild,
         WatchableFileSystemDetector watchableFileSystemDetector,
         FileChangeListeners fileChangeListeners
+    ) {
+        this(watcherRegistryFactory, root, daemonDocumentationIndex, locationsWrittenByCurrentBuild, watchableFileSystemDetector, fileChangeListeners, null);
+    }
+
+    /**
+     * @param retainedStateFile where to retain the watched parts of the virtual file system when closing it, for the next daemon to restore them. {@code null} to not retain anything.
+     */
+    public WatchingVirtualFileSystem(
+        FileWatcherRegistryFactory watcherRegistryFactory,
+        SnapshotHierarchy root,
+        DaemonDocumentationIndex daemonDocumentationIndex,
+        LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild,
+        WatchableFileSystemDetector watchableFileSystemDetector,
+        FileChangeListeners fileChangeListeners,
+        @Nullable File retainedStateFile
     ) {
         super(root);
         this.watcherRegistryFactory = watcherRegistryFactory;
@@ -93,6 +117,7 @@ public WatchingVirtualFileSystem(
         this.locationsWrittenByCurrentBuild = locationsWrittenByCurrentBuild;
         this.watchableFileSystemDetector = watchableFileSystemDetector;
         this.fileChangeListeners = fileChangeListeners;
+        this.retainedStateFile = retainedStateFile;
     }
 
     @Override
@@ -211,7 +236,10 @@ public void registerWatchableHierarchy(File watchableHierarchy) {
             }
             return withWatcherChangeErrorHandling(
                 currentRoot,
-                () -> watchRegistry.registerWatchableHierarchy(watchableHierarchy, currentRoot)
+                () -> {
+                    watchRegistry.registerWatchableHierarchy(watchableHierarchy, currentRoot);
+                    return restoreRetainedState(watchableHierarchy, currentRoot);
+                }
             );
         });
     }
@@ -314,7 +342,11 @@ private SnapshotHierarchy startWatching(SnapshotHierarchy currentRoot, WatchMode
                     new BroadcastingChangeHandler()
                 )));
             SnapshotHierarchy newRoot = watchRegistry.updateVfsOnBuildStarted(currentRoot.empty(), watchMode, unsupportedFileSystems);
-            watchableHierarchiesRegisteredEarly.forEach(watchableHierarchy -> watchRegistry.registerWatchableHierarchy(watchableHierarchy, newRoot));
+            loadRetainedState();
+            for (File watchableHierarchy : watchableHierarchiesRegisteredEarly) {
+                watchRegistry.registerWatchableHierarchy(watchableHierarchy, newRoot);
+                newRoot = restoreRetainedState(watchableHierarchy, newRoot);
+            }
             watchableHierarchiesRegisteredEarly.clear();
             return newRoot;
         } catch (Exception ex) {
@@ -324,6 +356,59 @@ private SnapshotHierarchy startWatching(SnapshotHierarchy currentRoot, WatchMode
         }
     }
 
+    private void loadRetainedState() {
+        if (retainedStateFile == null || retainedStateLoaded) {
+            return;
+        }
+        retainedStateLoaded = true;
+        try {
+            retainedState = RetainedVirtualFileSystemState.read(retainedStateFile);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.info("Unable to read the VFS state retained by a previous daemon from {}", retainedStateFile, e);
+        }
+    }
+
+    /**
+     * Restores the snapshots retained by a previous daemon in a newly registered watchable hierarchy.
+     *
+     * The snapshots are stored first, so the locations are watched, and then the locations which changed while no daemon was watching them are invalidated.
+     */
+    @CheckReturnValue
+    private SnapshotHierarchy restoreRetainedState(File watchableHierarchy, SnapshotHierarchy currentRoot) {
+        RetainedVirtualFileSystemState state = retainedState;
+        if (state == null) {
+            return currentRoot;
+        }
+        List<FileSystemLocationSnapshot> snapshots = state.takeSnapshotsUnder(watchableHierarchy);
+        if (state.isEmpty()) {
+            retainedState = null;
+        }
+        SnapshotHierarchy newRoot = currentRoot;
+        int staleLocationCount = 0;
+        for (FileSystemLocationSnapshot snapshot : snapshots) {
+            SnapshotHierarchy rootBeforeStore = newRoot;
+            newRoot = updateNotifyingListeners(diffListener -> rootBeforeStore.store(snapshot.getAbsolutePath(), snapshot, diffListener));
+            for (String staleLocation : state.findStaleLocations(snapshot)) {
+                SnapshotHierarchy rootBeforeInvalidate = newRoot;
+                newRoot = updateNotifyingListeners(diffListener -> rootBeforeInvalidate.invalidate(staleLocation, diffListener));
+                staleLocationCount++;
+            }
+        }
+        if (!snapshots.isEmpty()) {
+            LOGGER.info("Restored {} locations in {} retained by a previous daemon, {} locations changed since", snapshots.size(), watchableHierarchy, staleLocationCount);
+        }
+        return newRoot;
+    }
+
+    private void retainState(SnapshotHierarchy currentRoot) {
+        try {
+            int count = RetainedVirtualFileSystemState.write(retainedStateFile, currentRoot.rootSnapshots());
+            LOGGER.debug("Retained {} locations of the VFS in {}", count, retainedStateFile);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.info("Unable to retain the VFS state in {}", retainedStateFile, e);
+        }
+    }
+
     @Override
     public boolean isWatchingAnyLocations() {
         FileWatcherRegistry watchRegistry = this.watchRegistry;
@@ -506,6 +591,9 @@ private boolean hasDroppedStateBecauseOfErrorsReceivedWhileWatching(FileWatcherR
     public void close() {
         LOGGER.debug("Closing VFS, dropping state");
         updateRootUnderLock(currentRoot -> {
+            if (retainedStateFile != null && watchRegistry != null) {
+                retainState(currentRoot);
+            }
             closeUnderLock();
             return currentRoot.empty();
         });
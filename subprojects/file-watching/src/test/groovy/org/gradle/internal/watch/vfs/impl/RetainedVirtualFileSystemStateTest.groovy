@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.vfs.impl
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.internal.file.FileMetadata
+import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.snapshot.DirectorySnapshot
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.MissingFileSnapshot
+import org.gradle.internal.snapshot.impl.DirectorySnapshotter
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.stream.Stream
+
+class RetainedVirtualFileSystemStateTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
+    def directorySnapshotter = new DirectorySnapshotter(new TestFileHasher(), new StringInterner(), [], new DirectorySnapshotterStatistics.Collector())
+    def stateFile = temporaryFolder.file("state/retained-state.bin")
+    def project = temporaryFolder.createDir("project")
+    def oldTimestamp = System.currentTimeMillis() - 60_000
+
+    def "restores retained snapshots"() {
+        def sources = project.createDir("src")
+        sources.file("a.txt").text = "a"
+        sources.file("nested/b.txt").text = "b"
+        def missing = project.file("missing.txt")
+        makeOld(sources)
+        def directory = snapshot(sources)
+
+        when:
+        RetainedVirtualFileSystemState.write(stateFile, Stream.of(directory, new MissingFileSnapshot(missing.absolutePath, FileMetadata.AccessType.DIRECT)))
+        def state = RetainedVirtualFileSystemState.read(stateFile)
+        def restored = state.takeSnapshotsUnder(project)
+
+        then:
+        restored.size() == 2
+        def restoredDirectory = restored.find { it.absolutePath == sources.absolutePath } as DirectorySnapshot
+        restoredDirectory.hash == directory.hash
+        restoredDirectory.children*.name == directory.children*.name
+        restored.find { it.absolutePath == missing.absolutePath } instanceof MissingFileSnapshot
+        state.findStaleLocations(restoredDirectory).empty
+        state.empty
+    }
+
+    def "only restores snapshots in the registered hierarchy"() {
+        def other = temporaryFolder.createDir("other")
+        other.file("c.txt").text = "c"
+        project.file("a.txt").text = "a"
+        makeOld(project)
+        makeOld(other)
+
+        when:
+        RetainedVirtualFileSystemState.write(stateFile, Stream.of(snapshot(project), snapshot(other)))
+        def state = RetainedVirtualFileSystemState.read(stateFile)
+
+        then:
+        state.takeSnapshotsUnder(project)*.absolutePath == [project.absolutePath]
+        !state.empty
+        state.takeSnapshotsUnder(temporaryFolder.file("oth")).empty
+        state.takeSnapshotsUnder(other)*.absolutePath == [other.absolutePath]
+        state.empty
+    }
+
+    def "finds locations changed since the state was retained"() {
+        def changed = project.file("changed.txt")
+        changed.text = "changed"
+        def removed = project.file("removed.txt")
+        removed.text = "removed"
+        def unchanged = project.file("unchanged.txt")
+        unchanged.text = "unchanged"
+        def touched = project.file("nested/touched.txt")
+        touched.text = "touched"
+        makeOld(project)
+        RetainedVirtualFileSystemState.write(stateFile, Stream.of(snapshot(project)))
+        def state = RetainedVirtualFileSystemState.read(stateFile)
+        def restored = state.takeSnapshotsUnder(project)
+
+        when:
+        changed.text = "changed content"
+        changed.lastModified = oldTimestamp
+        removed.delete()
+        def added = project.file("added.txt")
+        added.text = "added"
+        touched.lastModified = oldTimestamp + 1000
+
+        then:
+        state.findStaleLocations(restored[0]) as Set == [changed, removed, added, touched]*.absolutePath as Set
+    }
+
+    def "considers files modified shortly before the state was retained as stale"() {
+        def recent = project.file("recent.txt")
+        recent.text = "recent"
+        def unchanged = project.file("unchanged.txt")
+        unchanged.text = "unchanged"
+        makeOld(project)
+        recent.lastModified = System.currentTimeMillis()
+        RetainedVirtualFileSystemState.write(stateFile, Stream.of(snapshot(project)))
+        def state = RetainedVirtualFileSystemState.read(stateFile)
+
+        expect:
+        state.findStaleLocations(state.takeSnapshotsUnder(project)[0]) == [recent.absolutePath]
+    }
+
+    def "keeps the roots retained by other daemons"() {
+        def other = temporaryFolder.createDir("other")
+        other.file("c.txt").text = "c"
+        def removed = temporaryFolder.createDir("removed")
+        def sources = project.createDir("src")
+        sources.file("a.txt").text = "a"
+        makeOld(project)
+        makeOld(other)
+        RetainedVirtualFileSystemState.write(stateFile, Stream.of(snapshot(other), snapshot(sources), snapshot(removed)))
+        removed.deleteDir()
+        project.file("b.txt").text = "b"
+
+        when:
+        RetainedVirtualFileSystemState.write(stateFile, Stream.of(snapshot(project)))
+        def state = RetainedVirtualFileSystemState.read(stateFile)
+
+        then:
+        def restoredProject = state.takeSnapshotsUnder(project)
+        restoredProject*.absolutePath == [project.absolutePath]
+        state.findStaleLocations(restoredProject[0]) == [project.file("b.txt").absolutePath]
+        def restoredOther = state.takeSnapshotsUnder(other)
+        restoredOther*.absolutePath == [other.absolutePath]
+        state.findStaleLocations(restoredOther[0]).empty
+        state.empty
+        stateFile.parentFile.list() as Set == [stateFile.name, stateFile.name + ".lock"] as Set
+    }
+
+    def "ignores state with a different version"() {
+        stateFile.parentFile.mkdirs()
+        stateFile.bytes = [0, 0, 0, 0, 0, 0, 0, 1] as byte[]
+
+        expect:
+        RetainedVirtualFileSystemState.read(stateFile) == null
+        RetainedVirtualFileSystemState.read(temporaryFolder.file("does-not-exist")) == null
+    }
+
+    private FileSystemLocationSnapshot snapshot(File location) {
+        directorySnapshotter.snapshot(location.absolutePath, null, {})
+    }
+
+    private void makeOld(TestFile root) {
+        root.eachFileRecurse { it.lastModified = oldTimestamp }
+        root.lastModified = oldTimestamp
+    }
+}
@@ -16,11 +16,10 @@
 package org.gradle.internal.hash;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
 
 public class DefaultFileHasher implements FileHasher {
     private final StreamHasher streamHasher;
@@ -31,25 +30,21 @@ public DefaultFileHasher(StreamHasher streamHasher) {
 
     @Override
     public HashCode hash(File file) {
-        InputStream inputStream;
-        try {
-            inputStream = new FileInputStream(file);
-        } catch (FileNotFoundException e) {
-            throw new UncheckedIOException(String.format("Failed to create MD5 hash for file '%s' as it does not exist.", file), e);
-        }
-        try {
-            return streamHasher.hash(inputStream);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException ignored) {
-                // Ignored
-            }
-        }
+        return hash(file, file.length());
     }
 
     @Override
     public HashCode hash(File file, long length, long lastModified) {
-        return hash(file);
+        return hash(file, length);
+    }
+
+    private HashCode hash(File file, long length) {
+        try {
+            return streamHasher.hash(file, length);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            throw new UncheckedIOException(String.format("Failed to create %s hash for file '%s' as it does not exist.", streamHasher.getAlgorithm(), file), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to create %s hash for file '%s'.", streamHasher.getAlgorithm(), file), e);
+        }
     }
 }
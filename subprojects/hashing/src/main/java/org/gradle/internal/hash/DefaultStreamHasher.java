@@ -14,27 +14,103 @@
  * limitations under the License.
  */
 package org.gradle.internal.hash;
-
 import com.google.common.io.ByteStreams;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * Hashes content, optionally in chunks of {@value #CHUNK_SIZE} bytes.
+ *
+ * <p>
+ * By default, content is hashed as a whole, so that hashes stay the same as the ones recorded by earlier versions.
+ * Large files are then read via memory-mapped regions that are fed to the hash function directly.
+ * </p>
+ *
+ * <p>
+ * When chunking is enabled, content fitting into a single chunk is still hashed directly.
+ * For larger content, each chunk is hashed separately, and the resulting hash combines the length of the content with the hashes of the chunks.
+ * This way, the chunks of large files can be hashed in parallel, while streams with the same content still produce the same hash.
+ * The chunks of a file are only hashed in parallel when the file is hashed by a task running in a dedicated {@link ForkJoinPool},
+ * like the one used by the directory snapshotter. The chunks are then hashed by subtasks in that pool.
+ * Elsewhere, including on the common pool, the chunks are hashed one after the other on the calling thread.
+ * </p>
+ *
+ * <p>
+ * Large files are not mapped on Windows, where a mapped file cannot be deleted until the mapping is garbage collected.
+ * There they are read with positional reads instead.
+ * Positional reads are also used when a file is truncated while its mapped region is being read.
+ * </p>
+ */
 public class DefaultStreamHasher implements StreamHasher {
+    /**
+     * Selects the hash function used for file content, by the name of its algorithm.
+     * Defaults to {@link Hashing#defaultFunction()}.
+     *
+     * @see Hashing#forAlgorithm(String)
+     */
+    public static final String HASH_FUNCTION_SYSTEM_PROPERTY = "org.gradle.unsafe.file-content-hash-function";
+
     private static final HashCode SIGNATURE = Hashing.signature(DefaultStreamHasher.class);
+    private static final HashCode CHUNKED_SIGNATURE = Hashing.signature("CHUNKED:" + DefaultStreamHasher.class.getName());
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final boolean MAP_FILES = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("windows");
 
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
+    private final HashFunction hashFunction;
+    private final boolean chunked;
+
+    public DefaultStreamHasher() {
+        this(Hashing.defaultFunction());
+    }
+
+    public DefaultStreamHasher(HashFunction hashFunction) {
+        this(hashFunction, false);
+    }
+
+    /**
+     * @param chunked whether to hash large content in chunks, which changes the hashes of content larger than a chunk.
+     */
+    public DefaultStreamHasher(HashFunction hashFunction, boolean chunked) {
+        this.hashFunction = hashFunction;
+        this.chunked = chunked;
+    }
+
+    /**
+     * The hash function to use for file content, as configured via {@link #HASH_FUNCTION_SYSTEM_PROPERTY}.
+     */
+    public static HashFunction configuredHashFunction() {
+        String algorithm = System.getProperty(HASH_FUNCTION_SYSTEM_PROPERTY);
+        return algorithm == null ? Hashing.defaultFunction() : Hashing.forAlgorithm(algorithm);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return hashFunction.getAlgorithm();
+    }
 
     @Override
     public HashCode hash(InputStream inputStream) {
         try {
             return doHash(inputStream, ByteStreams.nullOutputStream());
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to create MD5 hash for file content.", e);
+            throw new UncheckedIOException("Failed to create " + hashFunction.getAlgorithm() + " hash for file content.", e);
         }
     }
 
@@ -43,25 +119,177 @@ public HashCode hashCopy(InputStream inputStream, OutputStream outputStream) thr
         return doHash(inputStream, outputStream);
     }
 
+    @Override
+    public HashCode hash(File file, long length) throws IOException {
+        if (length <= CHUNK_SIZE || !(chunked || MAP_FILES)) {
+            return StreamHasher.super.hash(file, length);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= CHUNK_SIZE) {
+                // The file shrunk since its length was determined
+                return doHash(Channels.newInputStream(channel), ByteStreams.nullOutputStream());
+            }
+            return chunked ? hashChunks(channel, size) : hashMapped(channel, size);
+        }
+    }
+
+    private HashCode hashMapped(FileChannel channel, long size) throws IOException {
+        PrimitiveHasher hasher = newHasher();
+        try {
+            for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+                hasher.putBytes(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHUNK_SIZE, size - offset)));
+            }
+        } catch (InternalError e) {
+            // Accessing a mapped region beyond the end of a file that has been truncated since it was mapped fails with SIGBUS,
+            // which the JVM reports as an InternalError. Read the file again from the start instead.
+            return doHash(Channels.newInputStream(channel.position(0)), ByteStreams.nullOutputStream());
+        }
+        return hasher.hash();
+    }
+
+    private HashCode hashChunks(FileChannel channel, long size) throws IOException {
+        int chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        HashCode[] chunkHashes = new HashCode[chunkCount];
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        if (pool != null && pool != ForkJoinPool.commonPool()) {
+            List<HashChunk> tasks = new ArrayList<>(chunkCount);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                tasks.add(new HashChunk(channel, size, chunk, chunkHashes));
+            }
+            try {
+                ForkJoinTask.invokeAll(tasks);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                long offset = (long) chunk * CHUNK_SIZE;
+                chunkHashes[chunk] = hashChunk(channel, offset, (int) Math.min(CHUNK_SIZE, size - offset));
+            }
+        }
+        return combineChunks(size, chunkHashes);
+    }
+
+    private class HashChunk extends RecursiveAction {
+        private final FileChannel channel;
+        private final long size;
+        private final int chunk;
+        private final HashCode[] chunkHashes;
+
+        HashChunk(FileChannel channel, long size, int chunk, HashCode[] chunkHashes) {
+            this.channel = channel;
+            this.size = size;
+            this.chunk = chunk;
+            this.chunkHashes = chunkHashes;
+        }
+
+        @Override
+        protected void compute() {
+            long offset = (long) chunk * CHUNK_SIZE;
+            try {
+                chunkHashes[chunk] = hashChunk(channel, offset, (int) Math.min(CHUNK_SIZE, size - offset));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private HashCode hashChunk(FileChannel channel, long offset, int length) throws IOException {
+        if (MAP_FILES) {
+            try {
+                PrimitiveHasher hasher = newHasher();
+                hasher.putBytes(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+                return hasher.hash();
+            } catch (InternalError e) {
+                // Accessing a mapped region beyond the end of a file that has been truncated since it was mapped fails with SIGBUS,
+                // which the JVM reports as an InternalError. Reading the chunk again reports the truncation as an IOException.
+                return hashChunkWithPositionalReads(channel, offset, length);
+            }
+        }
+        return hashChunkWithPositionalReads(channel, offset, length);
+    }
+
+    private HashCode hashChunkWithPositionalReads(FileChannel channel, long offset, int length) throws IOException {
+        byte[] buffer = takeBuffer();
+        try {
+            PrimitiveHasher hasher = newHasher();
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                int count = channel.read(ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position)), position);
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of file at position " + position);
+                }
+                hasher.putBytes(buffer, 0, count);
+                position += count;
+            }
+            return hasher.hash();
+        } finally {
+            returnBuffer(buffer);
+        }
+    }
+
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
-            PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
-            hasher.putHash(SIGNATURE);
+            PrimitiveHasher hasher = newHasher();
+            int remainingInChunk = CHUNK_SIZE;
+            List<HashCode> chunkHashes = null;
+            long length = 0;
             while (true) {
                 int nread = inputStream.read(buffer);
                 if (nread < 0) {
                     break;
                 }
                 outputStream.write(buffer, 0, nread);
-                hasher.putBytes(buffer, 0, nread);
+                if (!chunked) {
+                    hasher.putBytes(buffer, 0, nread);
+                    continue;
+                }
+                int offset = 0;
+                while (offset < nread) {
+                    if (remainingInChunk == 0) {
+                        if (chunkHashes == null) {
+                            chunkHashes = new ArrayList<>();
+                        }
+                        chunkHashes.add(hasher.hash());
+                        hasher = newHasher();
+                        remainingInChunk = CHUNK_SIZE;
+                    }
+                    int count = Math.min(nread - offset, remainingInChunk);
+                    hasher.putBytes(buffer, offset, count);
+                    offset += count;
+                    remainingInChunk -= count;
+                    length += count;
+                }
             }
-            return hasher.hash();
+            if (chunkHashes == null) {
+                return hasher.hash();
+            }
+            chunkHashes.add(hasher.hash());
+            return combineChunks(length, chunkHashes.toArray(new HashCode[0]));
         } finally {
             returnBuffer(buffer);
         }
     }
 
+    private PrimitiveHasher newHasher() {
+        PrimitiveHasher hasher = hashFunction.newPrimitiveHasher();
+        hasher.putHash(SIGNATURE);
+        return hasher;
+    }
+
+    private HashCode combineChunks(long length, HashCode[] chunkHashes) {
+        PrimitiveHasher hasher = hashFunction.newPrimitiveHasher();
+        hasher.putHash(CHUNKED_SIGNATURE);
+        hasher.putLong(length);
+        for (HashCode chunkHash : chunkHashes) {
+            hasher.putHash(chunkHash);
+        }
+        return hasher.hash();
+    }
+
     private void returnBuffer(byte[] buffer) {
         // Retain buffer if there is capacity in the queue, otherwise discard
         buffers.offer(buffer);
@@ -160,6 +160,14 @@ public HashCode128(long bits1, long bits2) {
             this.bits2 = bits2;
         }
 
+        long getBits1() {
+            return bits1;
+        }
+
+        long getBits2() {
+            return bits2;
+        }
+
         @Override
         public int length() {
             return 16;
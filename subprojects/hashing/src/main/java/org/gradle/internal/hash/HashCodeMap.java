@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A map keyed by {@link HashCode}s.
+ *
+ * <p>
+ * 128-bit keys, like MD5 hashes, are stored as pairs of longs in an open-addressing table.
+ * This avoids the entry objects of a {@link HashMap}, and the map does not retain the key objects.
+ * Keys of other lengths are stored in a regular {@link HashMap}.
+ * </p>
+ *
+ * <p>Values must not be {@code null}. Removing entries is not supported, and the map is not thread-safe.</p>
+ */
+public final class HashCodeMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private Map<HashCode, V> otherKeys;
+
+    public HashCodeMap() {
+        this(0);
+    }
+
+    public HashCodeMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // Keep the load factor at most 0.5
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * 2];
+        values = new Object[capacity];
+    }
+
+    @Nullable
+    public V get(HashCode key) {
+        if (key instanceof HashCode.HashCode128) {
+            HashCode.HashCode128 key128 = (HashCode.HashCode128) key;
+            return valueAt(findSlot(key128.getBits1(), key128.getBits2()));
+        }
+        return otherKeys == null ? null : otherKeys.get(key);
+    }
+
+    /**
+     * Associates the value with the key.
+     *
+     * @return the value previously associated with the key, or {@code null} if there was none.
+     */
+    @Nullable
+    public V put(HashCode key, V value) {
+        checkNotNull(value);
+        if (key instanceof HashCode.HashCode128) {
+            HashCode.HashCode128 key128 = (HashCode.HashCode128) key;
+            int slot = findSlot(key128.getBits1(), key128.getBits2());
+            V previous = valueAt(slot);
+            if (previous == null) {
+                insertAt(slot, key128.getBits1(), key128.getBits2(), value);
+            } else {
+                values[slot] = value;
+            }
+            return previous;
+        }
+        return otherKeys().put(key, value);
+    }
+
+    public V computeIfAbsent(HashCode key, Function<? super HashCode, ? extends V> mappingFunction) {
+        if (key instanceof HashCode.HashCode128) {
+            HashCode.HashCode128 key128 = (HashCode.HashCode128) key;
+            int slot = findSlot(key128.getBits1(), key128.getBits2());
+            V existing = valueAt(slot);
+            if (existing != null) {
+                return existing;
+            }
+            V value = checkNotNull(mappingFunction.apply(key));
+            insertAt(slot, key128.getBits1(), key128.getBits2(), value);
+            return value;
+        }
+        return otherKeys().computeIfAbsent(key, mappingFunction);
+    }
+
+    public int size() {
+        return size + (otherKeys == null ? 0 : otherKeys.size());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Visits all entries, in no particular order.
+     */
+    public void forEach(BiConsumer<? super HashCode, ? super V> action) {
+        for (int slot = 0; slot < values.length; slot++) {
+            V value = valueAt(slot);
+            if (value != null) {
+                action.accept(new HashCode.HashCode128(keys[2 * slot], keys[2 * slot + 1]), value);
+            }
+        }
+        if (otherKeys != null) {
+            otherKeys.forEach(action);
+        }
+    }
+
+    private Map<HashCode, V> otherKeys() {
+        if (otherKeys == null) {
+            otherKeys = new HashMap<>();
+        }
+        return otherKeys;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * Finds the slot containing the key, or the empty slot where it should be inserted.
+     */
+    private int findSlot(long bits1, long bits2) {
+        int mask = values.length - 1;
+        int slot = mix(bits1, bits2) & mask;
+        while (values[slot] != null && (keys[2 * slot] != bits1 || keys[2 * slot + 1] != bits2)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insertAt(int slot, long bits1, long bits2, V value) {
+        keys[2 * slot] = bits1;
+        keys[2 * slot + 1] = bits2;
+        values[slot] = value;
+        size++;
+        if (size * 2 > values.length) {
+            rehash(values.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            Object value = oldValues[slot];
+            if (value != null) {
+                long bits1 = oldKeys[2 * slot];
+                long bits2 = oldKeys[2 * slot + 1];
+                int newSlot = findSlot(bits1, bits2);
+                keys[2 * newSlot] = bits1;
+                keys[2 * newSlot + 1] = bits2;
+                values[newSlot] = value;
+            }
+        }
+    }
+
+    private static int mix(long bits1, long bits2) {
+        // Spread the bits, in case the keys are not uniformly distributed
+        long hash = (bits1 ^ Long.rotateLeft(bits2, 31)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -47,6 +47,8 @@ private Hashing() {
 
     private static final HashFunction SHA512 = MessageDigestHashFunction.of("SHA-512");
 
+    private static final HashFunction MURMUR3 = new GuavaHashFunction("MURMUR3-128", com.google.common.hash.Hashing.murmur3_128());
+
     private static final HashFunction DEFAULT = MD5;
 
     /**
@@ -143,33 +145,32 @@ public static HashFunction sha512() {
         return SHA512;
     }
 
-    private static abstract class MessageDigestHashFunction implements HashFunction {
-        private final int hexDigits;
-
-        public MessageDigestHashFunction(int hashBits) {
-            this.hexDigits = hashBits / 4;
-        }
+    /**
+     * 128-bit MurmurHash3 hashing function.
+     *
+     * Not a cryptographic hash function, but considerably faster than MD5 on large inputs while producing hashes of the same size.
+     */
+    public static HashFunction murmur3() {
+        return MURMUR3;
+    }
 
-        public static MessageDigestHashFunction of(String algorithm) {
-            MessageDigest prototype;
-            try {
-                prototype = MessageDigest.getInstance(algorithm);
-            } catch (NoSuchAlgorithmException e) {
-                throw new IllegalArgumentException("Cannot instantiate digest algorithm: " + algorithm);
-            }
-            int hashBits = prototype.getDigestLength() * 8;
-            try {
-                prototype.clone();
-                return new CloningMessageDigestHashFunction(prototype, hashBits);
-            } catch (CloneNotSupportedException e) {
-                return new RegularMessageDigestHashFunction(algorithm, hashBits);
+    /**
+     * Returns the hash function with the given name, as returned by {@link HashFunction#getAlgorithm()}.
+     */
+    public static HashFunction forAlgorithm(String algorithm) {
+        for (HashFunction hashFunction : new HashFunction[]{MD5, SHA1, SHA256, SHA512, MURMUR3}) {
+            if (hashFunction.getAlgorithm().equalsIgnoreCase(algorithm)) {
+                return hashFunction;
             }
         }
+        throw new IllegalArgumentException("Unknown hash function: " + algorithm);
+    }
 
-        @Override
-        public PrimitiveHasher newPrimitiveHasher() {
-            MessageDigest digest = createDigest();
-            return new MessageDigestHasher(digest);
+    private static abstract class AbstractHashFunction implements HashFunction {
+        private final int hexDigits;
+
+        public AbstractHashFunction(int hashBits) {
+            this.hexDigits = hashBits / 4;
         }
 
         @Override
@@ -209,8 +210,6 @@ private HashingOutputStream primitiveStreamHasher() {
             return new HashingOutputStream(this, ByteStreams.nullOutputStream());
         }
 
-        protected abstract MessageDigest createDigest();
-
         @Override
         public int getHexDigits() {
             return hexDigits;
@@ -222,6 +221,36 @@ public String toString() {
         }
     }
 
+    private static abstract class MessageDigestHashFunction extends AbstractHashFunction {
+        public MessageDigestHashFunction(int hashBits) {
+            super(hashBits);
+        }
+
+        public static MessageDigestHashFunction of(String algorithm) {
+            MessageDigest prototype;
+            try {
+                prototype = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Cannot instantiate digest algorithm: " + algorithm);
+            }
+            int hashBits = prototype.getDigestLength() * 8;
+            try {
+                prototype.clone();
+                return new CloningMessageDigestHashFunction(prototype, hashBits);
+            } catch (CloneNotSupportedException e) {
+                return new RegularMessageDigestHashFunction(algorithm, hashBits);
+            }
+        }
+
+        @Override
+        public PrimitiveHasher newPrimitiveHasher() {
+            MessageDigest digest = createDigest();
+            return new MessageDigestHasher(digest);
+        }
+
+        protected abstract MessageDigest createDigest();
+    }
+
     private static class CloningMessageDigestHashFunction extends MessageDigestHashFunction {
         private final MessageDigest prototype;
 
@@ -268,6 +297,99 @@ protected MessageDigest createDigest() {
         }
     }
 
+    private static class GuavaHashFunction extends AbstractHashFunction {
+        private final String algorithm;
+        private final com.google.common.hash.HashFunction delegate;
+
+        public GuavaHashFunction(String algorithm, com.google.common.hash.HashFunction delegate) {
+            super(delegate.bits());
+            this.algorithm = algorithm;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public PrimitiveHasher newPrimitiveHasher() {
+            return new GuavaHasher(delegate.newHasher());
+        }
+    }
+
+    private static class GuavaHasher implements PrimitiveHasher {
+        private com.google.common.hash.Hasher hasher;
+
+        public GuavaHasher(com.google.common.hash.Hasher hasher) {
+            this.hasher = hasher;
+        }
+
+        private com.google.common.hash.Hasher getHasher() {
+            if (hasher == null) {
+                throw new IllegalStateException("Cannot reuse hasher!");
+            }
+            return hasher;
+        }
+
+        @Override
+        public void putByte(byte b) {
+            getHasher().putByte(b);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes) {
+            getHasher().putBytes(bytes);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes, int off, int len) {
+            getHasher().putBytes(bytes, off, len);
+        }
+
+        @Override
+        public void putBytes(ByteBuffer buffer) {
+            getHasher().putBytes(buffer);
+        }
+
+        @Override
+        public void putInt(int value) {
+            getHasher().putInt(value);
+        }
+
+        @Override
+        public void putLong(long value) {
+            getHasher().putLong(value);
+        }
+
+        @Override
+        public void putDouble(double value) {
+            getHasher().putLong(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public void putBoolean(boolean value) {
+            putByte((byte) (value ? 1 : 0));
+        }
+
+        @Override
+        public void putString(CharSequence value) {
+            putBytes(value.toString().getBytes(Charsets.UTF_8));
+        }
+
+        @Override
+        public void putHash(HashCode hashCode) {
+            hashCode.appendToHasher(this);
+        }
+
+        @Override
+        public HashCode hash() {
+            byte[] bytes = getHasher().hash().asBytes();
+            hasher = null;
+            return HashCode.fromBytes(bytes, SAFE_TO_REUSE_BYTES);
+        }
+    }
+
     private static class MessageDigestHasher implements PrimitiveHasher {
         private final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
         private MessageDigest digest;
@@ -298,6 +420,11 @@ public void putBytes(byte[] bytes, int off, int len) {
             getDigest().update(bytes, off, len);
         }
 
+        @Override
+        public void putBytes(ByteBuffer buffer) {
+            getDigest().update(buffer);
+        }
+
         private void update(int length) {
             getDigest().update(buffer.array(), 0, length);
             castBuffer(buffer).clear();
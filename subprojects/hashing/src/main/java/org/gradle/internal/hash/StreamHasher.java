@@ -15,11 +15,20 @@
  */
 package org.gradle.internal.hash;
 
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 public interface StreamHasher {
+    /**
+     * Returns the name of the algorithm used to hash content, see {@link HashFunction#getAlgorithm()}.
+     */
+    String getAlgorithm();
+
     /**
      * Returns the hash of the given input stream. The stream will not be closed by the method.
      */
@@ -30,4 +39,14 @@ public interface StreamHasher {
      * The method will not close either stream.
      */
     HashCode hashCopy(InputStream inputStream, OutputStream outputStream) throws IOException;
+
+    /**
+     * Returns the hash of the content of the given file, which is expected to have the given length.
+     * The hash is the same as the hash of an input stream with the same content.
+     */
+    default HashCode hash(File file, long length) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return hashCopy(inputStream, ByteStreams.nullOutputStream());
+        }
+    }
 }
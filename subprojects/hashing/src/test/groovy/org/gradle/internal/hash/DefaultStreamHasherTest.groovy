@@ -17,8 +17,17 @@
 package org.gradle.internal.hash
 
 import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
 
 class DefaultStreamHasherTest extends Specification {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024
+
+    @TempDir
+    File tmpDir
+
     def "can hash input"() {
         def input = new ByteArrayInputStream("hello".bytes)
         when:
@@ -36,4 +45,100 @@ class DefaultStreamHasherTest extends Specification {
         hash.toString() == "af67a92e9f73b51572e9b94e343d2840"
         output.toByteArray() == "hello".bytes
     }
+
+    def "can hash input with a different hash function"() {
+        def input = new ByteArrayInputStream("hello".bytes)
+        when:
+        def hash = new DefaultStreamHasher(Hashing.murmur3()).hash(input)
+        then:
+        hash.toString() != "af67a92e9f73b51572e9b94e343d2840"
+        hash == hashWithSignature(Hashing.murmur3(), "hello".bytes)
+    }
+
+    def "hashes large files the same as streams with the same content (#length bytes, chunked: #chunked)"() {
+        def content = new byte[length]
+        new Random(length).nextBytes(content)
+        def file = new File(tmpDir, "large.bin")
+        file.bytes = content
+        def hasher = new DefaultStreamHasher(Hashing.defaultFunction(), chunked)
+
+        when:
+        def fileHash = hasher.hash(file, file.length())
+        def streamHash = hasher.hash(new ByteArrayInputStream(content))
+
+        then:
+        fileHash == streamHash
+        new DefaultFileHasher(hasher).hash(file) == streamHash
+
+        where:
+        [length, chunked] << [[0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE + 17], [false, true]].combinations()
+    }
+
+    def "hashes large content as a whole unless chunking is enabled"() {
+        def content = new byte[3 * CHUNK_SIZE + 17]
+        new Random(3).nextBytes(content)
+        def file = new File(tmpDir, "large.bin")
+        file.bytes = content
+
+        expect:
+        new DefaultStreamHasher().hash(file, file.length()) == hashWithSignature(Hashing.defaultFunction(), content)
+        new DefaultStreamHasher().hash(new ByteArrayInputStream(content)) == hashWithSignature(Hashing.defaultFunction(), content)
+        new DefaultStreamHasher(Hashing.defaultFunction(), true).hash(file, file.length()) != hashWithSignature(Hashing.defaultFunction(), content)
+    }
+
+    def "hashes the chunks of large files in parallel when running in a fork-join pool"() {
+        def content = new byte[3 * CHUNK_SIZE + 17]
+        new Random(2).nextBytes(content)
+        def file = new File(tmpDir, "large.bin")
+        file.bytes = content
+        def hasher = new DefaultStreamHasher(Hashing.defaultFunction(), true)
+        def pool = new ForkJoinPool(4)
+
+        when:
+        def fileHash = pool.submit({ hasher.hash(file, file.length()) } as Callable<HashCode>).get()
+
+        then:
+        fileHash == hasher.hash(new ByteArrayInputStream(content))
+
+        cleanup:
+        pool.shutdown()
+    }
+
+    def "names the hash function in file hashing failures"() {
+        def file = new File(tmpDir, "missing.bin")
+
+        when:
+        new DefaultFileHasher(new DefaultStreamHasher(Hashing.sha256())).hash(file)
+
+        then:
+        def e = thrown(UncheckedIOException)
+        e.message == "Failed to create SHA-256 hash for file '${file}' as it does not exist."
+    }
+
+    def "content fitting into a single chunk is hashed directly"() {
+        def content = new byte[CHUNK_SIZE]
+        new Random(1).nextBytes(content)
+
+        expect:
+        new DefaultStreamHasher(Hashing.defaultFunction(), true).hash(new ByteArrayInputStream(content)) == hashWithSignature(Hashing.defaultFunction(), content)
+    }
+
+    def "hash of large content depends on every chunk"() {
+        def content = new byte[2 * CHUNK_SIZE + 1]
+        def hasher = new DefaultStreamHasher(Hashing.defaultFunction(), true)
+        def original = hasher.hash(new ByteArrayInputStream(content))
+
+        when:
+        content[content.length - 1] = 1 as byte
+
+        then:
+        hasher.hash(new ByteArrayInputStream(content)) != original
+    }
+
+    private static HashCode hashWithSignature(HashFunction hashFunction, byte[] content) {
+        def hasher = hashFunction.newPrimitiveHasher()
+        hasher.putHash(Hashing.signature(DefaultStreamHasher))
+        hasher.putBytes(content)
+        hasher.hash()
+    }
 }
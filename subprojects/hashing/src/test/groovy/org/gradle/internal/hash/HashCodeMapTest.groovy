@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash
+
+import spock.lang.Specification
+
+class HashCodeMapTest extends Specification {
+    def map = new HashCodeMap<String>()
+
+    def "stores values for 128-bit hash codes"() {
+        def first = Hashing.md5().hashString("first")
+        def second = Hashing.md5().hashString("second")
+
+        expect:
+        map.empty
+        map.put(first, "1") == null
+        map.put(second, "2") == null
+        map.put(HashCode.fromString(first.toString()), "one") == "1"
+        map.get(first) == "one"
+        map.get(second) == "2"
+        map.get(Hashing.md5().hashString("third")) == null
+        map.size() == 2
+    }
+
+    def "stores values for hash codes of other lengths"() {
+        def sha1 = Hashing.sha1().hashString("sha1")
+        def md5 = Hashing.md5().hashString("sha1")
+
+        expect:
+        map.put(sha1, "sha1") == null
+        map.put(md5, "md5") == null
+        map.get(HashCode.fromString(sha1.toString())) == "sha1"
+        map.get(md5) == "md5"
+        map.size() == 2
+    }
+
+    def "computes absent values only"() {
+        def hash = Hashing.md5().hashString("hash")
+        def computed = []
+
+        when:
+        def first = map.computeIfAbsent(hash) { computed << it; "value" }
+        def second = map.computeIfAbsent(hash) { computed << it; "other" }
+
+        then:
+        first == "value"
+        second == "value"
+        computed == [hash]
+    }
+
+    def "grows while keeping all entries"() {
+        def hashes = (0..<10_000).collect { Hashing.md5().hashString(it as String) }
+        hashes.add(HashCode.fromString("00000000000000000000000000000000"))
+        hashes.add(HashCode.fromString("00000000000000000000000000000001"))
+        hashes.add(HashCode.fromString("00000000000000010000000000000000"))
+
+        when:
+        hashes.eachWithIndex { hash, index -> map.put(hash, index as String) }
+
+        then:
+        map.size() == hashes.size()
+        hashes.eachWithIndex { hash, index -> assert map.get(hash) == index as String }
+
+        when:
+        def visited = [:]
+        map.forEach { hash, value -> visited[hash] = value }
+
+        then:
+        visited.size() == hashes.size()
+        hashes.eachWithIndex { hash, index -> assert visited[hash] == index as String }
+    }
+
+    def "does not accept null values"() {
+        when:
+        map.put(Hashing.md5().hashString("hash"), null)
+
+        then:
+        thrown(NullPointerException)
+    }
+}
@@ -109,6 +109,35 @@ class HashingTest extends Specification {
         hashStrings(["abc", "de"]) != hashStrings(["ab", "cde"])
     }
 
+    def 'murmur3 produces the same hashes as Guava'() {
+        def bytes = (0..1000).collect { it as byte } as byte[]
+
+        expect:
+        Hashing.murmur3().hashBytes(bytes).toByteArray() == com.google.common.hash.Hashing.murmur3_128().hashBytes(bytes).asBytes()
+        Hashing.murmur3().hashString("abc").toByteArray() == com.google.common.hash.Hashing.murmur3_128().hashBytes("abc".bytes).asBytes()
+        Hashing.murmur3().hexDigits == 32
+    }
+
+    def 'can look up hash function by algorithm'() {
+        expect:
+        Hashing.forAlgorithm(algorithm) == hashFunction
+
+        where:
+        algorithm     | hashFunction
+        "MD5"         | Hashing.md5()
+        "sha-256"     | Hashing.sha256()
+        "murmur3-128" | Hashing.murmur3()
+    }
+
+    def 'fails to look up unknown hash function'() {
+        when:
+        Hashing.forAlgorithm("unknown")
+
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == "Unknown hash function: unknown"
+    }
+
     def hashStrings(List<String> strings) {
         def hasher = Hashing.newHasher()
         strings.each { hasher.putString(it) }
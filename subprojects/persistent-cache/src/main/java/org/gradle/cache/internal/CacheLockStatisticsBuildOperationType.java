@@ -0,0 +1,39 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+import java.util.List;
+
+/**
+ * Reports how the cross-process locks of caches were used during a build, at the end of the build.
+ */
+public final class CacheLockStatisticsBuildOperationType implements BuildOperationType<CacheLockStatisticsBuildOperationType.Details, CacheLockStatisticsBuildOperationType.Result> {
+    public interface Details {
+    }
+
+    public interface Result {
+        /**
+         * The statistics of each lock used during the build.
+         */
+        List<FileLockStatistics> getLocks();
+    }
+
+    private CacheLockStatisticsBuildOperationType() {
+    }
+}
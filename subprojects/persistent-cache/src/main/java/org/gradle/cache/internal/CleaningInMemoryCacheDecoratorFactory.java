@@ -16,6 +16,7 @@
 package org.gradle.cache.internal;
 
 import com.google.common.collect.Lists;
+import org.gradle.internal.serialize.Serializer;
 
 import java.lang.ref.WeakReference;
 import java.util.Iterator;
@@ -44,8 +45,8 @@ public void clearCaches(Predicate<InMemoryCacheController> predicate) {
     }
 
     @Override
-    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
-        MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate = super.applyInMemoryCaching(cacheId, backingCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, Serializer<K> keySerializer, Serializer<V> valueSerializer, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+        MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate = super.applyInMemoryCaching(cacheId, keySerializer, valueSerializer, backingCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
         if (delegate instanceof InMemoryCacheController) {
             InMemoryCacheController cimc = (InMemoryCacheController) delegate;
             WeakReference<InMemoryCacheController> ref = new WeakReference<>(cimc);
@@ -32,6 +32,7 @@
 import org.gradle.cache.LockTimeoutException;
 import org.gradle.cache.MultiProcessSafeIndexedCache;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.logstore.LogStructuredIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
@@ -310,12 +311,12 @@ public <K, V> MultiProcessSafeIndexedCache<K, V> newCache(final IndexedCachePara
             if (entry == null) {
                 File cacheFile = findCacheFile(parameters);
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                Factory<PersistentIndexedStore<K, V>> indexedCacheFactory = createStoreFactory(cacheFile, parameters);
 
                 MultiProcessSafeIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafeIndexedCache<K, V>(indexedCacheFactory, fileAccess);
                 CacheDecorator decorator = parameters.getCacheDecorator();
                 if (decorator != null) {
-                    indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
+                    indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), parameters.getKeySerializer(), parameters.getValueSerializer(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
                     if (fileLock == null) {
                         useCache(NO_OP);
                     }
@@ -335,7 +336,17 @@ public <K, V> MultiProcessSafeIndexedCache<K, V> newCache(final IndexedCachePara
     }
 
     private <K, V> File findCacheFile(IndexedCacheParameters<K, V> parameters) {
-        return new File(baseDir, parameters.getCacheName() + ".bin");
+        String extension = LogStructuredIndexedCache.isLogStructuredStoreEnabled() ? ".log.bin" : ".bin";
+        return new File(baseDir, parameters.getCacheName() + extension);
+    }
+
+    private <K, V> Factory<PersistentIndexedStore<K, V>> createStoreFactory(File cacheFile, IndexedCacheParameters<K, V> parameters) {
+        if (LogStructuredIndexedCache.isLogStructuredStoreEnabled()) {
+            // The index is kept for as long as the cache, so that reopening the store only needs to read the records appended since it was closed
+            LogStructuredIndexedCache.Index index = new LogStructuredIndexedCache.Index();
+            return () -> new LogStructuredIndexedCache<>(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer(), index);
+        }
+        return () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
     }
 
     @Override
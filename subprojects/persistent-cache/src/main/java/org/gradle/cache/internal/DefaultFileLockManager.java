@@ -45,6 +45,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Set;
@@ -68,22 +69,33 @@ public class DefaultFileLockManager implements FileLockManager {
     private final int lockTimeoutMs;
     private final IdGenerator<Long> generator;
     private final FileLockContentionHandler fileLockContentionHandler;
+    private final FileLockStatistics.Collector statisticsCollector;
     private final int shortTimeoutMs = 10000;
 
     public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, FileLockContentionHandler fileLockContentionHandler) {
         this(metaDataProvider, DEFAULT_LOCK_TIMEOUT, fileLockContentionHandler);
     }
 
+    public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, FileLockContentionHandler fileLockContentionHandler, FileLockStatistics.Collector statisticsCollector) {
+        this(metaDataProvider, DEFAULT_LOCK_TIMEOUT, fileLockContentionHandler, new RandomLongIdGenerator(), statisticsCollector);
+    }
+
     public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler) {
         this(metaDataProvider, lockTimeoutMs, fileLockContentionHandler, new RandomLongIdGenerator());
     }
 
     DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler,
                            IdGenerator<Long> generator) {
+        this(metaDataProvider, lockTimeoutMs, fileLockContentionHandler, generator, new FileLockStatistics.Collector());
+    }
+
+    DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler,
+                           IdGenerator<Long> generator, FileLockStatistics.Collector statisticsCollector) {
         this.metaDataProvider = metaDataProvider;
         this.lockTimeoutMs = lockTimeoutMs;
         this.fileLockContentionHandler = fileLockContentionHandler;
         this.generator = generator;
+        this.statisticsCollector = statisticsCollector;
     }
 
     @Override
@@ -133,6 +145,10 @@ private class DefaultFileLock extends AbstractFileAccess implements FileLock {
         private LockState lockState;
         private final int port;
         private final long lockId;
+        private long acquiredAtNanos;
+        private boolean contended;
+        @Nullable
+        private String contendingProcess;
 
         public DefaultFileLock(File target, LockOptions options, String displayName, String operationDisplayName, int port, Action<FileLockReleasedSignal> whenContended) throws Throwable {
             this.port = port;
@@ -159,9 +175,15 @@ public DefaultFileLock(File target, LockOptions options, String displayName, Str
             lockFileAccess = new LockFileAccess(lockFile, new LockStateAccess(stateProtocol));
             try {
                 if (whenContended != null) {
-                    fileLockContentionHandler.start(lockId, whenContended);
+                    fileLockContentionHandler.start(lockId, signal -> {
+                        statisticsCollector.releaseRequested(displayName);
+                        whenContended.execute(signal);
+                    });
                 }
+                long startNanos = System.nanoTime();
                 lockState = lock(options.getMode());
+                acquiredAtNanos = System.nanoTime();
+                statisticsCollector.lockAcquired(displayName, acquiredAtNanos - startNanos, contended, contendingProcess);
             } catch (Throwable t) {
                 // Also releases any locks
                 lockFileAccess.close();
@@ -236,6 +258,9 @@ private void assertOpenAndIntegral() {
         @Override
         public void close() {
             CompositeStoppable stoppable = new CompositeStoppable();
+            if (lock != null) {
+                statisticsCollector.lockReleased(displayName, System.nanoTime() - acquiredAtNanos);
+            }
             stoppable.add((Stoppable) () -> {
                 if (lockFileAccess == null) {
                     return;
@@ -369,8 +394,12 @@ public IOQuery.Result<FileLockOutcome> run() throws IOException, InterruptedExce
                     if (lockOutcome.isLockWasAcquired()) {
                         return IOQuery.Result.successful(lockOutcome);
                     }
+                    contended = true;
                     if (port != -1) { //we don't like the assumption about the port very much
                         LockInfo lockInfo = readInformationRegion(backoff);
+                        if (lockInfo.lockId != 0) {
+                            contendingProcess = describeOwner(lockInfo);
+                        }
                         if (lockInfo.port != -1) {
                             if (lockInfo.port != lastLockHolderPort) {
                                 backoff.restartTimer();
@@ -390,6 +419,13 @@ public IOQuery.Result<FileLockOutcome> run() throws IOException, InterruptedExce
             });
         }
 
+        private String describeOwner(LockInfo lockInfo) {
+            if (lockInfo.operation.isEmpty()) {
+                return "pid " + lockInfo.pid;
+            }
+            return "pid " + lockInfo.pid + " (" + lockInfo.operation + ")";
+        }
+
         private FileLockOutcome lockInformationRegion(final LockMode lockMode, ExponentialBackoff<AwaitableFileLockReleasedSignal> backoff) throws IOException, InterruptedException {
             return backoff.retryUntil(() -> {
                 FileLockOutcome lockOutcome = lockFileAccess.tryLockInfo(lockMode == LockMode.Shared);
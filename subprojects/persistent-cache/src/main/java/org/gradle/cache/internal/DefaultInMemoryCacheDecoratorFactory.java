@@ -23,9 +23,11 @@
 import org.gradle.cache.CrossProcessCacheAccess;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafeIndexedCache;
+import org.gradle.internal.serialize.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -33,47 +35,96 @@
  * The in-memory cache is invalidated when the backing cache is changed by another process.
  *
  * Also decorates each cache so that updates to the backing cache are made asynchronously.
+ *
+ * When an off-heap size is configured, the caches also keep serialized entries outside the heap, up to that many bytes for all caches together.
+ * The in-memory cache then only needs to hold the most recently used entries, and entries evicted from it are deserialized
+ * from the off-heap store instead of being loaded from the backing cache. Each cache allocates its first off-heap segment when it is created.
+ * Once the off-heap memory is used up, caches reuse the memory they already have, and caches created after that keep all their entries on the heap.
  */
 public class DefaultInMemoryCacheDecoratorFactory implements InMemoryCacheDecoratorFactory {
+    public static final String OFF_HEAP_CACHE_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.off-heap";
+    public static final String OFF_HEAP_CACHE_MAX_BYTES_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.off-heap.max-bytes";
+    private static final long DEFAULT_OFF_HEAP_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    // The share of the in-memory entries kept on the heap when the entries are also kept off-heap
+    private static final int OFF_HEAP_IN_MEMORY_ENTRIES_DIVISOR = 10;
+
     private final static Logger LOG = LoggerFactory.getLogger(DefaultInMemoryCacheDecoratorFactory.class);
     private final boolean longLivingProcess;
+    @Nullable
+    private final OffHeapMemoryBudget offHeapBudget;
     private final HeapProportionalCacheSizer cacheSizer = new HeapProportionalCacheSizer();
     private final CrossBuildInMemoryCache<String, CacheDetails> caches;
 
     public DefaultInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuildInMemoryCacheFactory cacheFactory) {
+        this(longLivingProcess, cacheFactory, configuredOffHeapBytes());
+    }
+
+    /**
+     * @param offHeapBytes The number of bytes to keep off-heap for all caches together, or 0 to keep all entries on the heap.
+     */
+    public DefaultInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuildInMemoryCacheFactory cacheFactory, long offHeapBytes) {
         this.longLivingProcess = longLivingProcess;
+        this.offHeapBudget = offHeapBytes > 0 ? new OffHeapMemoryBudget(offHeapBytes) : null;
         caches = cacheFactory.newCache();
     }
 
+    public static boolean isOffHeapCacheEnabled() {
+        return Boolean.getBoolean(OFF_HEAP_CACHE_SYSTEM_PROPERTY);
+    }
+
+    private static long configuredOffHeapBytes() {
+        if (!isOffHeapCacheEnabled()) {
+            return 0;
+        }
+        return Long.getLong(OFF_HEAP_CACHE_MAX_BYTES_SYSTEM_PROPERTY, DEFAULT_OFF_HEAP_CACHE_MAX_BYTES);
+    }
+
     @Override
     public CacheDecorator decorator(final int maxEntriesToKeepInMemory, final boolean cacheInMemoryForShortLivedProcesses) {
         return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
     }
 
-    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, Serializer<K> keySerializer, Serializer<V> valueSerializer, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
         if (!longLivingProcess && !cacheInMemoryForShortLivedProcesses) {
             // Short lived process, don't cache in memory
             LOG.debug("Creating cache {} without in-memory store.", cacheId);
             return backingCache;
         }
-        int targetSize = cacheSizer.scaleCacheSize(maxEntriesToKeepInMemory);
-        CacheDetails cacheDetails = getCache(cacheId, targetSize);
-        return new InMemoryDecoratedCache<>(backingCache, cacheDetails.entries, cacheId, cacheDetails.lockState);
+        CacheDetails cacheDetails = getCache(cacheId, maxEntriesToKeepInMemory);
+        return new InMemoryDecoratedCache<>(backingCache, cacheDetails.entries, cacheDetails.offHeapEntries, keySerializer, valueSerializer, cacheId, cacheDetails.lockState);
     }
 
-    private CacheDetails getCache(final String cacheId, final int maxSize) {
+    private CacheDetails getCache(final String cacheId, final int maxEntriesToKeepInMemory) {
         CacheDetails cacheDetails = caches.get(cacheId, () -> {
+            OffHeapEntryStore offHeapEntries = createOffHeapStore();
+            // Only keep fewer entries on the heap when the other entries actually have a place off-heap
+            int referenceSize = offHeapEntries != null
+                ? Math.max(maxEntriesToKeepInMemory / OFF_HEAP_IN_MEMORY_ENTRIES_DIVISOR, Math.min(maxEntriesToKeepInMemory, 100))
+                : maxEntriesToKeepInMemory;
+            int maxSize = cacheSizer.scaleCacheSize(referenceSize);
             Cache<Object, Object> entries = createInMemoryCache(cacheId, maxSize);
-            CacheDetails details = new CacheDetails(cacheId, maxSize, entries, new AtomicReference<>());
-            LOG.debug("Creating in-memory store for cache {} (max size: {})", cacheId, maxSize);
+            CacheDetails details = new CacheDetails(cacheId, maxEntriesToKeepInMemory, entries, offHeapEntries, new AtomicReference<>());
+            LOG.debug("Creating in-memory store for cache {} (max size: {}, off-heap: {})", cacheId, maxSize, offHeapEntries != null);
             return details;
         });
-        if (cacheDetails.maxEntries != maxSize) {
-            throw new IllegalStateException("Mismatched in-memory store size for cache " + cacheId + ", expected: " + maxSize + ", found: " + cacheDetails.maxEntries);
+        if (cacheDetails.maxEntries != maxEntriesToKeepInMemory) {
+            throw new IllegalStateException("Mismatched in-memory store size for cache " + cacheId + ", expected: " + maxEntriesToKeepInMemory + ", found: " + cacheDetails.maxEntries);
         }
         return cacheDetails;
     }
 
+    /**
+     * Creates an off-heap store with its first segment allocated, or returns {@code null} when the off-heap memory is used up by other caches.
+     */
+    @Nullable
+    private OffHeapEntryStore createOffHeapStore() {
+        if (offHeapBudget == null) {
+            return null;
+        }
+        OffHeapEntryStore store = new OffHeapEntryStore(offHeapBudget);
+        return store.allocateSegment() ? store : null;
+    }
+
     private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize) {
         LoggingEvictionListener evictionListener = new LoggingEvictionListener(cacheId, maxSize);
         final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().removalListener(evictionListener);
@@ -109,9 +160,9 @@ public int hashCode() {
         }
 
         @Override
-        public <K, V> MultiProcessSafeIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafeIndexedCache<K, V> indexedCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
+        public <K, V> MultiProcessSafeIndexedCache<K, V> decorate(String cacheId, String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, MultiProcessSafeIndexedCache<K, V> indexedCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> asyncCache = new AsyncCacheAccessDecoratedCache<>(asyncCacheAccess, indexedCache);
-            MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+            MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, keySerializer, valueSerializer, asyncCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
             return new CrossProcessSynchronizingIndexedCache<>(memCache, crossProcessCacheAccess);
         }
     }
@@ -120,12 +171,15 @@ private static class CacheDetails {
         private final String cacheId;
         private final int maxEntries;
         private final Cache<Object, Object> entries;
+        @Nullable
+        private final OffHeapEntryStore offHeapEntries;
         private final AtomicReference<FileLock.State> lockState;
 
-        CacheDetails(String cacheId, int maxEntries, Cache<Object, Object> entries, AtomicReference<FileLock.State> lockState) {
+        CacheDetails(String cacheId, int maxEntries, Cache<Object, Object> entries, @Nullable OffHeapEntryStore offHeapEntries, AtomicReference<FileLock.State> lockState) {
             this.cacheId = cacheId;
             this.maxEntries = maxEntries;
             this.entries = entries;
+            this.offHeapEntries = offHeapEntries;
             this.lockState = lockState;
         }
     }
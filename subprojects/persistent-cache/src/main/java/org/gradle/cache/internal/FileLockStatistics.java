@@ -0,0 +1,173 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import javax.annotation.Nullable;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics about the use of the cross-process lock of a single cache or other locked file.
+ */
+public interface FileLockStatistics {
+    /**
+     * The display name of the locked cache.
+     */
+    String getLockDisplayName();
+
+    /**
+     * Number of times the lock was acquired.
+     */
+    long getAcquireCount();
+
+    /**
+     * Number of times the lock was held by another process when it was requested.
+     */
+    long getContendedAcquireCount();
+
+    /**
+     * Total time spent waiting to acquire the lock.
+     */
+    long getTotalAcquireTimeMillis();
+
+    /**
+     * Longest time spent waiting to acquire the lock.
+     */
+    long getMaxAcquireTimeMillis();
+
+    /**
+     * Total time the lock was held.
+     */
+    long getTotalHoldTimeMillis();
+
+    /**
+     * Number of times another process asked this process to release the lock.
+     */
+    long getReleaseRequestCount();
+
+    /**
+     * The process that most recently held the lock while this process was waiting for it, if known.
+     */
+    @Nullable
+    String getLastContendingProcess();
+
+    class Collector {
+        private final Map<String, Counters> countersByLock = new LinkedHashMap<>();
+
+        public synchronized void lockAcquired(String lockDisplayName, long acquireTimeNanos, boolean contended, @Nullable String contendingProcess) {
+            Counters counters = countersFor(lockDisplayName);
+            counters.acquireCount++;
+            counters.totalAcquireTimeNanos += acquireTimeNanos;
+            counters.maxAcquireTimeNanos = Math.max(counters.maxAcquireTimeNanos, acquireTimeNanos);
+            if (contended) {
+                counters.contendedAcquireCount++;
+            }
+            if (contendingProcess != null) {
+                counters.lastContendingProcess = contendingProcess;
+            }
+        }
+
+        public synchronized void lockReleased(String lockDisplayName, long holdTimeNanos) {
+            countersFor(lockDisplayName).totalHoldTimeNanos += holdTimeNanos;
+        }
+
+        public synchronized void releaseRequested(String lockDisplayName) {
+            countersFor(lockDisplayName).releaseRequestCount++;
+        }
+
+        private Counters countersFor(String lockDisplayName) {
+            return countersByLock.computeIfAbsent(lockDisplayName, Counters::new);
+        }
+
+        /**
+         * Returns the statistics collected since the last call, for each lock in the order the locks were first used.
+         */
+        public synchronized List<FileLockStatistics> collect() {
+            List<FileLockStatistics> statistics = new ArrayList<>(countersByLock.values());
+            countersByLock.clear();
+            return statistics;
+        }
+
+        private static class Counters implements FileLockStatistics {
+            private final String lockDisplayName;
+            private long acquireCount;
+            private long contendedAcquireCount;
+            private long totalAcquireTimeNanos;
+            private long maxAcquireTimeNanos;
+            private long totalHoldTimeNanos;
+            private long releaseRequestCount;
+            private String lastContendingProcess;
+
+            private Counters(String lockDisplayName) {
+                this.lockDisplayName = lockDisplayName;
+            }
+
+            @Override
+            public String getLockDisplayName() {
+                return lockDisplayName;
+            }
+
+            @Override
+            public long getAcquireCount() {
+                return acquireCount;
+            }
+
+            @Override
+            public long getContendedAcquireCount() {
+                return contendedAcquireCount;
+            }
+
+            @Override
+            public long getTotalAcquireTimeMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(totalAcquireTimeNanos);
+            }
+
+            @Override
+            public long getMaxAcquireTimeMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(maxAcquireTimeNanos);
+            }
+
+            @Override
+            public long getTotalHoldTimeMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(totalHoldTimeNanos);
+            }
+
+            @Override
+            public long getReleaseRequestCount() {
+                return releaseRequestCount;
+            }
+
+            @Nullable
+            @Override
+            public String getLastContendingProcess() {
+                return lastContendingProcess;
+            }
+
+            @Override
+            public String toString() {
+                return MessageFormat.format("{0}: acquired {1,number,integer} times ({2,number,integer} contended), waited {3,number,integer} ms (at most {4,number,integer} ms), held {5,number,integer} ms, {6,number,integer} release requests{7}",
+                    lockDisplayName, acquireCount, contendedAcquireCount, getTotalAcquireTimeMillis(), getMaxAcquireTimeMillis(), getTotalHoldTimeMillis(), releaseRequestCount,
+                    lastContendingProcess == null ? "" : ", last held by " + lastContendingProcess
+                );
+            }
+        }
+    }
+}
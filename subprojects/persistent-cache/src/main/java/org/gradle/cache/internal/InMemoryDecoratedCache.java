@@ -22,9 +22,11 @@
 import org.gradle.cache.FileLock;
 import org.gradle.internal.Cast;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.serialize.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
@@ -36,12 +38,32 @@
     private final Cache<Object, Object> inMemoryCache;
     private final String cacheId;
     private final AtomicReference<FileLock.State> fileLockStateReference;
+    private final OffHeapEntries<K, V> offHeapEntries;
 
     public InMemoryDecoratedCache(MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate, Cache<Object, Object> inMemoryCache, String cacheId, AtomicReference<FileLock.State> fileLockStateReference) {
+        this(delegate, inMemoryCache, null, null, null, cacheId, fileLockStateReference);
+    }
+
+    /**
+     * Creates a cache that also keeps entries in the given off-heap store, so that entries evicted from the in-memory cache
+     * can be deserialized from there instead of being loaded from the backing cache.
+     */
+    public InMemoryDecoratedCache(
+        MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate,
+        Cache<Object, Object> inMemoryCache,
+        @Nullable OffHeapEntryStore offHeapStore,
+        @Nullable Serializer<K> keySerializer,
+        @Nullable Serializer<V> valueSerializer,
+        String cacheId,
+        AtomicReference<FileLock.State> fileLockStateReference
+    ) {
         this.delegate = delegate;
         this.inMemoryCache = inMemoryCache;
         this.cacheId = cacheId;
         this.fileLockStateReference = fileLockStateReference;
+        this.offHeapEntries = offHeapStore == null || keySerializer == null || valueSerializer == null
+            ? new OffHeapEntries<>()
+            : new SerializingOffHeapEntries<>(offHeapStore, keySerializer, valueSerializer);
     }
 
     @Override
@@ -54,7 +76,7 @@ public V get(final K key) {
         Object value;
         try {
             value = inMemoryCache.get(key, () -> {
-                Object out = delegate.get(key);
+                Object out = load(key);
                 return out == null ? NULL : out;
             });
         } catch (UncheckedExecutionException | ExecutionException e) {
@@ -81,12 +103,13 @@ public V get(final K key, final Function<? super K, ? extends V> producer, final
             }
             value = inMemoryCache.get(key, () -> {
                 if (!wasNull) {
-                    Object out = delegate.get(key);
+                    Object out = load(key);
                     if (out != null) {
                         return out;
                     }
                 }
                 V generatedValue = producer.apply(key);
+                offHeapEntries.put(key, generatedValue);
                 delegate.putLater(key, generatedValue, completion);
                 completionRef.set(Runnables.doNothing());
                 return generatedValue;
@@ -103,15 +126,29 @@ public V get(final K key, final Function<? super K, ? extends V> producer, final
         }
     }
 
+    @Nullable
+    private V load(K key) {
+        V value = offHeapEntries.get(key);
+        if (value == null) {
+            value = delegate.get(key);
+            if (value != null) {
+                offHeapEntries.put(key, value);
+            }
+        }
+        return value;
+    }
+
     @Override
     public void putLater(K key, V value, Runnable completion) {
         inMemoryCache.put(key, value);
+        offHeapEntries.put(key, value);
         delegate.putLater(key, value, completion);
     }
 
     @Override
     public void removeLater(K key, Runnable completion) {
         inMemoryCache.put(key, NULL);
+        offHeapEntries.remove(key);
         delegate.removeLater(key, completion);
     }
 
@@ -127,6 +164,7 @@ public void afterLockAcquire(FileLock.State currentCacheState) {
         }
         if (outOfDate) {
             inMemoryCache.invalidateAll();
+            offHeapEntries.clear();
         }
         delegate.afterLockAcquire(currentCacheState);
     }
@@ -150,5 +188,69 @@ public String getCacheId() {
     @Override
     public void clearInMemoryCache() {
         inMemoryCache.invalidateAll();
+        offHeapEntries.clear();
+    }
+
+    /**
+     * The entries kept outside the heap. Keeps no entries at all by default.
+     */
+    private static class OffHeapEntries<K, V> {
+        @Nullable
+        V get(K key) {
+            return null;
+        }
+
+        void put(K key, V value) {
+        }
+
+        void remove(K key) {
+        }
+
+        void clear() {
+        }
+    }
+
+    private static class SerializingOffHeapEntries<K, V> extends OffHeapEntries<K, V> {
+        private final OffHeapEntryStore store;
+        private final Serializer<K> keySerializer;
+        private final Serializer<V> valueSerializer;
+
+        SerializingOffHeapEntries(OffHeapEntryStore store, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+            this.store = store;
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+        }
+
+        @Nullable
+        @Override
+        V get(K key) {
+            if (store.isEmpty()) {
+                return null;
+            }
+            byte[] serializedValue = store.get(SerializedEntries.serialize(keySerializer, key));
+            return serializedValue == null ? null : SerializedEntries.deserialize(valueSerializer, serializedValue);
+        }
+
+        @Override
+        void put(K key, V value) {
+            if (!store.canStore()) {
+                // Nothing is kept, and there is no older value to replace
+                return;
+            }
+            store.put(SerializedEntries.serialize(keySerializer, key), SerializedEntries.serialize(valueSerializer, value));
+        }
+
+        @Override
+        void remove(K key) {
+            if (store.isEmpty()) {
+                return;
+            }
+            store.remove(SerializedEntries.serialize(keySerializer, key));
+        }
+
+        @Override
+        void clear() {
+            store.clear();
+        }
     }
 }
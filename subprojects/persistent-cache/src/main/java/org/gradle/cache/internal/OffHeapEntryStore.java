@@ -0,0 +1,257 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Keeps serialized entries outside the heap, in direct buffers, bounded by the number of bytes used.
+ *
+ * <p>
+ * The memory is divided into segments that are allocated on demand. Entries are appended to the current segment, each as a record
+ * {@code keyHash, keyLength, valueLength, key, value}, and the offset of the latest record for each key is kept in an index keyed
+ * by the hash of the serialized key. Once no more segments can be allocated, the oldest segment is discarded together with the entries it holds
+ * and reused, so entries are evicted in the order they were added. Replaced and removed entries stay in their segment until it is discarded.
+ * </p>
+ *
+ * <p>
+ * Segments are allocated from a {@link OffHeapMemoryBudget} that can be shared with other stores.
+ * When the budget is used up before the store has allocated any segment, entries are not kept off-heap at all.
+ * </p>
+ *
+ * <p>
+ * The index needs about 16 bytes of heap per entry, regardless of the size of the entry.
+ * Entries that do not fit into a single segment are not kept.
+ * </p>
+ */
+class OffHeapEntryStore {
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int END_OF_SEGMENT = -1;
+    private static final long MISSING = -1;
+
+    private final int segmentSize;
+    private final OffHeapMemoryBudget budget;
+    private final OffHeapMemoryBudget.Reservation reservation;
+    // The live segments, indexed by their position
+    private final ByteBuffer[] segments;
+    // Allocated segments that hold no live entries
+    private final Deque<ByteBuffer> freeSegments = new ArrayDeque<>();
+    private final Long2LongOpenHashMap index = new Long2LongOpenHashMap();
+    private int allocatedSegments;
+    // Positions are logical, counting all bytes ever appended, so that a position identifies both a segment and an offset in it
+    private long head;
+    private long currentSegmentEnd;
+    private long firstLivePosition;
+
+    OffHeapEntryStore(OffHeapMemoryBudget budget) {
+        this(budget, DEFAULT_SEGMENT_SIZE);
+    }
+
+    OffHeapEntryStore(long maxBytes, int segmentSize) {
+        this(new OffHeapMemoryBudget(maxBytes), segmentSize);
+    }
+
+    OffHeapEntryStore(OffHeapMemoryBudget budget, int segmentSize) {
+        this.segmentSize = segmentSize;
+        this.budget = budget;
+        this.reservation = budget.register(this);
+        this.segments = new ByteBuffer[(int) Math.max(1, Math.min(Integer.MAX_VALUE, budget.getMaxBytes() / segmentSize))];
+        index.defaultReturnValue(MISSING);
+    }
+
+    /**
+     * Allocates a segment up front, so that the store can keep entries regardless of how much of the budget other stores use later.
+     *
+     * @return {@code false} when the budget is used up.
+     */
+    synchronized boolean allocateSegment() {
+        if (allocatedSegments == segments.length || !budget.tryReserve(reservation, segmentSize)) {
+            return false;
+        }
+        freeSegments.add(allocateDirect());
+        return true;
+    }
+
+    /**
+     * Returns whether entries can be put into the store, that is, it has allocated memory or can still allocate some.
+     */
+    synchronized boolean canStore() {
+        return allocatedSegments > 0 || budget.getReservedBytes() + segmentSize <= budget.getMaxBytes();
+    }
+
+    synchronized boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * Returns a copy of the value stored for the given key, or {@code null} when there is none.
+     */
+    @Nullable
+    synchronized byte[] get(byte[] serializedKey) {
+        long keyHash = SerializedEntries.hashKey(serializedKey);
+        long pos = index.get(keyHash);
+        if (pos == MISSING) {
+            return null;
+        }
+        ByteBuffer segment = segmentAt(pos);
+        int offset = offsetOf(pos);
+        int keyLength = segment.getInt(offset + 8);
+        int valueLength = segment.getInt(offset + 12);
+        if (keyLength != serializedKey.length || !keyEquals(segment, offset + RECORD_HEADER_SIZE, serializedKey)) {
+            // Another key with the same hash
+            return null;
+        }
+        byte[] value = new byte[valueLength];
+        ByteBuffer source = segment.duplicate();
+        source.position(offset + RECORD_HEADER_SIZE + keyLength);
+        source.get(value);
+        return value;
+    }
+
+    synchronized void put(byte[] serializedKey, byte[] serializedValue) {
+        long keyHash = SerializedEntries.hashKey(serializedKey);
+        int recordSize = RECORD_HEADER_SIZE + serializedKey.length + serializedValue.length;
+        if (recordSize > segmentSize) {
+            // Too large to keep, make sure any older value is not used
+            index.remove(keyHash);
+            return;
+        }
+        if (head + recordSize > currentSegmentEnd && !startNextSegment()) {
+            // No memory available, keep the entry on the heap only
+            index.remove(keyHash);
+            return;
+        }
+        long pos = head;
+        ByteBuffer segment = segmentAt(pos);
+        int offset = offsetOf(pos);
+        segment.putLong(offset, keyHash);
+        segment.putInt(offset + 8, serializedKey.length);
+        segment.putInt(offset + 12, serializedValue.length);
+        ByteBuffer target = segment.duplicate();
+        target.position(offset + RECORD_HEADER_SIZE);
+        target.put(serializedKey);
+        target.put(serializedValue);
+        index.put(keyHash, pos);
+        head = pos + recordSize;
+    }
+
+    synchronized void remove(byte[] serializedKey) {
+        index.remove(SerializedEntries.hashKey(serializedKey));
+    }
+
+    /**
+     * Discards all entries. The memory already allocated is kept for reuse.
+     */
+    synchronized void clear() {
+        index.clear();
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                freeSegments.add(segments[i]);
+                segments[i] = null;
+            }
+        }
+        head = 0;
+        currentSegmentEnd = 0;
+        firstLivePosition = 0;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return {@code false} when no segment could be allocated.
+     */
+    private boolean startNextSegment() {
+        if (currentSegmentEnd - head >= RECORD_HEADER_SIZE) {
+            // Mark the end of the records in the current segment, which may contain stale records from before it was reused
+            segmentAt(head).putInt(offsetOf(head) + 8, END_OF_SEGMENT);
+        }
+        long liveSegments = (currentSegmentEnd - firstLivePosition) / segmentSize;
+        ByteBuffer segment = freeSegments.poll();
+        if (segment == null) {
+            if (liveSegments < segments.length && budget.tryReserve(reservation, segmentSize)) {
+                segment = allocateDirect();
+            } else if (liveSegments > 0) {
+                segment = evictOldestSegment();
+            } else {
+                return false;
+            }
+        }
+        head = currentSegmentEnd;
+        currentSegmentEnd += segmentSize;
+        segments[segmentIndexOf(head)] = segment;
+        return true;
+    }
+
+    private ByteBuffer allocateDirect() {
+        allocatedSegments++;
+        return ByteBuffer.allocateDirect(segmentSize);
+    }
+
+    /**
+     * Removes the entries stored in the oldest segment from the index, so that the segment can be reused.
+     */
+    private ByteBuffer evictOldestSegment() {
+        long segmentStart = firstLivePosition;
+        ByteBuffer segment = segmentAt(segmentStart);
+        int offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= segmentSize) {
+            long keyHash = segment.getLong(offset);
+            int keyLength = segment.getInt(offset + 8);
+            if (keyLength == END_OF_SEGMENT) {
+                break;
+            }
+            int valueLength = segment.getInt(offset + 12);
+            long pos = segmentStart + offset;
+            if (index.get(keyHash) == pos) {
+                index.remove(keyHash);
+            }
+            offset += RECORD_HEADER_SIZE + keyLength + valueLength;
+        }
+        segments[segmentIndexOf(segmentStart)] = null;
+        firstLivePosition = segmentStart + segmentSize;
+        return segment;
+    }
+
+    private ByteBuffer segmentAt(long pos) {
+        return segments[segmentIndexOf(pos)];
+    }
+
+    private int segmentIndexOf(long pos) {
+        return (int) ((pos / segmentSize) % segments.length);
+    }
+
+    private int offsetOf(long pos) {
+        return (int) (pos % segmentSize);
+    }
+
+    private static boolean keyEquals(ByteBuffer segment, int offset, byte[] serializedKey) {
+        byte[] storedKey = new byte[serializedKey.length];
+        ByteBuffer source = segment.duplicate();
+        source.position(offset);
+        source.get(storedKey);
+        return Arrays.equals(storedKey, serializedKey);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits the number of bytes that all {@link OffHeapEntryStore} instances sharing it allocate together.
+ *
+ * <p>
+ * The memory reserved by a store is given back once the store has been garbage collected, which also releases its direct buffers.
+ * </p>
+ */
+class OffHeapMemoryBudget {
+    private final long maxBytes;
+    private final ReferenceQueue<OffHeapEntryStore> collectedStores = new ReferenceQueue<>();
+    // Keeps the reservations reachable until their store has been collected
+    private final Set<Reservation> reservations = new HashSet<>();
+    private long reservedBytes;
+
+    OffHeapMemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long getReservedBytes() {
+        releaseCollectedStores();
+        return reservedBytes;
+    }
+
+    synchronized Reservation register(OffHeapEntryStore store) {
+        Reservation reservation = new Reservation(store, collectedStores);
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    /**
+     * Reserves the given number of bytes for a store.
+     *
+     * @return {@code false} when the bytes are not available, as the other stores use up the budget.
+     */
+    synchronized boolean tryReserve(Reservation reservation, long bytes) {
+        releaseCollectedStores();
+        if (reservedBytes + bytes > maxBytes) {
+            return false;
+        }
+        reservedBytes += bytes;
+        reservation.bytes += bytes;
+        return true;
+    }
+
+    private void releaseCollectedStores() {
+        Reference<? extends OffHeapEntryStore> collected;
+        while ((collected = collectedStores.poll()) != null) {
+            Reservation reservation = (Reservation) collected;
+            reservations.remove(reservation);
+            reservedBytes -= reservation.bytes;
+        }
+    }
+
+    static class Reservation extends WeakReference<OffHeapEntryStore> {
+        private long bytes;
+
+        private Reservation(OffHeapEntryStore store, ReferenceQueue<OffHeapEntryStore> queue) {
+            super(store, queue);
+        }
+    }
+}
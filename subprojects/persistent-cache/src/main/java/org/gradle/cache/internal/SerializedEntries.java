@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import com.google.common.hash.Hashing;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Helpers for the stores that keep the entries of a cache in serialized form, indexed by the hash of their serialized key.
+ */
+public class SerializedEntries {
+    private SerializedEntries() {
+    }
+
+    /**
+     * Returns the hash under which the entry with the given serialized key is indexed.
+     */
+    public static long hashKey(byte[] serializedKey) {
+        return Hashing.murmur3_128().hashBytes(serializedKey).asLong();
+    }
+
+    public static <T> byte[] serialize(Serializer<T> serializer, T value) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(outputStream);
+        try {
+            serializer.write(encoder, value);
+            encoder.flush();
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static <T> T deserialize(Serializer<T> serializer, byte[] serialized) {
+        try {
+            return serializer.read(new KryoBackedDecoder(new ByteArrayInputStream(serialized)));
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+}
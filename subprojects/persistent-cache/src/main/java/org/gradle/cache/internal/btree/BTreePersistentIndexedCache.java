@@ -17,18 +17,23 @@
 
 import com.google.common.collect.ImmutableSet;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.PersistentIndexedStore;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.io.StreamByteBuffer;
+import org.gradle.internal.os.OperatingSystem;
 import org.gradle.internal.serialize.Serializer;
 import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
 import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -47,8 +52,19 @@
 // todo - merge adjacent free blocks
 // todo - use more efficient lookup for free block with nearest size
 @SuppressWarnings("unchecked")
-public class BTreePersistentIndexedCache<K, V> {
+public class BTreePersistentIndexedCache<K, V> implements PersistentIndexedStore<K, V> {
+    /**
+     * When enabled, {@link #get(Object)} reads the cache file through a memory mapping instead of going through the block store.
+     */
+    public static final String MAPPED_READS_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.mapped-reads";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(BTreePersistentIndexedCache.class);
+    private static final byte HEADER_BLOCK_TYPE = 0x55;
+    private static final byte INDEX_BLOCK_TYPE = 0x77;
+    private static final byte DATA_BLOCK_TYPE = 0x33;
+    private static final int INDEX_ENTRY_SIZE = 3 * Block.LONG_SIZE;
+    private static final int MAX_MAPPED_LOOKUP_DEPTH = 64;
+
     private final File cacheFile;
     private final KeyHasher<K> keyHasher;
     private final Serializer<V> serializer;
@@ -57,14 +73,24 @@
     private final StateCheckBlockStore store;
     private HeaderBlock header;
 
+    @Nullable
+    private final MappedBlockReader mappedReader;
+    private volatile boolean mappable = true;
+
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         this(cacheFile, keySerializer, valueSerializer, (short) 512, 512);
     }
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
                                        short maxChildIndexEntries, int maxFreeListEntries) {
+        this(cacheFile, keySerializer, valueSerializer, maxChildIndexEntries, maxFreeListEntries, isMappedReadsEnabled());
+    }
+
+    public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                       short maxChildIndexEntries, int maxFreeListEntries, boolean mappedReads) {
         this.cacheFile = cacheFile;
         this.keyHasher = new KeyHasher<K>(keySerializer);
+        this.mappedReader = mappedReads ? new MappedBlockReader(cacheFile) : null;
         this.serializer = valueSerializer;
         this.maxChildIndexEntries = maxChildIndexEntries;
         this.minIndexChildNodes = maxChildIndexEntries / 2;
@@ -77,6 +103,11 @@ public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer,
         }
     }
 
+    public static boolean isMappedReadsEnabled() {
+        // Windows does not allow truncating a file while it is mapped
+        return Boolean.getBoolean(MAPPED_READS_SYSTEM_PROPERTY) && !OperatingSystem.current().isWindows();
+    }
+
     @Override
     public String toString() {
         return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
@@ -121,7 +152,11 @@ public void run() {
         header = store.readFirst(HeaderBlock.class);
     }
 
+    @Override
     public V get(K key) {
+        if (mappedReader != null && mappable) {
+            return getMapped(key);
+        }
         try {
             try {
                 DataBlock block = header.getRoot().get(key);
@@ -138,6 +173,79 @@ public V get(K key) {
         }
     }
 
+    private V getMapped(K key) {
+        try {
+            byte[] serializedValue = readMapped(key);
+            if (serializedValue == null) {
+                return null;
+            }
+            return serializer.read(new KryoBackedDecoder(new ByteArrayInputStream(serializedValue)));
+        } catch (MappedBlockReader.FileTooLargeException e) {
+            LOGGER.debug("Not using memory-mapped reads for {}.", this, e);
+            mappable = false;
+            return get(key);
+        } catch (CorruptedCacheException e) {
+            rebuild();
+            return null;
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    /**
+     * Looks up the serialized value for the given key directly in the mapped file, without going through the block store.
+     */
+    @Nullable
+    private byte[] readMapped(K key) throws Exception {
+        long hashCode = keyHasher.getHashCode(key);
+        assert mappedReader != null;
+        // The header is the block following the free list block, see FreeListBlockStore.readFirst()
+        long headerPos = mappedReader.nextBlockPos(0, FreeListBlockStore.FREE_LIST_BLOCK_TYPE);
+        ByteBuffer headerPayload = mappedReader.readPayload(headerPos, HEADER_BLOCK_TYPE, payload -> Block.LONG_SIZE + Block.SHORT_SIZE);
+        if (headerPayload.getShort(Block.LONG_SIZE) != maxChildIndexEntries) {
+            throw new CorruptedCacheException(String.format("Unexpected header found in %s.", this));
+        }
+        long pos = headerPayload.getLong(0);
+        for (int depth = 0; depth < MAX_MAPPED_LOOKUP_DEPTH && pos >= 0; depth++) {
+            ByteBuffer index = mappedReader.readPayload(pos, INDEX_BLOCK_TYPE, payload -> indexEntryOffset(payload.getInt(0)) + Block.LONG_SIZE);
+            int count = index.getInt(0);
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midHashCode = index.getLong(indexEntryOffset(mid));
+                if (midHashCode < hashCode) {
+                    low = mid + 1;
+                } else if (midHashCode > hashCode) {
+                    high = mid - 1;
+                } else {
+                    return readMappedData(index.getLong(indexEntryOffset(mid) + Block.LONG_SIZE));
+                }
+            }
+            pos = low == count
+                ? index.getLong(indexEntryOffset(count))
+                : index.getLong(indexEntryOffset(low) + 2 * Block.LONG_SIZE);
+        }
+        if (pos >= 0) {
+            throw new CorruptedCacheException(String.format("Index of %s is deeper than expected.", this));
+        }
+        return null;
+    }
+
+    private byte[] readMappedData(long pos) {
+        assert mappedReader != null;
+        ByteBuffer data = mappedReader.readPayload(pos, DATA_BLOCK_TYPE, payload -> 2 * Block.INT_SIZE + payload.getInt(Block.INT_SIZE));
+        byte[] serializedValue = new byte[data.getInt(Block.INT_SIZE)];
+        data.position(2 * Block.INT_SIZE);
+        data.get(serializedValue);
+        return serializedValue;
+    }
+
+    private static int indexEntryOffset(int index) {
+        return Block.INT_SIZE + index * INDEX_ENTRY_SIZE;
+    }
+
+    @Override
     public void put(K key, V value) {
         try {
             long hashCode = keyHasher.getHashCode(key);
@@ -163,6 +271,7 @@ public void put(K key, V value) {
         }
     }
 
+    @Override
     public void remove(K key) {
         try {
             Lookup lookup = header.getRoot().find(key);
@@ -195,9 +304,13 @@ public void reset() {
         }
     }
 
+    @Override
     public void close() {
         LOGGER.debug("Closing {}", this);
         try {
+            if (mappedReader != null) {
+                mappedReader.invalidate();
+            }
             store.close();
         } catch (Exception e) {
             throw new UncheckedIOException(e);
@@ -291,6 +404,9 @@ private void verifyTree(IndexBlock current, String prefix, Collection<BlockPaylo
     }
 
     public void clear() {
+        if (mappedReader != null) {
+            mappedReader.invalidate();
+        }
         store.clear();
         close();
         try {
@@ -334,7 +450,7 @@ private HeaderBlock() {
 
         @Override
         protected byte getType() {
-            return 0x55;
+            return HEADER_BLOCK_TYPE;
         }
 
         @Override
@@ -373,7 +489,7 @@ private class IndexBlock extends BlockPayload {
 
         @Override
         protected byte getType() {
-            return 0x77;
+            return INDEX_BLOCK_TYPE;
         }
 
         @Override
@@ -691,7 +807,7 @@ public V getValue() throws Exception {
 
         @Override
         protected byte getType() {
-            return 0x33;
+            return DATA_BLOCK_TYPE;
         }
 
         @Override
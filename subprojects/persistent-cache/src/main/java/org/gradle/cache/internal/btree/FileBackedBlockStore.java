@@ -25,6 +25,9 @@
 import java.io.RandomAccessFile;
 
 public class FileBackedBlockStore implements BlockStore {
+    static final int HEADER_SIZE = 1 + Block.INT_SIZE; // type, payload size
+    static final int TAIL_SIZE = Block.INT_SIZE;
+
     private final File cacheFile;
     private RandomAccessFile file;
     private ByteOutput output;
@@ -148,9 +151,6 @@ private long alloc(long length) {
     }
 
     private final class BlockImpl extends Block {
-        private static final int HEADER_SIZE = 1 + INT_SIZE; // type, payload size
-        private static final int TAIL_SIZE = INT_SIZE;
-
         private BlockPointer pos;
         private int payloadSize;
 
@@ -22,6 +22,8 @@
 import java.util.List;
 
 public class FreeListBlockStore implements BlockStore {
+    static final byte FREE_LIST_BLOCK_TYPE = 0x44;
+
     private final BlockStore store;
     private final BlockStore freeListStore;
     private final int maxBlockEntries;
@@ -146,7 +148,7 @@ protected int getSize() {
 
         @Override
         protected byte getType() {
-            return 0x44;
+            return FREE_LIST_BLOCK_TYPE;
         }
 
         @Override
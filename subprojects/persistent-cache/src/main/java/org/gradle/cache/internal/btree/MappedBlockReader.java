@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.gradle.api.UncheckedIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reads blocks written by {@link FileBackedBlockStore} through a read-only memory mapping of the file.
+ *
+ * <p>
+ * Like the block store, the reader is not thread-safe: the cache using it serializes its reads and writes.
+ * The mapping is extended when a block beyond its end is read, and must be {@link #invalidate() invalidated} before the file is truncated.
+ * </p>
+ */
+class MappedBlockReader {
+    private final File cacheFile;
+    private MappedByteBuffer mapping;
+
+    MappedBlockReader(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Reads the payload of the block at the given position.
+     *
+     * @param payloadLength determines the number of bytes actually used by the payload, which can be less than the space allocated for it.
+     * @return a buffer containing the payload, starting at index 0.
+     */
+    ByteBuffer readPayload(long pos, byte expectedType, ToIntFunction<ByteBuffer> payloadLength) {
+        ByteBuffer mapping = mappingFor(pos + FileBackedBlockStore.HEADER_SIZE);
+        int offset = (int) pos;
+        if (mapping.get(offset) != expectedType) {
+            throw blockCorruptedException(pos);
+        }
+        int payloadSize = mapping.getInt(offset + 1);
+        if (payloadSize < 0) {
+            throw blockCorruptedException(pos);
+        }
+        long blockEnd = pos + FileBackedBlockStore.HEADER_SIZE + payloadSize + FileBackedBlockStore.TAIL_SIZE;
+        if (blockEnd > mapping.capacity()) {
+            mapping = mappingFor(blockEnd);
+        }
+
+        ByteBuffer payload = mapping.duplicate();
+        payload.position(offset + FileBackedBlockStore.HEADER_SIZE);
+        payload.limit(offset + FileBackedBlockStore.HEADER_SIZE + payloadSize);
+        payload = payload.slice();
+
+        int length;
+        try {
+            length = payloadLength.applyAsInt(payload);
+        } catch (IndexOutOfBoundsException e) {
+            throw blockCorruptedException(pos);
+        }
+        // Verify the count written after the payload, which includes the header
+        if (length < 0 || length > payloadSize
+            || mapping.getInt(offset + FileBackedBlockStore.HEADER_SIZE + length) != FileBackedBlockStore.HEADER_SIZE + length) {
+            throw blockCorruptedException(pos);
+        }
+        payload.limit(length);
+        return payload;
+    }
+
+    /**
+     * Returns the position of the block that follows the block at the given position, taking into account all the space allocated for its payload.
+     */
+    long nextBlockPos(long pos, byte expectedType) {
+        ByteBuffer mapping = mappingFor(pos + FileBackedBlockStore.HEADER_SIZE);
+        int offset = (int) pos;
+        if (mapping.get(offset) != expectedType) {
+            throw blockCorruptedException(pos);
+        }
+        int payloadSize = mapping.getInt(offset + 1);
+        if (payloadSize < 0) {
+            throw blockCorruptedException(pos);
+        }
+        return pos + FileBackedBlockStore.HEADER_SIZE + payloadSize + FileBackedBlockStore.TAIL_SIZE;
+    }
+
+    private ByteBuffer mappingFor(long requiredSize) {
+        MappedByteBuffer current = mapping;
+        if (current == null || current.capacity() < requiredSize) {
+            current = map();
+            mapping = current;
+        }
+        if (current.capacity() < requiredSize) {
+            throw new CorruptedCacheException(String.format("Block ending at offset %s extends beyond the end of %s.", requiredSize, cacheFile));
+        }
+        return current;
+    }
+
+    private MappedByteBuffer map() {
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new FileTooLargeException(cacheFile);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Discards the current mapping. Must be called before the file is truncated.
+     */
+    void invalidate() {
+        mapping = null;
+    }
+
+    private CorruptedCacheException blockCorruptedException(long pos) {
+        return new CorruptedCacheException(String.format("Corrupted block at offset %s found in %s.", pos, cacheFile));
+    }
+
+    /**
+     * Thrown when the file cannot be mapped into a single buffer.
+     */
+    static class FileTooLargeException extends RuntimeException {
+        FileTooLargeException(File cacheFile) {
+            super(String.format("%s is too large to be memory-mapped.", cacheFile));
+        }
+    }
+}
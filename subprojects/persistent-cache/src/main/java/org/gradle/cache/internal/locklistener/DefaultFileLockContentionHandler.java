@@ -21,17 +21,23 @@
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.concurrent.ManagedExecutor;
 import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.os.OperatingSystem;
 import org.gradle.internal.remote.internal.inet.InetAddressFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.net.DatagramPacket;
 import java.net.SocketAddress;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.gradle.cache.internal.locklistener.FileLockPacketType.LOCK_RELEASE_CONFIRMATION;
@@ -72,28 +78,65 @@
  * <p>
  * As Lock Requester, the state of the request is always stored per lock (lockId) and Lock Holder (port). The Lock Holder
  * for a lock might change without acquiring the lock if several Lock Requester compete for the same lock.
+ * <p>
+ * When a mailbox directory is configured, each process also creates a memory-mapped {@link FileLockMailbox} named after its port.
+ * A Lock Requester then first asks for the release through the mailbox of the Lock Holder, and both sides poll the mailboxes
+ * instead of waiting for packets. Polling is frequent while requests are pending or have recently been seen, and backs off otherwise.
+ * Polling stops altogether while this process neither holds a lock nor waits for the release of one.
+ * Polling only reads the mailboxes, the state of this handler is only locked when a request or a release has been seen.
+ * When the Lock Holder has no mailbox, or does not confirm the release in time, the Lock Requester falls back to pinging
+ * the Lock Holder through the socket. Processes that cannot create their own mailbox, e.g. because the mailbox directory
+ * is not owned by the current user, only coordinate through the socket.
  */
 public class DefaultFileLockContentionHandler implements FileLockContentionHandler, Stoppable {
+    public static final String SHARED_MEMORY_COORDINATION_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.shared-memory-lock-coordination";
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultFileLockContentionHandler.class);
     private static final int PING_DELAY = 1000;
+    private static final long ACTIVE_POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long IDLE_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_IDLE_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long ACTIVE_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long RELEASE_REQUEST_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
     private final Lock lock = new ReentrantLock();
 
     private final Map<Long, ContendedAction> contendedActions = new HashMap<Long, ContendedAction>();
     private final Map<Long, FileLockReleasedSignal> lockReleasedSignals = new HashMap<Long, FileLockReleasedSignal>();
     private final Map<Long, Integer> unlocksRequestedFrom = new HashMap<Long, Integer>();
     private final Map<Long, Integer> unlocksConfirmedFrom = new HashMap<Long, Integer>();
+    // Polled without holding the lock
+    private final Map<Long, PendingRelease> pendingReleases = new ConcurrentHashMap<Long, PendingRelease>();
 
     private final ExecutorFactory executorFactory;
     private final InetAddressFactory addressFactory;
+    @Nullable
+    private final File mailboxDirectory;
 
     private FileLockCommunicator communicator;
+    private volatile FileLockMailbox mailbox;
     private ManagedExecutor fileLockRequestListener;
+    private ManagedExecutor mailboxListener;
+    private volatile Thread mailboxListenerThread;
+    // Whether there are contended actions, read by the mailbox listener without holding the lock
+    private volatile boolean holdingLocks;
     private ManagedExecutor unlockActionExecutor;
-    private boolean stopped;
+    private volatile boolean stopped;
 
     public DefaultFileLockContentionHandler(ExecutorFactory executorFactory, InetAddressFactory addressFactory) {
+        this(executorFactory, addressFactory, null);
+    }
+
+    /**
+     * @param mailboxDirectory the directory containing the mailboxes of all processes, or {@code null} to only coordinate through sockets.
+     * It is created so that only the current user can access it, see {@link FileLockMailbox#create(File)}.
+     */
+    public DefaultFileLockContentionHandler(ExecutorFactory executorFactory, InetAddressFactory addressFactory, @Nullable File mailboxDirectory) {
         this.executorFactory = executorFactory;
         this.addressFactory = addressFactory;
+        this.mailboxDirectory = mailboxDirectory;
+    }
+
+    public static boolean isSharedMemoryCoordinationEnabled() {
+        return Boolean.getBoolean(SHARED_MEMORY_COORDINATION_SYSTEM_PROPERTY) && !OperatingSystem.current().isWindows();
     }
 
     private Runnable listener() {
@@ -142,6 +185,122 @@ private void doRun() {
         };
     }
 
+    private void pollMailboxes() {
+        LOGGER.debug("Starting file lock mailbox listener thread.");
+        int[] seenRequestCounts = new int[FileLockMailbox.SLOT_COUNT];
+        long lastActivity = System.nanoTime();
+        long idlePollInterval = IDLE_POLL_INTERVAL_NANOS;
+        mailboxListenerThread = Thread.currentThread();
+        try {
+            while (!stopped) {
+                if (!holdingLocks && pendingReleases.isEmpty()) {
+                    // Nothing to release and nothing to wait for, until woken up by start() or a new release request
+                    LockSupport.park(this);
+                    lastActivity = System.nanoTime();
+                    idlePollInterval = IDLE_POLL_INTERVAL_NANOS;
+                    continue;
+                }
+                long now = System.nanoTime();
+                if (pollOwnMailbox(seenRequestCounts) | pollPendingReleases(now)) {
+                    lastActivity = now;
+                    idlePollInterval = IDLE_POLL_INTERVAL_NANOS;
+                }
+                if (!pendingReleases.isEmpty() || now - lastActivity < ACTIVE_PERIOD_NANOS) {
+                    LockSupport.parkNanos(ACTIVE_POLL_INTERVAL_NANOS);
+                } else {
+                    LockSupport.parkNanos(idlePollInterval);
+                    idlePollInterval = Math.min(idlePollInterval * 2, MAX_IDLE_POLL_INTERVAL_NANOS);
+                }
+            }
+        } catch (Throwable t) {
+            LOGGER.error("Problems handling incoming cache access requests.", t);
+        } finally {
+            LOGGER.debug("File lock mailbox listener thread completed.");
+        }
+    }
+
+    /**
+     * Starts releasing the locks other processes have asked for through the mailbox of this process.
+     */
+    private boolean pollOwnMailbox(int[] seenRequestCounts) {
+        FileLockMailbox mailbox = this.mailbox;
+        if (mailbox == null) {
+            return false;
+        }
+        boolean requestsReceived = false;
+        for (int slot = 0; slot < seenRequestCounts.length; slot++) {
+            int requestCount = mailbox.requestCountAt(slot);
+            if (requestCount == seenRequestCounts[slot]) {
+                continue;
+            }
+            seenRequestCounts[slot] = requestCount;
+            requestsReceived = true;
+            handleReleaseRequest(mailbox, mailbox.lockIdAt(slot));
+        }
+        return requestsReceived;
+    }
+
+    private void handleReleaseRequest(FileLockMailbox mailbox, long lockId) {
+        lock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+            ContendedAction contendedAction = contendedActions.get(lockId);
+            if (contendedAction == null) {
+                // Not holding the lock (anymore), let the requester retry
+                mailbox.free(lockId);
+            } else if (!contendedAction.running) {
+                LOGGER.debug("Received unlock request through mailbox for lock with id {}.", lockId);
+                startLockReleaseAsLockHolder(contendedAction);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signals the release of the locks this process has asked for through the mailboxes of other processes.
+     */
+    private boolean pollPendingReleases(long now) {
+        boolean released = false;
+        for (Map.Entry<Long, PendingRelease> entry : pendingReleases.entrySet()) {
+            PendingRelease pendingRelease = entry.getValue();
+            if (pendingRelease.request.isCompleted()) {
+                // Only close the request when it has not been replaced or removed concurrently
+                if (pendingReleases.remove(entry.getKey(), pendingRelease)) {
+                    LOGGER.debug("Lock release confirmed through mailbox for lock with id {}.", entry.getKey());
+                    pendingRelease.request.close();
+                    if (pendingRelease.signal != null) {
+                        pendingRelease.signal.trigger();
+                    }
+                    released = true;
+                }
+            } else if (now - pendingRelease.requestedAt > RELEASE_REQUEST_TIMEOUT_NANOS) {
+                if (pendingReleases.remove(entry.getKey(), pendingRelease)) {
+                    pendingRelease.request.close();
+                }
+            }
+        }
+        return released;
+    }
+
+    private void startMailboxListener() {
+        if (mailboxListener == null) {
+            mailboxListener = executorFactory.create("File lock mailbox listener");
+            mailboxListener.execute(this::pollMailboxes);
+        } else {
+            wakeUpMailboxListener();
+        }
+    }
+
+    private void wakeUpMailboxListener() {
+        Thread thread = mailboxListenerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
     private void startLockReleaseAsLockHolder(ContendedAction contendedAction) {
         contendedAction.running = true;
         unlockActionExecutor.execute(contendedAction);
@@ -169,6 +328,7 @@ public void start(long lockId, Action<FileLockReleasedSignal> whenContended) {
             lockReleasedSignals.remove(lockId);
             unlocksRequestedFrom.remove(lockId);
             unlocksConfirmedFrom.remove(lockId);
+            removePendingRelease(lockId);
             assertNotStopped();
             if (communicator == null) {
                 throw new IllegalStateException("Must initialize the handler by reserving the port first.");
@@ -184,6 +344,10 @@ public void start(long lockId, Action<FileLockReleasedSignal> whenContended) {
                 throw new UnsupportedOperationException("Multiple contention actions for a given lock are currently not supported.");
             }
             contendedActions.put(lockId, new ContendedAction(lockId, whenContended));
+            holdingLocks = true;
+            if (mailbox != null) {
+                startMailboxListener();
+            }
         } finally {
             lock.unlock();
         }
@@ -200,7 +364,7 @@ public boolean maybePingOwner(int port, long lockId, String displayName, long ti
             return false;
         }
 
-        boolean pingSentSuccessfully = getCommunicator().pingOwner(port, lockId, displayName);
+        boolean pingSentSuccessfully = requestReleaseThroughMailbox(port, lockId, signal) || getCommunicator().pingOwner(port, lockId, displayName);
         if (pingSentSuccessfully) {
             lock.lock();
             try {
@@ -213,6 +377,54 @@ public boolean maybePingOwner(int port, long lockId, String displayName, long ti
         return pingSentSuccessfully;
     }
 
+    /**
+     * Asks the owner to release the lock through its mailbox, unless this was already tried for the owner.
+     */
+    private boolean requestReleaseThroughMailbox(int port, long lockId, @Nullable FileLockReleasedSignal signal) {
+        if (mailbox == null) {
+            // Without a mailbox of its own, this process did not verify that the mailbox directory can be trusted
+            return false;
+        }
+        lock.lock();
+        try {
+            PendingRelease pendingRelease = pendingReleases.get(lockId);
+            if (stopped || (pendingRelease != null && pendingRelease.port == port)) {
+                // The owner did not confirm the request in time, fall back to pinging it
+                return false;
+            }
+            FileLockMailbox ownerMailbox = FileLockMailbox.open(mailboxFile(port));
+            if (ownerMailbox == null) {
+                return false;
+            }
+            FileLockMailbox.ReleaseRequest request = ownerMailbox.requestRelease(lockId);
+            if (request == null) {
+                ownerMailbox.close();
+                return false;
+            }
+            removePendingRelease(lockId);
+            pendingReleases.put(lockId, new PendingRelease(port, request, signal, System.nanoTime()));
+            startMailboxListener();
+            LOGGER.debug("Requested release of lock with id {} through mailbox of Gradle process at port {}.", lockId, port);
+            return true;
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not request release of lock with id {} through mailbox of Gradle process at port {}.", lockId, port, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removePendingRelease(long lockId) {
+        PendingRelease pendingRelease = pendingReleases.remove(lockId);
+        if (pendingRelease != null) {
+            pendingRelease.request.close();
+        }
+    }
+
+    private File mailboxFile(int port) {
+        return new File(mailboxDirectory, port + ".mailbox");
+    }
+
     private void assertNotStopped() {
         if (stopped) {
             throw new IllegalStateException(
@@ -225,6 +437,10 @@ public void stop(long lockId) {
         lock.lock();
         try {
             contendedActions.remove(lockId);
+            holdingLocks = !contendedActions.isEmpty();
+            if (mailbox != null) {
+                mailbox.free(lockId);
+            }
         } finally {
             lock.unlock();
         }
@@ -236,6 +452,7 @@ public void stop() {
         try {
             stopped = true;
             contendedActions.clear();
+            holdingLocks = false;
             if (communicator != null) {
                 communicator.stop();
             }
@@ -245,9 +462,25 @@ public void stop() {
         if (fileLockRequestListener != null) {
             fileLockRequestListener.stop();
         }
+        if (mailboxListener != null) {
+            wakeUpMailboxListener();
+            mailboxListener.stop();
+        }
         if (unlockActionExecutor != null) {
             unlockActionExecutor.stop();
         }
+        lock.lock();
+        try {
+            for (Long lockId : pendingReleases.keySet()) {
+                removePendingRelease(lockId);
+            }
+            if (mailbox != null) {
+                mailbox.delete();
+                mailbox = null;
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -261,6 +494,9 @@ private FileLockCommunicator getCommunicator() {
             assertNotStopped();
             if (communicator == null) {
                 communicator = new FileLockCommunicator(addressFactory);
+                if (mailboxDirectory != null) {
+                    createMailbox(communicator.getPort());
+                }
             }
             return communicator;
         } finally {
@@ -268,6 +504,29 @@ private FileLockCommunicator getCommunicator() {
         }
     }
 
+    private void createMailbox(int port) {
+        try {
+            mailbox = FileLockMailbox.create(mailboxFile(port));
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not create file lock mailbox for port {}. Only listening for lock access requests on the port.", port, e);
+        }
+    }
+
+    private static class PendingRelease {
+        private final int port;
+        private final FileLockMailbox.ReleaseRequest request;
+        @Nullable
+        private final FileLockReleasedSignal signal;
+        private final long requestedAt;
+
+        private PendingRelease(int port, FileLockMailbox.ReleaseRequest request, @Nullable FileLockReleasedSignal signal, long requestedAt) {
+            this.port = port;
+            this.request = request;
+            this.signal = signal;
+            this.requestedAt = requestedAt;
+        }
+    }
+
     private class ContendedAction implements Runnable {
         private final Lock lock = new ReentrantLock();
         private final long lockId;
@@ -290,6 +549,10 @@ public void trigger() {
                         throw new IllegalStateException("trigger() has already been called and must at most be called once");
                     }
                     communicator.confirmLockRelease(requesters, lockId);
+                    FileLockMailbox mailbox = DefaultFileLockContentionHandler.this.mailbox;
+                    if (mailbox != null) {
+                        mailbox.confirmRelease(lockId);
+                    }
                 }
             });
         }
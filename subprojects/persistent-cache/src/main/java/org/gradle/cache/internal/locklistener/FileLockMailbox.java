@@ -0,0 +1,297 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.locklistener;
+
+import org.gradle.api.UncheckedIOException;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A memory-mapped file through which other processes ask the owning process to release its locks.
+ *
+ * <p>
+ * The file holds a fixed number of slots of the form {@code lockId, requestCount, releaseCount}. A process requesting the release
+ * of a lock increments the request count of the slot for the lock, claiming a free slot if there is none yet. The owning process
+ * polls the request counts, and increments the release count of the slot once it has released the lock. The requesting process
+ * polls the release count in turn. Both counts only ever increase, so that a slot can be reused for another lock without
+ * either side missing an update. Updates to the slots are made while holding a lock on the file.
+ * </p>
+ *
+ * <p>
+ * Only the current user can access the mailboxes, as the directory and the files are created with owner-only permissions.
+ * </p>
+ */
+class FileLockMailbox {
+    static final int SLOT_COUNT = 64;
+    private static final int MAGIC = 0x474c4d42;
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 16;
+    private static final int SIZE = HEADER_SIZE + SLOT_COUNT * SLOT_SIZE;
+    private static final long FREE_SLOT = 0;
+    // File locks are held on behalf of the whole JVM, so updates from the same JVM must not overlap
+    private static final Object UPDATE_LOCK = new Object();
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private FileLockMailbox(File file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates the mailbox of this process, replacing any mailbox left behind by a process that used the same file before.
+     *
+     * Fails when the directory of the mailbox is not owned by the current user.
+     */
+    static FileLockMailbox create(File file) {
+        try {
+            createPrivateDirectory(file.getParentFile().toPath());
+            Files.deleteIfExists(file.toPath());
+            FileChannel channel = FileChannel.open(
+                file.toPath(),
+                EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE_PERMISSIONS)
+            );
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+                buffer.putInt(4, SLOT_COUNT);
+                // Write the magic number last, so that other processes only use the mailbox once it is initialized
+                buffer.putInt(0, MAGIC);
+                return new FileLockMailbox(file, channel, buffer);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not create lock mailbox %s.", file), e);
+        }
+    }
+
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory.getParent());
+        try {
+            Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY_PERMISSIONS));
+        } catch (FileAlreadyExistsException e) {
+            // Check the existing directory below
+        }
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(String.format("Lock mailbox directory %s is not a directory.", directory));
+        }
+        UserPrincipal owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal currentUser = directory.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(currentUser)) {
+            throw new IOException(String.format("Lock mailbox directory %s is owned by %s instead of the current user %s.", directory, owner.getName(), currentUser.getName()));
+        }
+        if (!Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(OWNER_ONLY_DIRECTORY_PERMISSIONS)) {
+            Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY_PERMISSIONS);
+        }
+    }
+
+    /**
+     * Opens the mailbox of another process.
+     *
+     * @return the mailbox, or {@code null} when the process does not have a valid mailbox.
+     */
+    @Nullable
+    static FileLockMailbox open(File file) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not open lock mailbox %s.", file), e);
+        }
+        try {
+            if (channel.size() < SIZE) {
+                channel.close();
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != SLOT_COUNT) {
+                channel.close();
+                return null;
+            }
+            return new FileLockMailbox(file, channel, buffer);
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+            throw new UncheckedIOException(String.format("Could not open lock mailbox %s.", file), e);
+        }
+    }
+
+    /**
+     * Asks the owner of the mailbox to release the given lock.
+     *
+     * @return the request, or {@code null} when all slots are in use.
+     */
+    @Nullable
+    ReleaseRequest requestRelease(long lockId) {
+        synchronized (UPDATE_LOCK) {
+            try (FileLock ignored = channel.lock()) {
+                int slot = slotOf(lockId);
+                if (slot < 0) {
+                    slot = slotOf(FREE_SLOT);
+                    if (slot < 0) {
+                        return null;
+                    }
+                    buffer.putLong(offsetOf(slot), lockId);
+                }
+                int requestCountOffset = offsetOf(slot) + 8;
+                buffer.putInt(requestCountOffset, buffer.getInt(requestCountOffset) + 1);
+                return new ReleaseRequest(slot, lockId, releaseCountAt(slot));
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Could not request lock release through %s.", file), e);
+            }
+        }
+    }
+
+    /**
+     * Signals the processes waiting for the given lock that it has been released.
+     */
+    void confirmRelease(long lockId) {
+        synchronized (UPDATE_LOCK) {
+            try (FileLock ignored = channel.lock()) {
+                for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                    if (lockIdAt(slot) == lockId) {
+                        int releaseCountOffset = offsetOf(slot) + 12;
+                        buffer.putInt(releaseCountOffset, buffer.getInt(releaseCountOffset) + 1);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Could not confirm lock release through %s.", file), e);
+            }
+        }
+    }
+
+    /**
+     * Frees the slots used for the given lock, which makes processes waiting on them retry acquiring the lock.
+     */
+    void free(long lockId) {
+        synchronized (UPDATE_LOCK) {
+            try (FileLock ignored = channel.lock()) {
+                for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                    if (lockIdAt(slot) == lockId) {
+                        buffer.putLong(offsetOf(slot), FREE_SLOT);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Could not update %s.", file), e);
+            }
+        }
+    }
+
+    long lockIdAt(int slot) {
+        return buffer.getLong(offsetOf(slot));
+    }
+
+    int requestCountAt(int slot) {
+        return buffer.getInt(offsetOf(slot) + 8);
+    }
+
+    int releaseCountAt(int slot) {
+        return buffer.getInt(offsetOf(slot) + 12);
+    }
+
+    private int slotOf(long lockId) {
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (lockIdAt(slot) == lockId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes and deletes the mailbox of this process.
+     */
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    /**
+     * A request for the release of a lock, which completes once the owner has released the lock or has freed the slot of the request.
+     */
+    class ReleaseRequest {
+        private final int slot;
+        private final long lockId;
+        private final int releaseCount;
+
+        private ReleaseRequest(int slot, long lockId, int releaseCount) {
+            this.slot = slot;
+            this.lockId = lockId;
+            this.releaseCount = releaseCount;
+        }
+
+        boolean isCompleted() {
+            return lockIdAt(slot) != lockId || releaseCountAt(slot) != releaseCount;
+        }
+
+        /**
+         * Closes the mailbox the request was made through.
+         */
+        void close() {
+            FileLockMailbox.this.close();
+        }
+    }
+}
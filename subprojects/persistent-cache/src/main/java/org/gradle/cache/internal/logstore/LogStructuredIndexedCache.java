@@ -0,0 +1,460 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.logstore;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.PersistentIndexedStore;
+import org.gradle.cache.internal.SerializedEntries;
+import org.gradle.internal.serialize.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * An indexed store that appends every update to a log file, instead of updating the entries in place.
+ *
+ * <p>
+ * The log starts with a header identifying its generation, followed by records of the form
+ * {@code keyLength, valueLength, key, value, checksum}, where a value length of {@code -1} marks a removed entry.
+ * The offset of the latest record for each key is kept in an in-memory {@link Index}. The index outlives the store,
+ * which is reopened every time the file lock of the cache is acquired, so that only the records appended in the meantime
+ * (possibly by other processes) need to be read. Before that, the store checks that the log still has the same generation
+ * and that the last record it indexed is still in place. Otherwise, the whole log is read again.
+ * </p>
+ *
+ * <p>
+ * Records that have been replaced or removed stay in the log until it is compacted. When the store is closed and most
+ * of the log is made up of such records, the live records are copied into a new log with a new generation,
+ * which then replaces the old log. As stores are only used while holding the file lock, no other process can use the
+ * log while it is being compacted.
+ * </p>
+ *
+ * <p>
+ * A record that is incomplete or has an invalid checksum, e.g. because a process crashed while appending to the log,
+ * is discarded together with all records following it. A log with an invalid header is discarded completely.
+ * Logs are never truncated in place, as other processes may have indexed them. Instead, the valid records are copied
+ * into a new log with a new generation, like when compacting.
+ * </p>
+ */
+public class LogStructuredIndexedCache<K, V> implements PersistentIndexedStore<K, V> {
+    public static final String LOG_STRUCTURED_STORE_SYSTEM_PROPERTY = "org.gradle.unsafe.cache.log-structured-store";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredIndexedCache.class);
+    private static final int MAGIC = 0x474c4f47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8; // magic, version, generation
+    private static final int RECORD_HEADER_SIZE = 4 + 4; // key length, value length
+    private static final int RECORD_TAIL_SIZE = 4; // checksum
+    private static final int REMOVED = -1;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File logFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Index index;
+    private FileChannel channel;
+
+    public LogStructuredIndexedCache(File logFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, Index index) {
+        this.logFile = logFile;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.index = index;
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    public static boolean isLogStructuredStoreEnabled() {
+        return Boolean.getBoolean(LOG_STRUCTURED_STORE_SYSTEM_PROPERTY);
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + logFile.getName() + " (" + logFile + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        logFile.getParentFile().mkdirs();
+        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = channel.size();
+        if (length == 0) {
+            startNewLog();
+            return;
+        }
+        Long generation = length >= HEADER_SIZE ? readGeneration() : null;
+        if (generation == null) {
+            LOGGER.warn("{} is corrupt. Discarding.", this);
+            index.reset(Index.NO_GENERATION);
+            rewriteLog();
+            return;
+        }
+        if (generation != index.generation || !isIndexedPartUnchanged(length)) {
+            index.reset(generation);
+        }
+        if (!readRecords(length)) {
+            rewriteLog();
+        }
+    }
+
+    /**
+     * Checks that the log still ends the indexed part with the last record indexed, so that reading can continue after it.
+     */
+    private boolean isIndexedPartUnchanged(long length) throws IOException {
+        if (length < index.indexedLength) {
+            return false;
+        }
+        if (index.indexedLength == HEADER_SIZE) {
+            return true;
+        }
+        return read(index.indexedLength - RECORD_TAIL_SIZE, RECORD_TAIL_SIZE).getInt() == index.lastChecksum;
+    }
+
+    @Nullable
+    private Long readGeneration() throws IOException {
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            return null;
+        }
+        return header.getLong();
+    }
+
+    private void startNewLog() throws IOException {
+        long generation = newGeneration(index.generation);
+        write(encodeHeader(generation), 0);
+        index.reset(generation);
+    }
+
+    private static long newGeneration(long previous) {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while (generation == previous || generation == Index.NO_GENERATION);
+        return generation;
+    }
+
+    /**
+     * Adds the records following the already indexed part of the log to the index.
+     *
+     * @return {@code false} when a corrupt record was found, which is left out together with the records following it.
+     */
+    private boolean readRecords(long length) throws IOException {
+        while (index.indexedLength < length) {
+            long pos = index.indexedLength;
+            Record record = readRecord(pos, length);
+            if (record == null) {
+                LOGGER.warn("{} contains a corrupt record at offset {}. Discarding the remainder of the log.", this, pos);
+                return false;
+            }
+            index.update(SerializedEntries.hashKey(record.key), pos, record.size(), record.value == null);
+            index.advance(record);
+        }
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        try {
+            byte[] serializedKey = SerializedEntries.serialize(keySerializer, key);
+            long pos = index.offsetOf(SerializedEntries.hashKey(serializedKey));
+            if (pos == Index.MISSING) {
+                return null;
+            }
+            Record record = readRecord(pos, index.indexedLength);
+            if (record == null || record.value == null) {
+                throw new IOException(String.format("Corrupt record found at offset %s.", pos));
+            }
+            if (!Arrays.equals(record.key, serializedKey)) {
+                // Another key with the same hash
+                return null;
+            }
+            return SerializedEntries.deserialize(valueSerializer, record.value);
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            append(SerializedEntries.serialize(keySerializer, key), SerializedEntries.serialize(valueSerializer, value));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            byte[] serializedKey = SerializedEntries.serialize(keySerializer, key);
+            if (index.offsetOf(SerializedEntries.hashKey(serializedKey)) != Index.MISSING) {
+                append(serializedKey, null);
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    private void append(byte[] key, @Nullable byte[] value) throws IOException {
+        Record record = new Record(key, value);
+        long pos = index.indexedLength;
+        write(record.encode(), pos);
+        index.update(SerializedEntries.hashKey(key), pos, record.size(), value == null);
+        index.advance(record);
+    }
+
+    @Nullable
+    private Record readRecord(long pos, long length) throws IOException {
+        if (pos + RECORD_HEADER_SIZE > length) {
+            return null;
+        }
+        ByteBuffer recordHeader = read(pos, RECORD_HEADER_SIZE);
+        int keyLength = recordHeader.getInt();
+        int valueLength = recordHeader.getInt();
+        if (keyLength < 0 || valueLength < REMOVED) {
+            return null;
+        }
+        long size = (long) RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0) + RECORD_TAIL_SIZE;
+        if (pos + size > length || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        ByteBuffer contents = read(pos + RECORD_HEADER_SIZE, (int) size - RECORD_HEADER_SIZE);
+        byte[] key = new byte[keyLength];
+        contents.get(key);
+        byte[] value = null;
+        if (valueLength != REMOVED) {
+            value = new byte[valueLength];
+            contents.get(value);
+        }
+        Record record = new Record(key, value);
+        if (contents.getInt() != record.checksum()) {
+            return null;
+        }
+        return record;
+    }
+
+    private ByteBuffer read(long pos, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new IOException(String.format("Unexpected end of %s.", this));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void write(ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, pos + buffer.position());
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        try {
+            try {
+                if (shouldCompact()) {
+                    LOGGER.debug("Compacting {}", this);
+                    rewriteLog();
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not compact {}.", this, e);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean shouldCompact() {
+        return index.indexedLength >= MIN_COMPACTION_SIZE && index.garbageBytes * 2 > index.indexedLength;
+    }
+
+    /**
+     * Copies the live records into a new log with a new generation, which then replaces this log.
+     * When this fails, the log is left as it is.
+     */
+    private void rewriteLog() throws IOException {
+        File rewrittenFile = new File(logFile.getPath() + ".compact");
+        long generation = newGeneration(index.generation);
+        Index rewrittenIndex = new Index();
+        rewrittenIndex.reset(generation);
+        try {
+            try (FileChannel rewritten = FileChannel.open(rewrittenFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                rewritten.write(encodeHeader(generation));
+                for (Long2LongMap.Entry entry : index.entries.long2LongEntrySet()) {
+                    long pos = Index.offsetOfEntry(entry.getLongValue());
+                    Record record = readRecord(pos, index.indexedLength);
+                    if (record == null) {
+                        throw new IOException(String.format("Corrupt record found at offset %s.", pos));
+                    }
+                    long rewrittenPos = rewrittenIndex.indexedLength;
+                    ByteBuffer encoded = record.encode();
+                    while (encoded.hasRemaining()) {
+                        rewritten.write(encoded);
+                    }
+                    rewrittenIndex.update(entry.getLongKey(), rewrittenPos, record.size(), false);
+                    rewrittenIndex.advance(record);
+                }
+            }
+            channel.close();
+            Files.move(rewrittenFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            rewrittenFile.delete();
+            throw e;
+        }
+        index.replaceWith(rewrittenIndex);
+        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static ByteBuffer encodeHeader(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        return header;
+    }
+
+    private static class Record {
+        final byte[] key;
+        @Nullable
+        final byte[] value;
+
+        Record(byte[] key, @Nullable byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        int size() {
+            return RECORD_HEADER_SIZE + key.length + (value == null ? 0 : value.length) + RECORD_TAIL_SIZE;
+        }
+
+        ByteBuffer encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(size());
+            buffer.putInt(key.length);
+            buffer.putInt(value == null ? REMOVED : value.length);
+            buffer.put(key);
+            if (value != null) {
+                buffer.put(value);
+            }
+            buffer.putInt(checksum());
+            buffer.flip();
+            return buffer;
+        }
+
+        int checksum() {
+            CRC32 crc = new CRC32();
+            crc.update(key, 0, key.length);
+            if (value != null) {
+                crc.update(value, 0, value.length);
+            }
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * The offsets and sizes of the live records of a log, keyed by the hash of their serialized keys.
+     * Kept in memory across opening and closing the store.
+     *
+     * Each entry packs the offset and the size of a record into a single {@code long}, so the index
+     * needs about 16 bytes per key. Sizes are only used to decide when to compact the log, so sizes
+     * larger than can be packed are truncated.
+     */
+    public static class Index {
+        private static final long NO_GENERATION = 0;
+        private static final long MISSING = -1;
+        private static final int SIZE_BITS = 24;
+        private static final long MAX_PACKED_SIZE = (1L << SIZE_BITS) - 1;
+
+        private final Long2LongOpenHashMap entries = new Long2LongOpenHashMap();
+        private long generation = NO_GENERATION;
+        private long indexedLength;
+        // The checksum of the record ending at indexedLength
+        private int lastChecksum;
+        private long garbageBytes;
+
+        public Index() {
+            entries.defaultReturnValue(MISSING);
+        }
+
+        private long offsetOf(long hash) {
+            long entry = entries.get(hash);
+            return entry == MISSING ? MISSING : offsetOfEntry(entry);
+        }
+
+        private static long offsetOfEntry(long entry) {
+            return entry >>> SIZE_BITS;
+        }
+
+        private static long sizeOfEntry(long entry) {
+            return entry & MAX_PACKED_SIZE;
+        }
+
+        private void reset(long generation) {
+            this.generation = generation;
+            entries.clear();
+            indexedLength = HEADER_SIZE;
+            lastChecksum = 0;
+            garbageBytes = 0;
+        }
+
+        private void advance(Record record) {
+            indexedLength += record.size();
+            lastChecksum = record.checksum();
+        }
+
+        private void update(long hash, long pos, long size, boolean removed) {
+            long previous = removed
+                ? entries.remove(hash)
+                : entries.put(hash, pos << SIZE_BITS | Math.min(size, MAX_PACKED_SIZE));
+            if (previous != MISSING) {
+                garbageBytes += sizeOfEntry(previous);
+            }
+            if (removed) {
+                garbageBytes += size;
+            }
+        }
+
+        private void replaceWith(Index other) {
+            entries.clear();
+            entries.putAll(other.entries);
+            generation = other.generation;
+            indexedLength = other.indexedLength;
+            lastChecksum = other.lastChecksum;
+            garbageBytes = other.garbageBytes;
+        }
+    }
+}
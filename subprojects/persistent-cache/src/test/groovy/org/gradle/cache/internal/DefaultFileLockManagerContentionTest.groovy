@@ -114,6 +114,43 @@ class DefaultFileLockManagerContentionTest extends ConcurrentSpec {
         }
     }
 
+    def "records statistics of contended lock"() {
+        given:
+        def collector = new FileLockStatistics.Collector()
+        def collector2 = new FileLockStatistics.Collector()
+        def metaDataProvider = Stub(ProcessMetaDataProvider) {
+            getProcessIdentifier() >> "123"
+        }
+        manager = new DefaultFileLockManager(metaDataProvider, 2000, contentionHandler, new LongIdGenerator(), collector)
+        manager2 = new DefaultFileLockManager(Stub(ProcessMetaDataProvider), 2000, contentionHandler2, new LongIdGenerator(), collector2)
+        def file = tmpDir.file("lock-file.bin")
+        FileLock lock
+        lock = createLock(Exclusive, file, manager) { FileLockReleasedSignal signal ->
+            lock.close()
+            signal.trigger()
+        }
+
+        when:
+        createLock(Exclusive, file, manager2).close()
+
+        then:
+        def holder = collector.collect()
+        holder.size() == 1
+        holder[0].lockDisplayName == "foo"
+        holder[0].acquireCount == 1
+        holder[0].contendedAcquireCount == 0
+        holder[0].releaseRequestCount == 1
+
+        def requester = collector2.collect()
+        requester.size() == 1
+        requester[0].acquireCount == 1
+        requester[0].contendedAcquireCount == 1
+        requester[0].lastContendingProcess == "pid 123 (operation)"
+
+        and:
+        collector2.collect().empty
+    }
+
     FileLock createLock(FileLockManager.LockMode lockMode, File file, FileLockManager lockManager = manager, Action<FileLockReleasedSignal> whenContended = null) {
         def lock = lockManager.lock(file, LockOptionsBuilder.mode(lockMode), "foo", "operation", whenContended)
         openedLocks << lock
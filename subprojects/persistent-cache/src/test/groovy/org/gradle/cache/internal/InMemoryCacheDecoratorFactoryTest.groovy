@@ -20,6 +20,7 @@ import org.gradle.cache.AsyncCacheAccess
 import org.gradle.cache.CrossProcessCacheAccess
 import org.gradle.cache.MultiProcessSafeIndexedCache
 import org.gradle.internal.Factory
+import org.gradle.internal.serialize.BaseSerializerFactory
 import spock.lang.Specification
 
 class InMemoryCacheDecoratorFactoryTest extends Specification {
@@ -27,10 +28,12 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
     def target = Mock(MultiProcessSafeIndexedCache)
     def asyncCacheAccess = Mock(AsyncCacheAccess)
     def crossProcessCacheAccess = Mock(CrossProcessCacheAccess)
+    def keySerializer = BaseSerializerFactory.STRING_SERIALIZER
+    def valueSerializer = BaseSerializerFactory.STRING_SERIALIZER
 
     def "caches result from backing cache and reuses for other instances with the same cache id"() {
         given:
-        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
 
         when:
         def result = cache.getIfPresent("key")
@@ -55,7 +58,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         0 * target._
 
         when:
-        def cache2 = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        def cache2 = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
         result = cache2.getIfPresent("key")
 
         then:
@@ -68,7 +71,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
 
     def "does not cache result when not long running process"() {
         given:
-        def cache = cacheFactory.decorator(100, false).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        def cache = cacheFactory.decorator(100, false).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
 
         when:
         def result = cache.getIfPresent("key")
@@ -97,7 +100,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
 
     def "caches null result from backing cache"() {
         given:
-        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
 
         when:
         def result = cache.getIfPresent("key")
@@ -126,7 +129,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         def lock = Mock(Runnable)
 
         given:
-        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
 
         when:
         def result = cache.getIfPresent("key")
@@ -165,7 +168,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         def lock = Mock(Runnable)
 
         given:
-        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
 
         when:
         def result = cache.getIfPresent("key")
@@ -200,4 +203,61 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         0 * target._
     }
 
+    def "reads entries evicted from the heap from the off-heap store"() {
+        def offHeapCacheFactory = new DefaultInMemoryCacheDecoratorFactory(false, new TestCrossBuildInMemoryCacheFactory(), 1024 * 1024)
+        def lock = Mock(Runnable)
+
+        given:
+        def cache = offHeapCacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        (0..<10000).each {
+            cache.put("key " + it, "value " + it)
+        }
+
+        then:
+        _ * crossProcessCacheAccess.acquireFileLock() >> lock
+        _ * asyncCacheAccess.enqueue(_) >> { Runnable action -> action.run() }
+        10000 * target.put(_, _)
+
+        when:
+        def result = cache.getIfPresent("key 0")
+
+        then:
+        result == "value 0"
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        0 * target._
+    }
+
+    def "keeps all entries on the heap for caches that get no off-heap memory"() {
+        def offHeapCacheFactory = new DefaultInMemoryCacheDecoratorFactory(false, new TestCrossBuildInMemoryCacheFactory(), OffHeapEntryStore.DEFAULT_SEGMENT_SIZE)
+        def entryCount = new HeapProportionalCacheSizer().scaleCacheSize(1000).intdiv(2) as int
+        def lock = Mock(Runnable)
+
+        given:
+        offHeapCacheFactory.decorator(1000, true).decorate("path/first.bin", "first", keySerializer, valueSerializer, Mock(MultiProcessSafeIndexedCache), crossProcessCacheAccess, asyncCacheAccess)
+        def cache = offHeapCacheFactory.decorator(1000, true).decorate("path/second.bin", "second", keySerializer, valueSerializer, target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        (0..<entryCount).each {
+            cache.put("key " + it, "value " + it)
+        }
+
+        then:
+        _ * crossProcessCacheAccess.acquireFileLock() >> lock
+        _ * asyncCacheAccess.enqueue(_) >> { Runnable action -> action.run() }
+        entryCount * target.put(_, _)
+
+        when:
+        def result = cache.getIfPresent("key 0")
+
+        then:
+        result == "value 0"
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        0 * target._
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class OffHeapEntryStoreTest extends Specification {
+    def store = new OffHeapEntryStore(4 * 1024, 1024)
+
+    def "stores, replaces and removes entries"() {
+        when:
+        store.put(bytes("a"), bytes("1"))
+        store.put(bytes("b"), bytes("2"))
+        store.put(bytes("a"), bytes("3"))
+
+        then:
+        string(store.get(bytes("a"))) == "3"
+        string(store.get(bytes("b"))) == "2"
+        store.get(bytes("c")) == null
+
+        when:
+        store.remove(bytes("a"))
+
+        then:
+        store.get(bytes("a")) == null
+        string(store.get(bytes("b"))) == "2"
+    }
+
+    def "evicts oldest entries once all memory is used"() {
+        def value = "x" * 200
+
+        when:
+        (0..<100).each {
+            store.put(bytes("key " + it), bytes(value + it))
+        }
+
+        then:
+        store.get(bytes("key 0")) == null
+        string(store.get(bytes("key 99"))) == value + 99
+        // Four segments holding four entries each, one of them being written to
+        store.size() <= 16
+        store.size() >= 12
+        (0..<100).every {
+            def stored = store.get(bytes("key " + it))
+            stored == null || string(stored) == value + it
+        }
+    }
+
+    def "does not keep entries larger than a segment"() {
+        given:
+        store.put(bytes("a"), bytes("1"))
+
+        when:
+        store.put(bytes("a"), bytes("x" * 2000))
+
+        then:
+        store.get(bytes("a")) == null
+    }
+
+    def "can reuse memory after clearing"() {
+        given:
+        (0..<100).each {
+            store.put(bytes("key " + it), bytes("value " + it))
+        }
+
+        when:
+        store.clear()
+
+        then:
+        store.size() == 0
+        store.get(bytes("key 99")) == null
+
+        when:
+        (0..<100).each {
+            store.put(bytes("key " + it), bytes("other " + it))
+        }
+
+        then:
+        string(store.get(bytes("key 99"))) == "other 99"
+    }
+
+    def "shares memory budget with other stores"() {
+        def budget = new OffHeapMemoryBudget(2 * 1024)
+        def first = new OffHeapEntryStore(budget, 1024)
+        def second = new OffHeapEntryStore(budget, 1024)
+        def third = new OffHeapEntryStore(budget, 1024)
+        def value = "x" * 200
+
+        when:
+        (0..<4).each {
+            first.put(bytes("key " + it), bytes(value + it))
+        }
+        second.put(bytes("a"), bytes("1"))
+        third.put(bytes("a"), bytes("1"))
+        (4..<10).each {
+            first.put(bytes("key " + it), bytes(value + it))
+        }
+
+        then:
+        budget.reservedBytes == 2 * 1024
+        // The first store keeps reusing its one segment
+        first.get(bytes("key 0")) == null
+        string(first.get(bytes("key 9"))) == value + 9
+        string(second.get(bytes("a"))) == "1"
+        // The third store gets no memory, its entries stay on the heap only
+        third.get(bytes("a")) == null
+        third.size() == 0
+    }
+
+    def "can allocate memory up front"() {
+        def budget = new OffHeapMemoryBudget(1024)
+        def first = new OffHeapEntryStore(budget, 1024)
+        def second = new OffHeapEntryStore(budget, 1024)
+
+        expect:
+        first.canStore()
+        second.canStore()
+        first.isEmpty()
+
+        when:
+        def firstAllocated = first.allocateSegment()
+        def secondAllocated = second.allocateSegment()
+        first.put(bytes("a"), bytes("1"))
+
+        then:
+        firstAllocated
+        !secondAllocated
+        budget.reservedBytes == 1024
+        string(first.get(bytes("a"))) == "1"
+        !first.isEmpty()
+        first.canStore()
+        !second.canStore()
+    }
+
+    private static byte[] bytes(String value) {
+        value.getBytes(StandardCharsets.UTF_8)
+    }
+
+    private static String string(byte[] bytes) {
+        new String(bytes, StandardCharsets.UTF_8)
+    }
+}
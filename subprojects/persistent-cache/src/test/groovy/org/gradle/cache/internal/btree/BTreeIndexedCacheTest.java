@@ -53,8 +53,12 @@ public void setup() {
         cacheFile = tmpDir.file("cache.bin");
     }
 
+    protected boolean mappedReads() {
+        return false;
+    }
+
     private void createCache() {
-        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100);
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, mappedReads());
     }
 
     private void verifyAndCloseCache() {
@@ -99,7 +103,7 @@ public void persistsUpdates() {
 
     @Test
     public void handlesUpdatesWhenBlockSizeDecreases() {
-        BTreePersistentIndexedCache<String, List<Integer>> cache = new BTreePersistentIndexedCache<String, List<Integer>>(tmpDir.file("listcache.bin"), stringSerializer, new DefaultSerializer<List<Integer>>(), (short) 4, 100);
+        BTreePersistentIndexedCache<String, List<Integer>> cache = new BTreePersistentIndexedCache<String, List<Integer>>(tmpDir.file("listcache.bin"), stringSerializer, new DefaultSerializer<List<Integer>>(), (short) 4, 100, mappedReads());
 
         List<Integer> values = Arrays.asList(3, 2, 11, 5, 7, 1, 10, 8, 9, 4, 6, 0);
         Map<Integer, List<Integer>> updated = new LinkedHashMap<Integer, List<Integer>>();
@@ -135,7 +139,7 @@ private void checkListEntries(BTreePersistentIndexedCache<String, List<Integer>>
 
     @Test
     public void handlesUpdatesWhenBlockSizeIncreases() {
-        BTreePersistentIndexedCache<String, List<Integer>> cache = new BTreePersistentIndexedCache<String, List<Integer>>(tmpDir.file("listcache.bin"), stringSerializer, new DefaultSerializer<List<Integer>>(), (short) 4, 100);
+        BTreePersistentIndexedCache<String, List<Integer>> cache = new BTreePersistentIndexedCache<String, List<Integer>>(tmpDir.file("listcache.bin"), stringSerializer, new DefaultSerializer<List<Integer>>(), (short) 4, 100, mappedReads());
 
         List<Integer> values = Arrays.asList(3, 2, 11, 5, 7, 1, 10, 8, 9, 4, 6, 0);
         Map<Integer, List<Integer>> updated = new LinkedHashMap<Integer, List<Integer>>();
@@ -206,7 +210,7 @@ public void persistsReplacedEntries() {
 
     @Test
     public void reusesEmptySpaceWhenPuttingEntries() {
-        BTreePersistentIndexedCache<String, String> cache = new BTreePersistentIndexedCache<String, String>(cacheFile, stringSerializer, stringSerializer, (short) 4, 100);
+        BTreePersistentIndexedCache<String, String> cache = new BTreePersistentIndexedCache<String, String>(cacheFile, stringSerializer, stringSerializer, (short) 4, 100, mappedReads());
 
         cache.put("key_1", "abcd");
         cache.put("key_2", "abcd");
@@ -326,7 +330,7 @@ public void handlesOpeningACacheFileThatIsBadlyFormed() throws IOException {
         cacheFile.createNewFile();
         cacheFile.write("some junk");
 
-        BTreePersistentIndexedCache<String, Integer> cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer);
+        BTreePersistentIndexedCache<String, Integer> cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 512, 512, mappedReads());
 
         assertNull(cache.get("key_1"));
         cache.put("key_1", 99);
@@ -341,7 +345,7 @@ public void handlesOpeningACacheFileThatIsBadlyFormed() throws IOException {
 
     @Test
     public void handlesOpeningATruncatedCacheFile() throws IOException {
-        BTreePersistentIndexedCache<String, Integer> cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer);
+        BTreePersistentIndexedCache<String, Integer> cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 512, 512, mappedReads());
 
         assertNull(cache.get("key_1"));
         cache.put("key_1", 99);
@@ -360,7 +364,7 @@ public void handlesOpeningATruncatedCacheFile() throws IOException {
 
     @Test
     public void canUseFileAsKey() {
-        BTreePersistentIndexedCache<File, Integer> cache = new BTreePersistentIndexedCache<File, Integer>(cacheFile, new DefaultSerializer<File>(), integerSerializer);
+        BTreePersistentIndexedCache<File, Integer> cache = new BTreePersistentIndexedCache<File, Integer>(cacheFile, new DefaultSerializer<File>(), integerSerializer, (short) 512, 512, mappedReads());
 
         cache.put(new File("file"), 1);
         cache.put(new File("dir/file"), 2);
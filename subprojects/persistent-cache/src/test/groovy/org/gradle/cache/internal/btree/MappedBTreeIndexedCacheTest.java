@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.gradle.internal.os.OperatingSystem;
+import org.gradle.internal.serialize.DefaultSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Runs the same tests as {@link BTreeIndexedCacheTest}, reading entries through a memory mapping of the cache file.
+ */
+public class MappedBTreeIndexedCacheTest extends BTreeIndexedCacheTest {
+
+    @Before
+    public void assumeMappingSupported() {
+        assumeFalse(OperatingSystem.current().isWindows());
+    }
+
+    @Override
+    protected boolean mappedReads() {
+        return true;
+    }
+
+    @Test
+    public void readsEntriesThroughMappingAfterReopen() {
+        BTreePersistentIndexedCache<String, Integer> cache = new BTreePersistentIndexedCache<String, Integer>(tmpDir.file("reopen.bin"), new DefaultSerializer<String>(), new DefaultSerializer<Integer>(), (short) 4, 100, true);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key_" + i, i);
+        }
+        cache.close();
+
+        cache = new BTreePersistentIndexedCache<String, Integer>(tmpDir.file("reopen.bin"), new DefaultSerializer<String>(), new DefaultSerializer<Integer>(), (short) 4, 100, true);
+        for (int i = 0; i < 100; i++) {
+            assertThat(cache.get("key_" + i), equalTo(i));
+        }
+        cache.verify();
+        cache.close();
+    }
+}
@@ -19,13 +19,17 @@ package org.gradle.cache.internal.locklistener
 import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.concurrent.ManagedExecutor
 import org.gradle.internal.remote.internal.inet.InetAddressFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.util.ConcurrentSpecification
+import org.junit.Rule
 
 import java.util.concurrent.atomic.AtomicBoolean
 
 import static org.gradle.test.fixtures.ConcurrentTestUtil.poll
 
 class DefaultFileLockContentionHandlerTest extends ConcurrentSpecification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
     def addressFactory = new InetAddressFactory()
     def handler = new DefaultFileLockContentionHandler(executorFactory, addressFactory)
     def client = new DefaultFileLockContentionHandler(executorFactory, addressFactory)
@@ -206,4 +210,88 @@ class DefaultFileLockContentionHandlerTest extends ConcurrentSpecification {
         then:
         noExceptionThrown()
     }
+
+    def "client receives signal when lock is released through mailbox"() {
+        def mailboxes = tmpDir.file("mailboxes")
+        handler = new DefaultFileLockContentionHandler(executorFactory, addressFactory, mailboxes)
+        client = new DefaultFileLockContentionHandler(executorFactory, addressFactory, mailboxes)
+        def signaled = new AtomicBoolean()
+
+        when:
+        int port = handler.reservePort()
+        handler.start(10) { signal ->
+            signal.trigger()
+        }
+
+        client.reservePort()
+        client.maybePingOwner(port, 10, "lock 1", 50000) {
+            signaled.set(true)
+        }
+
+        then:
+        mailboxes.file("${port}.mailbox").exists()
+        poll {
+            assert signaled.get()
+        }
+    }
+
+    def "resumes polling the mailbox when a lock is held again"() {
+        def mailboxes = tmpDir.file("mailboxes")
+        handler = new DefaultFileLockContentionHandler(executorFactory, addressFactory, mailboxes)
+        client = new DefaultFileLockContentionHandler(executorFactory, addressFactory, mailboxes)
+        def signaled = new AtomicBoolean()
+
+        when:
+        int port = handler.reservePort()
+        handler.start(10) { signal -> }
+        handler.stop(10)
+        Thread.sleep(100)
+        handler.start(11) { signal ->
+            signal.trigger()
+        }
+
+        client.reservePort()
+        client.maybePingOwner(port, 11, "lock 2", 50000) {
+            signaled.set(true)
+        }
+
+        then:
+        poll {
+            assert signaled.get()
+        }
+    }
+
+    def "requests release through socket when owner has no mailbox"() {
+        client = new DefaultFileLockContentionHandler(executorFactory, addressFactory, tmpDir.file("mailboxes"))
+        def action = new AtomicBoolean()
+
+        when:
+        int port = handler.reservePort()
+        handler.start(10, { action.set(true) })
+
+        client.reservePort()
+        client.maybePingOwner(port, 10, "lock 1", 50000, null)
+
+        then:
+        poll {
+            assert action.get()
+        }
+    }
+
+    def "deletes mailbox when stopped"() {
+        def mailboxes = tmpDir.file("mailboxes")
+        handler = new DefaultFileLockContentionHandler(executorFactory, addressFactory, mailboxes)
+
+        when:
+        int port = handler.reservePort()
+
+        then:
+        mailboxes.file("${port}.mailbox").exists()
+
+        when:
+        handler.stop()
+
+        then:
+        !mailboxes.file("${port}.mailbox").exists()
+    }
 }
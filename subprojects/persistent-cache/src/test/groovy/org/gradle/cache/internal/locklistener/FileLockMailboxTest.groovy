@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.locklistener
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.test.precondition.Requires
+import org.gradle.test.preconditions.UnitTestPreconditions
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+
+class FileLockMailboxTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def file = tmpDir.file("1234.mailbox")
+    def owner = FileLockMailbox.create(file)
+    def requester = FileLockMailbox.open(file)
+
+    def cleanup() {
+        requester?.close()
+        owner?.delete()
+    }
+
+    @Requires(UnitTestPreconditions.UnixDerivative)
+    def "only the current user can access the mailboxes"() {
+        def directory = tmpDir.createDir("mailboxes")
+        Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"))
+
+        when:
+        def mailbox = FileLockMailbox.create(directory.file("1.mailbox"))
+
+        then:
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.toPath())) == "rwx------"
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.file("1.mailbox").toPath())) == "rw-------"
+
+        cleanup:
+        mailbox?.delete()
+    }
+
+    def "owner sees requests and requester sees releases"() {
+        when:
+        def request = requester.requestRelease(10)
+        def slot = (0..<FileLockMailbox.SLOT_COUNT).find { owner.lockIdAt(it) == 10 }
+
+        then:
+        slot != null
+        owner.requestCountAt(slot) == 1
+        !request.isCompleted()
+
+        when:
+        requester.requestRelease(10)
+
+        then:
+        owner.requestCountAt(slot) == 2
+        (0..<FileLockMailbox.SLOT_COUNT).count { owner.lockIdAt(it) == 10 } == 1
+
+        when:
+        owner.confirmRelease(10)
+
+        then:
+        request.isCompleted()
+    }
+
+    def "request completes when owner frees the slot"() {
+        def request = requester.requestRelease(10)
+        def other = requester.requestRelease(11)
+
+        when:
+        owner.free(10)
+
+        then:
+        request.isCompleted()
+        !other.isCompleted()
+    }
+
+    def "cannot request release when all slots are in use"() {
+        given:
+        (1..FileLockMailbox.SLOT_COUNT).each {
+            assert requester.requestRelease(it) != null
+        }
+
+        expect:
+        requester.requestRelease(FileLockMailbox.SLOT_COUNT + 1) == null
+        requester.requestRelease(1) != null
+    }
+
+    def "does not open missing or invalid mailbox"() {
+        expect:
+        FileLockMailbox.open(tmpDir.file("missing.mailbox")) == null
+
+        when:
+        def invalid = tmpDir.file("invalid.mailbox")
+        invalid.bytes = new byte[2048]
+
+        then:
+        FileLockMailbox.open(invalid) == null
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.logstore
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class LogStructuredIndexedCacheTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def logFile = tmpDir.file("cache.log.bin")
+    def index = new LogStructuredIndexedCache.Index()
+
+    def "persists added, updated and removed entries"() {
+        def cache = createCache()
+
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.put("a", "3")
+        cache.remove("b")
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == null
+        cache.get("c") == null
+
+        when:
+        cache.close()
+        cache = createCache(new LogStructuredIndexedCache.Index())
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == null
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "picks up entries appended by another store"() {
+        def cache = createCache()
+        cache.put("a", "1")
+        cache.close()
+
+        def otherIndex = new LogStructuredIndexedCache.Index()
+        def other = createCache(otherIndex)
+        other.put("b", "2")
+        other.remove("a")
+        other.close()
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "discards incomplete record at the end of the log"() {
+        def cache = createCache()
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.close()
+        def raf = new RandomAccessFile(logFile, "rw")
+        raf.setLength(raf.length() - 2)
+        raf.close()
+
+        when:
+        cache = createCache(new LogStructuredIndexedCache.Index())
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+
+        when:
+        cache.put("c", "3")
+        cache.close()
+        cache = createCache(new LogStructuredIndexedCache.Index())
+
+        then:
+        cache.get("a") == "1"
+        cache.get("c") == "3"
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "reads the whole log again when another process rewrote the part already indexed"() {
+        def cache = createCache()
+        cache.put("a", "1")
+        cache.close()
+        def lengthWithA = logFile.length()
+        cache = createCache()
+        cache.put("b", "2")
+        cache.close()
+
+        and:
+        // Simulate another process that discarded the last record and then appended a longer one
+        def raf = new RandomAccessFile(logFile, "rw")
+        raf.setLength(lengthWithA)
+        raf.close()
+        def other = createCache(new LogStructuredIndexedCache.Index())
+        other.put("c", "a value that is longer than the discarded record")
+        other.close()
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+        cache.get("c") == "a value that is longer than the discarded record"
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "replaces the log with a new generation instead of truncating it when discarding records"() {
+        def cache = createCache()
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.close()
+        def oldIndex = new LogStructuredIndexedCache.Index()
+        createCache(oldIndex).close()
+        def generationBefore = generation()
+        def raf = new RandomAccessFile(logFile, "rw")
+        raf.setLength(raf.length() - 2)
+        raf.close()
+
+        when:
+        cache = createCache(new LogStructuredIndexedCache.Index())
+        cache.put("c", "3")
+        cache.close()
+
+        then:
+        generation() != generationBefore
+
+        when:
+        cache = createCache(oldIndex)
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+        cache.get("c") == "3"
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "discards log with invalid header"() {
+        logFile.text = "some junk that is not a log"
+
+        when:
+        def cache = createCache()
+        cache.put("a", "1")
+
+        then:
+        cache.get("a") == "1"
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "compacts log when most of it is garbage"() {
+        def cache = createCache()
+        def value = "x" * 1024
+        (0..<2048).each {
+            cache.put("key", value + it)
+        }
+        cache.put("other", "value")
+
+        when:
+        def lengthBefore = logFile.length()
+        cache.close()
+
+        then:
+        logFile.length() < lengthBefore / 100
+        !tmpDir.file("cache.log.bin.compact").exists()
+
+        when:
+        cache = createCache()
+        def reopened = createCache(new LogStructuredIndexedCache.Index())
+
+        then:
+        cache.get("key") == value + 2047
+        cache.get("other") == "value"
+        reopened.get("key") == value + 2047
+
+        cleanup:
+        reopened?.close()
+        cache?.close()
+    }
+
+    private long generation() {
+        def input = new DataInputStream(new FileInputStream(logFile))
+        try {
+            input.skipBytes(8)
+            return input.readLong()
+        } finally {
+            input.close()
+        }
+    }
+
+    private LogStructuredIndexedCache<String, String> createCache(LogStructuredIndexedCache.Index index = this.index) {
+        new LogStructuredIndexedCache<String, String>(logFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER, index)
+    }
+}
@@ -122,6 +122,29 @@ private boolean freeSpecificMemory(OsMemoryStatusAspect status, long memoryAmoun
         return newFreeMemory > freeMemory;
     }
 
+    @Override
+    public boolean isFreeMemoryAvailable(long memoryAmountBytes) {
+        if (!osMemoryStatusSupported) {
+            return false;
+        }
+        OsMemoryStatus os;
+        try {
+            os = osMemoryInfo.getOsSnapshot();
+        } catch (UnsupportedOperationException ex) {
+            return false;
+        }
+        return isFreeMemoryAvailable(os.getPhysicalMemory(), memoryAmountBytes) && isFreeMemoryAvailable(os.getVirtualMemory(), memoryAmountBytes);
+    }
+
+    private boolean isFreeMemoryAvailable(OsMemoryStatusAspect status, long memoryAmountBytes) {
+        if (status instanceof OsMemoryStatusAspect.Unavailable) {
+            return true;
+        }
+        long totalMemory = ((OsMemoryStatusAspect.Available) status).getTotal();
+        long freeMemory = ((OsMemoryStatusAspect.Available) status).getFree();
+        return freeMemory >= getMemoryThresholdInBytes(totalMemory) + (memoryAmountBytes > 0 ? memoryAmountBytes : 0);
+    }
+
     private long doRequestFreeMemory(String name, long requestedFreeMemory, long freeMemory) {
         long toReleaseMemory = requestedFreeMemory;
         if (freeMemory < requestedFreeMemory) {
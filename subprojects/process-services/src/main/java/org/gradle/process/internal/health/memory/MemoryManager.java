@@ -49,4 +49,14 @@ public interface MemoryManager {
      * @param memoryAmountBytes The requested amount of memory in bytes. If negative, {@literal 0} is assumed.
      */
     void requestFreeMemory(long memoryAmountBytes);
+
+    /**
+     * Returns whether {@literal memoryAmountBytes} of system memory can be used without going under the free memory threshold,
+     * that is, without having to release memory from the registered memory holders.
+     *
+     * Returns {@literal false} when the free system memory cannot be determined.
+     *
+     * @param memoryAmountBytes The amount of memory in bytes. If negative, {@literal 0} is assumed.
+     */
+    boolean isFreeMemoryAvailable(long memoryAmountBytes);
 }
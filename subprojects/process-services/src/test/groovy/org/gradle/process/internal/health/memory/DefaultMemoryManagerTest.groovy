@@ -90,6 +90,20 @@ class DefaultMemoryManagerTest extends ConcurrentSpec {
         memoryManager.stop()
     }
 
+    def "free memory is available while using it keeps free system memory above threshold"() {
+        given:
+        osMemoryInfo.freeMemory = MemoryAmount.of('4g').bytes
+        def memoryManager = newMemoryManager()
+
+        expect:
+        memoryManager.isFreeMemoryAvailable(0)
+        memoryManager.isFreeMemoryAvailable(MemoryAmount.of('2g').bytes)
+        !memoryManager.isFreeMemoryAvailable(MemoryAmount.of('3g').bytes)
+
+        cleanup:
+        memoryManager.stop()
+    }
+
     def "loop over all memory holders when claiming more memory than releasable"() {
         given:
         osMemoryInfo.freeMemory =  MemoryAmount.of(1).bytes
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interners;
+import org.apache.commons.io.FileUtils;
+import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.DefaultStreamHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares snapshotting a large directory tree while walking it with hashing its files concurrently before walking it.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class DirectorySnapshotterBenchmark {
+    private static final int FILES_PER_DIRECTORY = 20;
+
+    @Param({"1", "4", "8"})
+    int parallelism;
+
+    @Param({"1000", "10000"})
+    int directoryCount;
+
+    Path root;
+    DirectorySnapshotterPool pool;
+    DirectorySnapshotter snapshotter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("directory-snapshotter");
+        for (int dir = 0; dir < directoryCount; dir++) {
+            // A few levels of nesting, like a node_modules directory
+            Path directory = root.resolve("module" + dir % 10).resolve("lib" + dir % 100).resolve("dir" + dir);
+            Files.createDirectories(directory);
+            for (int file = 0; file < FILES_PER_DIRECTORY; file++) {
+                Files.write(directory.resolve("file" + file + ".js"), ("content of " + dir + "/" + file).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        pool = new DirectorySnapshotterPool(parallelism);
+        snapshotter = new DirectorySnapshotter(
+            new DefaultFileHasher(new DefaultStreamHasher()),
+            Interners.newStrongInterner(),
+            ImmutableList.of(),
+            new DirectorySnapshotterStatistics.Collector(),
+            pool
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.close();
+        FileUtils.forceDelete(root.toFile());
+    }
+
+    @Benchmark
+    public Object snapshot() {
+        return snapshotter.snapshot(root.toString(), null, snapshot -> {});
+    }
+}
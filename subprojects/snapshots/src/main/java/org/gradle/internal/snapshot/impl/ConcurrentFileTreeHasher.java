@@ -0,0 +1,296 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.hash.HashCode;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashes the regular files of a directory tree ahead of the walk done by {@link DirectorySnapshotter}.
+ *
+ * <p>
+ * Subdirectories are listed concurrently, and files are hashed in batches, on a fork-join pool with bounded parallelism.
+ * The walk itself stays sequential, so that the snapshots are built exactly as before, but finds the hashes already computed
+ * and reuses the directory listings instead of listing each directory again.
+ * Symbolic links are not followed, and files that cannot be listed or hashed are left for the walk to handle.
+ * </p>
+ */
+class ConcurrentFileTreeHasher {
+    private static final int FILES_PER_TASK = 32;
+
+    private final ForkJoinPool pool;
+    private final FileHasher hasher;
+    private final DirectorySnapshotter.DefaultExcludes defaultExcludes;
+
+    ConcurrentFileTreeHasher(ForkJoinPool pool, FileHasher hasher, DirectorySnapshotter.DefaultExcludes defaultExcludes) {
+        this.pool = pool;
+        this.hasher = hasher;
+        this.defaultExcludes = defaultExcludes;
+    }
+
+    /**
+     * Lists and hashes the files in the given directory tree.
+     */
+    HashedTree hashTree(Path root) {
+        Map<Path, DirectoryListing> listings = new ConcurrentHashMap<>();
+        Map<String, PrecomputedHash> hashes = new ConcurrentHashMap<>();
+        pool.invoke(new HashDirectory(root, listings, hashes));
+        return new HashedTree(listings, new PrecomputedFileHasher(hashes, hasher));
+    }
+
+    /**
+     * The listings and file hashes of a directory tree.
+     */
+    static class HashedTree {
+        private final Map<Path, DirectoryListing> listings;
+        private final FileHasher hasher;
+
+        private HashedTree(Map<Path, DirectoryListing> listings, FileHasher hasher) {
+            this.listings = listings;
+            this.hasher = hasher;
+        }
+
+        /**
+         * Returns a hasher that returns the computed hashes for files that did not change since, and delegates to the original hasher otherwise.
+         */
+        FileHasher getHasher() {
+            return hasher;
+        }
+
+        /**
+         * Walks the tree like {@link Files#walkFileTree(Path, FileVisitor)} does, using the existing listings.
+         * Directories that have not been listed ahead, like the default excluded ones, are listed while walking.
+         */
+        void walk(Path root, FileVisitor<Path> visitor) throws IOException {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                visitor.visitFileFailed(root, e);
+                return;
+            }
+            visit(root, attributes, visitor);
+        }
+
+        private FileVisitResult visit(Path path, BasicFileAttributes attributes, FileVisitor<Path> visitor) throws IOException {
+            if (!attributes.isDirectory()) {
+                return visitor.visitFile(path, attributes);
+            }
+            // Each directory is only walked once, so the listing can be dropped
+            DirectoryListing listing = listings.remove(path);
+            if (listing == null) {
+                try {
+                    listing = DirectoryListing.list(path);
+                } catch (IOException e) {
+                    return visitor.visitFileFailed(path, e);
+                }
+            }
+            FileVisitResult result = visitor.preVisitDirectory(path, attributes);
+            if (result != FileVisitResult.CONTINUE) {
+                return result == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : result;
+            }
+            for (DirectoryListing.Entry entry : listing.entries) {
+                FileVisitResult entryResult = entry.attributes != null
+                    ? visit(entry.path, entry.attributes, visitor)
+                    : visitor.visitFileFailed(entry.path, entry.failure);
+                if (entryResult == FileVisitResult.TERMINATE) {
+                    return entryResult;
+                } else if (entryResult == FileVisitResult.SKIP_SIBLINGS) {
+                    break;
+                }
+            }
+            return visitor.postVisitDirectory(path, listing.failure);
+        }
+    }
+
+    /**
+     * The entries of a directory with their attributes, in the order returned by the file system.
+     */
+    private static class DirectoryListing {
+        private final List<Entry> entries = new ArrayList<>();
+        @Nullable
+        private IOException failure;
+
+        /**
+         * @throws IOException when the directory cannot be opened. Failures while iterating are recorded in the listing, as the walk reports them after visiting the entries read so far.
+         */
+        static DirectoryListing list(Path directory) throws IOException {
+            DirectoryListing listing = new DirectoryListing();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    try {
+                        listing.entries.add(new Entry(entry, Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS), null));
+                    } catch (IOException e) {
+                        listing.entries.add(new Entry(entry, null, e));
+                    }
+                }
+            } catch (DirectoryIteratorException e) {
+                listing.failure = e.getCause();
+            }
+            return listing;
+        }
+
+        private static class Entry {
+            private final Path path;
+            @Nullable
+            private final BasicFileAttributes attributes;
+            @Nullable
+            private final IOException failure;
+
+            Entry(Path path, @Nullable BasicFileAttributes attributes, @Nullable IOException failure) {
+                this.path = path;
+                this.attributes = attributes;
+                this.failure = failure;
+            }
+        }
+    }
+
+    private class HashDirectory extends RecursiveAction {
+        private final Path directory;
+        private final Map<Path, DirectoryListing> listings;
+        private final Map<String, PrecomputedHash> hashes;
+
+        HashDirectory(Path directory, Map<Path, DirectoryListing> listings, Map<String, PrecomputedHash> hashes) {
+            this.directory = directory;
+            this.listings = listings;
+            this.hashes = hashes;
+        }
+
+        @Override
+        protected void compute() {
+            DirectoryListing listing;
+            try {
+                listing = DirectoryListing.list(directory);
+            } catch (IOException e) {
+                // Let the walk report the problem
+                return;
+            }
+            listings.put(directory, listing);
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            List<BasicFileAttributes> fileAttributes = new ArrayList<>();
+            for (DirectoryListing.Entry entry : listing.entries) {
+                BasicFileAttributes attributes = entry.attributes;
+                if (attributes == null) {
+                    continue;
+                }
+                String name = entry.path.getFileName().toString();
+                if (attributes.isDirectory()) {
+                    if (!defaultExcludes.excludeDir(name)) {
+                        subtasks.add(new HashDirectory(entry.path, listings, hashes));
+                    }
+                } else if (attributes.isRegularFile() && !defaultExcludes.excludeFile(name)) {
+                    files.add(entry.path);
+                    fileAttributes.add(attributes);
+                    if (files.size() == FILES_PER_TASK) {
+                        subtasks.add(new HashFiles(files, fileAttributes, hashes));
+                        files = new ArrayList<>();
+                        fileAttributes = new ArrayList<>();
+                    }
+                }
+            }
+            if (!files.isEmpty()) {
+                subtasks.add(new HashFiles(files, fileAttributes, hashes));
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    private class HashFiles extends RecursiveAction {
+        private final List<Path> files;
+        private final List<BasicFileAttributes> fileAttributes;
+        private final Map<String, PrecomputedHash> hashes;
+
+        HashFiles(List<Path> files, List<BasicFileAttributes> fileAttributes, Map<String, PrecomputedHash> hashes) {
+            this.files = files;
+            this.fileAttributes = fileAttributes;
+            this.hashes = hashes;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                BasicFileAttributes attributes = fileAttributes.get(i);
+                long length = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                HashCode hash;
+                try {
+                    hash = hasher.hash(file.toFile(), length, lastModified);
+                } catch (RuntimeException e) {
+                    // Let the walk report the problem
+                    continue;
+                }
+                hashes.put(file.toString(), new PrecomputedHash(length, lastModified, hash));
+            }
+        }
+    }
+
+    private static class PrecomputedHash {
+        private final long length;
+        private final long lastModified;
+        private final HashCode hash;
+
+        PrecomputedHash(long length, long lastModified, HashCode hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private static class PrecomputedFileHasher implements FileHasher {
+        private final Map<String, PrecomputedHash> hashes;
+        private final FileHasher delegate;
+
+        PrecomputedFileHasher(Map<String, PrecomputedHash> hashes, FileHasher delegate) {
+            this.hashes = hashes;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HashCode hash(File file) {
+            return delegate.hash(file);
+        }
+
+        @Override
+        public HashCode hash(File file, long length, long lastModified) {
+            PrecomputedHash precomputed = hashes.get(file.getPath());
+            if (precomputed != null && precomputed.length == length && precomputed.lastModified == lastModified) {
+                return precomputed.hash;
+            }
+            return delegate.hash(file, length, lastModified);
+        }
+    }
+}
@@ -54,6 +54,7 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -64,6 +65,11 @@
  * For creating {@link DirectorySnapshot}s of directories.
  */
 public class DirectorySnapshotter {
+    /**
+     * The number of threads used to hash the files of a directory tree before walking it, or 1 to hash the files while walking the tree.
+     */
+    public static final String PARALLELISM_SYSTEM_PROPERTY = "org.gradle.unsafe.vfs.snapshot-parallelism";
+
     private static final EnumSet<FileVisitOption> DONT_FOLLOW_SYMLINKS = EnumSet.noneOf(FileVisitOption.class);
     private static final SymbolicLinkMapping EMPTY_SYMBOLIC_LINK_MAPPING = new SymbolicLinkMapping() {
 
@@ -87,12 +93,26 @@ public Iterable<String> getRemappedSegments(Iterable<String> segments) {
     private final Interner<String> stringInterner;
     private final DefaultExcludes defaultExcludes;
     private final DirectorySnapshotterStatistics.Collector collector;
+    @Nullable
+    private final ConcurrentFileTreeHasher concurrentHasher;
 
     public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector) {
+        this(hasher, stringInterner, defaultExcludes, collector, DirectorySnapshotterPool.SEQUENTIAL);
+    }
+
+    public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector, DirectorySnapshotterPool pool) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
         this.collector = collector;
+        ForkJoinPool forkJoinPool = pool.getForkJoinPool();
+        this.concurrentHasher = forkJoinPool != null
+            ? new ConcurrentFileTreeHasher(forkJoinPool, hasher, this.defaultExcludes)
+            : null;
+    }
+
+    public static int configuredParallelism() {
+        return Math.max(1, Integer.getInteger(PARALLELISM_SYSTEM_PROPERTY, 1));
     }
 
     /**
@@ -101,6 +121,9 @@ public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner,
      * Follows symlinks and includes them in the returned snapshot.
      * Snapshots of followed symlinks are marked with {@link AccessType#VIA_SYMLINK}.
      *
+     * When configured with a concurrent {@link DirectorySnapshotterPool} and no predicate is given, the directory is listed and its files are hashed concurrently
+     * before the directory is walked.
+     *
      * @param absolutePath The absolute path of the directory to snapshot.
      * @param predicate A predicate that determines which files to include in the snapshot.
      *                  {@code null} means to include everything.
@@ -115,8 +138,16 @@ public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable Snapsh
         try {
             AtomicBoolean hasBeenFiltered = new AtomicBoolean();
             Path rootPath = Paths.get(absolutePath);
-            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING, unfilteredSnapshotConsumer);
-            Files.walkFileTree(rootPath, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
+            PathVisitor visitor;
+            // With a predicate only part of the tree may be visited, so hashing all files ahead of the walk could do a lot of unnecessary work
+            if (concurrentHasher != null && predicate == null) {
+                ConcurrentFileTreeHasher.HashedTree hashedTree = concurrentHasher.hashTree(rootPath);
+                visitor = new PathVisitor(null, hasBeenFiltered, hashedTree.getHasher(), stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING, unfilteredSnapshotConsumer);
+                hashedTree.walk(rootPath, visitor);
+            } else {
+                visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING, unfilteredSnapshotConsumer);
+                Files.walkFileTree(rootPath, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
+            }
             FileSystemLocationSnapshot result = visitor.getResult();
             if (!hasBeenFiltered.get()) {
                 unfilteredSnapshotConsumer.accept(result);
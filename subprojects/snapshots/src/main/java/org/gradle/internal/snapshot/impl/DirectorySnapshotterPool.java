@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The threads that {@link DirectorySnapshotter}s use to list and hash directory trees concurrently.
+ *
+ * <p>
+ * One pool is meant to be shared by all the snapshotters of a process, including the ones replacing each other when the default excludes change.
+ * The threads are stopped when the pool is closed.
+ * </p>
+ */
+public class DirectorySnapshotterPool implements Closeable {
+    /**
+     * Snapshotters without a pool walk directory trees on the calling thread only.
+     */
+    public static final DirectorySnapshotterPool SEQUENTIAL = new DirectorySnapshotterPool(1);
+
+    @Nullable
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * @param parallelism the number of threads, or 1 for no concurrency.
+     */
+    public DirectorySnapshotterPool(int parallelism) {
+        this.forkJoinPool = parallelism > 1
+            ? new ForkJoinPool(parallelism, DirectorySnapshotterPool::newWorkerThread, null, false)
+            : null;
+    }
+
+    /**
+     * Creates a pool with the parallelism configured by {@value DirectorySnapshotter#PARALLELISM_SYSTEM_PROPERTY}.
+     */
+    public static DirectorySnapshotterPool configured() {
+        return new DirectorySnapshotterPool(DirectorySnapshotter.configuredParallelism());
+    }
+
+    private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Directory snapshotter worker " + thread.getPoolIndex());
+        return thread;
+    }
+
+    @Nullable
+    ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    @Override
+    public void close() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+        }
+    }
+}
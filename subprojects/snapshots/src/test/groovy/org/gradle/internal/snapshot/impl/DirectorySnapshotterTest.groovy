@@ -22,6 +22,7 @@ import org.gradle.api.internal.file.TestFiles
 import org.gradle.api.tasks.util.PatternSet
 import org.gradle.internal.file.FileMetadata.AccessType
 import org.gradle.internal.fingerprint.impl.PatternSetSnapshottingFilter
+import org.gradle.internal.hash.HashCode
 import org.gradle.internal.hash.TestFileHasher
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
@@ -39,6 +40,8 @@ import spock.lang.Issue
 import spock.lang.Specification
 
 import java.nio.file.Paths
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 
 @UsesNativeServices
@@ -457,6 +460,78 @@ class DirectorySnapshotterTest extends Specification {
         pipe.delete()
     }
 
+    def "concurrent snapshotting produces the same snapshot as sequential snapshotting"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        (0..<10).each { dir ->
+            (0..<50).each {
+                rootDir.file("dir${dir}/sub${it % 3}/file${it}.txt").text = "content ${dir} ${it}"
+            }
+        }
+        rootDir.file("dir1/.git/config").text = "excluded"
+        rootDir.file("dir2/empty").createDir()
+        def hashedFiles = new ConcurrentLinkedQueue<File>()
+        def countingHasher = new TestFileHasher() {
+            @Override
+            HashCode hash(File file) {
+                hashedFiles << file
+                return super.hash(file)
+            }
+        }
+        def defaultExcludes = DirectoryScanner.getDefaultExcludes() as List
+        def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), defaultExcludes, statisticsCollector)
+        def pool = new DirectorySnapshotterPool(4)
+        def concurrentSnapshotter = new DirectorySnapshotter(countingHasher, new StringInterner(), defaultExcludes, statisticsCollector, pool)
+
+        when:
+        def expected = sequentialSnapshotter.snapshot(rootDir.absolutePath, null, {})
+        def snapshot = concurrentSnapshotter.snapshot(rootDir.absolutePath, null, unfilteredSubSnapshotsCollector)
+
+        then:
+        snapshot.hash == expected.hash
+        SnapshotVisitorUtil.getRelativePaths(snapshot, true) == SnapshotVisitorUtil.getRelativePaths(expected, true)
+        SnapshotVisitorUtil.getAbsolutePaths(snapshot, true) == SnapshotVisitorUtil.getAbsolutePaths(expected, true)
+        unfilteredSubsnapshots == [snapshot]
+        hashedFiles.size() == 500
+        hashedFiles.toSet().size() == 500
+
+        when:
+        pool.close()
+
+        then:
+        pool.forkJoinPool.awaitTermination(10, TimeUnit.SECONDS)
+    }
+
+    @Requires(UnitTestPreconditions.Symlinks)
+    def "concurrent snapshotting follows symlinks like sequential snapshotting"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        def linkTarget = tmpDir.createDir("linkTarget")
+        linkTarget.file("linked/file.txt").text = "linked"
+        rootDir.file("dir/file.txt").text = "file"
+        rootDir.file("dir/linkedDir").createLink(linkTarget)
+        rootDir.file("dir/linkedFile").createLink(linkTarget.file("linked/file.txt"))
+        rootDir.file("dir/brokenLink").createLink("missing")
+        rootDir.file("dir/cycle").createLink(rootDir.file("dir"))
+        def defaultExcludes = DirectoryScanner.getDefaultExcludes() as List
+        def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), defaultExcludes, statisticsCollector)
+        def pool = new DirectorySnapshotterPool(4)
+        def concurrentSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), defaultExcludes, statisticsCollector, pool)
+
+        when:
+        def expected = sequentialSnapshotter.snapshot(rootDir.absolutePath, null, {})
+        def snapshot = concurrentSnapshotter.snapshot(rootDir.absolutePath, null, unfilteredSubSnapshotsCollector)
+
+        then:
+        snapshot.hash == expected.hash
+        SnapshotVisitorUtil.getRelativePaths(snapshot, true) == SnapshotVisitorUtil.getRelativePaths(expected, true)
+        SnapshotVisitorUtil.getAbsolutePaths(snapshot, true) == SnapshotVisitorUtil.getAbsolutePaths(expected, true)
+        unfilteredSubsnapshots == [snapshot]
+
+        cleanup:
+        pool?.close()
+    }
+
     def "default excludes are correctly parsed"() {
         def defaultExcludes = new DirectorySnapshotter.DefaultExcludes(DirectoryScanner.getDefaultExcludes() as List)
 
@@ -27,6 +27,7 @@ import org.gradle.internal.hash.HashCode
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
 import org.gradle.internal.snapshot.SnapshottingFilter
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterPool
 import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics
 import org.gradle.internal.vfs.FileSystemAccess
 import org.gradle.test.fixtures.file.CleanupTestDirectory
@@ -53,7 +54,8 @@ abstract class AbstractFileSystemAccessTest extends Specification {
         stat,
         TestFiles.virtualFileSystem(),
         updateListener,
-        statisticsCollector
+        statisticsCollector,
+        DirectorySnapshotterPool.SEQUENTIAL
     )
 
     void allowFileSystemAccess(boolean allow) {
@@ -6,6 +6,7 @@ description = "Infrastructure for starting and managing worker processes"
 
 dependencies {
     implementation(project(":base-services"))
+    implementation(project(":build-option"))
     implementation(project(":messaging"))
     implementation(project(":logging"))
     implementation(project(":process-services"))
@@ -37,8 +37,11 @@
 import org.gradle.util.internal.CollectionUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import static java.util.Comparator.*;
 
@@ -49,6 +52,9 @@ public class WorkerDaemonClientsManager implements Stoppable {
     private final Object lock = new Object();
     private final List<WorkerDaemonClient> allClients = new ArrayList<WorkerDaemonClient>();
     private final List<WorkerDaemonClient> idleClients = new ArrayList<WorkerDaemonClient>();
+    // Ordered by last use, most recently used last. Clients are compared by identity.
+    private final Set<WorkerDaemonClient> clientsUsedInSession = new LinkedHashSet<>();
+    private List<DaemonForkOptions> forkOptionsUsedInPreviousSession = new ArrayList<DaemonForkOptions>();
     private final Action<WorkerProcess> workerProcessCleanupAction = new WorkerProcessCleanupAction();
 
     private final WorkerDaemonStarter workerDaemonStarter;
@@ -59,6 +65,7 @@ public class WorkerDaemonClientsManager implements Stoppable {
     private final OutputEventListener logLevelChangeEventListener;
     private final WorkerDaemonExpiration workerDaemonExpiration;
     private final MemoryManager memoryManager;
+    private final long totalPhysicalMemory;
     private volatile LogLevel currentLogLevel;
 
     public WorkerDaemonClientsManager(WorkerDaemonStarter workerDaemonStarter, ListenerManager listenerManager, LoggingManagerInternal loggingManager, MemoryManager memoryManager, OsMemoryInfo memoryInfo) {
@@ -72,13 +79,20 @@ public WorkerDaemonClientsManager(WorkerDaemonStarter workerDaemonStarter, Liste
         loggingManager.addOutputEventListener(logLevelChangeEventListener);
         this.currentLogLevel = loggingManager.getLevel();
         this.memoryManager = memoryManager;
-        this.workerDaemonExpiration = new WorkerDaemonExpiration(this, getTotalPhysicalMemory());
+        this.totalPhysicalMemory = getTotalPhysicalMemory();
+        this.workerDaemonExpiration = new WorkerDaemonExpiration(this, totalPhysicalMemory);
         memoryManager.addMemoryHolder(workerDaemonExpiration);
     }
 
     // TODO - should supply and check for the same parameters as passed to reserveNewClient()
     public WorkerDaemonClient reserveIdleClient(DaemonForkOptions forkOptions) {
-        return reserveIdleClient(forkOptions, idleClients);
+        synchronized (lock) {
+            WorkerDaemonClient client = reserveIdleClient(forkOptions, idleClients);
+            if (client != null) {
+                markUsedInSession(client);
+            }
+            return client;
+        }
     }
 
     WorkerDaemonClient reserveIdleClient(DaemonForkOptions forkOptions, List<WorkerDaemonClient> clients) {
@@ -106,10 +120,65 @@ public WorkerDaemonClient reserveNewClient(DaemonForkOptions forkOptions) {
         WorkerDaemonClient client = workerDaemonStarter.startDaemon(forkOptions, workerProcessCleanupAction);
         synchronized (lock) {
             allClients.add(client);
+            markUsedInSession(client);
         }
         return client;
     }
 
+    /**
+     * Starts idle worker daemons for the fork options used in the previous build session, so that they are ready when the current session needs them.
+     * Idle daemons that are compatible with some of these options are reused rather than started again.
+     * A daemon is only started when the system has enough free memory for it, and it can be expired like any other idle daemon if memory runs low.
+     *
+     * @param maxDaemons the maximum number of daemons to have ready, including the compatible idle daemons. The options used most recently are preferred.
+     */
+    public void prewarm(int maxDaemons) {
+        List<DaemonForkOptions> forkOptionsToStart;
+        synchronized (lock) {
+            forkOptionsToStart = getForkOptionsWithoutIdleClient(maxDaemons);
+        }
+        for (DaemonForkOptions forkOptions : forkOptionsToStart) {
+            if (!memoryManager.isFreeMemoryAvailable(WorkerDaemonExpiration.getMaxHeapSize(forkOptions, totalPhysicalMemory))) {
+                LOGGER.info("Not enough free memory to start more worker daemons ahead of time.");
+                return;
+            }
+            //allow the daemon to be started concurrently
+            WorkerDaemonClient client = workerDaemonStarter.startDaemon(forkOptions, workerProcessCleanupAction);
+            synchronized (lock) {
+                allClients.add(client);
+                idleClients.add(client);
+            }
+        }
+    }
+
+    private void markUsedInSession(WorkerDaemonClient client) {
+        clientsUsedInSession.remove(client);
+        clientsUsedInSession.add(client);
+    }
+
+    private List<DaemonForkOptions> getForkOptionsWithoutIdleClient(int maxDaemons) {
+        List<WorkerDaemonClient> candidates = new ArrayList<WorkerDaemonClient>(idleClients);
+        List<DaemonForkOptions> forkOptionsToStart = new ArrayList<DaemonForkOptions>();
+        for (DaemonForkOptions forkOptions : forkOptionsUsedInPreviousSession.subList(0, Math.min(maxDaemons, forkOptionsUsedInPreviousSession.size()))) {
+            if (!removeCompatibleClient(forkOptions, candidates)) {
+                forkOptionsToStart.add(forkOptions);
+            }
+        }
+        return forkOptionsToStart;
+    }
+
+    private boolean removeCompatibleClient(DaemonForkOptions forkOptions, List<WorkerDaemonClient> candidates) {
+        Iterator<WorkerDaemonClient> it = candidates.iterator();
+        while (it.hasNext()) {
+            WorkerDaemonClient candidate = it.next();
+            if (candidate.isCompatibleWith(forkOptions) && candidate.getLogLevel() == currentLogLevel) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void release(WorkerDaemonClient client) {
         synchronized (lock) {
             if (!client.isFailed()) {
@@ -124,6 +193,7 @@ public void stop() {
             stopWorkers(allClients);
             allClients.clear();
             idleClients.clear();
+            clientsUsedInSession.clear();
             listenerManager.removeListener(stopSessionScopeWorkers);
             memoryManager.removeMemoryHolder(workerDaemonExpiration);
         }
@@ -184,6 +254,9 @@ private class StopSessionScopedWorkers implements BuildSessionLifecycleListener
         @Override
         public void beforeComplete() {
             synchronized (lock) {
+                forkOptionsUsedInPreviousSession = CollectionUtils.collect(clientsUsedInSession, new ArrayList<>(), WorkerDaemonClient::getForkOptions);
+                Collections.reverse(forkOptionsUsedInPreviousSession);
+                clientsUsedInSession.clear();
                 List<WorkerDaemonClient> sessionScopedClients = CollectionUtils.filter(allClients, client -> client.getKeepAliveMode() == KeepAliveMode.SESSION);
                 stopWorkers(sessionScopedClients);
             }
@@ -106,21 +106,28 @@ private long getMemoryUsage(WorkerDaemonClient idleClient) {
 
             // if the worker has not reported memory usage yet for some reason, or does not support it,
             // use the max heap as an approximation
-            String forkOptionsMaxHeapSize = idleClient.getForkOptions().getJavaForkOptions().getMaxHeapSize();
-            long parsed = MemoryAmount.parseNotation(forkOptionsMaxHeapSize);
-            if (parsed != -1) {
-                // From fork options
-                return parsed;
-            }
+            return getMaxHeapSize(idleClient.getForkOptions(), osTotalMemory);
+        }
+    }
 
-            // If we don't know what the max heap is, approximate it based on OS total memory
-            // according to JVM documentation
-            if (osTotalMemory != -1) {
-                return new MaximumHeapHelper().getDefaultMaximumHeapSize(osTotalMemory);
-            }
+    /**
+     * Returns the maximum heap size of a worker daemon started with the given options, or 0 when it is not known.
+     */
+    static long getMaxHeapSize(DaemonForkOptions forkOptions, long osTotalMemory) {
+        String forkOptionsMaxHeapSize = forkOptions.getJavaForkOptions().getMaxHeapSize();
+        long parsed = MemoryAmount.parseNotation(forkOptionsMaxHeapSize);
+        if (parsed != -1) {
+            // From fork options
+            return parsed;
+        }
 
-            // If we get here, we have no idea how much memory the worker is using
-            return 0;
+        // If we don't know what the max heap is, approximate it based on OS total memory
+        // according to JVM documentation
+        if (osTotalMemory != -1) {
+            return new MaximumHeapHelper().getDefaultMaximumHeapSize(osTotalMemory);
         }
+
+        // If we get here, we have no idea how much memory the worker is using
+        return 0;
     }
 }
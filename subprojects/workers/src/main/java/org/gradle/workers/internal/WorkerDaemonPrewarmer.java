@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.workers.internal;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.buildoption.IntegerInternalOption;
+import org.gradle.internal.buildoption.InternalOptions;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+
+/**
+ * Starts the worker daemons that the previous build session used in the background while the root build is configured.
+ * Disabled unless {@link #PREWARMED_DAEMONS} is set to the maximum number of worker daemons to start.
+ * The daemons for the fork options used most recently are started first.
+ */
+public class WorkerDaemonPrewarmer implements RootBuildLifecycleListener {
+    public static final IntegerInternalOption PREWARMED_DAEMONS = new IntegerInternalOption("org.gradle.workers.internal.prewarmed-daemons", 0);
+    private static final Logger LOGGER = Logging.getLogger(WorkerDaemonPrewarmer.class);
+
+    private final WorkerDaemonClientsManager clientsManager;
+    private final ExecutorFactory executorFactory;
+    private final InternalOptions internalOptions;
+    private ManagedExecutor executor;
+
+    public WorkerDaemonPrewarmer(WorkerDaemonClientsManager clientsManager, ExecutorFactory executorFactory, InternalOptions internalOptions) {
+        this.clientsManager = clientsManager;
+        this.executorFactory = executorFactory;
+        this.internalOptions = internalOptions;
+    }
+
+    @Override
+    public void afterStart() {
+        int maxDaemons = internalOptions.getOption(PREWARMED_DAEMONS).get();
+        if (maxDaemons <= 0) {
+            return;
+        }
+        executor = executorFactory.create("Worker daemon pre-warming");
+        executor.execute(() -> {
+            try {
+                clientsManager.prewarm(maxDaemons);
+            } catch (Exception e) {
+                // The daemons will be started when they are needed instead
+                LOGGER.info("Could not start worker daemons ahead of time.", e);
+            }
+        });
+    }
+
+    @Override
+    public void beforeComplete() {
+        if (executor != null) {
+            executor.stop();
+            executor = null;
+        }
+    }
+}
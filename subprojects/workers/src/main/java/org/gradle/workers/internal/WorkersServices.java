@@ -16,11 +16,13 @@
 
 package org.gradle.workers.internal;
 
+import org.gradle.StartParameter;
 import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.internal.ClassPathRegistry;
 import org.gradle.concurrent.ParallelismConfiguration;
 import org.gradle.initialization.ClassLoaderRegistry;
 import org.gradle.initialization.GradleUserHomeDirProvider;
+import org.gradle.internal.buildoption.DefaultInternalOptions;
 import org.gradle.internal.classpath.CachedClasspathTransformer;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.event.ListenerManager;
@@ -75,6 +77,10 @@ ConditionalExecutionQueueFactory createConditionalExecutionQueueFactory(Executor
         WorkerExecutionQueueFactory createWorkerExecutionQueueFactory(ConditionalExecutionQueueFactory conditionalExecutionQueueFactory) {
             return new WorkerExecutionQueueFactory(conditionalExecutionQueueFactory);
         }
+
+        WorkerDaemonPrewarmer createWorkerDaemonPrewarmer(WorkerDaemonClientsManager workerDaemonClientsManager, ExecutorFactory executorFactory, StartParameter startParameter) {
+            return new WorkerDaemonPrewarmer(workerDaemonClientsManager, executorFactory, new DefaultInternalOptions(startParameter.getSystemPropertiesArgs()));
+        }
     }
 
     private static class GradleUserHomeServices {
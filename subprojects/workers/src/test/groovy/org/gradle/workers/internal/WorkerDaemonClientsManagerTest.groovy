@@ -304,4 +304,141 @@ class WorkerDaemonClientsManagerTest extends ConcurrentSpecification {
         then:
         1 * memoryManager.removeMemoryHolder(_) >> { args -> assert args[0] == workerDaemonExpiration }
     }
+
+    def "pre-warms worker daemons for the fork options used in the previous session"() {
+        def otherOptions = Stub(DaemonForkOptions)
+        def starter = Mock(WorkerDaemonStarter)
+        listenerManager = new DefaultListenerManager(Scopes.BuildSession)
+        manager = new WorkerDaemonClientsManager(starter, listenerManager, loggingManager, memoryManager, new MBeanOsMemoryInfo())
+        def client1 = sessionClient(options)
+        def client2 = sessionClient(otherOptions)
+        def prewarmed1 = sessionClient(options)
+        def prewarmed2 = sessionClient(otherOptions)
+
+        when:
+        manager.reserveNewClient(options)
+        manager.reserveNewClient(otherOptions)
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+
+        then:
+        1 * starter.startDaemon(options, _) >> client1
+        1 * starter.startDaemon(otherOptions, _) >> client2
+
+        when:
+        manager.prewarm(4)
+
+        then:
+        2 * memoryManager.isFreeMemoryAvailable(_) >> true
+        1 * starter.startDaemon(options, _) >> prewarmed1
+        1 * starter.startDaemon(otherOptions, _) >> prewarmed2
+
+        and:
+        manager.reserveIdleClient(options) == prewarmed1
+        manager.reserveIdleClient(otherOptions) == prewarmed2
+    }
+
+    def "pre-warming reuses compatible idle worker daemons"() {
+        def starter = Mock(WorkerDaemonStarter)
+        listenerManager = new DefaultListenerManager(Scopes.BuildSession)
+        manager = new WorkerDaemonClientsManager(starter, listenerManager, loggingManager, memoryManager, new MBeanOsMemoryInfo())
+        def client = Mock(WorkerDaemonClient) {
+            getForkOptions() >> options
+            getKeepAliveMode() >> KeepAliveMode.DAEMON
+            isCompatibleWith(options) >> true
+        }
+
+        when:
+        manager.reserveNewClient(options)
+        manager.release(client)
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+        manager.prewarm(4)
+
+        then:
+        1 * starter.startDaemon(options, _) >> client
+        0 * memoryManager.isFreeMemoryAvailable(_)
+        0 * client.stop()
+    }
+
+    def "pre-warms at most the requested number of worker daemons"() {
+        def starter = Mock(WorkerDaemonStarter)
+        listenerManager = new DefaultListenerManager(Scopes.BuildSession)
+        manager = new WorkerDaemonClientsManager(starter, listenerManager, loggingManager, memoryManager, new MBeanOsMemoryInfo())
+        starter.startDaemon(options, _) >> { sessionClient(options) }
+
+        when:
+        3.times { manager.reserveNewClient(options) }
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+        manager.prewarm(2)
+
+        then:
+        _ * memoryManager.isFreeMemoryAvailable(_) >> true
+        manager.idleClients.size() == 2
+    }
+
+    def "pre-warms worker daemons for the most recently used fork options first"() {
+        def secondOptions = Stub(DaemonForkOptions)
+        def thirdOptions = Stub(DaemonForkOptions)
+        def starter = Mock(WorkerDaemonStarter)
+        listenerManager = new DefaultListenerManager(Scopes.BuildSession)
+        manager = new WorkerDaemonClientsManager(starter, listenerManager, loggingManager, memoryManager, new MBeanOsMemoryInfo())
+        def client = sessionClient(options)
+        starter.startDaemon(options, _) >> client
+        starter.startDaemon(secondOptions, _) >> { sessionClient(secondOptions) }
+        starter.startDaemon(thirdOptions, _) >> { sessionClient(thirdOptions) }
+
+        when:
+        manager.reserveNewClient(options)
+        manager.reserveNewClient(secondOptions)
+        manager.reserveNewClient(thirdOptions)
+        manager.release(client)
+        manager.reserveIdleClient(options)
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+        manager.prewarm(2)
+
+        then:
+        _ * memoryManager.isFreeMemoryAvailable(_) >> true
+        manager.idleClients*.forkOptions == [options, thirdOptions]
+    }
+
+    def "does not pre-warm worker daemons when there is not enough free memory"() {
+        def starter = Mock(WorkerDaemonStarter)
+        listenerManager = new DefaultListenerManager(Scopes.BuildSession)
+        manager = new WorkerDaemonClientsManager(starter, listenerManager, loggingManager, memoryManager, new MBeanOsMemoryInfo())
+
+        when:
+        manager.reserveNewClient(options)
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+
+        then:
+        1 * starter.startDaemon(options, _) >> sessionClient(options)
+
+        when:
+        manager.prewarm(4)
+
+        then:
+        1 * memoryManager.isFreeMemoryAvailable(_) >> false
+        0 * starter.startDaemon(_, _)
+        manager.idleClients.empty
+    }
+
+    def "does not pre-warm worker daemons when the previous session did not use any"() {
+        def starter = Mock(WorkerDaemonStarter)
+        listenerManager = new DefaultListenerManager(Scopes.BuildSession)
+        manager = new WorkerDaemonClientsManager(starter, listenerManager, loggingManager, memoryManager, new MBeanOsMemoryInfo())
+
+        when:
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+        manager.prewarm(4)
+
+        then:
+        0 * starter.startDaemon(_, _)
+    }
+
+    private WorkerDaemonClient sessionClient(DaemonForkOptions forkOptions) {
+        return Stub(WorkerDaemonClient) {
+            getForkOptions() >> forkOptions
+            getKeepAliveMode() >> KeepAliveMode.SESSION
+            isCompatibleWith(forkOptions) >> true
+        }
+    }
 }